@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.benchmark;
+
+import edu.tufts.eaftan.hprofparser.benchmark.ParserBenchmark.RecordType;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.writer.HprofWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes heap dumps made up almost entirely of one type of record, for the benchmarks.
+ */
+final class BenchmarkDumps {
+
+  // HotSpot starts a new heap dump segment about every megabyte
+  private static final int SEGMENT_SIZE = 1 << 20;
+
+  private static final int NUM_INSTANCE_CLASSES = 16;
+  private static final int ARRAY_LENGTH = 64;
+  private static final Type[] PRIM_ARRAY_TYPES = {
+      Type.BOOL, Type.CHAR, Type.FLOAT, Type.DOUBLE, Type.BYTE, Type.SHORT, Type.INT, Type.LONG};
+
+  private static final Type[] FIELD_MIX = {Type.OBJ, Type.INT, Type.LONG, Type.BOOL};
+
+  private final HprofWriter writer;
+
+  private BenchmarkDumps(HprofWriter writer) {
+    this.writer = writer;
+  }
+
+  /**
+   * Writes a dump holding {@code numRecords} records of the given type, plus whatever strings,
+   * classes and class dumps they refer to.
+   */
+  static void write(File file, RecordType recordType, int idSize, int numRecords)
+      throws IOException {
+    try (HprofWriter writer = new HprofWriter(file, idSize, 0)) {
+      writer.setSegmentSize(SEGMENT_SIZE);
+      new BenchmarkDumps(writer).writeDump(recordType, numRecords);
+    }
+  }
+
+  private void writeDump(RecordType recordType, int numRecords) throws IOException {
+    switch (recordType) {
+      case STRING:
+        for (int i = 0; i < numRecords; i++) {
+          writer.writeStringInUTF8(1 + i, "string-" + i);
+        }
+        break;
+
+      case CLASS_DUMP:
+        writeClasses(numRecords);
+        writer.startHeapDump(true);
+        for (int i = 0; i < numRecords; i++) {
+          writeClassDump(classId(i), 0, FIELD_MIX);
+        }
+        writer.endHeapDump();
+        break;
+
+      case INSTANCE_DUMP:
+        // each class has a superclass with two object fields
+        writeClasses(2 * NUM_INSTANCE_CLASSES);
+        writer.startHeapDump(true);
+        for (int i = 0; i < NUM_INSTANCE_CLASSES; i++) {
+          writeClassDump(classId(NUM_INSTANCE_CLASSES + i), 0, Type.OBJ, Type.OBJ);
+          writeClassDump(classId(i), classId(NUM_INSTANCE_CLASSES + i), FIELD_MIX);
+        }
+        ByteBuffer packed = ByteBuffer.allocate(3 * writer.idSize() + 4 + 8 + 1);
+        for (int i = 0; i < numRecords; i++) {
+          packed.clear();
+          putId(packed, objId(i + 1));
+          packed.putInt(i);
+          packed.putLong(i);
+          packed.put((byte) 1);
+          putId(packed, 0);
+          putId(packed, objId(i / 2));
+          packed.flip();
+          writer.writeInstanceDump(objId(i), 0, classId(i % NUM_INSTANCE_CLASSES), packed);
+        }
+        writer.endHeapDump();
+        break;
+
+      case OBJ_ARRAY:
+        writeClasses(1);
+        writer.startHeapDump(true);
+        writeClassDump(classId(0), 0);
+        long[] elems = new long[ARRAY_LENGTH];
+        for (int i = 0; i < numRecords; i++) {
+          for (int j = 0; j < ARRAY_LENGTH; j++) {
+            elems[j] = objId(i + j);
+          }
+          writer.writeObjArrayDump(objId(i), 0, classId(0), elems, ARRAY_LENGTH);
+        }
+        writer.endHeapDump();
+        break;
+
+      case PRIM_ARRAY:
+        writer.startHeapDump(true);
+        byte[] bytes = new byte[ARRAY_LENGTH * 8];
+        for (int j = 0; j < bytes.length; j++) {
+          bytes[j] = (byte) (j & 1);
+        }
+        for (int i = 0; i < numRecords; i++) {
+          Type type = PRIM_ARRAY_TYPES[i % PRIM_ARRAY_TYPES.length];
+          writer.writePrimArrayDump(objId(i), 0, type,
+              ByteBuffer.wrap(bytes, 0, ARRAY_LENGTH * type.sizeInBytes()));
+        }
+        writer.endHeapDump();
+        break;
+    }
+  }
+
+  private static long classId(int i) {
+    return 0x1000 + 16L * i;
+  }
+
+  private static long objId(int i) {
+    return 0x10000000L + 16L * i;
+  }
+
+  private void putId(ByteBuffer buffer, long id) {
+    if (writer.idSize() == 4) {
+      buffer.putInt((int) id);
+    } else {
+      buffer.putLong(id);
+    }
+  }
+
+  /** Writes a class name string and a load class record for each of the first n classes. */
+  private void writeClasses(int n) throws IOException {
+    for (int i = 0; i < n; i++) {
+      writer.writeStringInUTF8(1 + i, "Class" + i);
+      writer.writeLoadClass(1 + i, classId(i), 0, 1 + i);
+    }
+  }
+
+  /**
+   * Writes a class dump with one static int field and instance fields of the given types.
+   */
+  private void writeClassDump(long classObjId, long superClassObjId, Type... fieldTypes)
+      throws IOException {
+    InstanceField[] fields = new InstanceField[fieldTypes.length];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = new InstanceField(1, fieldTypes[i]);
+    }
+    writer.writeClassDump(classObjId, 0, superClassObjId, 0, 0, 0, fieldTypes.length * 8,
+        new Constant[0], new Static[] {new Static(1, new Value<>(Type.INT, 42))}, fields);
+  }
+
+}
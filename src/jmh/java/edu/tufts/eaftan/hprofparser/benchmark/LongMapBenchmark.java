@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.benchmark;
+
+import edu.tufts.eaftan.hprofparser.util.LongLongMap;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@code HashMap<Long, ...>} with the primitive maps on keys shaped like object ids.
+ * The {@code build} benchmarks fill a map that was sized up front, so with {@code -prof gc},
+ * {@code gc.alloc.rate.norm} divided by the number of keys is the memory each mapping costs; the
+ * object maps all map to one shared value, so that only the cost of the map itself is counted.
+ * The {@code get} benchmarks look up keys that are in the map in random order, and report lookups
+ * per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LongMapBenchmark {
+
+  static final int NUM_LOOKUPS = 1 << 20;
+  static final Object VALUE = new Object();
+
+  @Param({"100000", "10000000"})
+  public int numKeys;
+
+  private long[] keys;
+  private long[] lookups;
+  private HashMap<Long, Object> hashMap;
+  private LongObjectMap<Object> longObjectMap;
+  private LongLongMap longLongMap;
+  private LongLongMap offHeapLongLongMap;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // 8-byte aligned, increasing ids with gaps, like the objects of a heap dump
+    Random random = new Random(0);
+    keys = new long[numKeys];
+    long id = 0x7f0000000L;
+    for (int i = 0; i < numKeys; i++) {
+      id += 8 * (2 + random.nextInt(8));
+      keys[i] = id;
+    }
+    lookups = new long[NUM_LOOKUPS];
+    for (int i = 0; i < NUM_LOOKUPS; i++) {
+      lookups[i] = keys[random.nextInt(numKeys)];
+    }
+    hashMap = buildHashMap();
+    longObjectMap = buildLongObjectMap();
+    longLongMap = buildLongLongMap();
+    offHeapLongLongMap = buildOffHeapLongLongMap();
+  }
+
+  @Benchmark
+  public HashMap<Long, Object> buildHashMap() {
+    HashMap<Long, Object> map = new HashMap<>((int) (numKeys / 0.75f) + 1);
+    for (long key : keys) {
+      map.put(key, VALUE);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public LongObjectMap<Object> buildLongObjectMap() {
+    LongObjectMap<Object> map = new LongObjectMap<>(numKeys);
+    for (long key : keys) {
+      map.put(key, VALUE);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public LongLongMap buildLongLongMap() {
+    LongLongMap map = LongLongMap.onHeap(numKeys, -1);
+    for (long key : keys) {
+      map.put(key, key);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public LongLongMap buildOffHeapLongLongMap() {
+    LongLongMap map = LongLongMap.offHeap(numKeys, -1);
+    for (long key : keys) {
+      map.put(key, key);
+    }
+    return map;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public int getHashMap() {
+    int found = 0;
+    for (long key : lookups) {
+      found += hashMap.get(key) != null ? 1 : 0;
+    }
+    return found;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public int getLongObjectMap() {
+    int found = 0;
+    for (long key : lookups) {
+      found += longObjectMap.get(key) != null ? 1 : 0;
+    }
+    return found;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public long getLongLongMap() {
+    long sum = 0;
+    for (long key : lookups) {
+      sum += longLongMap.get(key);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public long getOffHeapLongLongMap() {
+    long sum = 0;
+    for (long key : lookups) {
+      sum += offHeapLongLongMap.get(key);
+    }
+    return sum;
+  }
+
+}
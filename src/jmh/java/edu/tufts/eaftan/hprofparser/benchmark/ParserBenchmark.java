@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.benchmark;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordMask;
+import edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler.StatisticsCollectingHandler;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the parser gets through dumps made up of one type of record.  The score is
+ * records per second; the {@code bytes} counter gives the same rate in bytes of the file, and
+ * with {@code -prof gc}, {@code gc.alloc.rate.norm} is the bytes allocated per record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+  static final int NUM_RECORDS = 100000;
+
+  /** The record type that makes up the bulk of a dump. */
+  public enum RecordType {
+    STRING,
+    CLASS_DUMP,
+    INSTANCE_DUMP,
+    OBJ_ARRAY,
+    PRIM_ARRAY
+  }
+
+  /** What receives the parsed records. */
+  public enum Sink {
+    /** A plain {@code NullRecordHandler}, so the parser skips every record. */
+    SKIP,
+    /** A {@code NullRecordHandler} that asks for every record, so everything is decoded. */
+    NULL,
+    /** {@code StatisticsCollectingHandler}, minus printing the report. */
+    STATISTICS
+  }
+
+  @Param
+  public RecordType recordType;
+
+  @Param({"4", "8"})
+  public int idSize;
+
+  @Param
+  public Sink sink;
+
+  @Param
+  public HprofParser.InputMode inputMode;
+
+  private File file;
+
+  /** Counts the bytes parsed, so that JMH reports them as a rate alongside the records. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    public long bytes;
+  }
+
+  @Setup(Level.Trial)
+  public void writeDump() throws IOException {
+    file = File.createTempFile("benchmark", ".hprof");
+    BenchmarkDumps.write(file, recordType, idSize, NUM_RECORDS);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteDump() {
+    file.delete();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public void parse(Counters counters) throws IOException {
+    HprofParser parser = new HprofParser(newHandler());
+    parser.setInputMode(inputMode);
+    parser.parse(file);
+    counters.bytes += file.length();
+  }
+
+  private RecordHandler newHandler() {
+    switch (sink) {
+      case SKIP:
+        return new NullRecordHandler();
+      case NULL:
+        return new NullRecordHandler() {
+          @Override
+          public RecordMask recordMask() {
+            return RecordMask.all();
+          }
+        };
+      default:
+        return new StatisticsCollectingHandler() {
+          @Override
+          public void finished() {}
+        };
+    }
+  }
+
+}
@@ -36,8 +36,14 @@ import com.google.common.collect.Lists;
 
 import edu.tufts.eaftan.hprofparser.handler.examples.PrintHandler;
 
+import edu.tufts.eaftan.hprofparser.handler.Checkpointable;
+import edu.tufts.eaftan.hprofparser.handler.CompositeRecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.MergeableRecordHandler;
 import edu.tufts.eaftan.hprofparser.handler.RecordHandler;
 import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.ParallelHprofParser;
+import edu.tufts.eaftan.hprofparser.parser.ParseMetrics;
+import edu.tufts.eaftan.hprofparser.parser.ProgressListener;
 
 import java.io.File;
 import java.io.IOException;
@@ -52,16 +58,41 @@ public class Parse {
     List<String> argList = Lists.newArrayList(args);
 
     if (argList.size() < 1) {
-      System.out.println("Usage: java Parse [--handler=<handler class>] inputfile");
+      System.out.println("Usage: java Parse [--handler=<handler class>...] [--threaded] [--mmap] "
+          + "[--pipelined] [--parallel] [--metrics] [--checkpoint=<file>] inputfile");
       System.exit(1);
     }
     
-    Class<? extends RecordHandler> handlerClass = DEFAULT_HANDLER;
+    List<Class<? extends RecordHandler>> handlerClasses = Lists.newArrayList();
+    boolean threaded = false;
+    HprofParser.InputMode inputMode = HprofParser.InputMode.STREAM;
+    boolean pipelined = false;
+    boolean parallel = false;
+    boolean collectMetrics = false;
+    File checkpointFile = null;
     for (String arg : argList) {
+      if (arg.equals("--mmap")) {
+        inputMode = HprofParser.InputMode.MAPPED;
+      }
+      if (arg.equals("--threaded")) {
+        threaded = true;
+      }
+      if (arg.equals("--pipelined")) {
+        pipelined = true;
+      }
+      if (arg.equals("--parallel")) {
+        parallel = true;
+      }
+      if (arg.equals("--metrics")) {
+        collectMetrics = true;
+      }
+      if (arg.startsWith("--checkpoint=")) {
+        checkpointFile = new File(arg.substring("--checkpoint=".length()));
+      }
       if (arg.startsWith("--handler=")) {
         String handlerClassName = arg.substring("--handler=".length());
         try {
-          handlerClass = (Class<? extends RecordHandler>) Class.forName(handlerClassName);
+          handlerClasses.add((Class<? extends RecordHandler>) Class.forName(handlerClassName));
         } catch (ClassNotFoundException e) {
           System.err.println("Could not find class " + handlerClassName);
           System.exit(1);
@@ -69,21 +100,88 @@ public class Parse {
       }
     }
 
-    RecordHandler handler = null;
-    try {
-      handler = handlerClass.newInstance();
-    } catch (InstantiationException | IllegalAccessException e) {
-      System.err.println("Could not instantiate " + handlerClass);
+    if (handlerClasses.isEmpty()) {
+      handlerClasses.add(DEFAULT_HANDLER);
+    }
+    RecordHandler[] handlers = new RecordHandler[handlerClasses.size()];
+    for (int i = 0; i < handlers.length; i++) {
+      try {
+        handlers[i] = handlerClasses.get(i).newInstance();
+      } catch (InstantiationException | IllegalAccessException e) {
+        System.err.println("Could not instantiate " + handlerClasses.get(i));
+        System.exit(1);
+      }
+    }
+    // several handlers share one parse
+    RecordHandler handler = handlers[0];
+    if (threaded) {
+      handler = CompositeRecordHandler.threaded(handlers);
+    } else if (handlers.length > 1) {
+      handler = new CompositeRecordHandler(handlers);
+    }
+    Class<?> handlerClass = handler.getClass();
+    if (parallel && !(handler instanceof MergeableRecordHandler)) {
+      System.err.println(handlerClass + " does not support --parallel");
+      System.exit(1);
+    }
+    if (checkpointFile != null && !(handler instanceof Checkpointable)) {
+      System.err.println(handlerClass + " does not support --checkpoint");
+      System.exit(1);
+    }
+    if (parallel && checkpointFile != null) {
+      System.err.println("--checkpoint is not supported with --parallel");
+      System.exit(1);
+    }
+    if (pipelined && (parallel || checkpointFile != null)) {
+      System.err.println("--pipelined is not supported with --parallel or --checkpoint");
+      System.exit(1);
+    }
+    if (parallel && collectMetrics) {
+      System.err.println("--metrics is not supported with --parallel");
       System.exit(1);
     }
-    HprofParser parser = new HprofParser(handler);
 
+    File file = new File(argList.get(argList.size() - 1));
     try {
-      parser.parse(new File(argList.get(argList.size() - 1)));
+      if (parallel) {
+        // the workers always read through memory mappings
+        parseParallel((MergeableRecordHandler<?>) handler, file);
+      } else {
+        HprofParser parser = new HprofParser(handler);
+        parser.setInputMode(inputMode);
+        parser.setPipelined(pipelined);
+        if (checkpointFile != null) {
+          // checkpoint every 1% of the file, but at most every 64 MB, since each checkpoint
+          // writes out the handler's whole state
+          parser.setCheckpointing(checkpointFile, Math.max(file.length() / 100, 64L << 20));
+        }
+        ParseMetrics metrics = null;
+        if (collectMetrics) {
+          metrics = new ParseMetrics();
+          parser.setMetrics(metrics);
+          // report every 5%
+          parser.setProgressListener(new ProgressListener() {
+            @Override
+            public void progress(long bytesConsumed, long totalBytes, long remainingNanos) {
+              System.err.println(String.format("%5.1f%% of %d bytes, about %d s left",
+                  100.0 * bytesConsumed / totalBytes, totalBytes, remainingNanos / 1000000000L));
+            }
+          }, Math.max(file.length() / 20, 1));
+        }
+        parser.parse(file);
+        if (metrics != null) {
+          System.err.print(metrics.summary());
+        }
+      }
     } catch (IOException e) {
       System.err.println(e);
     } 
 
   }
 
+  private static <H extends MergeableRecordHandler<H>> void parseParallel(
+      MergeableRecordHandler<H> handler, File file) throws IOException {
+    new ParallelHprofParser<H>(handler).parse(file);
+  }
+
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import edu.tufts.eaftan.hprofparser.parser.HeapDump;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The dominator tree of the objects of a heap dump, and the retained size of each object: the
+ * total shallow size of the objects that would become unreachable if it were.  An object
+ * {@code d} dominates {@code v} if every path from the GC roots to {@code v} goes through
+ * {@code d}.
+ *
+ * <p>The tree is computed with the Lengauer-Tarjan algorithm, in its simple form with path
+ * compression, over dense int ordinals.  Everything is kept in primitive arrays indexed by
+ * ordinal, about 60 bytes per object on top of the {@code ReferenceGraph}, so heaps of hundreds
+ * of millions of objects fit on one machine.
+ */
+public final class DominatorTree {
+
+  /** The immediate dominator of objects that are dominated by no other object. */
+  public static final int ROOT = -1;
+  /** The immediate dominator of objects that are not reachable from the GC roots. */
+  public static final int UNREACHABLE = -2;
+
+  private final ReferenceGraph graph;
+  private final int[] idoms;
+  private final long[] retainedSizes;
+
+  private DominatorTree(ReferenceGraph graph, int[] idoms, long[] retainedSizes) {
+    this.graph = graph;
+    this.idoms = idoms;
+    this.retainedSizes = retainedSizes;
+  }
+
+  /**
+   * Parses {@code hprofFile} and computes its dominator tree.
+   */
+  public static DominatorTree compute(File hprofFile) throws IOException {
+    return compute(ReferenceGraphHandler.build(hprofFile));
+  }
+
+  /**
+   * Computes the dominator tree of {@code graph}.
+   */
+  public static DominatorTree compute(ReferenceGraph graph) {
+    int numVertices = graph.numVertices();
+    int superRoot = graph.superRoot();
+
+    // number the vertices reachable from the super root in depth-first preorder; from here on,
+    // vertices are identified by preorder number
+    int[] preorder = new int[numVertices];
+    Arrays.fill(preorder, -1);
+    int[] vertex = new int[numVertices];
+    int[] parent = new int[numVertices];
+    int[] stack = new int[numVertices];
+    int[] stackNext = new int[numVertices];
+    int count = 0;
+    preorder[superRoot] = count;
+    vertex[count] = superRoot;
+    parent[count++] = -1;
+    int top = 0;
+    stack[top] = superRoot;
+    stackNext[top] = 0;
+    while (top >= 0) {
+      int v = stack[top];
+      long e = graph.outboundStart(v) + stackNext[top];
+      if (e < graph.outboundEnd(v)) {
+        stackNext[top]++;
+        int w = graph.outboundEdge(e);
+        if (preorder[w] == -1) {
+          preorder[w] = count;
+          vertex[count] = w;
+          parent[count++] = preorder[v];
+          top++;
+          stack[top] = w;
+          stackNext[top] = 0;
+        }
+      } else {
+        top--;
+      }
+    }
+
+    // semidominators and immediate dominators, reusing the stacks as the compression stack and
+    // the bucket lists
+    int[] semi = new int[count];
+    int[] label = new int[count];
+    int[] ancestor = new int[count];
+    int[] idom = new int[count];
+    int[] bucket = new int[count];
+    int[] bucketNext = stackNext;
+    for (int v = 0; v < count; v++) {
+      semi[v] = v;
+      label[v] = v;
+      ancestor[v] = -1;
+      bucket[v] = -1;
+    }
+    for (int w = count - 1; w > 0; w--) {
+      int node = vertex[w];
+      for (long e = graph.inboundStart(node); e < graph.inboundEnd(node); e++) {
+        int v = preorder[graph.inboundEdge(e)];
+        if (v == -1) {
+          continue;
+        }
+        int u = eval(v, ancestor, label, semi, stack);
+        if (semi[u] < semi[w]) {
+          semi[w] = semi[u];
+        }
+      }
+      bucketNext[w] = bucket[semi[w]];
+      bucket[semi[w]] = w;
+      int p = parent[w];
+      ancestor[w] = p;
+      for (int v = bucket[p]; v != -1; v = bucketNext[v]) {
+        int u = eval(v, ancestor, label, semi, stack);
+        idom[v] = semi[u] < semi[v] ? u : p;
+      }
+      bucket[p] = -1;
+    }
+    for (int w = 1; w < count; w++) {
+      if (idom[w] != semi[w]) {
+        idom[w] = idom[idom[w]];
+      }
+    }
+
+    // a dominator precedes everything it dominates in preorder, so sizes can be accumulated
+    // bottom up in one backward sweep
+    long[] retainedByPreorder = new long[count];
+    for (int w = count - 1; w > 0; w--) {
+      retainedByPreorder[w] += graph.shallowSize(vertex[w]);
+      retainedByPreorder[idom[w]] += retainedByPreorder[w];
+    }
+
+    int numObjects = graph.numObjects();
+    int[] idoms = new int[numObjects];
+    long[] retainedSizes = new long[numObjects];
+    for (int v = 0; v < numObjects; v++) {
+      int w = preorder[v];
+      if (w == -1) {
+        idoms[v] = UNREACHABLE;
+      } else {
+        int d = vertex[idom[w]];
+        idoms[v] = d == superRoot ? ROOT : d;
+        retainedSizes[v] = retainedByPreorder[w];
+      }
+    }
+    return new DominatorTree(graph, idoms, retainedSizes);
+  }
+
+  /**
+   * Returns the vertex with the smallest semidominator on the path from {@code v} up to the root
+   * of its tree in the forest built so far, compressing the path on the way.
+   */
+  private static int eval(int v, int[] ancestor, int[] label, int[] semi, int[] stack) {
+    if (ancestor[v] == -1) {
+      return v;
+    }
+    int top = 0;
+    for (int x = v; ancestor[ancestor[x]] != -1; x = ancestor[x]) {
+      stack[top++] = x;
+    }
+    while (top > 0) {
+      int x = stack[--top];
+      int a = ancestor[x];
+      if (semi[label[a]] < semi[label[x]]) {
+        label[x] = label[a];
+      }
+      ancestor[x] = ancestor[a];
+    }
+    return label[v];
+  }
+
+  public ReferenceGraph graph() {
+    return graph;
+  }
+
+  public int numObjects() {
+    return graph.numObjects();
+  }
+
+  public long objId(int ordinal) {
+    return graph.objId(ordinal);
+  }
+
+  /**
+   * Returns the ordinal of the object with the given id, or -1 if it is not in the dump.
+   */
+  public int ordinalOf(long objId) {
+    return graph.ordinalOf(objId);
+  }
+
+  /**
+   * Returns the size of the object's fields or elements as recorded in the dump, not counting
+   * object headers or alignment.
+   */
+  public long shallowSize(int ordinal) {
+    return graph.shallowSize(ordinal);
+  }
+
+  /**
+   * Returns the total shallow size of the objects the object dominates, itself included, or 0 if
+   * it is unreachable.
+   */
+  public long retainedSize(int ordinal) {
+    return retainedSizes[ordinal];
+  }
+
+  /**
+   * Returns the ordinal of the object's immediate dominator, {@link #ROOT} if no object
+   * dominates it, or {@link #UNREACHABLE}.
+   */
+  public int immediateDominator(int ordinal) {
+    return idoms[ordinal];
+  }
+
+  public boolean isReachable(int ordinal) {
+    return idoms[ordinal] != UNREACHABLE;
+  }
+
+  /**
+   * Returns the ordinals of the {@code n} objects at the top of the tree with the largest
+   * retained sizes, largest first.
+   */
+  public int[] largestTopLevel(int n) {
+    // a bounded selection by insertion, since n is small
+    int[] result = new int[n];
+    int size = 0;
+    for (int v = 0; v < idoms.length; v++) {
+      if (idoms[v] != ROOT) {
+        continue;
+      }
+      if (size == n && retainedSizes[v] <= retainedSizes[result[n - 1]]) {
+        continue;
+      }
+      int i = size < n ? size++ : n - 1;
+      while (i > 0 && retainedSizes[result[i - 1]] < retainedSizes[v]) {
+        result[i] = result[i - 1];
+        i--;
+      }
+      result[i] = v;
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.out.println("Usage: java DominatorTree hprof-file");
+      System.exit(1);
+    }
+    File file = new File(args[0]);
+    DominatorTree tree = compute(file);
+    try (HeapDump dump = HeapDump.open(file)) {
+      System.out.println("Largest retained sizes:");
+      for (int ordinal : tree.largestTopLevel(20)) {
+        long objId = tree.objId(ordinal);
+        System.out.println(String.format("%,16d  0x%x  %s", tree.retainedSize(ordinal), objId,
+            HeapObjects.describe(dump, objId)));
+      }
+    }
+  }
+
+}
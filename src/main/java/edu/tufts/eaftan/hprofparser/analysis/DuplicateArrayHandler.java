@@ -0,0 +1,321 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.util.ContentHash;
+import edu.tufts.eaftan.hprofparser.util.ExternalLongPairSorter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds primitive arrays with identical contents, and arrays that hold nothing but zeros.
+ *
+ * <p>Each array is fingerprinted with a 64-bit {@code ContentHash} of its record bytes, seeded
+ * with its element type, so that only arrays of the same type and length can match.  The
+ * fingerprints are spilled with the array ids and lengths to an {@code ExternalLongPairSorter},
+ * which brings identical arrays together in a fixed amount of memory.  Arrays are compared only
+ * by fingerprint, so two different arrays are counted as identical with a probability of about
+ * 2^-64 per pair.
+ *
+ * <p>Empty arrays all have the same contents, so they show up as duplicate sets too; they cost
+ * a header each, and can usually be replaced by one shared constant.
+ */
+public class DuplicateArrayHandler extends NullRecordHandler {
+
+  /**
+   * A set of arrays with identical contents.
+   */
+  public static final class DuplicateSet {
+    private final Type elemType;
+    private final int length;
+    private final long sampleArrayId;
+    private final long numArrays;
+    private final long arraySize;
+
+    DuplicateSet(Type elemType, int length, long sampleArrayId, long numArrays, long arraySize) {
+      this.elemType = elemType;
+      this.length = length;
+      this.sampleArrayId = sampleArrayId;
+      this.numArrays = numArrays;
+      this.arraySize = arraySize;
+    }
+
+    public Type elemType() {
+      return elemType;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    /**
+     * Returns the object id of one of the arrays.
+     */
+    public long sampleArrayId() {
+      return sampleArrayId;
+    }
+
+    public long numArrays() {
+      return numArrays;
+    }
+
+    /**
+     * Returns the estimated size of one of the arrays.
+     */
+    public long arraySize() {
+      return arraySize;
+    }
+
+    /**
+     * Returns the bytes that all the arrays but one take up.
+     */
+    public long wastedBytes() {
+      return (numArrays - 1) * arraySize;
+    }
+  }
+
+  // the top bit of a sorted value says whether the rest is an array id or a type and length
+  private static final long LENGTH_TAG = 1L << 63;
+  private static final int TYPE_SHIFT = 48;
+
+  private static final Type[] TYPES = Type.values();
+
+  private final ExternalLongPairSorter byHash;
+
+  private ObjectModel model;
+  private boolean done = false;
+
+  // by element type ordinal
+  private final long[] numArrays = new long[TYPES.length];
+  private final long[] totalBytes = new long[TYPES.length];
+  private final long[] zeroArrays = new long[TYPES.length];
+  private final long[] zeroBytes = new long[TYPES.length];
+  private final long[] duplicateArrays = new long[TYPES.length];
+  private final long[] wastedBytes = new long[TYPES.length];
+
+  /**
+   * Creates a handler that sorts the fingerprints in the default temporary directory.
+   */
+  public DuplicateArrayHandler() {
+    this(null);
+  }
+
+  /**
+   * Creates a handler that sorts the fingerprints in {@code tempDir}, or in the default temporary
+   * directory if it is null.
+   */
+  public DuplicateArrayHandler(File tempDir) {
+    this(tempDir, ExternalLongPairSorter.DEFAULT_BUFFER_PAIRS);
+  }
+
+  DuplicateArrayHandler(File tempDir, int bufferPairs) {
+    this.byHash = new ExternalLongPairSorter(tempDir, bufferPairs);
+  }
+
+  @Override
+  public void header(String format, int idSize, long time) {
+    model = ObjectModel.forIdSize(idSize);
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType, ByteBuffer elems) {
+    Preconditions.checkArgument(objId >= 0, "object id does not fit: 0x%s",
+        Long.toHexString(objId));
+    int type = elemType.ordinal();
+    int length = elems.remaining() / elemType.sizeInBytes();
+    long size = model.primitiveArraySize(elemType, length);
+    numArrays[type]++;
+    totalBytes[type] += size;
+    if (length > 0 && isZero(elems)) {
+      zeroArrays[type]++;
+      zeroBytes[type] += size;
+    }
+    long hash = ContentHash.hash(elems, type);
+    try {
+      byHash.add(hash, objId);
+      byHash.add(hash, LENGTH_TAG | ((long) type << TYPE_SHIFT) | length);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns whether the remaining bytes of {@code buffer} are all zero.
+   */
+  static boolean isZero(ByteBuffer buffer) {
+    int i = buffer.position();
+    int end = buffer.limit();
+    for (; i + 8 <= end; i += 8) {
+      if (buffer.getLong(i) != 0) {
+        return false;
+      }
+    }
+    for (; i < end; i++) {
+      if (buffer.get(i) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of arrays of the given element type.
+   */
+  public long numArrays(Type elemType) {
+    return numArrays[elemType.ordinal()];
+  }
+
+  /**
+   * Returns the estimated total size of the arrays of the given element type.
+   */
+  public long totalBytes(Type elemType) {
+    return totalBytes[elemType.ordinal()];
+  }
+
+  /**
+   * Returns the number of non-empty arrays of the given element type that are all zeros.
+   */
+  public long zeroArrays(Type elemType) {
+    return zeroArrays[elemType.ordinal()];
+  }
+
+  public long zeroBytes(Type elemType) {
+    return zeroBytes[elemType.ordinal()];
+  }
+
+  /**
+   * Returns the number of arrays of the given element type that are copies of another, that is,
+   * the arrays in duplicate sets less one per set.  Valid once {@link #duplicates} has been
+   * called.
+   */
+  public long duplicateArrays(Type elemType) {
+    Preconditions.checkState(done, "duplicates() has not been called");
+    return duplicateArrays[elemType.ordinal()];
+  }
+
+  /**
+   * Returns the bytes taken up by the copies counted by {@link #duplicateArrays}.
+   */
+  public long wastedBytes(Type elemType) {
+    Preconditions.checkState(done, "duplicates() has not been called");
+    return wastedBytes[elemType.ordinal()];
+  }
+
+  /**
+   * Returns the {@code n} sets of identical arrays that waste the most bytes, largest first, and
+   * completes the per-type counts of copies.  The fingerprints are consumed by the sort, so this
+   * can be called only once.
+   */
+  public List<DuplicateSet> duplicates(int n) throws IOException {
+    Preconditions.checkArgument(n >= 0);
+    Preconditions.checkState(!done, "duplicates() may only be called once");
+    done = true;
+    return new HashGrouper(n).top(byHash);
+  }
+
+  /**
+   * Gathers the arrays with equal fingerprints into duplicate sets, and counts the copies.
+   */
+  private final class HashGrouper extends TopGroups<DuplicateSet> {
+    private long arrays;
+    private long typeAndLength;
+    private long sampleArrayId;
+
+    HashGrouper(int n) {
+      super(n, BY_WASTED_BYTES);
+    }
+
+    @Override
+    void startGroup(long hash) {
+      arrays = 0;
+    }
+
+    @Override
+    void addToGroup(long value) {
+      if ((value & LENGTH_TAG) != 0) {
+        arrays++;
+        typeAndLength = value & ~LENGTH_TAG;
+      } else {
+        sampleArrayId = value;
+      }
+    }
+
+    @Override
+    DuplicateSet endGroup() {
+      if (arrays < 2) {
+        return null;
+      }
+      Type elemType = TYPES[(int) (typeAndLength >>> TYPE_SHIFT)];
+      int length = (int) typeAndLength;
+      DuplicateSet set = new DuplicateSet(elemType, length, sampleArrayId, arrays,
+          model.primitiveArraySize(elemType, length));
+      duplicateArrays[elemType.ordinal()] += arrays - 1;
+      wastedBytes[elemType.ordinal()] += set.wastedBytes();
+      return set;
+    }
+  }
+
+  private static final Comparator<DuplicateSet> BY_WASTED_BYTES = new Comparator<DuplicateSet>() {
+    @Override
+    public int compare(DuplicateSet set1, DuplicateSet set2) {
+      int result = Long.compare(set1.wastedBytes(), set2.wastedBytes());
+      return result != 0 ? result : Long.compare(set2.sampleArrayId, set1.sampleArrayId);
+    }
+  };
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.out.println("Usage: java DuplicateArrayHandler hprof-file");
+      System.exit(1);
+    }
+    DuplicateArrayHandler handler = new DuplicateArrayHandler();
+    HprofParser parser = new HprofParser(handler);
+    parser.setInputMode(HprofParser.InputMode.MAPPED);
+    parser.parse(new File(args[0]));
+    List<DuplicateSet> duplicates = handler.duplicates(20);
+
+    System.out.println(String.format("%-10s %12s %16s %12s %16s %12s %16s", "type", "arrays",
+        "bytes", "copies", "wasted bytes", "all zero", "zero bytes"));
+    for (Type type : TYPES) {
+      if (handler.numArrays(type) == 0) {
+        continue;
+      }
+      System.out.println(String.format("%-10s %,12d %,16d %,12d %,16d %,12d %,16d", type + "[]",
+          handler.numArrays(type), handler.totalBytes(type), handler.duplicateArrays(type),
+          handler.wastedBytes(type), handler.zeroArrays(type), handler.zeroBytes(type)));
+    }
+    System.out.println();
+    System.out.println("Largest duplicate sets:");
+    for (DuplicateSet set : duplicates) {
+      System.out.println(String.format("%,16d  %,10d copies of %s[%d], e.g. 0x%x",
+          set.wastedBytes(), set.numArrays(), set.elemType(), set.length(),
+          set.sampleArrayId()));
+    }
+  }
+
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.HeapDump;
+import edu.tufts.eaftan.hprofparser.parser.HeapInstance;
+import edu.tufts.eaftan.hprofparser.parser.HeapObject;
+import edu.tufts.eaftan.hprofparser.parser.HeapPrimitiveArray;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.util.ContentHash;
+import edu.tufts.eaftan.hprofparser.util.ExternalLongPairSorter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds {@code java.lang.String} instances with equal contents, and how many bytes could be saved
+ * by sharing one copy of each.
+ *
+ * <p>The contents of a string are in the {@code byte[]} or {@code char[]} its {@code value} field
+ * points to, which may come before or after it in the dump.  While parsing, the handler spills a
+ * (array id, string id) pair for every string and (array id, size) and (array id, content hash)
+ * pairs for every {@code byte[]} and {@code char[]} to an {@code ExternalLongPairSorter}.  Sorting
+ * by array id brings each array together with the strings that use it; a second sort by content
+ * hash then brings equal arrays together.  Both sorts use a fixed amount of memory, so the handler
+ * works on dumps of any number of strings.
+ *
+ * <p>Contents are compared by a 64-bit hash rather than byte for byte, so two different strings
+ * are counted as equal with a probability of about 2^-62 per pair.
+ */
+public class DuplicateStringHandler extends NullRecordHandler {
+
+  /**
+   * A set of strings with equal contents.
+   */
+  public static final class Duplicate {
+    private final long sampleStringId;
+    private final long numStrings;
+    private final long numArrays;
+    private final long arraySize;
+    private final long wastedBytes;
+
+    Duplicate(long sampleStringId, long numStrings, long numArrays, long arraySize,
+        long wastedBytes) {
+      this.sampleStringId = sampleStringId;
+      this.numStrings = numStrings;
+      this.numArrays = numArrays;
+      this.arraySize = arraySize;
+      this.wastedBytes = wastedBytes;
+    }
+
+    /**
+     * Returns the object id of one of the strings.
+     */
+    public long sampleStringId() {
+      return sampleStringId;
+    }
+
+    public long numStrings() {
+      return numStrings;
+    }
+
+    /**
+     * Returns the number of distinct backing arrays among the strings, which is less than the
+     * number of strings if some already share their arrays.
+     */
+    public long numArrays() {
+      return numArrays;
+    }
+
+    /**
+     * Returns the estimated size of one backing array.
+     */
+    public long arraySize() {
+      return arraySize;
+    }
+
+    /**
+     * Returns the bytes that all strings but one and all arrays but one take up.
+     */
+    public long wastedBytes() {
+      return wastedBytes;
+    }
+  }
+
+  private static final String STRING_CLASS_NAME = "java/lang/String";
+
+  // the top two bits of a sorted value say what the other 62 are
+  private static final int TAG_SHIFT = 62;
+  private static final long PAYLOAD_MASK = (1L << TAG_SHIFT) - 1;
+  private static final long TAG_STRING = 0;
+  private static final long TAG_SIZE = 1;
+  private static final long TAG_HASH = 2;
+
+  // the number of strings that use an array is packed below its size
+  private static final int STRING_COUNT_BITS = 24;
+  private static final long MAX_STRING_COUNT = (1L << STRING_COUNT_BITS) - 1;
+
+  private final File tempDir;
+  private final int bufferPairs;
+  private final ExternalLongPairSorter byArray;
+
+  private ObjectModel model;
+  private long stringClassNameId = -1;
+  private long valueFieldNameId = -1;
+  private long stringClassObjId = -1;
+  private int valueFieldIndex = -1;
+  private long stringSize;
+
+  private boolean done = false;
+  private long numStrings;
+  private long totalWastedBytes;
+
+  /**
+   * Creates a handler that spills to the default temporary directory.
+   */
+  public DuplicateStringHandler() {
+    this(null);
+  }
+
+  /**
+   * Creates a handler that spills to {@code tempDir}, or the default temporary directory if it is
+   * null.
+   */
+  public DuplicateStringHandler(File tempDir) {
+    this(tempDir, ExternalLongPairSorter.DEFAULT_BUFFER_PAIRS);
+  }
+
+  DuplicateStringHandler(File tempDir, int bufferPairs) {
+    this.tempDir = tempDir;
+    this.bufferPairs = bufferPairs;
+    this.byArray = new ExternalLongPairSorter(tempDir, bufferPairs);
+  }
+
+  @Override
+  public void header(String format, int idSize, long time) {
+    model = ObjectModel.forIdSize(idSize);
+  }
+
+  @Override
+  public void stringInUTF8(long id, String data) {
+    if (stringClassNameId == -1 && data.equals(STRING_CLASS_NAME)) {
+      stringClassNameId = id;
+    } else if (valueFieldNameId == -1 && data.equals("value")) {
+      valueFieldNameId = id;
+    }
+  }
+
+  @Override
+  public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+      long classNameStringId) {
+    if (classNameStringId == stringClassNameId) {
+      stringClassObjId = classObjId;
+    }
+  }
+
+  @Override
+  public void instanceDump(InstanceView instance) {
+    if (instance.classObjId() != stringClassObjId) {
+      return;
+    }
+    if (valueFieldIndex == -1) {
+      valueFieldIndex = instance.fieldIndex(valueFieldNameId);
+      Preconditions.checkState(valueFieldIndex != -1
+          && instance.fieldType(valueFieldIndex) == Type.OBJ, "String has no value field");
+      stringSize = model.instanceSize(instance.layout());
+    }
+    long arrayId = instance.getObjectId(valueFieldIndex);
+    if (arrayId != 0) {
+      numStrings++;
+      add(byArray, arrayId, TAG_STRING, instance.objId());
+    }
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType, ByteBuffer elems) {
+    if (elemType != Type.BYTE && elemType != Type.CHAR) {
+      return;
+    }
+    int length = elems.remaining() / elemType.sizeInBytes();
+    add(byArray, objId, TAG_SIZE, model.primitiveArraySize(elemType, length));
+    // a byte[] and a char[] with the same bytes are different strings
+    add(byArray, objId, TAG_HASH, ContentHash.hash(elems, elemType.ordinal()));
+  }
+
+  private static void add(ExternalLongPairSorter sorter, long key, long tag, long payload) {
+    Preconditions.checkArgument((payload & ~PAYLOAD_MASK) == 0 || tag == TAG_HASH,
+        "value does not fit: 0x%s", Long.toHexString(payload));
+    try {
+      sorter.add(key, (tag << TAG_SHIFT) | (payload & PAYLOAD_MASK));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the number of strings with a backing array.  Valid once the dump has been parsed.
+   */
+  public long numStrings() {
+    return numStrings;
+  }
+
+  /**
+   * Returns the bytes wasted by all duplicated strings, not just the ones returned by
+   * {@link #duplicates}.  Valid once {@code duplicates} has been called.
+   */
+  public long totalWastedBytes() {
+    Preconditions.checkState(done, "duplicates() has not been called");
+    return totalWastedBytes;
+  }
+
+  /**
+   * Returns up to {@code n} sets of duplicated strings, those that waste the most bytes first.
+   * This sorts everything collected while parsing, and may only be called once.
+   */
+  public List<Duplicate> duplicates(final int n) throws IOException {
+    Preconditions.checkArgument(n >= 0);
+    Preconditions.checkState(!done, "duplicates() may only be called once");
+    done = true;
+
+    // first, join each array with the strings that use it, and re-key the arrays by hash
+    ExternalLongPairSorter byHash = new ExternalLongPairSorter(tempDir, bufferPairs);
+    try {
+      ArrayJoiner joiner = new ArrayJoiner(byHash);
+      byArray.finish(joiner);
+      joiner.flush();
+      // then bring the arrays with equal contents together
+      return new HashGrouper(n).top(byHash);
+    } finally {
+      byHash.close();
+    }
+  }
+
+  /**
+   * Receives the pairs sorted by array id, and passes on a (hash, string id) and a (hash, size
+   * and number of strings) pair for each array that is the value of some string.
+   */
+  private static final class ArrayJoiner implements ExternalLongPairSorter.PairConsumer {
+    private final ExternalLongPairSorter byHash;
+    private boolean started = false;
+    private long arrayId;
+    private long strings;
+    private long sampleStringId;
+    private long size;
+    private long hash;
+    private boolean hashed;
+
+    ArrayJoiner(ExternalLongPairSorter byHash) {
+      this.byHash = byHash;
+    }
+
+    @Override
+    public void accept(long key, long value) throws IOException {
+      if (!started || key != arrayId) {
+        flush();
+        started = true;
+        arrayId = key;
+        strings = 0;
+        hashed = false;
+      }
+      long tag = value >>> TAG_SHIFT;
+      long payload = value & PAYLOAD_MASK;
+      if (tag == TAG_STRING) {
+        strings++;
+        sampleStringId = payload;
+      } else if (tag == TAG_SIZE) {
+        size = payload;
+      } else {
+        hash = payload;
+        hashed = true;
+      }
+    }
+
+    void flush() throws IOException {
+      // skips arrays that are not the value of any string, and strings whose value is missing
+      if (started && strings > 0 && hashed) {
+        byHash.add(hash, (TAG_STRING << TAG_SHIFT) | sampleStringId);
+        byHash.add(hash, (TAG_SIZE << TAG_SHIFT) | (size << STRING_COUNT_BITS)
+            | Math.min(strings, MAX_STRING_COUNT));
+      }
+      started = false;
+    }
+  }
+
+  /**
+   * Gathers the arrays with equal hashes into sets of equal strings.
+   */
+  private final class HashGrouper extends TopGroups<Duplicate> {
+    private long strings;
+    private long arrays;
+    private long size;
+    private long sampleStringId;
+
+    HashGrouper(int n) {
+      super(n, BY_WASTED_BYTES);
+    }
+
+    @Override
+    void startGroup(long hash) {
+      strings = 0;
+      arrays = 0;
+    }
+
+    @Override
+    void addToGroup(long value) {
+      long payload = value & PAYLOAD_MASK;
+      if (value >>> TAG_SHIFT == TAG_STRING) {
+        sampleStringId = payload;
+      } else {
+        arrays++;
+        strings += payload & MAX_STRING_COUNT;
+        size = payload >>> STRING_COUNT_BITS;
+      }
+    }
+
+    @Override
+    Duplicate endGroup() {
+      if (strings < 2) {
+        return null;
+      }
+      long wasted = (strings - 1) * stringSize + (arrays - 1) * size;
+      totalWastedBytes += wasted;
+      return new Duplicate(sampleStringId, strings, arrays, size, wasted);
+    }
+  }
+
+  private static final Comparator<Duplicate> BY_WASTED_BYTES = new Comparator<Duplicate>() {
+    @Override
+    public int compare(Duplicate duplicate1, Duplicate duplicate2) {
+      int result = Long.compare(duplicate1.wastedBytes, duplicate2.wastedBytes);
+      return result != 0 ? result : Long.compare(duplicate2.sampleStringId,
+          duplicate1.sampleStringId);
+    }
+  };
+
+  /**
+   * Returns the text of a string, or of its first {@code maxChars} characters.
+   */
+  static String text(HeapDump dump, long stringObjId, int maxChars) throws IOException {
+    HeapObject string = dump.getObject(stringObjId);
+    if (!(string instanceof HeapInstance)) {
+      return "?";
+    }
+    InstanceView fields = ((HeapInstance) string).fields();
+    int valueField = HeapObjects.fieldIndex(dump, fields, "value");
+    HeapObject value = valueField != -1 ? dump.getObject(fields.getObjectId(valueField)) : null;
+    if (!(value instanceof HeapPrimitiveArray)) {
+      return "?";
+    }
+    HeapPrimitiveArray array = (HeapPrimitiveArray) value;
+    ByteBuffer elems = array.elems();
+    String text;
+    if (array.elemType() == Type.CHAR) {
+      text = elems.asCharBuffer().toString();
+    } else {
+      // compact strings: a coder of 1 means two bytes per char, in the VM's native order, which
+      // is little-endian on the platforms that write heap dumps
+      int coderField = HeapObjects.fieldIndex(dump, fields, "coder");
+      boolean utf16 = coderField != -1 && fields.fieldType(coderField) == Type.BYTE
+          && fields.getByte(coderField) == 1;
+      byte[] bytes = new byte[elems.remaining()];
+      elems.get(bytes);
+      text = new String(bytes, utf16 ? StandardCharsets.UTF_16LE : StandardCharsets.ISO_8859_1);
+    }
+    return text.length() <= maxChars ? text : text.substring(0, maxChars) + "...";
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.out.println("Usage: java DuplicateStringHandler hprof-file");
+      System.exit(1);
+    }
+    File file = new File(args[0]);
+    DuplicateStringHandler handler = new DuplicateStringHandler();
+    HprofParser parser = new HprofParser(handler);
+    parser.setInputMode(HprofParser.InputMode.MAPPED);
+    parser.parse(file);
+    List<Duplicate> duplicates = handler.duplicates(20);
+    System.out.println(String.format("%,d strings, %,d bytes wasted by duplicates",
+        handler.numStrings(), handler.totalWastedBytes()));
+    try (HeapDump dump = HeapDump.open(file)) {
+      for (Duplicate duplicate : duplicates) {
+        System.out.println(String.format("%,16d  %,10d copies  \"%s\"",
+            duplicate.wastedBytes(), duplicate.numStrings(),
+            text(dump, duplicate.sampleStringId(), 60)));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import edu.tufts.eaftan.hprofparser.parser.ClassLayout;
+import edu.tufts.eaftan.hprofparser.parser.HeapClass;
+import edu.tufts.eaftan.hprofparser.parser.HeapDump;
+import edu.tufts.eaftan.hprofparser.parser.HeapInstance;
+import edu.tufts.eaftan.hprofparser.parser.HeapObject;
+import edu.tufts.eaftan.hprofparser.parser.HeapObjectArray;
+import edu.tufts.eaftan.hprofparser.parser.HeapPrimitiveArray;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import java.io.IOException;
+
+/**
+ * Describes objects and references for the reports of the analyses, looking the objects up in a
+ * {@code HeapDump}.
+ */
+final class HeapObjects {
+
+  private HeapObjects() {}
+
+  /**
+   * Returns the type of the object with the given id, e.g. {@code java/util/HashMap},
+   * {@code int[]} or {@code class java/lang/System}.
+   */
+  static String describe(HeapDump dump, long objId) throws IOException {
+    HeapObject object = dump.getObject(objId);
+    if (object instanceof HeapInstance) {
+      HeapClass cls = dump.getClass(((HeapInstance) object).classObjId());
+      return cls != null ? cls.name() : "instance";
+    } else if (object instanceof HeapObjectArray) {
+      HeapClass cls = dump.getClass(((HeapObjectArray) object).elemClassObjId());
+      return cls != null ? cls.name() : "Object[]";
+    } else if (object instanceof HeapPrimitiveArray) {
+      return ((HeapPrimitiveArray) object).elemType() + "[]";
+    } else if (object instanceof HeapClass) {
+      return "class " + ((HeapClass) object).name();
+    }
+    return "?";
+  }
+
+  /**
+   * Returns the index of the instance field called {@code name}, or -1 if there is none.
+   */
+  static int fieldIndex(HeapDump dump, InstanceView fields, String name) throws IOException {
+    for (int fieldIndex = 0; fieldIndex < fields.numFields(); fieldIndex++) {
+      if (name.equals(dump.getString(fields.fieldNameStringId(fieldIndex)))) {
+        return fieldIndex;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns how the object {@code fromId} refers to {@code toId}: the name of a field, an array
+   * index in brackets, or a description in angle brackets such as {@code <class>}.
+   */
+  static String describeReference(HeapDump dump, long fromId, long toId) throws IOException {
+    HeapObject from = dump.getObject(fromId);
+    if (from instanceof HeapInstance) {
+      InstanceView fields = ((HeapInstance) from).fields();
+      ClassLayout layout = fields.layout();
+      for (int fieldIndex : layout.objectFieldIndices()) {
+        if (fields.getObjectId(fieldIndex) == toId) {
+          String name = dump.getString(layout.fieldNameStringId(fieldIndex));
+          return name != null ? name : "<field " + fieldIndex + ">";
+        }
+      }
+      if (fields.classObjId() == toId) {
+        return "<class>";
+      }
+    } else if (from instanceof HeapObjectArray) {
+      long[] elems = ((HeapObjectArray) from).elems();
+      for (int i = 0; i < elems.length; i++) {
+        if (elems[i] == toId) {
+          return "[" + i + "]";
+        }
+      }
+      if (((HeapObjectArray) from).elemClassObjId() == toId) {
+        return "<class>";
+      }
+    } else if (from instanceof HeapClass) {
+      HeapClass cls = (HeapClass) from;
+      for (Static s : cls.statics()) {
+        if (s.value.type == Type.OBJ && (Long) s.value.value == toId) {
+          String name = dump.getString(s.staticFieldNameStringId);
+          return name != null ? name : "<static>";
+        }
+      }
+      if (cls.superClassObjId() == toId) {
+        return "<superclass>";
+      } else if (cls.classLoaderObjId() == toId) {
+        return "<class loader>";
+      } else if (cls.signersObjId() == toId) {
+        return "<signers>";
+      } else if (cls.protectionDomainObjId() == toId) {
+        return "<protection domain>";
+      }
+      for (Constant c : cls.constants()) {
+        if (c.value.type == Type.OBJ && (Long) c.value.value == toId) {
+          return "<constant " + c.constantPoolIndex + ">";
+        }
+      }
+    }
+    return "?";
+  }
+
+}
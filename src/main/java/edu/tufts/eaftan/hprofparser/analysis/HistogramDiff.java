@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler.StatisticsCollectingHandler;
+import edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler.TypeInfo;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the class histograms of two or more heap dumps, typically of the same process taken
+ * some time apart, to find the types that are growing.
+ *
+ * <p>Each dump is parsed on its own thread into a {@code StatisticsCollectingHandler} histogram,
+ * so only the histograms are kept in memory.  Types are matched by name, since object ids mean
+ * nothing from one dump to the next; types with the same name in one dump, such as a class loaded
+ * by two class loaders, are added together.
+ */
+public final class HistogramDiff {
+
+  /**
+   * The instance counts and sizes of one type in each dump.
+   */
+  public static final class Row {
+    private final String name;
+    private final long[] counts;
+    private final long[] sizes;
+
+    Row(String name, int numDumps) {
+      this.name = name;
+      this.counts = new long[numDumps];
+      this.sizes = new long[numDumps];
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public long count(int dump) {
+      return counts[dump];
+    }
+
+    public long size(int dump) {
+      return sizes[dump];
+    }
+
+    /**
+     * Returns the change in the number of instances from the first dump to the last.
+     */
+    public long countDelta() {
+      return counts[counts.length - 1] - counts[0];
+    }
+
+    /**
+     * Returns the change in the total shallow size from the first dump to the last.
+     */
+    public long sizeDelta() {
+      return sizes[sizes.length - 1] - sizes[0];
+    }
+  }
+
+  private final int numDumps;
+  private final List<Row> rows;
+
+  private HistogramDiff(int numDumps, List<Row> rows) {
+    this.numDumps = numDumps;
+    this.rows = rows;
+  }
+
+  /**
+   * Parses {@code files} concurrently, one thread per file, and compares their histograms in the
+   * order given.
+   */
+  public static HistogramDiff compute(List<File> files) throws IOException {
+    Preconditions.checkArgument(files.size() >= 2, "need at least two dumps");
+    List<Callable<List<TypeInfo>>> tasks = new ArrayList<>();
+    for (final File file : files) {
+      tasks.add(new Callable<List<TypeInfo>>() {
+        @Override
+        public List<TypeInfo> call() throws IOException {
+          StatisticsCollectingHandler handler = new StatisticsCollectingHandler() {
+            @Override
+            public void finished() {}
+          };
+          new HprofParser(handler).parse(file);
+          return handler.histogram();
+        }
+      });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(files.size());
+    List<List<TypeInfo>> histograms = new ArrayList<>();
+    try {
+      for (Future<List<TypeInfo>> result : executor.invokeAll(tasks)) {
+        histograms.add(result.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing heap dumps", e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return of(histograms);
+  }
+
+  /**
+   * Compares histograms that have already been computed, in the order given.
+   */
+  public static HistogramDiff of(List<List<TypeInfo>> histograms) {
+    Preconditions.checkArgument(histograms.size() >= 2, "need at least two histograms");
+    int numDumps = histograms.size();
+    Map<String, Row> rowsByName = new HashMap<>();
+    for (int dump = 0; dump < numDumps; dump++) {
+      for (TypeInfo typeInfo : histograms.get(dump)) {
+        Row row = rowsByName.get(typeInfo.className);
+        if (row == null) {
+          row = new Row(typeInfo.className, numDumps);
+          rowsByName.put(typeInfo.className, row);
+        }
+        row.counts[dump] += typeInfo.instanceCount;
+        row.sizes[dump] += typeInfo.totalSize();
+      }
+    }
+
+    List<Row> rows = new ArrayList<>(rowsByName.values());
+    Collections.sort(rows, new Comparator<Row>() {
+      @Override
+      public int compare(Row row1, Row row2) {
+        int result = Long.compare(row2.sizeDelta(), row1.sizeDelta());
+        if (result == 0) {
+          result = Long.compare(row2.countDelta(), row1.countDelta());
+        }
+        return result != 0 ? result : row1.name.compareTo(row2.name);
+      }
+    });
+    return new HistogramDiff(numDumps, rows);
+  }
+
+  public int numDumps() {
+    return numDumps;
+  }
+
+  /**
+   * Returns every type that has instances in any of the dumps, the fastest growing in shallow
+   * size first and the fastest shrinking last.
+   */
+  public List<Row> rows() {
+    return Collections.unmodifiableList(rows);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("Usage: java HistogramDiff hprof-file hprof-file...");
+      System.exit(1);
+    }
+    List<File> files = new ArrayList<>();
+    for (String arg : args) {
+      files.add(new File(arg));
+    }
+    HistogramDiff diff = compute(files);
+    System.out.println(String.format("%16s %12s %16s  %s", "bytes delta", "count delta",
+        "bytes (last)", "type"));
+    for (Row row : diff.rows()) {
+      if (row.sizeDelta() == 0 && row.countDelta() == 0) {
+        continue;
+      }
+      System.out.println(String.format("%,+16d %,+12d %,16d  %s", row.sizeDelta(),
+          row.countDelta(), row.size(diff.numDumps() - 1), row.name()));
+    }
+  }
+
+}
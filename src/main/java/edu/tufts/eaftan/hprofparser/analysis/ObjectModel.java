@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.parser.ClassLayout;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+/**
+ * How a VM lays out objects in memory, for estimating their shallow sizes: the sizes of object
+ * and array headers, of references, and the alignment of objects.  A heap dump records none of
+ * this, so it has to be supplied to match the VM and options that wrote the dump.  Field padding
+ * within an object is not modeled.
+ */
+public final class ObjectModel {
+
+  /** A 64-bit HotSpot VM with compressed references and class pointers, the default. */
+  public static final ObjectModel COMPRESSED_OOPS = new ObjectModel(12, 16, 4, 8);
+
+  /** A 64-bit HotSpot VM with {@code -XX:-UseCompressedOops -XX:-UseCompressedClassPointers}. */
+  public static final ObjectModel UNCOMPRESSED_OOPS = new ObjectModel(16, 24, 8, 8);
+
+  /** A 32-bit HotSpot VM. */
+  public static final ObjectModel THIRTY_TWO_BIT = new ObjectModel(8, 12, 4, 8);
+
+  private final int headerSize;
+  private final int arrayHeaderSize;
+  private final int referenceSize;
+  private final int alignment;
+
+  /**
+   * Creates a model.  {@code arrayHeaderSize} includes the length field and any padding before
+   * the first element.
+   */
+  public ObjectModel(int headerSize, int arrayHeaderSize, int referenceSize, int alignment) {
+    Preconditions.checkArgument(headerSize >= 0 && arrayHeaderSize >= 0);
+    Preconditions.checkArgument(referenceSize == 4 || referenceSize == 8);
+    Preconditions.checkArgument(alignment > 0 && Integer.bitCount(alignment) == 1,
+        "Alignment must be a power of two: %s", alignment);
+    this.headerSize = headerSize;
+    this.arrayHeaderSize = arrayHeaderSize;
+    this.referenceSize = referenceSize;
+    this.alignment = alignment;
+  }
+
+  /**
+   * Returns the default model for a dump with the given id size: {@link #THIRTY_TWO_BIT} for
+   * 4-byte ids, and {@link #COMPRESSED_OOPS} otherwise.
+   */
+  public static ObjectModel forIdSize(int idSize) {
+    return idSize == 4 ? THIRTY_TWO_BIT : COMPRESSED_OOPS;
+  }
+
+  public int headerSize() {
+    return headerSize;
+  }
+
+  public int arrayHeaderSize() {
+    return arrayHeaderSize;
+  }
+
+  public int referenceSize() {
+    return referenceSize;
+  }
+
+  public int alignment() {
+    return alignment;
+  }
+
+  /**
+   * Returns the size of an instance with the given fields.
+   */
+  public long instanceSize(long primitiveFieldBytes, int numReferenceFields) {
+    return align(headerSize + primitiveFieldBytes + (long) numReferenceFields * referenceSize);
+  }
+
+  /**
+   * Returns the size of an instance of the class with the given layout.
+   */
+  public long instanceSize(ClassLayout layout) {
+    long primitiveFieldBytes = 0;
+    for (int i = 0; i < layout.numFields(); i++) {
+      Type type = layout.fieldType(i);
+      if (type != Type.OBJ) {
+        primitiveFieldBytes += type.sizeInBytes();
+      }
+    }
+    return instanceSize(primitiveFieldBytes, layout.objectFieldIndices().length);
+  }
+
+  public long objectArraySize(int length) {
+    return align(arrayHeaderSize + (long) length * referenceSize);
+  }
+
+  public long primitiveArraySize(Type elemType, int length) {
+    Preconditions.checkArgument(elemType != Type.OBJ);
+    return align(arrayHeaderSize + (long) length * elemType.sizeInBytes());
+  }
+
+  private long align(long size) {
+    return (size + alignment - 1) & -alignment;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ObjectModel(header %d, array header %d, references %d, alignment %d)",
+        headerSize, arrayHeaderSize, referenceSize, alignment);
+  }
+
+}
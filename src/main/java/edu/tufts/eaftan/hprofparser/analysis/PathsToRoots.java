@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.parser.HeapClass;
+import edu.tufts.eaftan.hprofparser.parser.HeapDump;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+import edu.tufts.eaftan.hprofparser.util.LongLongMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the shortest chains of references from the GC roots to a set of objects, to show what is
+ * keeping them alive.
+ *
+ * <p>The search is a breadth-first search backwards over inbound references, starting from all
+ * the objects at once, so it only visits the part of the heap between them and the nearest
+ * roots.  Visited objects are marked in a bitset and the queue is an int array; only the objects
+ * actually visited get an entry in a map of next hops.
+ */
+public final class PathsToRoots {
+
+  private final ReferenceGraph graph;
+
+  public PathsToRoots(ReferenceGraph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * Returns up to {@code maxPaths} shortest paths from a GC root to any of {@code targets}, as
+   * arrays of ordinals that start at a root and end at a target, shortest first.  Each root
+   * starts at most one path, and paths do not go through roots other than the one they start at.
+   */
+  public List<int[]> find(int[] targets, int maxPaths) {
+    Preconditions.checkArgument(maxPaths >= 0);
+    int superRoot = graph.superRoot();
+    long[] visited = new long[(graph.numVertices() + 63) >>> 6];
+    // the next object along the path to a target, or -1 at the targets
+    LongLongMap nextHops = LongLongMap.onHeap(-1);
+    int[] queue = new int[Math.max(16, targets.length)];
+    int head = 0;
+    int tail = 0;
+    for (int target : targets) {
+      Preconditions.checkElementIndex(target, graph.numObjects());
+      if (!mark(visited, target)) {
+        queue[tail++] = target;
+      }
+    }
+
+    List<int[]> paths = new ArrayList<>();
+    while (head < tail && paths.size() < maxPaths) {
+      int v = queue[head++];
+      if (graph.isRoot(v)) {
+        paths.add(path(v, nextHops));
+        continue;
+      }
+      for (long e = graph.inboundStart(v); e < graph.inboundEnd(v); e++) {
+        int u = graph.inboundEdge(e);
+        if (u == superRoot || mark(visited, u)) {
+          continue;
+        }
+        nextHops.put(u, v);
+        if (tail == queue.length) {
+          queue = Arrays.copyOf(queue, (int) Math.min(2L * queue.length, graph.numVertices()));
+        }
+        queue[tail++] = u;
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Marks {@code v} as visited, returning whether it already was.
+   */
+  private static boolean mark(long[] visited, int v) {
+    long bit = 1L << v;
+    boolean wasSet = (visited[v >>> 6] & bit) != 0;
+    visited[v >>> 6] |= bit;
+    return wasSet;
+  }
+
+  private static int[] path(int root, LongLongMap nextHops) {
+    int[] path = new int[8];
+    int length = 0;
+    for (long v = root; v != -1; v = nextHops.get(v)) {
+      if (length == path.length) {
+        path = Arrays.copyOf(path, length * 2);
+      }
+      path[length++] = (int) v;
+    }
+    return Arrays.copyOf(path, length);
+  }
+
+  /**
+   * Returns a readable name for a root kind, as returned by {@code ReferenceGraph.rootKind}.
+   */
+  public static String rootKindName(byte kind) {
+    switch (kind) {
+      case RecordTags.ROOT_UNKNOWN:
+        return "unknown root";
+      case RecordTags.ROOT_JNI_GLOBAL:
+        return "JNI global";
+      case RecordTags.ROOT_JNI_LOCAL:
+        return "JNI local";
+      case RecordTags.ROOT_JAVA_FRAME:
+        return "Java frame";
+      case RecordTags.ROOT_NATIVE_STACK:
+        return "native stack";
+      case RecordTags.ROOT_STICKY_CLASS:
+        return "sticky class";
+      case RecordTags.ROOT_THREAD_BLOCK:
+        return "thread block";
+      case RecordTags.ROOT_MONITOR_USED:
+        return "busy monitor";
+      case RecordTags.ROOT_THREAD_OBJ:
+        return "thread";
+      default:
+        return "not a root";
+    }
+  }
+
+  /**
+   * Formats a path returned by {@link #find}, one object per line, with the field, array index
+   * or other reference that leads to each object after the first.
+   */
+  public String format(int[] path, HeapDump dump) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < path.length; i++) {
+      long objId = graph.objId(path[i]);
+      if (i == 0) {
+        sb.append(String.format("0x%x %s (%s)", objId, HeapObjects.describe(dump, objId),
+            rootKindName(graph.rootKind(path[i]))));
+      } else {
+        String reference = HeapObjects.describeReference(dump, graph.objId(path[i - 1]), objId);
+        sb.append(String.format("%" + (2 * i) + "s%s -> 0x%x %s", "", reference, objId,
+            HeapObjects.describe(dump, objId)));
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("Usage: java PathsToRoots hprof-file (0x<object id> | class name)...");
+      System.exit(1);
+    }
+    File file = new File(args[0]);
+    ReferenceGraph graph = ReferenceGraphHandler.build(file);
+    try (HeapDump dump = HeapDump.open(file)) {
+      int[] targets = new int[16];
+      int numTargets = 0;
+      for (int i = 1; i < args.length; i++) {
+        List<Long> objIds = new ArrayList<>();
+        if (args[i].startsWith("0x")) {
+          objIds.add(Long.parseLong(args[i].substring(2), 16));
+        } else {
+          String className = args[i].replace('.', '/');
+          for (HeapClass cls : dump.classes()) {
+            if (className.equals(cls.name())) {
+              // listed by the object index, without reading the dump
+              for (long objId : dump.instancesOf(cls.objId())) {
+                objIds.add(objId);
+              }
+            }
+          }
+        }
+        for (long objId : objIds) {
+          int ordinal = graph.ordinalOf(objId);
+          if (ordinal == -1) {
+            System.err.println(String.format("No object 0x%x", objId));
+            continue;
+          }
+          if (numTargets == targets.length) {
+            targets = Arrays.copyOf(targets, numTargets * 2);
+          }
+          targets[numTargets++] = ordinal;
+        }
+      }
+
+      PathsToRoots paths = new PathsToRoots(graph);
+      for (int[] path : paths.find(Arrays.copyOf(targets, numTargets), 10)) {
+        System.out.println(paths.format(path, dump));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import edu.tufts.eaftan.hprofparser.util.BigIntArray;
+import edu.tufts.eaftan.hprofparser.util.BigLongArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The references between the objects of a heap dump, in compressed sparse row form, in both
+ * directions.  Objects are numbered by dense int ordinals in order of object id.  One extra
+ * vertex, the super root, numbered {@link #numObjects()}, references every GC root, so that the
+ * roots can be treated as a single source; a GC root is an object with the super root among its
+ * inbound references.
+ *
+ * <p>The outbound references of vertex {@code v} are {@code outboundEdge(i)} for {@code i} from
+ * {@code outboundStart(v)} up to {@code outboundEnd(v)}, in the order they appear in the object's
+ * record, and likewise for the inbound references, which are in ascending order.  References to
+ * objects that are not in the dump are dropped.  Build graphs with {@code ReferenceGraphHandler}.
+ *
+ * <p>A graph is immutable and may be shared between threads.  Closing it releases the temporary
+ * files of a graph kept in them.
+ */
+public final class ReferenceGraph implements Closeable {
+
+  private final long[] objIds;
+  private final long[] shallowSizes;
+  // the kind of each root, in the order of the super root's references
+  private final byte[] rootKinds;
+  private final BigLongArray outOffsets;
+  private final BigIntArray outEdges;
+  private final BigLongArray inOffsets;
+  private final BigIntArray inEdges;
+
+  ReferenceGraph(long[] objIds, long[] shallowSizes, byte[] rootKinds, BigLongArray outOffsets,
+      BigIntArray outEdges, BigLongArray inOffsets, BigIntArray inEdges) {
+    this.objIds = objIds;
+    this.shallowSizes = shallowSizes;
+    this.rootKinds = rootKinds;
+    this.outOffsets = outOffsets;
+    this.outEdges = outEdges;
+    this.inOffsets = inOffsets;
+    this.inEdges = inEdges;
+  }
+
+  public int numObjects() {
+    return objIds.length;
+  }
+
+  /**
+   * Returns the number of vertices, which is the number of objects plus the super root.
+   */
+  public int numVertices() {
+    return objIds.length + 1;
+  }
+
+  public int superRoot() {
+    return objIds.length;
+  }
+
+  /**
+   * Returns the number of references, including those from the super root.
+   */
+  public long numEdges() {
+    return outEdges.size();
+  }
+
+  public long objId(int ordinal) {
+    return objIds[ordinal];
+  }
+
+  /**
+   * Returns the ordinal of the object with the given id, or -1 if it is not in the dump.
+   */
+  public int ordinalOf(long objId) {
+    int ordinal = Arrays.binarySearch(objIds, objId);
+    return ordinal >= 0 ? ordinal : -1;
+  }
+
+  /**
+   * Returns the size of the object's fields or elements as recorded in the dump, or 0 for the
+   * super root.
+   */
+  public long shallowSize(int vertex) {
+    return vertex < objIds.length ? shallowSizes[vertex] : 0;
+  }
+
+  public long outboundStart(int vertex) {
+    return outOffsets.get(vertex);
+  }
+
+  public long outboundEnd(int vertex) {
+    return outOffsets.get(vertex + 1);
+  }
+
+  public int outboundEdge(long index) {
+    return outEdges.get(index);
+  }
+
+  public long inboundStart(int vertex) {
+    return inOffsets.get(vertex);
+  }
+
+  public long inboundEnd(int vertex) {
+    return inOffsets.get(vertex + 1);
+  }
+
+  public int inboundEdge(long index) {
+    return inEdges.get(index);
+  }
+
+  public boolean isRoot(int vertex) {
+    long end = inboundEnd(vertex);
+    // the super root has the highest ordinal, so it is last among the inbound references
+    return end > inboundStart(vertex) && inboundEdge(end - 1) == superRoot();
+  }
+
+  /**
+   * Returns the tag of the root sub-record (see {@code RecordTags}) that first reported the
+   * object as a GC root, or 0 if it is not a root.
+   */
+  public byte rootKind(int vertex) {
+    // the super root references the roots in ascending order
+    long start = outboundStart(superRoot());
+    long lo = 0;
+    long hi = outboundEnd(superRoot()) - start - 1;
+    while (lo <= hi) {
+      long mid = (lo + hi) >>> 1;
+      int root = outboundEdge(start + mid);
+      if (root < vertex) {
+        lo = mid + 1;
+      } else if (root > vertex) {
+        hi = mid - 1;
+      } else {
+        return rootKinds[(int) mid];
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    outOffsets.close();
+    outEdges.close();
+    inOffsets.close();
+    inEdges.close();
+  }
+
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordMask;
+import edu.tufts.eaftan.hprofparser.parser.ClassLayout;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.util.BigIntArray;
+import edu.tufts.eaftan.hprofparser.util.BigLongArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Collects the objects, references and GC roots of a heap dump into a {@code ReferenceGraph}.
+ *
+ * <p>An instance references the objects in its fields and its class; an object array its
+ * elements and its class; a class its superclass, class loader, signers, protection domain and
+ * the objects in its constant pool and static fields.  While parsing, references are kept as
+ * object ids in the order the records arrive; {@link #build} then sorts the object ids,
+ * translates the references to ordinals and places them by source, and derives the inbound
+ * references by a counting sort in parallel.
+ *
+ * <p>Everything is kept in primitive arrays, either on the Java heap or, if the handler is given
+ * a temporary directory, in memory-mapped files there, which the operating system can page out.
+ * In that case the object ids and shallow sizes, 16 bytes per object, stay on the heap.  While
+ * it runs, {@link #build} also needs 8 bytes per object record on the heap to sort the object
+ * ids, up to twice that if records repeat an object, and a byte per object to mark the roots.
+ */
+public class ReferenceGraphHandler extends NullRecordHandler {
+
+  private final File tempDir;
+  private int idSize;
+
+  // one entry per object record, in the order the records arrive
+  private final BigLongArray objIds;
+  private final BigLongArray shallowSizes;
+  private final BigIntArray numReferences;
+
+  // the references of every object record, concatenated
+  private final BigLongArray references;
+  private final BigLongArray roots;
+  private byte[] rootKinds = new byte[16];
+
+  /**
+   * Creates a handler that keeps the graph on the Java heap.
+   */
+  public ReferenceGraphHandler() {
+    tempDir = null;
+    objIds = new BigLongArray();
+    shallowSizes = new BigLongArray();
+    numReferences = new BigIntArray();
+    references = new BigLongArray();
+    roots = new BigLongArray();
+  }
+
+  /**
+   * Creates a handler that keeps the graph, and its own working data, in memory-mapped temporary
+   * files in {@code tempDir}.
+   */
+  public ReferenceGraphHandler(File tempDir) throws IOException {
+    Preconditions.checkNotNull(tempDir);
+    this.tempDir = tempDir;
+    objIds = BigLongArray.mapped(tempDir);
+    shallowSizes = BigLongArray.mapped(tempDir);
+    numReferences = BigIntArray.mapped(tempDir);
+    references = BigLongArray.mapped(tempDir);
+    roots = BigLongArray.mapped(tempDir);
+  }
+
+  /**
+   * Parses {@code hprofFile} and builds its reference graph on the Java heap.
+   */
+  public static ReferenceGraph build(File hprofFile) throws IOException {
+    ReferenceGraphHandler handler = new ReferenceGraphHandler();
+    HprofParser parser = new HprofParser(handler);
+    parser.setInputMode(HprofParser.InputMode.MAPPED);
+    parser.parse(hprofFile);
+    return handler.build();
+  }
+
+  @Override
+  public RecordMask recordMask() {
+    return RecordMask.none().includeHeapDump(RecordTags.ROOT_UNKNOWN,
+        RecordTags.ROOT_JNI_GLOBAL, RecordTags.ROOT_JNI_LOCAL, RecordTags.ROOT_JAVA_FRAME,
+        RecordTags.ROOT_NATIVE_STACK, RecordTags.ROOT_STICKY_CLASS, RecordTags.ROOT_THREAD_BLOCK,
+        RecordTags.ROOT_MONITOR_USED, RecordTags.ROOT_THREAD_OBJ, RecordTags.CLASS_DUMP,
+        RecordTags.INSTANCE_DUMP, RecordTags.OBJ_ARRAY_DUMP, RecordTags.PRIM_ARRAY_DUMP);
+  }
+
+  @Override
+  public void header(String format, int idSize, long time) {
+    this.idSize = idSize;
+  }
+
+  @Override
+  public void rootUnknown(long objId) {
+    addRoot(objId, RecordTags.ROOT_UNKNOWN);
+  }
+
+  @Override
+  public void rootJNIGlobal(long objId, long JNIGlobalRefId) {
+    addRoot(objId, RecordTags.ROOT_JNI_GLOBAL);
+  }
+
+  @Override
+  public void rootJNILocal(long objId, int threadSerialNum, int frameNum) {
+    addRoot(objId, RecordTags.ROOT_JNI_LOCAL);
+  }
+
+  @Override
+  public void rootJavaFrame(long objId, int threadSerialNum, int frameNum) {
+    addRoot(objId, RecordTags.ROOT_JAVA_FRAME);
+  }
+
+  @Override
+  public void rootNativeStack(long objId, int threadSerialNum) {
+    addRoot(objId, RecordTags.ROOT_NATIVE_STACK);
+  }
+
+  @Override
+  public void rootStickyClass(long objId) {
+    addRoot(objId, RecordTags.ROOT_STICKY_CLASS);
+  }
+
+  @Override
+  public void rootThreadBlock(long objId, int threadSerialNum) {
+    addRoot(objId, RecordTags.ROOT_THREAD_BLOCK);
+  }
+
+  @Override
+  public void rootMonitorUsed(long objId) {
+    addRoot(objId, RecordTags.ROOT_MONITOR_USED);
+  }
+
+  @Override
+  public void rootThreadObj(long objId, int threadSerialNum, int stackTraceSerialNum) {
+    addRoot(objId, RecordTags.ROOT_THREAD_OBJ);
+  }
+
+  @Override
+  public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+      long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+      long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+      InstanceField[] instanceFields) {
+    int n = addReference(superClassObjId) + addReference(classLoaderObjId)
+        + addReference(signersObjId) + addReference(protectionDomainObjId);
+    long size = 0;
+    for (Constant c : constants) {
+      if (c.value.type == Type.OBJ) {
+        n += addReference((Long) c.value.value);
+      }
+    }
+    for (Static s : statics) {
+      if (s.value.type == Type.OBJ) {
+        n += addReference((Long) s.value.value);
+        size += idSize;
+      } else {
+        size += s.value.type.sizeInBytes();
+      }
+    }
+    addObject(classObjId, size, n);
+  }
+
+  @Override
+  public void instanceDump(InstanceView instance) {
+    ClassLayout layout = instance.layout();
+    int n = addReference(instance.classObjId());
+    for (int fieldIndex : layout.objectFieldIndices()) {
+      n += addReference(instance.getObjectId(fieldIndex));
+    }
+    addObject(instance.objId(), layout.packedSize(), n);
+  }
+
+  @Override
+  public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+      long[] elems) {
+    int n = addReference(elemClassObjId);
+    for (long elem : elems) {
+      n += addReference(elem);
+    }
+    addObject(objId, (long) elems.length * idSize, n);
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+      ByteBuffer elems) {
+    addObject(objId, elems.remaining(), 0);
+  }
+
+  private void addRoot(long objId, byte kind) {
+    if (roots.size() == rootKinds.length) {
+      rootKinds = Arrays.copyOf(rootKinds, rootKinds.length * 2);
+    }
+    rootKinds[(int) roots.add(objId)] = kind;
+  }
+
+  /**
+   * Records a reference to {@code objId} unless it is null, returning the number recorded.
+   */
+  private int addReference(long objId) {
+    if (objId == 0) {
+      return 0;
+    }
+    references.add(objId);
+    return 1;
+  }
+
+  private void addObject(long objId, long shallowSize, int numRefs) {
+    objIds.add(objId);
+    shallowSizes.add(shallowSize);
+    numReferences.add(numRefs);
+  }
+
+  private BigIntArray newIntArray(long size) throws IOException {
+    return tempDir != null ? BigIntArray.mapped(tempDir, size) : new BigIntArray(size);
+  }
+
+  private BigLongArray newLongArray(long size) throws IOException {
+    return tempDir != null ? BigLongArray.mapped(tempDir, size) : new BigLongArray(size);
+  }
+
+  /**
+   * Builds the graph of the records seen so far, sorting the inbound references on a new pool
+   * with one thread per processor.
+   */
+  public ReferenceGraph build() throws IOException {
+    ForkJoinPool pool = new ForkJoinPool();
+    try {
+      return build(pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Builds the graph of the records seen so far, sorting the inbound references on
+   * {@code pool}.
+   */
+  public ReferenceGraph build(ForkJoinPool pool) throws IOException {
+    long numRecords = objIds.size();
+    Preconditions.checkState(numRecords < Integer.MAX_VALUE - 1,
+        "Too many objects: %s", numRecords);
+
+    // ordinals are positions in the sorted, distinct object ids
+    long[] sortedIds = new long[(int) numRecords];
+    for (int i = 0; i < sortedIds.length; i++) {
+      sortedIds[i] = objIds.get(i);
+    }
+    Arrays.parallelSort(sortedIds);
+    int numObjects = 0;
+    for (int i = 0; i < sortedIds.length; i++) {
+      if (numObjects == 0 || sortedIds[i] != sortedIds[numObjects - 1]) {
+        sortedIds[numObjects++] = sortedIds[i];
+      }
+    }
+    long[] ids =
+        numObjects == sortedIds.length ? sortedIds : Arrays.copyOf(sortedIds, numObjects);
+    sortedIds = null;
+    int numVertices = numObjects + 1;
+    int superRoot = numObjects;
+
+    // translate the references, counting each vertex's into outOffsets[vertex + 2]
+    long[] shallow = new long[numObjects];
+    BigLongArray outOffsets = newLongArray(numVertices + 2);
+    BigIntArray ordinals = newIntArray(numRecords);
+    BigIntArray targets = newIntArray(references.size());
+    long ref = 0;
+    for (long i = 0; i < numRecords; i++) {
+      int ordinal = Arrays.binarySearch(ids, objIds.get(i));
+      ordinals.set(i, ordinal);
+      shallow[ordinal] += shallowSizes.get(i);
+      for (int n = numReferences.get(i); n > 0; n--, ref++) {
+        int target = ordinalOf(ids, references.get(ref));
+        targets.set(ref, target);
+        if (target != -1) {
+          increment(outOffsets, ordinal + 2);
+        }
+      }
+    }
+    // the kind of root each object is first reported as, or 0
+    byte[] rootKindOf = new byte[numObjects];
+    int numRoots = 0;
+    for (long i = 0; i < roots.size(); i++) {
+      int root = ordinalOf(ids, roots.get(i));
+      if (root != -1 && rootKindOf[root] == 0) {
+        rootKindOf[root] = rootKinds[(int) i];
+        numRoots++;
+        increment(outOffsets, superRoot + 2);
+      }
+    }
+    prefixSum(outOffsets);
+
+    // place each reference, advancing outOffsets[vertex + 1] from the vertex's start to its end
+    BigIntArray outEdges = newIntArray(outOffsets.get(numVertices + 1));
+    ref = 0;
+    for (long i = 0; i < numRecords; i++) {
+      int ordinal = ordinals.get(i);
+      for (int n = numReferences.get(i); n > 0; n--, ref++) {
+        int target = targets.get(ref);
+        if (target != -1) {
+          outEdges.set(increment(outOffsets, ordinal + 1), target);
+        }
+      }
+    }
+    byte[] kinds = new byte[numRoots];
+    numRoots = 0;
+    for (int root = 0; root < numObjects; root++) {
+      if (rootKindOf[root] != 0) {
+        outEdges.set(increment(outOffsets, superRoot + 1), root);
+        kinds[numRoots++] = rootKindOf[root];
+      }
+    }
+    targets.close();
+    ordinals.close();
+
+    BigLongArray inOffsets = newLongArray(numVertices + 2);
+    BigIntArray inEdges = newIntArray(outEdges.size());
+    transpose(pool, numVertices, outOffsets, outEdges, inOffsets, inEdges);
+    return new ReferenceGraph(ids, shallow, kinds, outOffsets, outEdges, inOffsets, inEdges);
+  }
+
+  /**
+   * Fills in the inbound references by a counting sort of the outbound ones on the target
+   * vertex, in two passes.  The targets are split into one range per task, and each task first
+   * scatters the references of a range of source vertices, holding about the same number of
+   * references, into the target ranges; a table of how many references each task has for each
+   * range gives every task its own place in every range, so the tasks need not synchronize.
+   * Each task then counting-sorts one target range with a histogram of that range only.  Both
+   * passes keep the references in source order, so each vertex's inbound references come out in
+   * ascending order.  Besides the result, this takes 8 bytes per reference and per vertex.
+   */
+  private void transpose(ForkJoinPool pool, final int numVertices, final BigLongArray outOffsets,
+      final BigIntArray outEdges, final BigLongArray inOffsets, final BigIntArray inEdges)
+      throws IOException {
+    final int numTasks = Math.max(1, Math.min(pool.getParallelism(), numVertices / 1024));
+    // target vertex v is in range v / rangeSize
+    final int rangeSize = (numVertices + numTasks - 1) / numTasks;
+    final long numEdges = outEdges.size();
+    // the number of references from each task's sources into each target range, and then where
+    // the task places the first of them
+    final long[][] positions = new long[numTasks][numTasks];
+    final long[] rangeStarts = new long[numTasks + 1];
+    // (target << 32 | source) pairs, grouped by target range
+    final BigLongArray pairs = newLongArray(numEdges);
+    try {
+      List<Callable<Void>> countTasks = new ArrayList<>();
+      List<Callable<Void>> scatterTasks = new ArrayList<>();
+      List<Callable<Void>> sortTasks = new ArrayList<>();
+      for (int t = 0; t < numTasks; t++) {
+        final long[] taskPositions = positions[t];
+        // sources with about 1/numTasks of the references
+        final int lo = firstVertexFrom(outOffsets, numVertices, numEdges * t / numTasks);
+        final int hi = firstVertexFrom(outOffsets, numVertices, numEdges * (t + 1) / numTasks);
+        countTasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (long e = outOffsets.get(lo); e < outOffsets.get(hi); e++) {
+              taskPositions[outEdges.get(e) / rangeSize]++;
+            }
+            return null;
+          }
+        });
+        scatterTasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (int v = lo; v < hi; v++) {
+              for (long e = outOffsets.get(v); e < outOffsets.get(v + 1); e++) {
+                long target = outEdges.get(e);
+                pairs.set(taskPositions[(int) target / rangeSize]++, target << 32 | v);
+              }
+            }
+            return null;
+          }
+        });
+
+        final int range = t;
+        final int targetLo = (int) Math.min(numVertices, (long) rangeSize * t);
+        final int targetHi = (int) Math.min(numVertices, (long) rangeSize * (t + 1));
+        sortTasks.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            sortRange(pairs, rangeStarts[range], rangeStarts[range + 1], targetLo, targetHi,
+                inOffsets, inEdges);
+            return null;
+          }
+        });
+      }
+      runAll(pool, countTasks);
+      // ranges in order, and within each range, the tasks in order of their sources
+      long position = 0;
+      for (int range = 0; range < numTasks; range++) {
+        rangeStarts[range] = position;
+        for (long[] taskPositions : positions) {
+          long count = taskPositions[range];
+          taskPositions[range] = position;
+          position += count;
+        }
+      }
+      rangeStarts[numTasks] = position;
+      runAll(pool, scatterTasks);
+      runAll(pool, sortTasks);
+      inOffsets.set(numVertices, numEdges);
+      inOffsets.set(numVertices + 1, numEdges);
+    } finally {
+      pairs.close();
+    }
+  }
+
+  /**
+   * Places the pairs from {@code start} to {@code end}, whose targets are the vertices from
+   * {@code targetLo} to {@code targetHi}, as those vertices' inbound references, which start at
+   * {@code start}.
+   */
+  private void sortRange(BigLongArray pairs, long start, long end, int targetLo, int targetHi,
+      BigLongArray inOffsets, BigIntArray inEdges) throws IOException {
+    BigLongArray cursor = newLongArray(targetHi - targetLo);
+    try {
+      for (long i = start; i < end; i++) {
+        increment(cursor, (int) (pairs.get(i) >>> 32) - targetLo);
+      }
+      long position = start;
+      for (int v = targetLo; v < targetHi; v++) {
+        long count = cursor.get(v - targetLo);
+        cursor.set(v - targetLo, position);
+        inOffsets.set(v, position);
+        position += count;
+      }
+      for (long i = start; i < end; i++) {
+        long pair = pairs.get(i);
+        inEdges.set(increment(cursor, (int) (pair >>> 32) - targetLo), (int) pair);
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns the first vertex whose outbound references start at or after the given one, or
+   * {@code numVertices} if there is none.
+   */
+  private static int firstVertexFrom(BigLongArray outOffsets, int numVertices, long edge) {
+    int lo = 0;
+    int hi = numVertices;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (outOffsets.get(mid) < edge) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static void runAll(ForkJoinPool pool, List<Callable<Void>> tasks) throws IOException {
+    for (Future<Void> result : pool.invokeAll(tasks)) {
+      try {
+        result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while building reference graph", e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Increments {@code array[index]}, returning its previous value.
+   */
+  private static long increment(BigLongArray array, long index) {
+    long value = array.get(index);
+    array.set(index, value + 1);
+    return value;
+  }
+
+  private static void prefixSum(BigLongArray array) {
+    for (long i = 1; i < array.size(); i++) {
+      array.set(i, array.get(i) + array.get(i - 1));
+    }
+  }
+
+  private static int ordinalOf(long[] ids, long objId) {
+    int ordinal = Arrays.binarySearch(ids, objId);
+    return ordinal >= 0 ? ordinal : -1;
+  }
+
+}
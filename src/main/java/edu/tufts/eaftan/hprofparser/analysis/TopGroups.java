@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.util.ExternalLongPairSorter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Receives pairs sorted by key, gathers each run of pairs with the same key into a group, and
+ * keeps the {@code n} greatest groups.  Subclasses say what a group is: {@link #startGroup} and
+ * {@link #addToGroup} accumulate one, and {@link #endGroup} turns it into a result, or drops it.
+ *
+ * @param <G> the result for a group
+ */
+abstract class TopGroups<G> implements ExternalLongPairSorter.PairConsumer {
+
+  private final int n;
+  private final Comparator<? super G> order;
+  private final PriorityQueue<G> top;
+  private boolean started = false;
+  private long key;
+
+  TopGroups(int n, Comparator<? super G> order) {
+    Preconditions.checkArgument(n >= 0);
+    this.n = n;
+    this.order = order;
+    this.top = new PriorityQueue<>(Math.max(n, 1), order);
+  }
+
+  /**
+   * Starts a group of pairs with the given key.
+   */
+  abstract void startGroup(long key);
+
+  abstract void addToGroup(long value);
+
+  /**
+   * Returns the result for the group just ended, or null if it should not be kept.
+   */
+  abstract G endGroup();
+
+  @Override
+  public void accept(long key, long value) throws IOException {
+    if (!started || key != this.key) {
+      end();
+      started = true;
+      this.key = key;
+      startGroup(key);
+    }
+    addToGroup(value);
+  }
+
+  private void end() {
+    if (!started) {
+      return;
+    }
+    started = false;
+    G group = endGroup();
+    if (group == null) {
+      return;
+    }
+    if (top.size() < n) {
+      top.add(group);
+    } else if (n > 0 && order.compare(group, top.peek()) > 0) {
+      top.poll();
+      top.add(group);
+    }
+  }
+
+  /**
+   * Passes the pairs in {@code sorter} through this and returns the kept groups, greatest
+   * first.
+   */
+  List<G> top(ExternalLongPairSorter sorter) throws IOException {
+    sorter.finish(this);
+    end();
+    List<G> result = new ArrayList<>(top);
+    Collections.sort(result, Collections.reverseOrder(order));
+    return result;
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.export;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * One column of a {@code ColumnarClass}: the values of one field, or the object ids, of all of
+ * the class's instances.
+ */
+public final class Column {
+
+  /**
+   * Reads the values of a column in order.
+   */
+  public final class Reader implements Closeable {
+    private final DataInputStream in;
+    private long remaining = size;
+
+    private Reader() throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    /**
+     * Returns the next value of an integral, boolean (0 or 1), char or object id column.
+     */
+    public long nextLong() throws IOException {
+      next();
+      switch (type) {
+        case OBJ:
+        case LONG:
+          return in.readLong();
+        case INT:
+          return in.readInt();
+        case SHORT:
+          return in.readShort();
+        case CHAR:
+          return in.readChar();
+        case BYTE:
+          return in.readByte();
+        case BOOL:
+          return in.readBoolean() ? 1 : 0;
+        default:
+          throw new IllegalStateException("Column of " + type + " is not integral");
+      }
+    }
+
+    /**
+     * Returns the next value of a numeric column.
+     */
+    public double nextDouble() throws IOException {
+      switch (type) {
+        case DOUBLE:
+          next();
+          return in.readDouble();
+        case FLOAT:
+          next();
+          return in.readFloat();
+        default:
+          return nextLong();
+      }
+    }
+
+    private void next() {
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      remaining--;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private final File file;
+  private final Type type;
+  private final long size;
+
+  Column(File file, Type type, long size) {
+    this.file = file;
+    this.type = type;
+    this.size = size;
+  }
+
+  public File file() {
+    return file;
+  }
+
+  public Type type() {
+    return type;
+  }
+
+  /**
+   * Returns the number of values in the column.
+   */
+  public long size() {
+    return size;
+  }
+
+  public Reader reader() throws IOException {
+    return new Reader();
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Buffers values to append to one column file.
+ */
+final class ColumnBuffer {
+
+  private static final int INITIAL_CAPACITY = 256;
+  private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+  private final File file;
+  private byte[] bytes = new byte[INITIAL_CAPACITY];
+  private int size = 0;
+
+  ColumnBuffer(File file) {
+    this.file = file;
+  }
+
+  private void ensureRoom(int n) {
+    if (size + n > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+    }
+  }
+
+  void putLong(long v) {
+    ensureRoom(8);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      bytes[size++] = (byte) (v >>> shift);
+    }
+  }
+
+  /**
+   * Appends {@code n} bytes of {@code src} starting at absolute position {@code offset}.
+   */
+  void put(ByteBuffer src, int offset, int n) {
+    ensureRoom(n);
+    for (int i = 0; i < n; i++) {
+      bytes[size++] = src.get(offset + i);
+    }
+  }
+
+  /**
+   * Appends the buffered bytes to the file and empties the buffer.
+   */
+  void flush() throws IOException {
+    if (size > 0) {
+      try (FileOutputStream out = new FileOutputStream(file, true)) {
+        out.write(bytes, 0, size);
+      }
+      size = 0;
+    }
+    if (bytes.length > MAX_RETAINED_CAPACITY) {
+      bytes = new byte[INITIAL_CAPACITY];
+    }
+  }
+
+}
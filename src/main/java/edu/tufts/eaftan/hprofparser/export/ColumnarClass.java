@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.export;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import java.io.File;
+
+/**
+ * The instances of one class in a {@code ColumnarDump}.
+ */
+public final class ColumnarClass {
+
+  private final File dir;
+  private final int ordinal;
+  private final long classObjId;
+  private final String name;
+  private final long instanceCount;
+  private final String[] fieldNames;
+  private final Type[] fieldTypes;
+
+  ColumnarClass(File dir, int ordinal, long classObjId, String name, long instanceCount,
+      String[] fieldNames, Type[] fieldTypes) {
+    this.dir = dir;
+    this.ordinal = ordinal;
+    this.classObjId = classObjId;
+    this.name = name;
+    this.instanceCount = instanceCount;
+    this.fieldNames = fieldNames;
+    this.fieldTypes = fieldTypes;
+  }
+
+  public int ordinal() {
+    return ordinal;
+  }
+
+  public long classObjId() {
+    return classObjId;
+  }
+
+  /**
+   * Returns the class name, or null if the dump had no load class record for the class.
+   */
+  public String name() {
+    return name;
+  }
+
+  public long instanceCount() {
+    return instanceCount;
+  }
+
+  /**
+   * Returns the number of instance fields, including those of superclasses.
+   */
+  public int numFields() {
+    return fieldNames.length;
+  }
+
+  public String fieldName(int fieldIndex) {
+    return fieldNames[fieldIndex];
+  }
+
+  public Type fieldType(int fieldIndex) {
+    return fieldTypes[fieldIndex];
+  }
+
+  /**
+   * Returns the index of the field with the given name, or -1 if there is none.  If a subclass
+   * field hides a superclass field of the same name, the subclass field is found.
+   */
+  public int fieldIndex(String fieldName) {
+    for (int i = 0; i < fieldNames.length; i++) {
+      if (fieldName.equals(fieldNames[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the column of instance object ids.
+   */
+  public Column objIds() {
+    return new Column(new File(dir, ColumnarDump.OBJ_ID_COLUMN), Type.OBJ, instanceCount);
+  }
+
+  public Column column(int fieldIndex) {
+    return new Column(new File(dir, Integer.toString(fieldIndex)), fieldTypes[fieldIndex],
+        instanceCount);
+  }
+
+  /**
+   * Returns the column of the field with the given name.
+   *
+   * @throws IllegalArgumentException if the class has no such field
+   */
+  public Column column(String fieldName) {
+    int fieldIndex = fieldIndex(fieldName);
+    if (fieldIndex < 0) {
+      throw new IllegalArgumentException(name + " has no field " + fieldName);
+    }
+    return column(fieldIndex);
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + instanceCount + " instances)";
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.export;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A heap dump exported by {@code ColumnarExportHandler}.  The export is a directory holding a
+ * catalog file and one subdirectory per class with instances, named by the class's ordinal in
+ * the catalog.  A class's subdirectory holds one column file of instance object ids and one
+ * column file per instance field, named by the field's index in the class's {@code ClassLayout}.
+ * Column files are arrays of big-endian values of the field's type; object ids are always 8
+ * bytes.  Row {@code i} of every column of a class belongs to the same instance.
+ *
+ * <p>The catalog holds, for each class in order of ordinal, its class object id and name, its
+ * number of instances, and the name and type of each of its fields.
+ */
+public final class ColumnarDump {
+
+  static final String CATALOG = "catalog";
+  static final String OBJ_ID_COLUMN = "id";
+  static final long MAGIC = 0x4850524f46434f4cL;    // "HPROFCOL"
+  static final int VERSION = 1;
+
+  private final File dir;
+  private final int idSize;
+  private final List<ColumnarClass> classes;
+
+  private ColumnarDump(File dir, int idSize, List<ColumnarClass> classes) {
+    this.dir = dir;
+    this.idSize = idSize;
+    this.classes = classes;
+  }
+
+  public static ColumnarDump open(File dir) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(new File(dir, CATALOG))))) {
+      if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException(dir + " is not a columnar heap dump export");
+      }
+      int idSize = in.readInt();
+      int numClasses = in.readInt();
+      List<ColumnarClass> classes = new ArrayList<>(numClasses);
+      for (int ordinal = 0; ordinal < numClasses; ordinal++) {
+        long classObjId = in.readLong();
+        String name = readName(in);
+        long instanceCount = in.readLong();
+        int numFields = in.readInt();
+        String[] fieldNames = new String[numFields];
+        Type[] fieldTypes = new Type[numFields];
+        for (int i = 0; i < numFields; i++) {
+          fieldNames[i] = readName(in);
+          fieldTypes[i] = Type.hprofTypeToEnum(in.readByte());
+        }
+        classes.add(new ColumnarClass(new File(dir, Integer.toString(ordinal)), ordinal,
+            classObjId, name, instanceCount, fieldNames, fieldTypes));
+      }
+      return new ColumnarDump(dir, idSize, Collections.unmodifiableList(classes));
+    }
+  }
+
+  private static String readName(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  public File dir() {
+    return dir;
+  }
+
+  /**
+   * Returns the identifier size of the dump that was exported.
+   */
+  public int idSize() {
+    return idSize;
+  }
+
+  /**
+   * Returns the classes that have instances, in order of ordinal.
+   */
+  public List<ColumnarClass> classes() {
+    return classes;
+  }
+
+  /**
+   * Returns the classes with the given name.  There can be more than one if several class
+   * loaders loaded a class of that name.
+   */
+  public List<ColumnarClass> classesNamed(String name) {
+    List<ColumnarClass> named = new ArrayList<>();
+    for (ColumnarClass c : classes) {
+      if (name.equals(c.name())) {
+        named.add(c);
+      }
+    }
+    return named;
+  }
+
+}
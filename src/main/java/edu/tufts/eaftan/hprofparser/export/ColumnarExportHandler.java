@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.export;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordMask;
+import edu.tufts.eaftan.hprofparser.parser.ClassLayout;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+import edu.tufts.eaftan.hprofparser.parser.StringTable;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.util.LongLongMap;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the instances in a heap dump to a columnar format that {@code ColumnarDump} reads, so
+ * that later analyses read only the fields they need.  See {@code ColumnarDump} for the layout of
+ * the output directory.
+ *
+ * <p>Values are buffered in memory and appended to the column files whenever the buffers reach a
+ * fixed total size, so memory use does not grow with the size of the dump.  Names are looked up
+ * in a {@code StringTable}, which must be filled by the same parse.
+ */
+public class ColumnarExportHandler extends NullRecordHandler {
+
+  /** Default total size of the column buffers, 64 MB. */
+  public static final long DEFAULT_BUFFER_BYTES = 64 << 20;
+
+  /**
+   * The columns of the instances of one class.
+   */
+  private static class ClassGroup {
+    final int ordinal;
+    final ClassLayout layout;
+    final ColumnBuffer objIds;
+    final ColumnBuffer[] fields;
+    long instanceCount = 0;
+
+    ClassGroup(int ordinal, ClassLayout layout, File dir) {
+      this.ordinal = ordinal;
+      this.layout = layout;
+      objIds = new ColumnBuffer(new File(dir, ColumnarDump.OBJ_ID_COLUMN));
+      fields = new ColumnBuffer[layout.numFields()];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = new ColumnBuffer(new File(dir, Integer.toString(i)));
+      }
+    }
+
+    void flush() throws IOException {
+      objIds.flush();
+      for (ColumnBuffer field : fields) {
+        field.flush();
+      }
+    }
+  }
+
+  private final File outputDir;
+  private final StringTable strings;
+  private final long bufferBytes;
+
+  private int idSize;
+  private final LongLongMap classNameIds = LongLongMap.onHeap(-1);
+  private final LongObjectMap<ClassGroup> groups = new LongObjectMap<>();
+  private final List<ClassGroup> groupList = new ArrayList<>();
+  private long bufferedBytes = 0;
+
+  public ColumnarExportHandler(File outputDir, StringTable strings) {
+    this(outputDir, strings, DEFAULT_BUFFER_BYTES);
+  }
+
+  public ColumnarExportHandler(File outputDir, StringTable strings, long bufferBytes) {
+    Preconditions.checkArgument(bufferBytes > 0);
+    this.outputDir = outputDir;
+    this.strings = strings;
+    this.bufferBytes = bufferBytes;
+  }
+
+  /**
+   * Exports {@code hprofFile} to {@code outputDir}, which must not exist or be empty.
+   */
+  public static void export(File hprofFile, File outputDir) throws IOException {
+    try (StringTable strings = new StringTable(hprofFile)) {
+      HprofParser parser = new HprofParser(new ColumnarExportHandler(outputDir, strings));
+      parser.setInputMode(HprofParser.InputMode.MAPPED);
+      parser.setStringTable(strings);
+      parser.parse(hprofFile);
+    }
+  }
+
+  @Override
+  public RecordMask recordMask() {
+    return RecordMask.none()
+        .includeTopLevel(RecordTags.LOAD_CLASS)
+        .includeHeapDump(RecordTags.INSTANCE_DUMP);
+  }
+
+  @Override
+  public void header(String format, int idSize, long time) {
+    this.idSize = idSize;
+    outputDir.mkdirs();
+    String[] existing = outputDir.list();
+    if (existing == null || existing.length > 0) {
+      throw new IllegalStateException(outputDir + " is not an empty directory");
+    }
+  }
+
+  @Override
+  public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+      long classNameStringId) {
+    classNameIds.put(classObjId, classNameStringId);
+  }
+
+  @Override
+  public void instanceDump(InstanceView instance) {
+    ClassGroup group = groups.get(instance.classObjId());
+    if (group == null) {
+      int ordinal = groupList.size();
+      File dir = new File(outputDir, Integer.toString(ordinal));
+      dir.mkdir();
+      group = new ClassGroup(ordinal, instance.layout(), dir);
+      groups.put(instance.classObjId(), group);
+      groupList.add(group);
+    }
+
+    group.instanceCount++;
+    group.objIds.putLong(instance.objId());
+    ByteBuffer values = instance.packedValues();
+    ClassLayout layout = group.layout;
+    for (int i = 0; i < group.fields.length; i++) {
+      Type type = layout.fieldType(i);
+      if (type == Type.OBJ) {
+        // ids are always written as 8 bytes
+        group.fields[i].putLong(instance.getObjectId(i));
+      } else {
+        group.fields[i].put(values, layout.fieldOffset(i), type.sizeInBytes());
+      }
+    }
+    bufferedBytes += 8 + layout.packedSize() + (8 - idSize) * layout.objectFieldIndices().length;
+    if (bufferedBytes >= bufferBytes) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    try {
+      for (ClassGroup group : groupList) {
+        group.flush();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    bufferedBytes = 0;
+  }
+
+  @Override
+  public void finished() {
+    flush();
+    try {
+      writeCatalog();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeCatalog() throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(new File(outputDir, ColumnarDump.CATALOG))))) {
+      out.writeLong(ColumnarDump.MAGIC);
+      out.writeInt(ColumnarDump.VERSION);
+      out.writeInt(idSize);
+      out.writeInt(groupList.size());
+      for (ClassGroup group : groupList) {
+        ClassLayout layout = group.layout;
+        out.writeLong(layout.classObjId());
+        writeName(out, classNameIds.get(layout.classObjId()));
+        out.writeLong(group.instanceCount);
+        out.writeInt(layout.numFields());
+        for (int i = 0; i < layout.numFields(); i++) {
+          writeName(out, layout.fieldNameStringId(i));
+          out.writeByte(layout.fieldType(i).hprofType());
+        }
+      }
+    }
+  }
+
+  private void writeName(DataOutputStream out, long stringId) throws IOException {
+    String name = stringId != -1 ? strings.get(stringId) : null;
+    out.writeBoolean(name != null);
+    if (name != null) {
+      out.writeUTF(name);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.out.println("Usage: java ColumnarExportHandler hprof-file output-dir");
+      System.exit(1);
+    }
+    export(new File(args[0]), new File(args[1]));
+  }
+
+}
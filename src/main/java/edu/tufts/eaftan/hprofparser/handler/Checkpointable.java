@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.handler;
+
+import java.io.IOException;
+
+/**
+ * A handler whose state can be saved in a parser checkpoint, so that a parse that is interrupted
+ * can be resumed where it left off (see {@code HprofParser.setCheckpointing}).
+ *
+ * <p>When a parse resumes, the parser calls {@link #restoreState} with the state saved at the
+ * checkpoint, instead of {@code header}, and then delivers the records that follow the
+ * checkpoint.
+ */
+public interface Checkpointable {
+
+  /**
+   * Returns everything the handler needs to carry on from the current record.
+   */
+  public abstract byte[] saveState() throws IOException;
+
+  /**
+   * Replaces the handler's state with one returned by {@link #saveState}.
+   */
+  public abstract void restoreState(byte[] state) throws IOException;
+
+}
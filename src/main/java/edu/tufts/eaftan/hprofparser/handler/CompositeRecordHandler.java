@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.handler;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.AllocSite;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.CPUSample;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes every record on to several handlers, so that several analyses can share one parse.
+ *
+ * <p>The composite's record mask is the union of its children's, and each record goes only to
+ * the children whose masks include it.  The header, the start and end of each heap dump, and
+ * {@code finished()} go to every child.  Children are called in the order they were given, on
+ * the parser's thread; see {@link #threaded} to give each its own thread instead.
+ */
+public class CompositeRecordHandler implements RecordHandler {
+
+  private static final RecordHandler[] NONE = new RecordHandler[0];
+
+  private final RecordHandler[] children;
+  private RecordMask mask;
+  // the children that want each top-level and heap dump record tag
+  private final RecordHandler[][] topLevel = new RecordHandler[256][];
+  private final RecordHandler[][] heapDump = new RecordHandler[256][];
+
+  public CompositeRecordHandler(RecordHandler... children) {
+    Preconditions.checkArgument(children.length > 0, "no handlers");
+    this.children = children.clone();
+    route();
+  }
+
+  /**
+   * Returns a composite that runs each of {@code children} on its own thread, fed through a
+   * {@code ThreadedRecordHandler}, so that a slow child does not hold up the parser or the other
+   * children for longer than its queue takes to fill.
+   */
+  public static CompositeRecordHandler threaded(RecordHandler... children) {
+    RecordHandler[] threaded = new RecordHandler[children.length];
+    for (int i = 0; i < children.length; i++) {
+      threaded[i] = new ThreadedRecordHandler(children[i]);
+    }
+    return new CompositeRecordHandler(threaded);
+  }
+
+  private void route() {
+    RecordMask union = RecordMask.none();
+    RecordMask[] masks = new RecordMask[children.length];
+    for (int i = 0; i < children.length; i++) {
+      masks[i] = children[i].recordMask();
+      union.include(masks[i]);
+    }
+    for (int tag = 0; tag < 256; tag++) {
+      List<RecordHandler> topLevelChildren = new ArrayList<>();
+      List<RecordHandler> heapDumpChildren = new ArrayList<>();
+      for (int i = 0; i < children.length; i++) {
+        if (masks[i].wantsTopLevel((byte) tag)) {
+          topLevelChildren.add(children[i]);
+        }
+        if (masks[i].wantsHeapDump((byte) tag)) {
+          heapDumpChildren.add(children[i]);
+        }
+      }
+      topLevel[tag] = topLevelChildren.toArray(NONE);
+      heapDump[tag] = heapDumpChildren.toArray(NONE);
+    }
+    mask = union;
+  }
+
+  private RecordHandler[] topLevel(byte tag) {
+    return topLevel[tag & 0xff];
+  }
+
+  private RecordHandler[] heapDump(byte tag) {
+    return heapDump[tag & 0xff];
+  }
+
+  /**
+   * Returns the union of the children's masks.  The children are asked again each time, since
+   * the parser calls this at the start of every parse.
+   */
+  @Override
+  public RecordMask recordMask() {
+    route();
+    return mask;
+  }
+
+  @Override
+  public void header(String format, int idSize, long time) {
+    for (RecordHandler child : children) {
+      child.header(format, idSize, time);
+    }
+  }
+
+  @Override
+  public void stringInUTF8(long id, String data) {
+    for (RecordHandler child : topLevel(RecordTags.STRING_IN_UTF8)) {
+      child.stringInUTF8(id, data);
+    }
+  }
+
+  @Override
+  public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+      long classNameStringId) {
+    for (RecordHandler child : topLevel(RecordTags.LOAD_CLASS)) {
+      child.loadClass(classSerialNum, classObjId, stackTraceSerialNum, classNameStringId);
+    }
+  }
+
+  @Override
+  public void unloadClass(int classSerialNum) {
+    for (RecordHandler child : topLevel(RecordTags.UNLOAD_CLASS)) {
+      child.unloadClass(classSerialNum);
+    }
+  }
+
+  @Override
+  public void stackFrame(long stackFrameId, long methodNameStringId, long methodSigStringId,
+      long sourceFileNameStringId, int classSerialNum, int location) {
+    for (RecordHandler child : topLevel(RecordTags.STACK_FRAME)) {
+      child.stackFrame(stackFrameId, methodNameStringId, methodSigStringId,
+          sourceFileNameStringId, classSerialNum, location);
+    }
+  }
+
+  @Override
+  public void stackTrace(int stackTraceSerialNum, int threadSerialNum, int numFrames,
+      long[] stackFrameIds) {
+    for (RecordHandler child : topLevel(RecordTags.STACK_TRACE)) {
+      child.stackTrace(stackTraceSerialNum, threadSerialNum, numFrames, stackFrameIds);
+    }
+  }
+
+  @Override
+  public void allocSites(short bitMaskFlags, float cutoffRatio, int totalLiveBytes,
+      int totalLiveInstances, long totalBytesAllocated, long totalInstancesAllocated,
+      AllocSite[] sites) {
+    for (RecordHandler child : topLevel(RecordTags.ALLOC_SITES)) {
+      child.allocSites(bitMaskFlags, cutoffRatio, totalLiveBytes, totalLiveInstances,
+          totalBytesAllocated, totalInstancesAllocated, sites);
+    }
+  }
+
+  @Override
+  public void heapSummary(int totalLiveBytes, int totalLiveInstances, long totalBytesAllocated,
+      long totalInstancesAllocated) {
+    for (RecordHandler child : topLevel(RecordTags.HEAP_SUMMARY)) {
+      child.heapSummary(totalLiveBytes, totalLiveInstances, totalBytesAllocated,
+          totalInstancesAllocated);
+    }
+  }
+
+  @Override
+  public void startThread(int threadSerialNum, long threadObjectId, int stackTraceSerialNum,
+      long threadNameStringId, long threadGroupNameId, long threadParentGroupNameId) {
+    for (RecordHandler child : topLevel(RecordTags.START_THREAD)) {
+      child.startThread(threadSerialNum, threadObjectId, stackTraceSerialNum, threadNameStringId,
+          threadGroupNameId, threadParentGroupNameId);
+    }
+  }
+
+  @Override
+  public void endThread(int threadSerialNum) {
+    for (RecordHandler child : topLevel(RecordTags.END_THREAD)) {
+      child.endThread(threadSerialNum);
+    }
+  }
+
+  @Override
+  public void heapDump() {
+    for (RecordHandler child : children) {
+      child.heapDump();
+    }
+  }
+
+  @Override
+  public void heapDumpEnd() {
+    for (RecordHandler child : children) {
+      child.heapDumpEnd();
+    }
+  }
+
+  @Override
+  public void heapDumpSegment() {
+    for (RecordHandler child : children) {
+      child.heapDumpSegment();
+    }
+  }
+
+  @Override
+  public void cpuSamples(int totalNumOfSamples, CPUSample[] samples) {
+    for (RecordHandler child : topLevel(RecordTags.CPU_SAMPLES)) {
+      child.cpuSamples(totalNumOfSamples, samples);
+    }
+  }
+
+  @Override
+  public void controlSettings(int bitMaskFlags, short stackTraceDepth) {
+    for (RecordHandler child : topLevel(RecordTags.CONTROL_SETTINGS)) {
+      child.controlSettings(bitMaskFlags, stackTraceDepth);
+    }
+  }
+
+  @Override
+  public void rootUnknown(long objId) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_UNKNOWN)) {
+      child.rootUnknown(objId);
+    }
+  }
+
+  @Override
+  public void rootJNIGlobal(long objId, long JNIGlobalRefId) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_JNI_GLOBAL)) {
+      child.rootJNIGlobal(objId, JNIGlobalRefId);
+    }
+  }
+
+  @Override
+  public void rootJNILocal(long objId, int threadSerialNum, int frameNum) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_JNI_LOCAL)) {
+      child.rootJNILocal(objId, threadSerialNum, frameNum);
+    }
+  }
+
+  @Override
+  public void rootJavaFrame(long objId, int threadSerialNum, int frameNum) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_JAVA_FRAME)) {
+      child.rootJavaFrame(objId, threadSerialNum, frameNum);
+    }
+  }
+
+  @Override
+  public void rootNativeStack(long objId, int threadSerialNum) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_NATIVE_STACK)) {
+      child.rootNativeStack(objId, threadSerialNum);
+    }
+  }
+
+  @Override
+  public void rootStickyClass(long objId) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_STICKY_CLASS)) {
+      child.rootStickyClass(objId);
+    }
+  }
+
+  @Override
+  public void rootThreadBlock(long objId, int threadSerialNum) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_THREAD_BLOCK)) {
+      child.rootThreadBlock(objId, threadSerialNum);
+    }
+  }
+
+  @Override
+  public void rootMonitorUsed(long objId) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_MONITOR_USED)) {
+      child.rootMonitorUsed(objId);
+    }
+  }
+
+  @Override
+  public void rootThreadObj(long objId, int threadSerialNum, int stackTraceSerialNum) {
+    for (RecordHandler child : heapDump(RecordTags.ROOT_THREAD_OBJ)) {
+      child.rootThreadObj(objId, threadSerialNum, stackTraceSerialNum);
+    }
+  }
+
+  @Override
+  public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+      long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+      long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+      InstanceField[] instanceFields) {
+    for (RecordHandler child : heapDump(RecordTags.CLASS_DUMP)) {
+      child.classDump(classObjId, stackTraceSerialNum, superClassObjId, classLoaderObjId,
+          signersObjId, protectionDomainObjId, reserved1, reserved2, instanceSize, constants,
+          statics, instanceFields);
+    }
+  }
+
+  @Override
+  public void instanceDump(long objId, int stackTraceSerialNum, long classObjId,
+      Value<?>[] instanceFieldValues) {
+    for (RecordHandler child : heapDump(RecordTags.INSTANCE_DUMP)) {
+      child.instanceDump(objId, stackTraceSerialNum, classObjId, instanceFieldValues);
+    }
+  }
+
+  @Override
+  public void instanceDump(InstanceView instance) {
+    for (RecordHandler child : heapDump(RecordTags.INSTANCE_DUMP)) {
+      child.instanceDump(instance);
+    }
+  }
+
+  @Override
+  public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId, long[] elems) {
+    for (RecordHandler child : heapDump(RecordTags.OBJ_ARRAY_DUMP)) {
+      child.objArrayDump(objId, stackTraceSerialNum, elemClassObjId, elems);
+    }
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, byte elemType, Value<?>[] elems) {
+    for (RecordHandler child : heapDump(RecordTags.PRIM_ARRAY_DUMP)) {
+      child.primArrayDump(objId, stackTraceSerialNum, elemType, elems);
+    }
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType, ByteBuffer elems) {
+    // a child may move the buffer's position or limit, so put them back for the next one
+    int position = elems.position();
+    int limit = elems.limit();
+    for (RecordHandler child : heapDump(RecordTags.PRIM_ARRAY_DUMP)) {
+      elems.limit(limit);
+      elems.position(position);
+      child.primArrayDump(objId, stackTraceSerialNum, elemType, elems);
+    }
+  }
+
+  @Override
+  public void finished() {
+    for (RecordHandler child : children) {
+      child.finished();
+    }
+  }
+
+}
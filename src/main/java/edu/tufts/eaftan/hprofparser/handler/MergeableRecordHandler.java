@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.handler;
+
+/**
+ * A {@code RecordHandler} whose work on the heap dump can be split across several copies and
+ * combined afterwards, so that {@code ParallelHprofParser} can decode heap dump segments
+ * concurrently.
+ *
+ * <p>The root handler receives the header and all top-level records.  Then each worker thread is
+ * given its own shard from {@link #newShard}, and the sub-records of the heap dump are divided
+ * among the shards.  Finally every shard is merged back into the root handler, and the root
+ * handler's {@code finished()} is called.  A shard's own {@code finished()} is never called.
+ *
+ * @param <H> the concrete handler type
+ */
+public interface MergeableRecordHandler<H extends MergeableRecordHandler<H>>
+    extends RecordHandler {
+
+  /**
+   * Returns a new, empty handler to receive a share of the heap dump sub-records.  This is called
+   * on the root handler after it has seen all the top-level records, so shards may share any
+   * state the root built from them, as long as neither side modifies it afterwards.
+   */
+  public abstract H newShard();
+
+  /**
+   * Adds the results accumulated by {@code shard} to this handler.  Called on the root handler,
+   * from one thread, once per shard.
+   */
+  public abstract void merge(H shard);
+
+}
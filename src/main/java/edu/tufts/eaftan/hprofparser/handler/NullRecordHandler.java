@@ -16,13 +16,22 @@
 
 package edu.tufts.eaftan.hprofparser.handler;
 
+import com.google.common.collect.ImmutableMap;
+
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.AllocSite;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.CPUSample;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
 
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
 /**
  * Base class to be used with the hprof parser.  For each record the parser encounters, it parses 
  * the record and calls the matching function in its RecordHandler class.  The RecordHandler 
@@ -32,6 +41,71 @@ import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
  */
 public class NullRecordHandler implements RecordHandler {
 
+  private static final Map<String, Byte> TOP_LEVEL_CALLBACKS = ImmutableMap.<String, Byte>builder()
+      .put("stringInUTF8", RecordTags.STRING_IN_UTF8)
+      .put("loadClass", RecordTags.LOAD_CLASS)
+      .put("unloadClass", RecordTags.UNLOAD_CLASS)
+      .put("stackFrame", RecordTags.STACK_FRAME)
+      .put("stackTrace", RecordTags.STACK_TRACE)
+      .put("allocSites", RecordTags.ALLOC_SITES)
+      .put("heapSummary", RecordTags.HEAP_SUMMARY)
+      .put("startThread", RecordTags.START_THREAD)
+      .put("endThread", RecordTags.END_THREAD)
+      .put("heapDump", RecordTags.HEAP_DUMP)
+      .put("heapDumpSegment", RecordTags.HEAP_DUMP_SEGMENT)
+      .put("heapDumpEnd", RecordTags.HEAP_DUMP_END)
+      .put("cpuSamples", RecordTags.CPU_SAMPLES)
+      .put("controlSettings", RecordTags.CONTROL_SETTINGS)
+      .build();
+
+  private static final Map<String, Byte> HEAP_DUMP_CALLBACKS = ImmutableMap.<String, Byte>builder()
+      .put("rootUnknown", RecordTags.ROOT_UNKNOWN)
+      .put("rootJNIGlobal", RecordTags.ROOT_JNI_GLOBAL)
+      .put("rootJNILocal", RecordTags.ROOT_JNI_LOCAL)
+      .put("rootJavaFrame", RecordTags.ROOT_JAVA_FRAME)
+      .put("rootNativeStack", RecordTags.ROOT_NATIVE_STACK)
+      .put("rootStickyClass", RecordTags.ROOT_STICKY_CLASS)
+      .put("rootThreadBlock", RecordTags.ROOT_THREAD_BLOCK)
+      .put("rootMonitorUsed", RecordTags.ROOT_MONITOR_USED)
+      .put("rootThreadObj", RecordTags.ROOT_THREAD_OBJ)
+      .put("classDump", RecordTags.CLASS_DUMP)
+      .put("instanceDump", RecordTags.INSTANCE_DUMP)
+      .put("objArrayDump", RecordTags.OBJ_ARRAY_DUMP)
+      .put("primArrayDump", RecordTags.PRIM_ARRAY_DUMP)
+      .build();
+
+  /**
+   * Returns a mask of the records whose callbacks this handler overrides, so that a subclass
+   * only pays for decoding the records it actually looks at.  Subclasses that need records
+   * without overriding their callbacks should override this method too.
+   */
+  @Override
+  public RecordMask recordMask() {
+    RecordMask mask = RecordMask.none();
+    for (Method method : NullRecordHandler.class.getDeclaredMethods()) {
+      Byte topLevelTag = TOP_LEVEL_CALLBACKS.get(method.getName());
+      Byte heapDumpTag = HEAP_DUMP_CALLBACKS.get(method.getName());
+      if ((topLevelTag == null && heapDumpTag == null) || !isOverridden(method)) {
+        continue;
+      }
+      if (topLevelTag != null) {
+        mask.includeTopLevel(topLevelTag);
+      } else {
+        mask.includeHeapDump(heapDumpTag);
+      }
+    }
+    return mask;
+  }
+
+  private boolean isOverridden(Method method) {
+    try {
+      return getClass().getMethod(method.getName(), method.getParameterTypes())
+          .getDeclaringClass() != NullRecordHandler.class;
+    } catch (NoSuchMethodException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   /* handler for file header */
   
   @Override
@@ -133,6 +207,20 @@ public class NullRecordHandler implements RecordHandler {
   public void instanceDump(long objId, int stackTraceSerialNum, 
       long classObjId, Value<?>[] instanceFieldValues) {}
 
+  /**
+   * Decodes every field and passes the values on to the {@code Value<?>[]} version of this
+   * method, for handlers written against it.  Override this version instead to avoid allocating
+   * objects per instance.
+   */
+  @Override
+  public void instanceDump(InstanceView instance) {
+    Value<?>[] values = new Value<?>[instance.numFields()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = instance.getValue(i);
+    }
+    instanceDump(instance.objId(), instance.stackTraceSerialNum(), instance.classObjId(), values);
+  }
+
   @Override
   public void objArrayDump(long objId, int stackTraceSerialNum, 
       long elemClassObjId, long[] elems) {}
@@ -141,6 +229,48 @@ public class NullRecordHandler implements RecordHandler {
   public void primArrayDump(long objId, int stackTraceSerialNum, 
       byte elemType, Value<?>[] elems) {}
 
+  /**
+   * Decodes the elements and passes them on to the {@code Value<?>[]} version of this method, for
+   * handlers written against it.  Override this version instead to avoid allocating an object per
+   * element.
+   */
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum,
+      Type elemType, ByteBuffer elems) {
+    Value<?>[] values = new Value<?>[elems.remaining() / elemType.sizeInBytes()];
+    for (int i = 0; i < values.length; i++) {
+      switch (elemType) {
+        case BOOL:
+          values[i] = new Value<>(elemType, elems.get() != 0);
+          break;
+        case CHAR:
+          values[i] = new Value<>(elemType, elems.getChar());
+          break;
+        case FLOAT:
+          values[i] = new Value<>(elemType, elems.getFloat());
+          break;
+        case DOUBLE:
+          values[i] = new Value<>(elemType, elems.getDouble());
+          break;
+        case BYTE:
+          values[i] = new Value<>(elemType, elems.get());
+          break;
+        case SHORT:
+          values[i] = new Value<>(elemType, elems.getShort());
+          break;
+        case INT:
+          values[i] = new Value<>(elemType, elems.getInt());
+          break;
+        case LONG:
+          values[i] = new Value<>(elemType, elems.getLong());
+          break;
+        default:
+          throw new IllegalArgumentException("Not a primitive type: " + elemType);
+      }
+    }
+    primArrayDump(objId, stackTraceSerialNum, elemType.hprofType(), values);
+  }
+
   
   /* handler for end of file */
   
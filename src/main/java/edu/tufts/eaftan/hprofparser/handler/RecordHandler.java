@@ -16,13 +16,17 @@
 
 package edu.tufts.eaftan.hprofparser.handler;
 
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.AllocSite;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.CPUSample;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
 
+import java.nio.ByteBuffer;
+
 /**
  * Primary interface to be used with the hprof parser.  The parser takes an implementation of
  * this interface and calls the matching callback method on each record encountered.
@@ -35,6 +39,12 @@ import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
  */
 public interface RecordHandler {
 
+  /**
+   * Returns the record types this handler consumes.  The parser calls this once at the start of
+   * each parse and skips over records outside the mask without decoding them.
+   */
+  public abstract RecordMask recordMask();
+
   public abstract void header(String format, int idSize, long time);
 
   public abstract void stringInUTF8(long id, String data);
@@ -118,12 +128,28 @@ public interface RecordHandler {
   public abstract void instanceDump(long objId, int stackTraceSerialNum, long classObjId,
       Value<?>[] instanceFieldValues);
 
+  /**
+   * Called for each instance dump with a view that decodes field values on demand from the
+   * record's packed bytes.  The parser reuses the same view for every instance, so it is only
+   * valid for the duration of the call.
+   */
+  public abstract void instanceDump(InstanceView instance);
+
   public abstract void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
       long[] elems);
 
   public abstract void primArrayDump(long objId, int stackTraceSerialNum, byte elemType,
       Value<?>[] elems);
 
+  /**
+   * Called for each primitive array dump with the array's elements still in their packed form, so
+   * that no per-element objects are allocated.  {@code elems} is a read-only, big-endian buffer
+   * positioned at the first element and limited to the last; it may share storage with the
+   * parser's input and is only valid for the duration of the call.
+   */
+  public abstract void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+      ByteBuffer elems);
+
   public abstract void finished();
 
 }
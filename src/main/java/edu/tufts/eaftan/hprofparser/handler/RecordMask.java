@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.handler;
+
+/**
+ * The set of record types a {@code RecordHandler} consumes, identified by tag (see
+ * {@code RecordTags}).  The parser skips over the bodies of records that are not in the mask
+ * using their length fields rather than decoding them, and may or may not call the corresponding
+ * handler methods.
+ *
+ * <p>Top-level heap dump and heap dump segment records are always entered if any heap dump
+ * sub-record is wanted.
+ */
+public final class RecordMask {
+
+  private final boolean[] topLevel = new boolean[256];
+  private final boolean[] heapDump = new boolean[256];
+  private boolean anyHeapDump = false;
+
+  /**
+   * Returns a new mask containing every record type.
+   */
+  public static RecordMask all() {
+    RecordMask mask = new RecordMask();
+    for (int i = 0; i < 256; i++) {
+      mask.topLevel[i] = true;
+      mask.heapDump[i] = true;
+    }
+    mask.anyHeapDump = true;
+    return mask;
+  }
+
+  /**
+   * Returns a new, empty mask.
+   */
+  public static RecordMask none() {
+    return new RecordMask();
+  }
+
+  private RecordMask() {}
+
+  /**
+   * Adds the given top-level record tags to this mask.
+   *
+   * @return this mask
+   */
+  public RecordMask includeTopLevel(byte... tags) {
+    for (byte tag : tags) {
+      topLevel[tag & 0xff] = true;
+    }
+    return this;
+  }
+
+  /**
+   * Adds the given heap dump sub-record tags to this mask.
+   *
+   * @return this mask
+   */
+  public RecordMask includeHeapDump(byte... tags) {
+    for (byte tag : tags) {
+      heapDump[tag & 0xff] = true;
+    }
+    anyHeapDump |= tags.length > 0;
+    return this;
+  }
+
+  /**
+   * Adds every record type in {@code other} to this mask.
+   *
+   * @return this mask
+   */
+  public RecordMask include(RecordMask other) {
+    for (int i = 0; i < 256; i++) {
+      topLevel[i] |= other.topLevel[i];
+      heapDump[i] |= other.heapDump[i];
+    }
+    anyHeapDump |= other.anyHeapDump;
+    return this;
+  }
+
+  public boolean wantsTopLevel(byte tag) {
+    return topLevel[tag & 0xff];
+  }
+
+  public boolean wantsHeapDump(byte tag) {
+    return heapDump[tag & 0xff];
+  }
+
+  /**
+   * Returns true if any heap dump sub-record type is in this mask.
+   */
+  public boolean wantsAnyHeapDump() {
+    return anyHeapDump;
+  }
+
+}
@@ -0,0 +1,729 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.handler;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import edu.tufts.eaftan.hprofparser.parser.ClassLayout;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.AllocSite;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.CPUSample;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.util.RingBuffer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Runs another handler on a thread of its own.  Each callback is recorded in a slot of a batch,
+ * batches are passed to the handler's thread through a ring of preallocated batches, and the
+ * handler sees the callbacks in the order the parser made them.  When every batch is in use, the
+ * parser waits.
+ *
+ * <p>Slots are reused, so recording a callback allocates nothing.  Arguments that are only valid
+ * for the duration of a callback, the packed values of an {@code InstanceView} and the primitive
+ * array elements, are copied into a byte arena of the batch; the handler sees them through a view
+ * that, as with the parser, is only valid until the callback returns.  Callbacks made at most once
+ * per class or per file are recorded as event objects instead.
+ *
+ * <p>{@code finished()} waits for the handler to process every callback and finish in turn.  If
+ * the handler throws, the exception is rethrown to the parser by a later callback, at the latest
+ * by {@code finished()}.  A parse that fails before {@code finished()} should {@link #close} the
+ * handler to stop its thread.
+ */
+public class ThreadedRecordHandler implements RecordHandler, Closeable {
+
+  /** Default number of callbacks in a batch. */
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+
+  /** Default number of batches in the ring. */
+  public static final int DEFAULT_QUEUE_BATCHES = 64;
+
+  /** Default size of the byte arena of a batch. */
+  static final int DEFAULT_ARENA_BYTES = 64 << 10;
+
+  /**
+   * One of the rarer callbacks, with its arguments.
+   */
+  private interface Event {
+    public abstract void deliver(RecordHandler handler);
+  }
+
+  // the kinds of callback a slot records
+  private static final int EVENT = 0;
+  private static final int STRING_IN_UTF8 = 1;
+  private static final int LOAD_CLASS = 2;
+  private static final int UNLOAD_CLASS = 3;
+  private static final int STACK_FRAME = 4;
+  private static final int STACK_TRACE = 5;
+  private static final int START_THREAD = 6;
+  private static final int END_THREAD = 7;
+  private static final int HEAP_DUMP = 8;
+  private static final int HEAP_DUMP_END = 9;
+  private static final int HEAP_DUMP_SEGMENT = 10;
+  private static final int ROOT_UNKNOWN = 11;
+  private static final int ROOT_JNI_GLOBAL = 12;
+  private static final int ROOT_JNI_LOCAL = 13;
+  private static final int ROOT_JAVA_FRAME = 14;
+  private static final int ROOT_NATIVE_STACK = 15;
+  private static final int ROOT_STICKY_CLASS = 16;
+  private static final int ROOT_THREAD_BLOCK = 17;
+  private static final int ROOT_MONITOR_USED = 18;
+  private static final int ROOT_THREAD_OBJ = 19;
+  private static final int INSTANCE_VALUES = 20;
+  private static final int INSTANCE_VIEW = 21;
+  private static final int OBJ_ARRAY = 22;
+  private static final int PRIM_ARRAY_VALUES = 23;
+  private static final int PRIM_ARRAY_BYTES = 24;
+  private static final int FINISHED = 25;
+
+  /**
+   * One callback: its kind and its arguments, in the order the callback takes them.  Bytes copied
+   * to the arena are described by {@code offset} and {@code length}.
+   */
+  private static final class Slot {
+    int kind;
+    long l0;
+    long l1;
+    long l2;
+    long l3;
+    int i0;
+    int i1;
+    int i2;
+    Object o;
+    int offset;
+    int length;
+    // used only by the handler's thread
+    InstanceView view;
+  }
+
+  /**
+   * The slots and arena of one batch.
+   */
+  private static final class Batch {
+    final Slot[] slots;
+    int size;
+    byte[] arena;
+    int arenaSize;
+
+    Batch(int batchSize, int arenaBytes) {
+      slots = new Slot[batchSize];
+      for (int i = 0; i < batchSize; i++) {
+        slots[i] = new Slot();
+      }
+      arena = new byte[arenaBytes];
+    }
+  }
+
+  private final RecordHandler delegate;
+  private final int batchSize;
+  private final int arenaBytes;
+  private final Batch[] batches;
+
+  private RingBuffer<Batch> ring;
+  private Batch batch;
+  private Thread thread;
+  private volatile Throwable failure;
+  private volatile boolean abandoned;
+
+  public ThreadedRecordHandler(RecordHandler delegate) {
+    this(delegate, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_BATCHES);
+  }
+
+  /**
+   * Creates a handler that passes callbacks in batches of {@code batchSize}, with at most
+   * {@code queueBatches}, rounded up to a power of two, waiting for the handler's thread.
+   */
+  public ThreadedRecordHandler(RecordHandler delegate, int batchSize, int queueBatches) {
+    this(delegate, batchSize, queueBatches, DEFAULT_ARENA_BYTES);
+  }
+
+  /**
+   * Creates a handler whose batches copy up to {@code arenaBytes} of arguments before they are
+   * passed on early.  A single larger argument gets a larger arena, for that batch only.
+   */
+  ThreadedRecordHandler(RecordHandler delegate, int batchSize, int queueBatches,
+      int arenaBytes) {
+    Preconditions.checkArgument(batchSize > 0);
+    Preconditions.checkArgument(queueBatches > 0 && queueBatches <= 1 << 30);
+    Preconditions.checkArgument(arenaBytes > 0);
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.batchSize = batchSize;
+    this.arenaBytes = arenaBytes;
+    int numBatches = Integer.highestOneBit(queueBatches);
+    if (numBatches < queueBatches) {
+      numBatches <<= 1;
+    }
+    this.batches = new Batch[numBatches];
+  }
+
+  /**
+   * Returns the next slot of the batch being filled, passing the batch on first if it is full.
+   */
+  private Slot next(int kind) {
+    if (thread == null) {
+      start();
+    } else if (batch.size == batchSize) {
+      flush();
+    }
+    Slot slot = batch.slots[batch.size++];
+    slot.kind = kind;
+    return slot;
+  }
+
+  /**
+   * Returns the next slot, with the remaining {@code bytes} copied to the arena of its batch.
+   */
+  private Slot next(int kind, ByteBuffer bytes) {
+    int n = bytes.remaining();
+    if (thread == null) {
+      start();
+    } else if (batch.size == batchSize
+        || (batch.size > 0 && batch.arenaSize + n > batch.arena.length)) {
+      flush();
+    }
+    if (batch.arenaSize + n > batch.arena.length) {
+      // the batch is empty
+      batch.arena = new byte[n];
+    }
+    Slot slot = batch.slots[batch.size++];
+    slot.kind = kind;
+    slot.offset = batch.arenaSize;
+    slot.length = n;
+    bytes.duplicate().get(batch.arena, slot.offset, n);
+    batch.arenaSize += n;
+    return slot;
+  }
+
+  private void add(Event event) {
+    next(EVENT).o = event;
+  }
+
+  private void start() {
+    failure = null;
+    abandoned = false;
+    for (int i = 0; i < batches.length; i++) {
+      if (batches[i] == null) {
+        batches[i] = new Batch(batchSize, arenaBytes);
+      }
+    }
+    final RingBuffer<Batch> ring = new RingBuffer<>(batches);
+    this.ring = ring;
+    batch = claim();
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        consume(ring);
+      }
+    }, "handler-" + delegate.getClass().getSimpleName());
+    // so that a parse abandoned with an exception does not keep the VM alive
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void flush() {
+    ring.publish();
+    batch = claim();
+    if (failure != null) {
+      // give up on the parse
+      stop();
+    }
+  }
+
+  private Batch claim() {
+    try {
+      Batch claimed = ring.claim();
+      if (claimed == null) {
+        // only the handler's thread closes the ring early, and only after a failure
+        throw Throwables.propagate(failure);
+      }
+      return claimed;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Ends the handler's thread after the callbacks recorded so far, and rethrows anything the
+   * handler threw.
+   */
+  private void stop() {
+    try {
+      end();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    }
+    Throwable t = failure;
+    if (t != null) {
+      throw Throwables.propagate(t);
+    }
+  }
+
+  private void end() throws InterruptedException {
+    if (batch.size > 0) {
+      ring.publish();
+    }
+    ring.close();
+    try {
+      thread.join();
+    } finally {
+      thread = null;
+      ring = null;
+      batch = null;
+    }
+  }
+
+  /**
+   * Delivers callbacks on the handler's thread until the end of the parse.  After a failure, the
+   * remaining callbacks are discarded, so that the parser is never left waiting on a full ring.
+   */
+  private void consume(RingBuffer<Batch> ring) {
+    while (true) {
+      Batch taken;
+      try {
+        taken = ring.take();
+      } catch (InterruptedException e) {
+        failure = e;
+        // so that the parser does not wait for this thread
+        ring.close();
+        return;
+      }
+      if (taken == null) {
+        return;
+      }
+      for (int i = 0; i < taken.size; i++) {
+        Slot slot = taken.slots[i];
+        if (failure == null && !abandoned) {
+          try {
+            deliver(slot, taken.arena, delegate);
+          } catch (Throwable t) {
+            failure = t;
+          }
+        }
+        slot.o = null;
+      }
+      clear(taken);
+      ring.release();
+    }
+  }
+
+  /**
+   * Empties a batch, giving back an arena that grew for a large argument.
+   */
+  private void clear(Batch batch) {
+    batch.size = 0;
+    batch.arenaSize = 0;
+    if (batch.arena.length > arenaBytes) {
+      batch.arena = new byte[arenaBytes];
+    }
+  }
+
+  private static void deliver(Slot slot, byte[] arena, RecordHandler handler) {
+    switch (slot.kind) {
+      case EVENT:
+        ((Event) slot.o).deliver(handler);
+        break;
+      case STRING_IN_UTF8:
+        handler.stringInUTF8(slot.l0, (String) slot.o);
+        break;
+      case LOAD_CLASS:
+        handler.loadClass(slot.i0, slot.l0, slot.i1, slot.l1);
+        break;
+      case UNLOAD_CLASS:
+        handler.unloadClass(slot.i0);
+        break;
+      case STACK_FRAME:
+        handler.stackFrame(slot.l0, slot.l1, slot.l2, slot.l3, slot.i0, slot.i1);
+        break;
+      case STACK_TRACE:
+        handler.stackTrace(slot.i0, slot.i1, slot.i2, (long[]) slot.o);
+        break;
+      case START_THREAD:
+        handler.startThread(slot.i0, slot.l0, slot.i1, slot.l1, slot.l2, slot.l3);
+        break;
+      case END_THREAD:
+        handler.endThread(slot.i0);
+        break;
+      case HEAP_DUMP:
+        handler.heapDump();
+        break;
+      case HEAP_DUMP_END:
+        handler.heapDumpEnd();
+        break;
+      case HEAP_DUMP_SEGMENT:
+        handler.heapDumpSegment();
+        break;
+      case ROOT_UNKNOWN:
+        handler.rootUnknown(slot.l0);
+        break;
+      case ROOT_JNI_GLOBAL:
+        handler.rootJNIGlobal(slot.l0, slot.l1);
+        break;
+      case ROOT_JNI_LOCAL:
+        handler.rootJNILocal(slot.l0, slot.i0, slot.i1);
+        break;
+      case ROOT_JAVA_FRAME:
+        handler.rootJavaFrame(slot.l0, slot.i0, slot.i1);
+        break;
+      case ROOT_NATIVE_STACK:
+        handler.rootNativeStack(slot.l0, slot.i0);
+        break;
+      case ROOT_STICKY_CLASS:
+        handler.rootStickyClass(slot.l0);
+        break;
+      case ROOT_THREAD_BLOCK:
+        handler.rootThreadBlock(slot.l0, slot.i0);
+        break;
+      case ROOT_MONITOR_USED:
+        handler.rootMonitorUsed(slot.l0);
+        break;
+      case ROOT_THREAD_OBJ:
+        handler.rootThreadObj(slot.l0, slot.i0, slot.i1);
+        break;
+      case INSTANCE_VALUES:
+        handler.instanceDump(slot.l0, slot.i0, slot.l1, (Value<?>[]) slot.o);
+        break;
+      case INSTANCE_VIEW:
+        // i1 is the identifier size
+        if (slot.view == null || slot.view.idSize() != slot.i1) {
+          slot.view = new InstanceView(slot.i1);
+        }
+        slot.view.bind(slot.l0, slot.i0, (ClassLayout) slot.o, wrap(arena, slot));
+        handler.instanceDump(slot.view);
+        break;
+      case OBJ_ARRAY:
+        handler.objArrayDump(slot.l0, slot.i0, slot.l1, (long[]) slot.o);
+        break;
+      case PRIM_ARRAY_VALUES:
+        handler.primArrayDump(slot.l0, slot.i0, (byte) slot.i1, (Value<?>[]) slot.o);
+        break;
+      case PRIM_ARRAY_BYTES:
+        handler.primArrayDump(slot.l0, slot.i0, (Type) slot.o, wrap(arena, slot));
+        break;
+      case FINISHED:
+        handler.finished();
+        break;
+      default:
+        throw new AssertionError(slot.kind);
+    }
+  }
+
+  private static ByteBuffer wrap(byte[] arena, Slot slot) {
+    return ByteBuffer.wrap(arena, slot.offset, slot.length).slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Stops the handler's thread without delivering the callbacks still waiting for it, or
+   * {@code finished()}.  For a parse that failed; does nothing if the handler has finished.
+   */
+  @Override
+  public void close() {
+    if (thread == null) {
+      return;
+    }
+    abandoned = true;
+    // the callbacks of the batch being filled are never published
+    for (int i = 0; i < batch.size; i++) {
+      batch.slots[i].o = null;
+    }
+    clear(batch);
+    try {
+      end();
+    } catch (InterruptedException e) {
+      // the daemon thread ends on its own once it has discarded the remaining callbacks
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public RecordMask recordMask() {
+    return delegate.recordMask();
+  }
+
+  @Override
+  public void header(final String format, final int idSize, final long time) {
+    add(new Event() {
+      @Override
+      public void deliver(RecordHandler handler) {
+        handler.header(format, idSize, time);
+      }
+    });
+  }
+
+  @Override
+  public void stringInUTF8(long id, String data) {
+    Slot slot = next(STRING_IN_UTF8);
+    slot.l0 = id;
+    slot.o = data;
+  }
+
+  @Override
+  public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+      long classNameStringId) {
+    Slot slot = next(LOAD_CLASS);
+    slot.i0 = classSerialNum;
+    slot.l0 = classObjId;
+    slot.i1 = stackTraceSerialNum;
+    slot.l1 = classNameStringId;
+  }
+
+  @Override
+  public void unloadClass(int classSerialNum) {
+    next(UNLOAD_CLASS).i0 = classSerialNum;
+  }
+
+  @Override
+  public void stackFrame(long stackFrameId, long methodNameStringId, long methodSigStringId,
+      long sourceFileNameStringId, int classSerialNum, int location) {
+    Slot slot = next(STACK_FRAME);
+    slot.l0 = stackFrameId;
+    slot.l1 = methodNameStringId;
+    slot.l2 = methodSigStringId;
+    slot.l3 = sourceFileNameStringId;
+    slot.i0 = classSerialNum;
+    slot.i1 = location;
+  }
+
+  @Override
+  public void stackTrace(int stackTraceSerialNum, int threadSerialNum, int numFrames,
+      long[] stackFrameIds) {
+    Slot slot = next(STACK_TRACE);
+    slot.i0 = stackTraceSerialNum;
+    slot.i1 = threadSerialNum;
+    slot.i2 = numFrames;
+    slot.o = stackFrameIds;
+  }
+
+  @Override
+  public void allocSites(final short bitMaskFlags, final float cutoffRatio,
+      final int totalLiveBytes, final int totalLiveInstances, final long totalBytesAllocated,
+      final long totalInstancesAllocated, final AllocSite[] sites) {
+    add(new Event() {
+      @Override
+      public void deliver(RecordHandler handler) {
+        handler.allocSites(bitMaskFlags, cutoffRatio, totalLiveBytes, totalLiveInstances,
+            totalBytesAllocated, totalInstancesAllocated, sites);
+      }
+    });
+  }
+
+  @Override
+  public void heapSummary(final int totalLiveBytes, final int totalLiveInstances,
+      final long totalBytesAllocated, final long totalInstancesAllocated) {
+    add(new Event() {
+      @Override
+      public void deliver(RecordHandler handler) {
+        handler.heapSummary(totalLiveBytes, totalLiveInstances, totalBytesAllocated,
+            totalInstancesAllocated);
+      }
+    });
+  }
+
+  @Override
+  public void startThread(int threadSerialNum, long threadObjectId, int stackTraceSerialNum,
+      long threadNameStringId, long threadGroupNameId, long threadParentGroupNameId) {
+    Slot slot = next(START_THREAD);
+    slot.i0 = threadSerialNum;
+    slot.l0 = threadObjectId;
+    slot.i1 = stackTraceSerialNum;
+    slot.l1 = threadNameStringId;
+    slot.l2 = threadGroupNameId;
+    slot.l3 = threadParentGroupNameId;
+  }
+
+  @Override
+  public void endThread(int threadSerialNum) {
+    next(END_THREAD).i0 = threadSerialNum;
+  }
+
+  @Override
+  public void heapDump() {
+    next(HEAP_DUMP);
+  }
+
+  @Override
+  public void heapDumpEnd() {
+    next(HEAP_DUMP_END);
+  }
+
+  @Override
+  public void heapDumpSegment() {
+    next(HEAP_DUMP_SEGMENT);
+  }
+
+  @Override
+  public void cpuSamples(final int totalNumOfSamples, final CPUSample[] samples) {
+    add(new Event() {
+      @Override
+      public void deliver(RecordHandler handler) {
+        handler.cpuSamples(totalNumOfSamples, samples);
+      }
+    });
+  }
+
+  @Override
+  public void controlSettings(final int bitMaskFlags, final short stackTraceDepth) {
+    add(new Event() {
+      @Override
+      public void deliver(RecordHandler handler) {
+        handler.controlSettings(bitMaskFlags, stackTraceDepth);
+      }
+    });
+  }
+
+  @Override
+  public void rootUnknown(long objId) {
+    next(ROOT_UNKNOWN).l0 = objId;
+  }
+
+  @Override
+  public void rootJNIGlobal(long objId, long JNIGlobalRefId) {
+    Slot slot = next(ROOT_JNI_GLOBAL);
+    slot.l0 = objId;
+    slot.l1 = JNIGlobalRefId;
+  }
+
+  @Override
+  public void rootJNILocal(long objId, int threadSerialNum, int frameNum) {
+    Slot slot = next(ROOT_JNI_LOCAL);
+    slot.l0 = objId;
+    slot.i0 = threadSerialNum;
+    slot.i1 = frameNum;
+  }
+
+  @Override
+  public void rootJavaFrame(long objId, int threadSerialNum, int frameNum) {
+    Slot slot = next(ROOT_JAVA_FRAME);
+    slot.l0 = objId;
+    slot.i0 = threadSerialNum;
+    slot.i1 = frameNum;
+  }
+
+  @Override
+  public void rootNativeStack(long objId, int threadSerialNum) {
+    Slot slot = next(ROOT_NATIVE_STACK);
+    slot.l0 = objId;
+    slot.i0 = threadSerialNum;
+  }
+
+  @Override
+  public void rootStickyClass(long objId) {
+    next(ROOT_STICKY_CLASS).l0 = objId;
+  }
+
+  @Override
+  public void rootThreadBlock(long objId, int threadSerialNum) {
+    Slot slot = next(ROOT_THREAD_BLOCK);
+    slot.l0 = objId;
+    slot.i0 = threadSerialNum;
+  }
+
+  @Override
+  public void rootMonitorUsed(long objId) {
+    next(ROOT_MONITOR_USED).l0 = objId;
+  }
+
+  @Override
+  public void rootThreadObj(long objId, int threadSerialNum, int stackTraceSerialNum) {
+    Slot slot = next(ROOT_THREAD_OBJ);
+    slot.l0 = objId;
+    slot.i0 = threadSerialNum;
+    slot.i1 = stackTraceSerialNum;
+  }
+
+  @Override
+  public void classDump(final long classObjId, final int stackTraceSerialNum,
+      final long superClassObjId, final long classLoaderObjId, final long signersObjId,
+      final long protectionDomainObjId, final long reserved1, final long reserved2,
+      final int instanceSize, final Constant[] constants, final Static[] statics,
+      final InstanceField[] instanceFields) {
+    add(new Event() {
+      @Override
+      public void deliver(RecordHandler handler) {
+        handler.classDump(classObjId, stackTraceSerialNum, superClassObjId, classLoaderObjId,
+            signersObjId, protectionDomainObjId, reserved1, reserved2, instanceSize, constants,
+            statics, instanceFields);
+      }
+    });
+  }
+
+  @Override
+  public void instanceDump(long objId, int stackTraceSerialNum, long classObjId,
+      Value<?>[] instanceFieldValues) {
+    Slot slot = next(INSTANCE_VALUES);
+    slot.l0 = objId;
+    slot.i0 = stackTraceSerialNum;
+    slot.l1 = classObjId;
+    slot.o = instanceFieldValues;
+  }
+
+  @Override
+  public void instanceDump(InstanceView instance) {
+    Slot slot = next(INSTANCE_VIEW, instance.packedValues());
+    slot.l0 = instance.objId();
+    slot.i0 = instance.stackTraceSerialNum();
+    slot.i1 = instance.idSize();
+    slot.o = instance.layout();
+  }
+
+  @Override
+  public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+      long[] elems) {
+    Slot slot = next(OBJ_ARRAY);
+    slot.l0 = objId;
+    slot.i0 = stackTraceSerialNum;
+    slot.l1 = elemClassObjId;
+    slot.o = elems;
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, byte elemType,
+      Value<?>[] elems) {
+    Slot slot = next(PRIM_ARRAY_VALUES);
+    slot.l0 = objId;
+    slot.i0 = stackTraceSerialNum;
+    slot.i1 = elemType;
+    slot.o = elems;
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+      ByteBuffer elems) {
+    Slot slot = next(PRIM_ARRAY_BYTES, elems);
+    slot.l0 = objId;
+    slot.i0 = stackTraceSerialNum;
+    slot.o = elemType;
+  }
+
+  /**
+   * Passes on {@code finished()} and waits for the handler to process it.
+   */
+  @Override
+  public void finished() {
+    next(FINISHED);
+    stop();
+  }
+
+}
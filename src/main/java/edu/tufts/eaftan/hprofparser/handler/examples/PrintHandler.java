@@ -25,18 +25,18 @@ import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.HashMap;
 
 /**
  * Prints details for each record encountered.
  */
 public class PrintHandler extends NullRecordHandler {
 
-  private HashMap<Long, String> stringMap = new HashMap<Long, String>();
-  private HashMap<Long, ClassInfo> classMap = new HashMap<Long, ClassInfo>();
+  private LongObjectMap<String> stringMap = new LongObjectMap<String>();
+  private LongObjectMap<ClassInfo> classMap = new LongObjectMap<ClassInfo>();
   
   /* handler for file header */
   
@@ -21,13 +21,12 @@ import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
-
-import java.util.HashMap;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
 
 public class StaticPrintHandler extends NullRecordHandler {
   
-  private HashMap<Long, String> stringMap = new HashMap<Long, String>();
-  private HashMap<Long, ClassInfo> classMap = new HashMap<Long, ClassInfo>();
+  private LongObjectMap<String> stringMap = new LongObjectMap<String>();
+  private LongObjectMap<ClassInfo> classMap = new LongObjectMap<ClassInfo>();
   
   private static class ClassInfo {
     public final String name;
@@ -16,112 +16,296 @@
 
 package edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler;
 
-import com.google.common.primitives.Ints;
-
+import edu.tufts.eaftan.hprofparser.analysis.ObjectModel;
+import edu.tufts.eaftan.hprofparser.handler.Checkpointable;
+import edu.tufts.eaftan.hprofparser.handler.MergeableRecordHandler;
 import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
 
-import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
-import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
-import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
-import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.util.LongLongMap;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
- * Computes basic statistics about a heap dump.  For example, the number of instances of each
- * type and the total bytes used by instances of that type.
- * 
- * <p>Note that this is nowhere near accurate.  We intentionally ignore array and object header 
- * sizes because they are VM dependent.  We also don't know how the fields were laid out, what the
- * alignment was, whether OOPs were compressed, etc.  There's no way to get this right without 
- * knowing details about the VM & options that produced it.
+ * Computes a class histogram of a heap dump: the number of instances of each type and the total
+ * bytes used by instances of that type.
+ *
+ * <p>Sizes are estimated with an {@code ObjectModel}, which by default is chosen from the dump's
+ * id size.  They are only as accurate as the model: the dump does not say how the VM that wrote
+ * it laid out objects, and padding between fields is ignored.
+ *
+ * <p>Every class is numbered when its load class record is seen, and counts are kept in arrays
+ * indexed by that ordinal.  The handler is mergeable, so {@code ParallelHprofParser} can feed a
+ * separate shard from each of its threads; each shard counts into its own arrays, which are added
+ * together when the shards are merged.
  */
-public class StatisticsCollectingHandler extends NullRecordHandler {
-  private Map<Long, TypeInfo> classMap = new HashMap<>();
-  private Map<Long, String> stringMap = new HashMap<>();
-  private Map<String, TypeInfo> arrayInfoMap = new HashMap<>();
+public class StatisticsCollectingHandler extends NullRecordHandler
+    implements MergeableRecordHandler<StatisticsCollectingHandler>, Checkpointable {
+
+  private final ObjectModel fixedModel;
+  private ObjectModel model;
+
+  private LongObjectMap<String> stringMap = new LongObjectMap<>();
+
+  // class object ids and names by ordinal, and the ordinal of each class object id
+  private LongLongMap classOrdinals = LongLongMap.onHeap(-1);
+  private long[] classObjIds = new long[64];
+  private List<String> classNames = new ArrayList<>();
+
+  // instances of each class by class ordinal, and the size of one, or 0 if not yet known
+  private long[] instanceCounts = new long[64];
+  private long[] instanceSizes = new long[64];
+  // object arrays by the ordinal of their array class
+  private long[] objArrayCounts = new long[64];
+  private long[] objArraySizes = new long[64];
+
+  // primitive arrays, by element type ordinal
+  private long[] primArrayCounts = new long[Type.values().length];
+  private long[] primArraySizes = new long[Type.values().length];
+
+  /**
+   * Creates a handler that estimates sizes with the default model for the dump's id size.
+   */
+  public StatisticsCollectingHandler() {
+    this(null);
+  }
+
+  /**
+   * Creates a handler that estimates sizes with {@code model}.
+   */
+  public StatisticsCollectingHandler(ObjectModel model) {
+    this.fixedModel = model;
+    this.model = model;
+  }
+
+  @Override
+  public void header(String format, int idSize, long time) {
+    model = fixedModel != null ? fixedModel : ObjectModel.forIdSize(idSize);
+  }
 
   @Override
   public void stringInUTF8(long id, String data) {
     stringMap.put(id, data);
   }
-  
+
   @Override
   public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
       long classNameStringId) {
-    ClassInfo classInfo = new ClassInfo();
-    classInfo.className = stringMap.get(classNameStringId);
-    classMap.put(classObjId, classInfo);
+    if (classOrdinals.containsKey(classObjId)) {
+      return;
+    }
+    addClass(classObjId, stringMap.get(classNameStringId));
   }
-  
-  @Override
-  public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId, 
-      long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
-      long reserved2, int instanceSize, Constant[] constants, Static[] statics,
-      InstanceField[] instanceFields) {
-    ClassInfo classInfo = (ClassInfo) classMap.get(classObjId);
-    classInfo.instanceSize = instanceSize;
+
+  private int addClass(long classObjId, String name) {
+    int ordinal = classNames.size();
+    if (ordinal == classObjIds.length) {
+      int length = ordinal * 2;
+      classObjIds = Arrays.copyOf(classObjIds, length);
+      instanceCounts = Arrays.copyOf(instanceCounts, length);
+      instanceSizes = Arrays.copyOf(instanceSizes, length);
+      objArrayCounts = Arrays.copyOf(objArrayCounts, length);
+      objArraySizes = Arrays.copyOf(objArraySizes, length);
+    }
+    classOrdinals.put(classObjId, ordinal);
+    classObjIds[ordinal] = classObjId;
+    classNames.add(name);
+    return ordinal;
   }
 
+  /**
+   * Returns the ordinal of a class, numbering it if it has no load class record.
+   */
+  private int ordinalOf(long classObjId) {
+    int ordinal = (int) classOrdinals.get(classObjId);
+    return ordinal != -1 ? ordinal : addClass(classObjId, null);
+  }
 
   @Override
-  public void instanceDump(long objId, int stackTraceSerialNum, long classObjId,
-      Value<?>[] instanceFieldValues) {
-    ClassInfo classInfo = (ClassInfo) classMap.get(classObjId);
-    classInfo.instanceCount++;
+  public void instanceDump(InstanceView instance) {
+    int ordinal = ordinalOf(instance.classObjId());
+    if (instanceSizes[ordinal] == 0) {
+      instanceSizes[ordinal] = model.instanceSize(instance.layout());
+    }
+    instanceCounts[ordinal]++;
   }
 
   @Override
   public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId, long[] elems) {
-    String typeDescriptor = "[" + classMap.get(elemClassObjId).className;
-    int length = elems != null ? elems.length : 0;  
-    recordArrayInstance(typeDescriptor, length * Type.OBJ.sizeInBytes());
+    // the class of an object array dump is the array class
+    int ordinal = ordinalOf(elemClassObjId);
+    objArrayCounts[ordinal]++;
+    objArraySizes[ordinal] += model.objectArraySize(elems != null ? elems.length : 0);
   }
 
   @Override
-  public void primArrayDump(long objId, int stackTraceSerialNum, byte hprofElemType, Value<?>[] elems) {
-    Type elemType = Type.hprofTypeToEnum(hprofElemType);
-    String typeDescriptor = "[" + elemType.toString();
-    int length = elems != null ? elems.length : 0;  
-    recordArrayInstance(typeDescriptor, length * elemType.sizeInBytes());
-  }
-
-  private void recordArrayInstance(String typeDescriptor, int bytes) {
-    ArrayInfo arrayInfo = (ArrayInfo) arrayInfoMap.get(typeDescriptor);
-    if (arrayInfo == null) {
-      arrayInfo = new ArrayInfo();
-      arrayInfo.className = typeDescriptor;
-      arrayInfoMap.put(typeDescriptor, arrayInfo);
+  public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType, ByteBuffer elems) {
+    int length = elems.remaining() / elemType.sizeInBytes();
+    primArrayCounts[elemType.ordinal()]++;
+    primArraySizes[elemType.ordinal()] += model.primitiveArraySize(elemType, length);
+  }
+
+  @Override
+  public StatisticsCollectingHandler newShard() {
+    // the class numbering is copied rather than shared, since a shard may number classes
+    // without load class records; merge() matches them up by class object id
+    StatisticsCollectingHandler shard = new StatisticsCollectingHandler(model);
+    for (int ordinal = 0; ordinal < classNames.size(); ordinal++) {
+      shard.addClass(classObjIds[ordinal], classNames.get(ordinal));
     }
-    arrayInfo.instanceCount++;
-    arrayInfo.totalSize += bytes;
+    return shard;
   }
-  
+
   @Override
-  public void finished() {
-    Comparator<TypeInfo> totalSizeComparator = new Comparator<TypeInfo>() {
-      @Override
-      public int compare(TypeInfo cls1, TypeInfo cls2) {
-        return Ints.checkedCast(cls2.totalSize() - cls1.totalSize());
-      }
-    };
-    
-    List<TypeInfo> typeInfoList = new ArrayList<>(classMap.values());
-    typeInfoList.addAll(arrayInfoMap.values());
-    Collections.sort(typeInfoList, totalSizeComparator);
-    for (TypeInfo typeInfo : typeInfoList) {
-      if (typeInfo.instanceCount == 0) {
+  public void merge(StatisticsCollectingHandler shard) {
+    for (int shardOrdinal = 0; shardOrdinal < shard.classNames.size(); shardOrdinal++) {
+      if (shard.instanceCounts[shardOrdinal] == 0 && shard.objArrayCounts[shardOrdinal] == 0) {
         continue;
       }
+      int ordinal = ordinalOf(shard.classObjIds[shardOrdinal]);
+      instanceCounts[ordinal] += shard.instanceCounts[shardOrdinal];
+      if (instanceSizes[ordinal] == 0) {
+        instanceSizes[ordinal] = shard.instanceSizes[shardOrdinal];
+      }
+      objArrayCounts[ordinal] += shard.objArrayCounts[shardOrdinal];
+      objArraySizes[ordinal] += shard.objArraySizes[shardOrdinal];
+    }
+    for (int i = 0; i < primArrayCounts.length; i++) {
+      primArrayCounts[i] += shard.primArrayCounts[i];
+      primArraySizes[i] += shard.primArraySizes[i];
+    }
+  }
+
+  @Override
+  public byte[] saveState() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(model.headerSize());
+    out.writeInt(model.arrayHeaderSize());
+    out.writeInt(model.referenceSize());
+    out.writeInt(model.alignment());
+    out.writeInt(stringMap.size());
+    LongObjectMap<String>.Cursor strings = stringMap.cursor();
+    while (strings.next()) {
+      out.writeLong(strings.key());
+      out.writeUTF(strings.value());
+    }
+    out.writeInt(classNames.size());
+    for (int ordinal = 0; ordinal < classNames.size(); ordinal++) {
+      String name = classNames.get(ordinal);
+      out.writeLong(classObjIds[ordinal]);
+      out.writeBoolean(name != null);
+      if (name != null) {
+        out.writeUTF(name);
+      }
+      out.writeLong(instanceCounts[ordinal]);
+      out.writeLong(instanceSizes[ordinal]);
+      out.writeLong(objArrayCounts[ordinal]);
+      out.writeLong(objArraySizes[ordinal]);
+    }
+    for (int i = 0; i < primArrayCounts.length; i++) {
+      out.writeLong(primArrayCounts[i]);
+      out.writeLong(primArraySizes[i]);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public void restoreState(byte[] state) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+    // the parser does not call header() when it resumes
+    model = new ObjectModel(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+    stringMap = new LongObjectMap<>();
+    for (int n = in.readInt(); n > 0; n--) {
+      long id = in.readLong();
+      stringMap.put(id, in.readUTF());
+    }
+    int numClasses = in.readInt();
+    classOrdinals = LongLongMap.onHeap(numClasses, -1);
+    classObjIds = new long[Math.max(64, numClasses)];
+    classNames = new ArrayList<>(numClasses);
+    instanceCounts = new long[classObjIds.length];
+    instanceSizes = new long[classObjIds.length];
+    objArrayCounts = new long[classObjIds.length];
+    objArraySizes = new long[classObjIds.length];
+    for (int ordinal = 0; ordinal < numClasses; ordinal++) {
+      long classObjId = in.readLong();
+      addClass(classObjId, in.readBoolean() ? in.readUTF() : null);
+      instanceCounts[ordinal] = in.readLong();
+      instanceSizes[ordinal] = in.readLong();
+      objArrayCounts[ordinal] = in.readLong();
+      objArraySizes[ordinal] = in.readLong();
+    }
+    for (int i = 0; i < primArrayCounts.length; i++) {
+      primArrayCounts[i] = in.readLong();
+      primArraySizes[i] = in.readLong();
+    }
+  }
+
+  /**
+   * Returns the types that have instances, with the largest total size first.
+   */
+  public List<TypeInfo> histogram() {
+    List<TypeInfo> typeInfoList = new ArrayList<>();
+    for (int ordinal = 0; ordinal < classNames.size(); ordinal++) {
+      String name = classNames.get(ordinal);
+      if (name == null) {
+        name = String.format("0x%x", classObjIds[ordinal]);
+      }
+      if (instanceCounts[ordinal] != 0) {
+        ClassInfo classInfo = new ClassInfo();
+        classInfo.className = name;
+        classInfo.instanceCount = instanceCounts[ordinal];
+        classInfo.instanceSize = instanceSizes[ordinal];
+        typeInfoList.add(classInfo);
+      }
+      if (objArrayCounts[ordinal] != 0) {
+        typeInfoList.add(arrayInfo(name, objArrayCounts[ordinal], objArraySizes[ordinal]));
+      }
+    }
+    for (Type type : Type.values()) {
+      if (primArrayCounts[type.ordinal()] != 0) {
+        typeInfoList.add(arrayInfo(type + "[]", primArrayCounts[type.ordinal()],
+            primArraySizes[type.ordinal()]));
+      }
+    }
+
+    Collections.sort(typeInfoList, new Comparator<TypeInfo>() {
+      @Override
+      public int compare(TypeInfo type1, TypeInfo type2) {
+        int result = Long.compare(type2.totalSize(), type1.totalSize());
+        return result != 0 ? result : type1.className.compareTo(type2.className);
+      }
+    });
+    return typeInfoList;
+  }
+
+  private static ArrayInfo arrayInfo(String name, long instanceCount, long totalSize) {
+    ArrayInfo arrayInfo = new ArrayInfo();
+    arrayInfo.className = name;
+    arrayInfo.instanceCount = instanceCount;
+    arrayInfo.totalSize = totalSize;
+    return arrayInfo;
+  }
+
+  @Override
+  public void finished() {
+    for (TypeInfo typeInfo : histogram()) {
       System.out.println(typeInfo.toString());
     }
   }
-   
 
 }
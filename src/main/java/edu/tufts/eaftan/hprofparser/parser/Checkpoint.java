@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.ClassInfo;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Everything {@code HprofParser} needs to resume a parse at a record boundary, and its file
+ * format.
+ */
+final class Checkpoint {
+
+  private static final long MAGIC = 0x4850524f4643504bL;    // "HPROFCPK"
+  private static final int VERSION = 1;
+
+  /** Offset of the next record to parse. */
+  long position;
+  int idSize;
+  /** Tag of the heap dump or heap dump segment the next record is in, or 0 if none. */
+  byte heapDumpTag;
+  /** Offset of the end of that heap dump or segment. */
+  long heapDumpEnd;
+  LongObjectMap<ClassInfo> classMap;
+  long[] deferredInstances;
+  byte[] handlerState;
+
+  /**
+   * Writes the checkpoint for an hprof file of the given length and modification time to
+   * {@code file}, replacing any earlier one atomically.
+   */
+  void write(File file, long hprofLength, long hprofLastModified) throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(hprofLength);
+      out.writeLong(hprofLastModified);
+      out.writeLong(position);
+      out.writeInt(idSize);
+      out.writeByte(heapDumpTag);
+      out.writeLong(heapDumpEnd);
+
+      out.writeInt(classMap.size());
+      LongObjectMap<ClassInfo>.Cursor cursor = classMap.cursor();
+      while (cursor.next()) {
+        ClassInfo ci = cursor.value();
+        out.writeLong(ci.classObjId);
+        out.writeLong(ci.superClassObjId);
+        out.writeInt(ci.instanceSize);
+        out.writeInt(ci.instanceFields.length);
+        for (InstanceField field : ci.instanceFields) {
+          out.writeLong(field.fieldNameStringId);
+          out.writeByte(field.type.hprofType());
+        }
+      }
+
+      out.writeInt(deferredInstances.length);
+      for (long offset : deferredInstances) {
+        out.writeLong(offset);
+      }
+      out.writeInt(handlerState.length);
+      out.write(handlerState);
+    }
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the checkpoint in {@code file}, or returns null if there is none or it was written for
+   * a different version of {@code hprofFile}.
+   */
+  static Checkpoint read(File file, File hprofFile) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readLong() != MAGIC
+          || in.readInt() != VERSION
+          || in.readLong() != hprofFile.length()
+          || in.readLong() != hprofFile.lastModified()) {
+        return null;
+      }
+      Checkpoint checkpoint = new Checkpoint();
+      checkpoint.position = in.readLong();
+      checkpoint.idSize = in.readInt();
+      checkpoint.heapDumpTag = in.readByte();
+      checkpoint.heapDumpEnd = in.readLong();
+
+      int numClasses = in.readInt();
+      checkpoint.classMap = new LongObjectMap<>(numClasses);
+      for (int i = 0; i < numClasses; i++) {
+        long classObjId = in.readLong();
+        long superClassObjId = in.readLong();
+        int instanceSize = in.readInt();
+        InstanceField[] fields = new InstanceField[in.readInt()];
+        for (int j = 0; j < fields.length; j++) {
+          long fieldNameStringId = in.readLong();
+          fields[j] = new InstanceField(fieldNameStringId, Type.hprofTypeToEnum(in.readByte()));
+        }
+        checkpoint.classMap.put(classObjId,
+            new ClassInfo(classObjId, superClassObjId, instanceSize, fields));
+      }
+
+      checkpoint.deferredInstances = new long[in.readInt()];
+      for (int i = 0; i < checkpoint.deferredInstances.length; i++) {
+        checkpoint.deferredInstances[i] = in.readLong();
+      }
+      checkpoint.handlerState = new byte[in.readInt()];
+      in.readFully(checkpoint.handlerState);
+      return checkpoint;
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.ClassInfo;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The flattened layout of the packed field values in an instance dump record of one class: the
+ * fields of the class itself, then those of its superclass, and so on up to
+ * {@code java.lang.Object}, with the byte offset of each.
+ *
+ * <p>Layouts are computed once per class and shared by every instance of it.  They are immutable;
+ * callers must not modify the arrays they return.
+ */
+public final class ClassLayout {
+
+  private final long classObjId;
+  private final Type[] fieldTypes;
+  private final long[] fieldNameStringIds;
+  private final int[] fieldOffsets;
+  private final int[] objectFieldIndices;
+  private final int[] objectFieldOffsets;
+  private final int packedSize;
+
+  private ClassLayout(long classObjId, Type[] fieldTypes, long[] fieldNameStringIds,
+      int[] fieldOffsets, int[] objectFieldIndices, int[] objectFieldOffsets, int packedSize) {
+    this.classObjId = classObjId;
+    this.fieldTypes = fieldTypes;
+    this.fieldNameStringIds = fieldNameStringIds;
+    this.fieldOffsets = fieldOffsets;
+    this.objectFieldIndices = objectFieldIndices;
+    this.objectFieldOffsets = objectFieldOffsets;
+    this.packedSize = packedSize;
+  }
+
+  /**
+   * Computes the layout of the given class, or returns null if it or one of its superclasses has
+   * not been dumped yet.
+   */
+  public static ClassLayout compute(long classObjId, LongObjectMap<ClassInfo> classMap,
+      int idSize) {
+    List<InstanceField> fields = new ArrayList<>();
+    // superclass of Object is 0
+    long nextClass = classObjId;
+    while (nextClass != 0) {
+      ClassInfo ci = classMap.get(nextClass);
+      if (ci == null) {
+        return null;
+      }
+      nextClass = ci.superClassObjId;
+      for (InstanceField field : ci.instanceFields) {
+        fields.add(field);
+      }
+    }
+
+    int n = fields.size();
+    Type[] fieldTypes = new Type[n];
+    long[] fieldNameStringIds = new long[n];
+    int[] fieldOffsets = new int[n];
+    int numObjectFields = 0;
+    int offset = 0;
+    for (int i = 0; i < n; i++) {
+      InstanceField field = fields.get(i);
+      fieldTypes[i] = field.type;
+      fieldNameStringIds[i] = field.fieldNameStringId;
+      fieldOffsets[i] = offset;
+      if (field.type == Type.OBJ) {
+        offset += idSize;
+        numObjectFields++;
+      } else {
+        offset += field.type.sizeInBytes();
+      }
+    }
+
+    int[] objectFieldIndices = new int[numObjectFields];
+    int[] objectFieldOffsets = new int[numObjectFields];
+    for (int i = 0, j = 0; i < n; i++) {
+      if (fieldTypes[i] == Type.OBJ) {
+        objectFieldIndices[j] = i;
+        objectFieldOffsets[j] = fieldOffsets[i];
+        j++;
+      }
+    }
+    return new ClassLayout(classObjId, fieldTypes, fieldNameStringIds, fieldOffsets,
+        objectFieldIndices, objectFieldOffsets, offset);
+  }
+
+  public long classObjId() {
+    return classObjId;
+  }
+
+  public int numFields() {
+    return fieldTypes.length;
+  }
+
+  public Type fieldType(int fieldIndex) {
+    return fieldTypes[fieldIndex];
+  }
+
+  public long fieldNameStringId(int fieldIndex) {
+    return fieldNameStringIds[fieldIndex];
+  }
+
+  /**
+   * Returns the offset of the field's value within the packed field values.
+   */
+  public int fieldOffset(int fieldIndex) {
+    return fieldOffsets[fieldIndex];
+  }
+
+  /**
+   * Returns the index of the field with the given name, or -1 if there is none.  If a subclass
+   * field hides a superclass field of the same name, the subclass field is found.
+   */
+  public int fieldIndex(long fieldNameStringId) {
+    for (int i = 0; i < fieldNameStringIds.length; i++) {
+      if (fieldNameStringIds[i] == fieldNameStringId) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the indices of the object reference fields, in field order.
+   */
+  public int[] objectFieldIndices() {
+    return objectFieldIndices;
+  }
+
+  /**
+   * Returns the offsets of the object reference fields within the packed field values, in field
+   * order.
+   */
+  public int[] objectFieldOffsets() {
+    return objectFieldOffsets;
+  }
+
+  /**
+   * Returns the number of bytes of packed field values an instance of this class has.
+   */
+  public int packedSize() {
+    return packedSize;
+  }
+
+}
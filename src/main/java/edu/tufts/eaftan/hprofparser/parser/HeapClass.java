@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+/**
+ * A class dump record.  Callers must not modify the arrays it returns.
+ */
+public final class HeapClass extends HeapObject {
+
+  private final String name;
+  private final long superClassObjId;
+  private final long classLoaderObjId;
+  private final long signersObjId;
+  private final long protectionDomainObjId;
+  private final int instanceSize;
+  private final Constant[] constants;
+  private final Static[] statics;
+  private final InstanceField[] instanceFields;
+  private final ClassLayout layout;
+
+  HeapClass(long classObjId, int stackTraceSerialNum, String name, long superClassObjId,
+      long classLoaderObjId, long signersObjId, long protectionDomainObjId, int instanceSize,
+      Constant[] constants, Static[] statics, InstanceField[] instanceFields,
+      ClassLayout layout) {
+    super(classObjId, stackTraceSerialNum);
+    this.name = name;
+    this.superClassObjId = superClassObjId;
+    this.classLoaderObjId = classLoaderObjId;
+    this.signersObjId = signersObjId;
+    this.protectionDomainObjId = protectionDomainObjId;
+    this.instanceSize = instanceSize;
+    this.constants = constants;
+    this.statics = statics;
+    this.instanceFields = instanceFields;
+    this.layout = layout;
+  }
+
+  /**
+   * Returns the class name from the class's load class record, or null if there is none.
+   */
+  public String name() {
+    return name;
+  }
+
+  public long superClassObjId() {
+    return superClassObjId;
+  }
+
+  public long classLoaderObjId() {
+    return classLoaderObjId;
+  }
+
+  public long signersObjId() {
+    return signersObjId;
+  }
+
+  public long protectionDomainObjId() {
+    return protectionDomainObjId;
+  }
+
+  public int instanceSize() {
+    return instanceSize;
+  }
+
+  public Constant[] constants() {
+    return constants;
+  }
+
+  public Static[] statics() {
+    return statics;
+  }
+
+  /**
+   * Returns the instance fields declared by this class itself.
+   */
+  public InstanceField[] instanceFields() {
+    return instanceFields;
+  }
+
+  /**
+   * Returns the layout of the fields of instances of this class, or null if one of its
+   * superclasses is missing from the dump.
+   */
+  public ClassLayout layout() {
+    return layout;
+  }
+
+  /**
+   * Returns the superclass, class loader, signers and protection domain, followed by the object
+   * values of the class's constants and static fields.
+   */
+  @Override
+  public long[] outboundReferences() {
+    int n = 4;
+    for (Constant c : constants) {
+      n += c.value.type == Type.OBJ ? 1 : 0;
+    }
+    for (Static s : statics) {
+      n += s.value.type == Type.OBJ ? 1 : 0;
+    }
+    long[] refs = new long[n];
+    refs[0] = superClassObjId;
+    refs[1] = classLoaderObjId;
+    refs[2] = signersObjId;
+    refs[3] = protectionDomainObjId;
+    int i = 4;
+    for (Constant c : constants) {
+      if (c.value.type == Type.OBJ) {
+        refs[i++] = (Long) c.value.value;
+      }
+    }
+    for (Static s : statics) {
+      if (s.value.type == Type.OBJ) {
+        refs[i++] = (Long) s.value.value;
+      }
+    }
+    return refs;
+  }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.ClassInfo;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.util.LongLongMap;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Random access to the objects in a heap dump, for tools that would rather ask for objects than
+ * handle a stream of records.
+ *
+ * <p>Opening a dump reads its top-level records and its class dumps, and opens (or builds) its
+ * {@code ObjectIndex}.  Strings and other objects are decoded from the memory-mapped file when they
+ * are asked for, and the most recently used ones are kept in caches of bounded size, so memory use
+ * does not depend on the size of the dump.
+ *
+ * <p>A HeapDump is not thread-safe.
+ */
+public final class HeapDump implements Closeable {
+
+  public static final int DEFAULT_CACHE_SIZE = 100000;
+
+  private final HprofInput in;
+  private final ObjectIndex index;
+  private final int idSize;
+
+  private final StringTable strings;
+  // load class records' class name string ids
+  private final LongLongMap classNameIds = LongLongMap.onHeap(-1);
+
+  private final Map<Long, HeapClass> classes = new LinkedHashMap<>();
+  private final LongObjectMap<ClassInfo> classInfos = new LongObjectMap<>();
+  private final Map<Long, HeapObject> cache;
+
+  private final HprofParser decoder;
+  private final DecodingHandler decoded = new DecodingHandler();
+
+  private HeapDump(File file, ObjectIndex index, final int cacheSize) throws IOException {
+    Preconditions.checkArgument(cacheSize >= 0);
+    this.index = index;
+    this.idSize = index.idSize();
+    this.cache = new LinkedHashMap<Long, HeapObject>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, HeapObject> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    in = new MappedHprofInput(file);
+    strings = new StringTable(in, idSize, StringTable.DEFAULT_CACHE_SIZE);
+    decoder = new HprofParser(decoded, classInfos);
+    decoder.startHeapDumpBodies(idSize);
+  }
+
+  /**
+   * Opens the given heap dump with the default cache size, building its object index if
+   * necessary.
+   */
+  public static HeapDump open(File file) throws IOException {
+    return open(file, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Opens the given heap dump, keeping up to {@code cacheSize} decoded objects other than classes
+   * in memory.
+   */
+  public static HeapDump open(File file, int cacheSize) throws IOException {
+    ObjectIndex index = ObjectIndex.open(file);
+    HeapDump dump;
+    try {
+      dump = new HeapDump(file, index, cacheSize);
+    } catch (IOException | RuntimeException e) {
+      index.close();
+      throw e;
+    }
+    try {
+      dump.readTopLevelRecords();
+      dump.readClasses();
+    } catch (IOException | RuntimeException e) {
+      dump.close();
+      throw e;
+    }
+    return dump;
+  }
+
+  private void readTopLevelRecords() throws IOException {
+    in.seek(0);
+    HprofParser.readUntilNull(in);
+    in.readInt();     // id size
+    in.readLong();    // time
+    while (in.position() < in.length()) {
+      byte tag = in.readByte();
+      in.readInt();    // time
+      long length = Integer.toUnsignedLong(in.readInt());
+      long body = in.position();
+      switch (tag) {
+        case RecordTags.STRING_IN_UTF8:
+          strings.add(HprofParser.readId(idSize, in), body);
+          break;
+        case RecordTags.LOAD_CLASS:
+          in.readInt();    // class serial number
+          long classObjId = HprofParser.readId(idSize, in);
+          in.readInt();    // stack trace serial number
+          classNameIds.put(classObjId, HprofParser.readId(idSize, in));
+          break;
+        default:
+          break;
+      }
+      in.seek(body + length);
+    }
+  }
+
+  private void readClasses() throws IOException {
+    // parse every class dump, then fill in names and layouts once all superclasses are known
+    Map<Long, HeapClass> unlinked = new LinkedHashMap<>();
+    for (long entry = 0; entry < index.size(); entry++) {
+      if (index.tag(entry) == RecordTags.CLASS_DUMP) {
+        HeapClass c = (HeapClass) decode(index.offset(entry));
+        unlinked.put(c.objId(), c);
+      }
+    }
+    for (HeapClass c : unlinked.values()) {
+      long nameId = classNameIds.get(c.objId());
+      String name = nameId != -1 ? getString(nameId) : null;
+      classes.put(c.objId(), new HeapClass(c.objId(), c.stackTraceSerialNum(), name,
+          c.superClassObjId(), c.classLoaderObjId(), c.signersObjId(),
+          c.protectionDomainObjId(), c.instanceSize(), c.constants(), c.statics(),
+          c.instanceFields(), ClassLayout.compute(c.objId(), classInfos, idSize)));
+    }
+  }
+
+  public int idSize() {
+    return idSize;
+  }
+
+  /**
+   * Returns the object with the given id, or null if there is none in the dump.
+   */
+  public HeapObject getObject(long objId) throws IOException {
+    HeapClass c = classes.get(objId);
+    if (c != null) {
+      return c;
+    }
+    HeapObject obj = cache.get(objId);
+    if (obj == null) {
+      long entry = index.find(objId);
+      if (entry < 0) {
+        return null;
+      }
+      obj = decode(index.offset(entry));
+      cache.put(objId, obj);
+    }
+    return obj;
+  }
+
+  /**
+   * Returns the class with the given class object id, or null if there is none in the dump.
+   */
+  public HeapClass getClass(long classObjId) {
+    return classes.get(classObjId);
+  }
+
+  /**
+   * Returns every class in the dump.
+   */
+  public Collection<HeapClass> classes() {
+    return Collections.unmodifiableCollection(classes.values());
+  }
+
+  /**
+   * Returns the string with the given id, or null if there is none in the dump.
+   */
+  public String getString(long stringId) throws IOException {
+    return strings.get(stringId);
+  }
+
+  /**
+   * Returns the ids of the direct instances of the given class, in increasing order.  They are
+   * read from the object index, which lists the instances of each class together, so the hprof
+   * file is not read.
+   */
+  public Iterable<Long> instancesOf(final long classObjId) {
+    return new Iterable<Long>() {
+      @Override
+      public Iterator<Long> iterator() {
+        return new InstanceIterator(classObjId);
+      }
+    };
+  }
+
+  /**
+   * Returns the ids of the objects the given object refers to, or null if there is no such
+   * object.
+   */
+  public long[] outboundReferences(long objId) throws IOException {
+    HeapObject obj = getObject(objId);
+    return obj == null ? null : obj.outboundReferences();
+  }
+
+  private HeapObject decode(long offset) throws IOException {
+    decoder.parseHeapDumpRecord(in, offset);
+    HeapObject obj = decoded.last;
+    decoded.last = null;
+    return obj;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      in.close();
+    } finally {
+      index.close();
+    }
+  }
+
+  private class InstanceIterator implements Iterator<Long> {
+    private final long classObjId;
+    private long nextEntry;
+
+    InstanceIterator(long classObjId) {
+      this.classObjId = classObjId;
+      this.nextEntry = index.firstInstanceOf(classObjId);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextEntry < index.numInstances()
+          && index.instanceClassObjId(nextEntry) == classObjId;
+    }
+
+    @Override
+    public Long next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return index.instanceObjId(nextEntry++);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Turns the record the decoder parses into a HeapObject.
+   */
+  private class DecodingHandler extends NullRecordHandler {
+    HeapObject last;
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      last = new HeapClass(classObjId, stackTraceSerialNum, null, superClassObjId,
+          classLoaderObjId, signersObjId, protectionDomainObjId, instanceSize, constants, statics,
+          instanceFields, null);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      last = new HeapInstance(instance.objId(), instance.stackTraceSerialNum(), instance.layout(),
+          copy(instance.packedValues()), idSize);
+    }
+
+    @Override
+    public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+        long[] elems) {
+      last = new HeapObjectArray(objId, stackTraceSerialNum, elemClassObjId, elems);
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      last = new HeapPrimitiveArray(objId, stackTraceSerialNum, elemType, copy(elems));
+    }
+  }
+
+  /**
+   * Returns a read-only copy of the remaining bytes of a buffer the input passed, which is only
+   * valid until its next read, so that cached objects do not hold on to the input's storage.
+   */
+  private static ByteBuffer copy(ByteBuffer bytes) {
+    ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+    copy.put(bytes.duplicate());
+    copy.flip();
+    return copy.asReadOnlyBuffer();
+  }
+
+}
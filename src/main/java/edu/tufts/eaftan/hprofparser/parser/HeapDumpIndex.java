@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import java.util.Arrays;
+
+/**
+ * The file offsets and lengths of the bodies of the heap dump and heap dump segment records in
+ * a file, in file order.
+ */
+final class HeapDumpIndex {
+
+  private long[] offsets = new long[16];
+  private long[] lengths = new long[16];
+  private int size = 0;
+
+  void add(long offset, long length) {
+    if (size == offsets.length) {
+      offsets = Arrays.copyOf(offsets, size * 2);
+      lengths = Arrays.copyOf(lengths, size * 2);
+    }
+    offsets[size] = offset;
+    lengths[size] = length;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long offset(int i) {
+    return offsets[i];
+  }
+
+  long length(int i) {
+    return lengths[i];
+  }
+
+}
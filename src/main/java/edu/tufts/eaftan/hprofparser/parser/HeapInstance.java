@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An instance dump record.
+ */
+public final class HeapInstance extends HeapObject {
+
+  private final InstanceView fields;
+
+  HeapInstance(long objId, int stackTraceSerialNum, ClassLayout layout, ByteBuffer packedValues,
+      int idSize) {
+    super(objId, stackTraceSerialNum);
+    fields = new InstanceView(idSize);
+    fields.bind(objId, stackTraceSerialNum, layout, packedValues);
+  }
+
+  public long classObjId() {
+    return fields.classObjId();
+  }
+
+  /**
+   * Returns a view of the instance's field values.  Unlike the view passed to
+   * {@code RecordHandler.instanceDump}, it stays bound to this instance.
+   */
+  public InstanceView fields() {
+    return fields;
+  }
+
+  @Override
+  public long[] outboundReferences() {
+    int[] objectFields = fields.layout().objectFieldIndices();
+    long[] refs = new long[objectFields.length];
+    for (int i = 0; i < refs.length; i++) {
+      refs[i] = fields.getObjectId(objectFields[i]);
+    }
+    return refs;
+  }
+
+}
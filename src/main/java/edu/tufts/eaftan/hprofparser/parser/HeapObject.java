@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+/**
+ * An object decoded from a heap dump by {@code HeapDump}: a class, an instance, an object array or
+ * a primitive array.
+ */
+public abstract class HeapObject {
+
+  private final long objId;
+  private final int stackTraceSerialNum;
+
+  HeapObject(long objId, int stackTraceSerialNum) {
+    this.objId = objId;
+    this.stackTraceSerialNum = stackTraceSerialNum;
+  }
+
+  public long objId() {
+    return objId;
+  }
+
+  public int stackTraceSerialNum() {
+    return stackTraceSerialNum;
+  }
+
+  /**
+   * Returns the ids of the objects this object refers to, in field or element order, including
+   * null (0) references.
+   */
+  public abstract long[] outboundReferences();
+
+}
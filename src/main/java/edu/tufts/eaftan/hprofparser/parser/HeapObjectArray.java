@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+/**
+ * An object array dump record.  Callers must not modify the array of elements it returns.
+ */
+public final class HeapObjectArray extends HeapObject {
+
+  private final long elemClassObjId;
+  private final long[] elems;
+
+  HeapObjectArray(long objId, int stackTraceSerialNum, long elemClassObjId, long[] elems) {
+    super(objId, stackTraceSerialNum);
+    this.elemClassObjId = elemClassObjId;
+    this.elems = elems;
+  }
+
+  public long elemClassObjId() {
+    return elemClassObjId;
+  }
+
+  public long[] elems() {
+    return elems;
+  }
+
+  public int length() {
+    return elems.length;
+  }
+
+  @Override
+  public long[] outboundReferences() {
+    return elems.clone();
+  }
+
+}
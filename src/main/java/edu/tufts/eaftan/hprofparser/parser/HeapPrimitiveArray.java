@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A primitive array dump record.
+ */
+public final class HeapPrimitiveArray extends HeapObject {
+
+  private final Type elemType;
+  private final ByteBuffer elems;
+
+  HeapPrimitiveArray(long objId, int stackTraceSerialNum, Type elemType, ByteBuffer elems) {
+    super(objId, stackTraceSerialNum);
+    this.elemType = elemType;
+    this.elems = elems;
+  }
+
+  public Type elemType() {
+    return elemType;
+  }
+
+  /**
+   * Returns the elements as a read-only, big-endian buffer.
+   */
+  public ByteBuffer elems() {
+    return elems.duplicate();
+  }
+
+  public int length() {
+    return elems.remaining() / elemType.sizeInBytes();
+  }
+
+  @Override
+  public long[] outboundReferences() {
+    return new long[0];
+  }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A big-endian view of an hprof file that, unlike a plain {@code DataInput}, knows where in the
+ * file it is and can be repositioned.
+ */
+public interface HprofInput extends DataInput, Closeable {
+
+  /**
+   * Returns the offset in the file of the next byte to be read.
+   */
+  public abstract long position();
+
+  /**
+   * Moves the read position to the given offset in the file.
+   */
+  public abstract void seek(long position) throws IOException;
+
+  /**
+   * Returns the length of the underlying file in bytes.
+   */
+  public abstract long length();
+
+  /**
+   * Returns a read-only, big-endian buffer holding the next {@code n} bytes and advances past
+   * them.  The buffer may share storage with this input, so it is only valid until the next read.
+   */
+  public abstract ByteBuffer readBuffer(int n) throws IOException;
+
+}
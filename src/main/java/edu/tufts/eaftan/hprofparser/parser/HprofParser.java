@@ -18,27 +18,26 @@ package edu.tufts.eaftan.hprofparser.parser;
 
 import com.google.common.base.Preconditions;
 
+import edu.tufts.eaftan.hprofparser.handler.Checkpointable;
 import edu.tufts.eaftan.hprofparser.handler.RecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordMask;
+import edu.tufts.eaftan.hprofparser.handler.ThreadedRecordHandler;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.AllocSite;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.CPUSample;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.ClassInfo;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
-import edu.tufts.eaftan.hprofparser.parser.datastructures.Instance;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
+import edu.tufts.eaftan.hprofparser.util.ModifiedUtf8;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * Parses an hprof heap dump file in binary format.  The hprof dump file format is documented in
@@ -46,15 +45,191 @@ import java.util.HashMap;
  */
 public class HprofParser {
 
+  /**
+   * How the parser reads the heap dump file.
+   */
+  public enum InputMode {
+    /** Read through a buffered {@code DataInputStream}. */
+    STREAM,
+    /** Decode directly from memory-mapped windows of the file.  Best for very large dumps. */
+    MAPPED
+  }
+
   private RecordHandler handler;
-  private HashMap<Long, ClassInfo> classMap;
+  // guarded by itself, since it may be shared with other parsers
+  private LongObjectMap<ClassInfo> classMap;
+  private InputMode inputMode = InputMode.STREAM;
+  private boolean pipelined = false;
+  private RecordMask mask;
+
+  // file offsets of instance dump records whose class layout was not yet known when we saw them
+  private long[] deferredInstances = new long[16];
+  private int numDeferredInstances = 0;
+
+  // field layouts of classes whose whole superclass chain has been dumped, and the most recently
+  // used one, since instances of a class tend to come in runs
+  private LongObjectMap<ClassLayout> layouts = new LongObjectMap<ClassLayout>();
+  private ClassLayout lastLayout;
+
+  private int idSize;
+  private InstanceView instanceView;
+
+  // if non-null, the location of every string record is recorded here
+  private StringTable stringTable;
+
+  // if non-null, heap dump bodies are recorded here and skipped rather than parsed
+  private HeapDumpIndex heapDumpIndex;
+
+  private ParseMetrics metrics;
+  private ProgressListener progressListener;
+  private long progressInterval;
+  // file offset at which to next report progress; never reached if there is no listener
+  private long nextProgress = Long.MAX_VALUE;
+  private long startNanos;
+  private long startPosition;
+  private long fileLength;
+  private long fileLastModified;
+
+  // if non-null, the parse is checkpointed to this file about every checkpointInterval bytes
+  private File checkpointFile;
+  private Checkpointable checkpointable;
+  private long checkpointInterval;
+  private long nextCheckpoint = Long.MAX_VALUE;
 
   public HprofParser(RecordHandler handler) {
-    this.handler = handler;
-    classMap = new HashMap<Long, ClassInfo>();
+    this(handler, new LongObjectMap<ClassInfo>());
   } 
 
+  /**
+   * Creates a parser that records the class dumps it sees in, and looks up instance layouts from,
+   * the given map, which may be shared with other parsers.
+   */
+  HprofParser(RecordHandler handler, LongObjectMap<ClassInfo> classMap) {
+    this.handler = handler;
+    this.classMap = classMap;
+  }
+
+  public void setInputMode(InputMode inputMode) {
+    this.inputMode = inputMode;
+  }
+
+  /**
+   * Makes subsequent parses run as a pipeline of three threads: one reads the file ahead of the
+   * parser, the calling thread frames and decodes the records, and one calls the handler.  The
+   * threads pass their work on in batches through rings of preallocated buffers, and the handler
+   * sees the records in file order, as in an ordinary parse.  In {@code MAPPED} mode, the
+   * operating system already reads ahead, so there is no reader thread.
+   *
+   * <p>The handler is wrapped in a {@code ThreadedRecordHandler}, which copies the arguments it
+   * may not keep into reused buffers; as in an ordinary parse, the handler may not keep them
+   * either.  Pipelining cannot be combined with checkpointing, which needs the
+   * handler's state to match the parser's position.
+   */
+  public void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  /**
+   * Makes subsequent parses record what they do in {@code metrics}, or stop doing so if it is
+   * null.
+   */
+  public void setMetrics(ParseMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Makes subsequent parses report their progress to {@code listener} about every
+   * {@code intervalBytes} bytes, or stop doing so if it is null.
+   */
+  public void setProgressListener(ProgressListener listener, long intervalBytes) {
+    Preconditions.checkArgument(intervalBytes > 0);
+    this.progressListener = listener;
+    this.progressInterval = intervalBytes;
+  }
+
+  /**
+   * Makes subsequent parses record the location of every string in {@code table}, or stop doing
+   * so if it is null.  Handlers that look strings up in the table rather than keeping the ones
+   * passed to {@code stringInUTF8} should leave string records out of their record mask, so
+   * that the parser does not decode them.  A string table cannot be combined with checkpointing,
+   * since a resumed parse skips the strings before the checkpoint.
+   */
+  public void setStringTable(StringTable table) {
+    this.stringTable = table;
+  }
+
+  /**
+   * Makes subsequent parses save a checkpoint to {@code file} about every {@code intervalBytes}
+   * bytes, at a record boundary, or stop doing so if {@code file} is null.  A checkpoint holds
+   * the position of the next record, the classes seen so far, the instances waiting for their
+   * class, and the handler's state, which is why the handler must be {@code Checkpointable}.
+   *
+   * <p>If the file already holds a checkpoint of the same hprof file when a parse starts, the
+   * parse resumes from it.  The file is deleted once a parse completes.  Checkpoints are only
+   * taken while the records are read in order, not while deferred instances are revisited at the
+   * end of a heap dump.  Checkpointing cannot be combined with a string table or pipelining.
+   */
+  public void setCheckpointing(File file, long intervalBytes) {
+    Preconditions.checkArgument(intervalBytes > 0);
+    Preconditions.checkArgument(file == null || handler instanceof Checkpointable,
+        "Handler must be Checkpointable");
+    this.checkpointFile = file;
+    this.checkpointable = file != null ? (Checkpointable) handler : null;
+    this.checkpointInterval = intervalBytes;
+  }
+
+  HprofInput open(File file) throws IOException {
+    switch (inputMode) {
+      case MAPPED:
+        return new MappedHprofInput(file);
+      default:
+        return new StreamHprofInput(file, pipelined);
+    }
+  }
+
   public void parse(File file) throws IOException {
+    Preconditions.checkState(!pipelined || checkpointFile == null,
+        "Checkpointing is not supported by a pipelined parse");
+    Preconditions.checkState(stringTable == null || checkpointFile == null,
+        "Checkpointing is not supported with a string table");
+    long start = System.nanoTime();
+    RecordHandler userHandler = handler;
+    ThreadedRecordHandler dispatcher = null;
+    if (metrics != null) {
+      metrics.setPipelined(pipelined);
+      // times the handler itself, on its own thread if pipelined
+      handler = new TimingRecordHandler(handler, metrics, false);
+    }
+    if (pipelined) {
+      dispatcher = new ThreadedRecordHandler(handler);
+      handler = dispatcher;
+      if (metrics != null) {
+        handler = new TimingRecordHandler(handler, metrics, true);
+      }
+    }
+    try {
+      parseRecords(file);
+      handler.finished();
+    } finally {
+      handler = userHandler;
+      if (dispatcher != null) {
+        // stops the handler's thread if the parse failed
+        dispatcher.close();
+      }
+    }
+    if (checkpointFile != null) {
+      checkpointFile.delete();
+    }
+    if (metrics != null) {
+      metrics.finish(System.nanoTime() - start, file.length());
+    }
+  }
+
+  /**
+   * Parses the file without calling {@code handler.finished()}.  If {@code heapDumpIndex} is set,
+   * only the top-level records are parsed.
+   */
+  void parseRecords(File file) throws IOException {
 
     /* The file format looks like this:
      *
@@ -74,32 +249,147 @@ public class HprofParser {
      *   [u1]* - body
      */
 
-    FileInputStream fs = new FileInputStream(file);
-    DataInputStream in = new DataInputStream(new BufferedInputStream(fs));
-
-    // header
-    String format = readUntilNull(in);
-    int idSize = in.readInt();
-    long startTime = in.readLong();
-    handler.header(format, idSize, startTime);
-
-    // records
-    boolean done;
-    do {
-      done = parseRecord(in, idSize, true);
-    } while (!done);
-    in.close();
-
-    FileInputStream fsSecond = new FileInputStream(file);
-    DataInputStream inSecond = new DataInputStream(new BufferedInputStream(fsSecond));
-    readUntilNull(inSecond); // format
-    inSecond.readInt(); // idSize
-    inSecond.readLong(); // startTime
-    do {
-      done = parseRecord(inSecond, idSize, false);
-    } while (!done);
-    inSecond.close();
-    handler.finished();
+    mask = handler.recordMask();
+    try (HprofInput in = open(file)) {
+      Checkpoint checkpoint = null;
+      if (checkpointFile != null && heapDumpIndex == null) {
+        checkpoint = Checkpoint.read(checkpointFile, file);
+      }
+      if (checkpoint == null) {
+        // header
+        String format = readUntilNull(in);
+        int idSize = in.readInt();
+        long startTime = in.readLong();
+        handler.header(format, idSize, startTime);
+        this.idSize = idSize;
+      } else {
+        restore(checkpoint, in);
+      }
+      instanceView = new InstanceView(idSize);
+
+      startNanos = System.nanoTime();
+      startPosition = in.position();
+      fileLength = in.length();
+      fileLastModified = file.lastModified();
+      nextProgress = progressListener != null ? progressInterval : Long.MAX_VALUE;
+      nextCheckpoint = checkpointFile != null && heapDumpIndex == null
+          ? startPosition + checkpointInterval : Long.MAX_VALUE;
+
+      if (checkpoint != null && checkpoint.heapDumpTag != 0) {
+        // finish the heap dump or segment the checkpoint was taken in
+        parseHeapDumpRecords(in, checkpoint.heapDumpTag, checkpoint.heapDumpEnd - in.position());
+        if (checkpoint.heapDumpTag == RecordTags.HEAP_DUMP) {
+          processDeferredInstances(in, idSize);
+          handler.heapDumpEnd();
+        }
+      }
+
+      // records
+      boolean done;
+      do {
+        done = parseRecord(in, idSize);
+        if (in.position() >= nextProgress) {
+          reportProgress(in.position());
+        }
+        if (!done && in.position() >= nextCheckpoint) {
+          saveCheckpoint(in.position(), (byte) 0, 0);
+        }
+      } while (!done);
+
+      // a segmented heap dump need not be terminated by a heap dump end record
+      processDeferredInstances(in, idSize);
+      if (progressListener != null) {
+        progressListener.progress(fileLength, fileLength, 0);
+      }
+    }
+  }
+
+  private void restore(Checkpoint checkpoint, HprofInput in) throws IOException {
+    idSize = checkpoint.idSize;
+    synchronized (classMap) {
+      LongObjectMap<ClassInfo>.Cursor cursor = checkpoint.classMap.cursor();
+      while (cursor.next()) {
+        classMap.put(cursor.key(), cursor.value());
+      }
+    }
+    deferredInstances = Arrays.copyOf(checkpoint.deferredInstances,
+        Math.max(16, checkpoint.deferredInstances.length));
+    numDeferredInstances = checkpoint.deferredInstances.length;
+    checkpointable.restoreState(checkpoint.handlerState);
+    in.seek(checkpoint.position);
+  }
+
+  /**
+   * Saves a checkpoint at {@code position}, which is a record boundary inside the heap dump
+   * record with the given tag that ends at {@code heapDumpEnd}, or a top-level record boundary
+   * if the tag is 0.
+   */
+  private void saveCheckpoint(long position, byte heapDumpTag, long heapDumpEnd)
+      throws IOException {
+    Checkpoint checkpoint = new Checkpoint();
+    checkpoint.position = position;
+    checkpoint.idSize = idSize;
+    checkpoint.heapDumpTag = heapDumpTag;
+    checkpoint.heapDumpEnd = heapDumpEnd;
+    checkpoint.classMap = classMap;
+    checkpoint.deferredInstances = Arrays.copyOf(deferredInstances, numDeferredInstances);
+    checkpoint.handlerState = checkpointable.saveState();
+    synchronized (classMap) {
+      checkpoint.write(checkpointFile, fileLength, fileLastModified);
+    }
+    nextCheckpoint = position + checkpointInterval;
+  }
+
+  /**
+   * Makes subsequent parses record the location of each heap dump and heap dump segment body in
+   * {@code index} instead of parsing it.
+   */
+  void setHeapDumpIndex(HeapDumpIndex index) {
+    this.heapDumpIndex = index;
+  }
+
+  int idSize() {
+    return idSize;
+  }
+
+  /**
+   * Prepares to parse heap dump bodies with {@link #parseHeapDumpBody}, for a file with the
+   * given identifier size.
+   */
+  void startHeapDumpBodies(int idSize) {
+    mask = handler.recordMask();
+    this.idSize = idSize;
+    instanceView = new InstanceView(idSize);
+  }
+
+  /**
+   * Parses the heap dump sub-records in the {@code length} bytes at {@code offset}.  Instances
+   * whose class layout is not known yet are deferred until {@link #finishHeapDumpBodies}.
+   */
+  void parseHeapDumpBody(HprofInput in, long offset, long length) throws IOException {
+    in.seek(offset);
+    parseHeapDumpRecords(in, RecordTags.HEAP_DUMP_SEGMENT, length);
+  }
+
+  /**
+   * Decodes the instances deferred by earlier calls to {@link #parseHeapDumpBody}.
+   */
+  void finishHeapDumpBodies(HprofInput in) throws IOException {
+    processDeferredInstances(in, idSize);
+  }
+
+  /**
+   * Parses the single heap dump sub-record whose tag is at {@code offset}, after a call to
+   * {@link #startHeapDumpBodies}.  The class dumps of an instance's class and its superclasses
+   * must have been parsed already.
+   */
+  void parseHeapDumpRecord(HprofInput in, long offset) throws IOException {
+    in.seek(offset);
+    parseHeapDump(in, idSize);
+    if (numDeferredInstances > 0) {
+      numDeferredInstances = 0;
+      throw new HprofParserException("Class of instance at offset " + offset + " is unknown");
+    }
   }
 
   public static String readUntilNull(DataInput in) throws IOException {
@@ -123,7 +413,7 @@ public class HprofParser {
   /**
    * @return true if there are no more records to parse
    */
-  private boolean parseRecord(DataInput in, int idSize, boolean isFirstPass) throws IOException {
+  private boolean parseRecord(HprofInput in, int idSize) throws IOException {
 
     /* format:
      *   u1 - tag
@@ -143,6 +433,16 @@ public class HprofParser {
     // otherwise propagate the EOFException
     int time = in.readInt();    // TODO(eaftan): we might want time passed to handler fns
     long bytesLeft = Integer.toUnsignedLong(in.readInt());
+    if (metrics != null) {
+      boolean isHeapDump = tag == RecordTags.HEAP_DUMP || tag == RecordTags.HEAP_DUMP_SEGMENT;
+      metrics.countTopLevelRecord(tag, 9 + (isHeapDump ? 0 : bytesLeft));
+    }
+
+    if (isLeafRecord(tag) && !mask.wantsTopLevel(tag)
+        && !(tag == RecordTags.STRING_IN_UTF8 && stringTable != null)) {
+      skipFully(in, bytesLeft);
+      return false;
+    }
 
     long l1, l2, l3, l4;
     int i1, i2, i3, i4, i5, i6, i7, i8, i9;
@@ -155,13 +455,19 @@ public class HprofParser {
     switch (tag) {
       case 0x1:
         // String in UTF-8
+        l2 = in.position();
         l1 = readId(idSize, in);
         bytesLeft -= idSize;
+        if (stringTable != null) {
+          stringTable.add(l1, l2);
+          if (!mask.wantsTopLevel(tag)) {
+            skipFully(in, bytesLeft);
+            break;
+          }
+        }
         bArr1 = new byte[(int) bytesLeft];
         in.readFully(bArr1);
-        if (isFirstPass) {
-          handler.stringInUTF8(l1, new String(bArr1));
-        }
+        handler.stringInUTF8(l1, ModifiedUtf8.decode(bArr1));
         break;
 
       case 0x2:
@@ -170,17 +476,13 @@ public class HprofParser {
         l1 = readId(idSize, in);
         i2 = in.readInt();
         l2 = readId(idSize, in);
-        if (isFirstPass) {
-          handler.loadClass(i1, l1, i2, l2);
-        }
+        handler.loadClass(i1, l1, i2, l2);
         break;
 
       case 0x3:
         // Unload class
         i1 = in.readInt();
-        if (isFirstPass) {
-          handler.unloadClass(i1);
-        }
+        handler.unloadClass(i1);
         break;
 
       case 0x4:
@@ -191,9 +493,7 @@ public class HprofParser {
         l4 = readId(idSize, in);
         i1 = in.readInt();
         i2 = in.readInt();
-        if (isFirstPass) {
-          handler.stackFrame(l1, l2, l3, l4, i1, i2);
-        }
+        handler.stackFrame(l1, l2, l3, l4, i1, i2);
         break;
 
       case 0x5:
@@ -206,9 +506,7 @@ public class HprofParser {
         for (int i=0; i<lArr1.length; i++) {
           lArr1[i] = readId(idSize, in);
         }
-        if (isFirstPass) {
-          handler.stackTrace(i1, i2, i3, lArr1);
-        }
+        handler.stackTrace(i1, i2, i3, lArr1);
         break;
 
       case 0x6:
@@ -233,9 +531,7 @@ public class HprofParser {
 
           allocSites[i] = new AllocSite(b1, i4, i5, i6, i7, i8, i9);
         }
-        if (isFirstPass) {
-          handler.allocSites(s1, f1, i1, i2, l1, l2, allocSites);
-        }
+        handler.allocSites(s1, f1, i1, i2, l1, l2, allocSites);
         break;
 
       case 0x7: 
@@ -244,9 +540,7 @@ public class HprofParser {
         i2 = in.readInt();
         l1 = in.readLong();
         l2 = in.readLong();
-        if (!isFirstPass) {
-          handler.heapSummary(i1, i2, l1, l2);
-        }
+        handler.heapSummary(i1, i2, l1, l2);
         break;
 
       case 0xa:
@@ -257,47 +551,47 @@ public class HprofParser {
         l2 = readId(idSize, in);
         l3 = readId(idSize, in);
         l4 = readId(idSize, in);
-        if (isFirstPass) {
-          handler.startThread(i1, l1, i2, l2, l3, l4);
-        }
+        handler.startThread(i1, l1, i2, l2, l3, l4);
         break;
 
       case 0xb:
         // End thread
         i1 = in.readInt();
-        if (isFirstPass) {
-          handler.endThread(i1);
-        }
+        handler.endThread(i1);
         break;
 
       case 0xc:
         // Heap dump
-        if (isFirstPass) {
-          handler.heapDump();
-        }
-        while (bytesLeft > 0) {
-          bytesLeft -= parseHeapDump(in, idSize, isFirstPass);
-        }
-        if (!isFirstPass) {
-          handler.heapDumpEnd();
+        handler.heapDump();
+        if (!mask.wantsAnyHeapDump()) {
+          skipFully(in, bytesLeft);
+        } else if (heapDumpIndex != null) {
+          heapDumpIndex.add(in.position(), bytesLeft);
+          skipFully(in, bytesLeft);
+        } else {
+          parseHeapDumpRecords(in, tag, bytesLeft);
         }
+        processDeferredInstances(in, idSize);
+        handler.heapDumpEnd();
         break;
 
       case 0x1c:
         // Heap dump segment
-        if (isFirstPass) {
-          handler.heapDumpSegment();
-        }
-        while (bytesLeft > 0) {
-          bytesLeft -= parseHeapDump(in, idSize, isFirstPass);
+        handler.heapDumpSegment();
+        if (!mask.wantsAnyHeapDump()) {
+          skipFully(in, bytesLeft);
+        } else if (heapDumpIndex != null) {
+          heapDumpIndex.add(in.position(), bytesLeft);
+          skipFully(in, bytesLeft);
+        } else {
+          parseHeapDumpRecords(in, tag, bytesLeft);
         }
         break;
 
       case 0x2c:
         // Heap dump end (of segments)
-        if (!isFirstPass) {
-          handler.heapDumpEnd();
-        }
+        processDeferredInstances(in, idSize);
+        handler.heapDumpEnd();
         break;
 
       case 0xd:
@@ -311,18 +605,14 @@ public class HprofParser {
           i4 = in.readInt();
           samples[i] = new CPUSample(i3, i4);
         }
-        if (isFirstPass) {
-          handler.cpuSamples(i1, samples);
-        }
+        handler.cpuSamples(i1, samples);
         break;
 
       case 0xe: 
         // Control settings
         i1 = in.readInt();
         s1 = in.readShort();
-        if (isFirstPass) {
-          handler.controlSettings(i1, s1);
-        }
+        handler.controlSettings(i1, s1);
         break;
 
       default:
@@ -332,17 +622,65 @@ public class HprofParser {
     return false;
   }
 
+  /**
+   * Returns true for top-level records that are self-contained, i.e. everything except the heap
+   * dump records.
+   */
+  private static boolean isLeafRecord(byte tag) {
+    switch (tag) {
+      case 0x1:
+      case 0x2:
+      case 0x3:
+      case 0x4:
+      case 0x5:
+      case 0x6:
+      case 0x7:
+      case 0xa:
+      case 0xb:
+      case 0xd:
+      case 0xe:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Parses the heap dump sub-records in the next {@code bytesLeft} bytes.
+   */
+  private void parseHeapDumpRecords(HprofInput in, byte tag, long bytesLeft) throws IOException {
+    long end = in.position() + bytesLeft;
+    while (bytesLeft > 0) {
+      bytesLeft -= parseHeapDump(in, idSize);
+      if (end - bytesLeft >= nextProgress) {
+        reportProgress(end - bytesLeft);
+      }
+      if (bytesLeft > 0 && end - bytesLeft >= nextCheckpoint) {
+        saveCheckpoint(end - bytesLeft, tag, end);
+      }
+    }
+  }
+
   // returns number of bytes parsed
-  private int parseHeapDump(DataInput in, int idSize, boolean isFirstPass) throws IOException {
+  private long parseHeapDump(HprofInput in, int idSize) throws IOException {
 
     byte tag = in.readByte();
-    int bytesRead = 1;
+    long bytesRead = 1;
+
+    // class dumps are needed to decode instances even if the handler doesn't want them
+    if (!mask.wantsHeapDump(tag)
+        && !(tag == RecordTags.CLASS_DUMP && mask.wantsHeapDump(RecordTags.INSTANCE_DUMP))) {
+      bytesRead += skipHeapDumpRecord(in, tag, idSize);
+      if (metrics != null) {
+        metrics.countHeapDumpRecord(tag, bytesRead);
+      }
+      return bytesRead;
+    }
 
     long l1, l2, l3, l4, l5, l6, l7;
     int i1, i2;
     short s1, s2, s3;
     byte b1;
-    byte[] bArr1;
     long [] lArr1;
 
     switch (tag) {
@@ -350,9 +688,7 @@ public class HprofParser {
       case -1:    // 0xFF
         // Root unknown
         l1 = readId(idSize, in);
-        if (isFirstPass) {
-          handler.rootUnknown(l1);
-        }
+        handler.rootUnknown(l1);
         bytesRead += idSize;
         break;
 
@@ -360,9 +696,7 @@ public class HprofParser {
         // Root JNI global
         l1 = readId(idSize, in);
         l2 = readId(idSize, in);
-        if (isFirstPass) {
-          handler.rootJNIGlobal(l1, l2);
-        }
+        handler.rootJNIGlobal(l1, l2);
         bytesRead += 2 * idSize;
         break;
 
@@ -371,9 +705,7 @@ public class HprofParser {
         l1 = readId(idSize, in);
         i1 = in.readInt();
         i2 = in.readInt();
-        if (isFirstPass) {
-          handler.rootJNILocal(l1, i1, i2);
-        }
+        handler.rootJNILocal(l1, i1, i2);
         bytesRead += idSize + 8;
         break;
 
@@ -382,9 +714,7 @@ public class HprofParser {
         l1 = readId(idSize, in);
         i1 = in.readInt();
         i2 = in.readInt();
-        if (isFirstPass) {
-          handler.rootJavaFrame(l1, i1, i2);
-        }
+        handler.rootJavaFrame(l1, i1, i2);
         bytesRead += idSize + 8;
         break;
 
@@ -392,18 +722,14 @@ public class HprofParser {
         // Root native stack
         l1 = readId(idSize, in);
         i1 = in.readInt();
-        if (isFirstPass) {
-          handler.rootNativeStack(l1, i1);
-        }
+        handler.rootNativeStack(l1, i1);
         bytesRead += idSize + 4;
         break;
 
       case 0x05:
         // Root sticky class
         l1 = readId(idSize, in);
-        if (isFirstPass) {
-          handler.rootStickyClass(l1);
-        }
+        handler.rootStickyClass(l1);
         bytesRead += idSize;
         break;
 
@@ -411,18 +737,14 @@ public class HprofParser {
         // Root thread block
         l1 = readId(idSize, in);
         i1 = in.readInt();
-        if (isFirstPass) {
-          handler.rootThreadBlock(l1, i1);
-        }
+        handler.rootThreadBlock(l1, i1);
         bytesRead += idSize + 4;
         break;
         
       case 0x07:
         // Root monitor used
         l1 = readId(idSize, in);
-        if (isFirstPass) {
-          handler.rootMonitorUsed(l1);
-        }
+        handler.rootMonitorUsed(l1);
         bytesRead += idSize;
         break;
 
@@ -431,9 +753,7 @@ public class HprofParser {
         l1 = readId(idSize, in);
         i1 = in.readInt();
         i2 = in.readInt();
-        if (isFirstPass) {
-          handler.rootThreadObj(l1, i1, i2);
-        }
+        handler.rootThreadObj(l1, i1, i2);
         bytesRead += idSize + 8;
         break;
 
@@ -595,32 +915,36 @@ public class HprofParser {
          * its superclasses.  So we need to store class records in a hash 
          * table.
          */
-        if (isFirstPass) {
+        synchronized (classMap) {
           classMap.put(l1, new ClassInfo(l1, l2, i2, instanceFields));
         }
-        if (isFirstPass) {
-          handler.classDump(l1, i1, l2, l3, l4, l5, l6, l7, i2, constants,
-            statics, instanceFields);
-        }
+        handler.classDump(l1, i1, l2, l3, l4, l5, l6, l7, i2, constants,
+          statics, instanceFields);
         break;
 
       case 0x21:
         // Instance dump
+        long instanceOffset = in.position();
         l1 = readId(idSize, in);
         i1 = in.readInt();
         l2 = readId(idSize, in);    // class obj id
         i2 = in.readInt();    // num of bytes that follow
         Preconditions.checkState(i2 >= 0);
-        bArr1 = new byte[i2];
-        in.readFully(bArr1);
-        
+
         /** 
-         * because class dump records come *after* instance dump records,
-         * we don't know how to interpret the values yet.  we have to
-         * record the instances and process them at the end.
+         * class dump records may come *after* the instance dump records that
+         * refer to them, in which case we don't know how to interpret the
+         * values yet.  we remember where the record is and come back to it
+         * once the heap dump is complete.
          */
-        if (!isFirstPass) {
-          processInstance(new Instance(l1, i1, l2, bArr1), idSize);
+        ClassLayout layout = layoutFor(l2);
+        if (layout != null) {
+          checkInstanceSize(l1, layout, i2);
+          instanceView.bind(l1, i1, layout, in.readBuffer(i2));
+          handler.instanceDump(instanceView);
+        } else {
+          deferInstance(instanceOffset);
+          skipFully(in, i2);
         }
 
         bytesRead += idSize * 2 + 8 + i2;
@@ -638,9 +962,7 @@ public class HprofParser {
         for (int i=0; i<i2; i++) {
           lArr1[i] = readId(idSize, in);
         }
-        if (isFirstPass) {
-          handler.objArrayDump(l1, i1, l2, lArr1);
-        }
+        handler.objArrayDump(l1, i1, l2, lArr1);
         bytesRead += (2 + i2) * idSize + 8;
         break;
 
@@ -653,130 +975,102 @@ public class HprofParser {
         bytesRead += idSize + 9;
 
         Preconditions.checkState(i2 >= 0);
-        Value<?>[] vs = new Value[i2];
         Type t = Type.hprofTypeToEnum(b1);
-        for (int i=0; i<vs.length; i++) {
-          switch (t) {
-            case OBJ:
-              long vobj = readId(idSize, in);
-              vs[i] = new Value<>(t, vobj);
-              bytesRead += idSize;
-              break;
-            case BOOL:
-              boolean vbool = in.readBoolean();
-              vs[i] = new Value<>(t, vbool);
-              bytesRead += 1;
-              break;
-            case CHAR:
-              char vc = in.readChar();
-              vs[i] = new Value<>(t, vc);
-              bytesRead += 2;
-              break;
-            case FLOAT:
-              float vf = in.readFloat();
-              vs[i] = new Value<>(t, vf);
-              bytesRead += 4;
-              break;
-            case DOUBLE:
-              double vd = in.readDouble();
-              vs[i] = new Value<>(t, vd);
-              bytesRead += 8;
-              break;
-            case BYTE:
-              byte vbyte = in.readByte();
-              vs[i] = new Value<>(t, vbyte);
-              bytesRead += 1;
-              break;
-            case SHORT:
-              short vshort = in.readShort();
-              vs[i] = new Value<>(t, vshort);
-              bytesRead += 2;
-              break;
-            case INT:
-              int vi = in.readInt();
-              vs[i] = new Value<>(t, vi);
-              bytesRead += 4;
-              break;
-            case LONG:
-              long vlong = in.readLong();
-              vs[i] = new Value<>(t, vlong);
-              bytesRead += 8;
-              break;
-          }
-        } 
-        if (isFirstPass) {
-          handler.primArrayDump(l1, i1, b1, vs);
+        if (t == Type.OBJ) {
+          throw new HprofParserException("Unexpected object type in primitive array dump");
         }
+        long elemBytes = (long) i2 * t.sizeInBytes();
+        Preconditions.checkState(elemBytes <= Integer.MAX_VALUE);
+        handler.primArrayDump(l1, i1, t, in.readBuffer((int) elemBytes));
+        bytesRead += elemBytes;
         break;
 
       default:
         throw new HprofParserException("Unexpected heap dump sub-record type: " + tag);
     }
 
+    if (metrics != null) {
+      metrics.countHeapDumpRecord(tag, bytesRead);
+    }
     return bytesRead;
     
   }
 
-  private void processInstance(Instance i, int idSize) throws IOException {
-    ByteArrayInputStream bs = new ByteArrayInputStream(i.packedValues);
-    DataInputStream input = new DataInputStream(bs);
+  /**
+   * Returns the field layout of the given class, or null if the class or one of its superclasses
+   * has not been dumped yet.
+   */
+  private ClassLayout layoutFor(long classObjId) {
+    if (lastLayout != null && lastLayout.classObjId() == classObjId) {
+      return lastLayout;
+    }
+    ClassLayout layout = layouts.get(classObjId);
+    if (layout == null) {
+      synchronized (classMap) {
+        layout = ClassLayout.compute(classObjId, classMap, idSize);
+      }
+      if (layout == null) {
+        return null;
+      }
+      layouts.put(classObjId, layout);
+    }
+    lastLayout = layout;
+    return layout;
+  }
 
-    ArrayList<Value<?>> values = new ArrayList<>();
+  private static void checkInstanceSize(long objId, ClassLayout layout, int numBytes) {
+    if (numBytes != layout.packedSize()) {
+      throw new HprofParserException("Instance " + objId + " of class " + layout.classObjId()
+          + " has " + numBytes + " bytes of field values, but its class layout needs "
+          + layout.packedSize());
+    }
+  }
 
-    // superclass of Object is 0
-    long nextClass = i.classObjId;
-    while (nextClass != 0) {
-      ClassInfo ci = classMap.get(nextClass);
-      nextClass = ci.superClassObjId;
-      for (InstanceField field : ci.instanceFields) {
-        Value<?> v = null;
-        switch (field.type) {
-          case OBJ:     // object
-            long vid = readId(idSize, input);
-            v = new Value<>(field.type, vid);
-            break;
-          case BOOL:     // boolean
-            boolean vbool = input.readBoolean();
-            v = new Value<>(field.type, vbool);
-            break;
-          case CHAR:     // char
-            char vc = input.readChar();
-            v = new Value<>(field.type, vc);
-            break;
-          case FLOAT:     // float
-            float vf = input.readFloat();
-            v = new Value<>(field.type, vf);
-            break;
-          case DOUBLE:     // double
-            double vd = input.readDouble();
-            v = new Value<>(field.type, vd);
-            break;
-          case BYTE:     // byte
-            byte vbyte = input.readByte();
-            v = new Value<>(field.type, vbyte);
-            break;
-          case SHORT:     // short
-            short vs = input.readShort();
-            v = new Value<>(field.type, vs);
-            break;
-          case INT:    // int
-            int vi = input.readInt();
-            v = new Value<>(field.type, vi);
-            break;
-          case LONG:    // long
-            long vl = input.readLong();
-            v = new Value<>(field.type, vl);
-            break;
-        }
-        values.add(v);
+  private void reportProgress(long position) {
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long remainingNanos = (long) (elapsedNanos
+        * ((double) (fileLength - position) / (position - startPosition)));
+    progressListener.progress(position, fileLength, remainingNanos);
+    nextProgress = position + progressInterval;
+  }
+
+  private void deferInstance(long offset) {
+    if (numDeferredInstances == deferredInstances.length) {
+      deferredInstances = Arrays.copyOf(deferredInstances, numDeferredInstances * 2);
+    }
+    deferredInstances[numDeferredInstances++] = offset;
+  }
+
+  /**
+   * Decodes the instance dump records that were skipped because their class layout was unknown
+   * at the time, then returns to the current position.  The offsets were recorded in file order,
+   * so this is a forward sweep over just those records.
+   */
+  private void processDeferredInstances(HprofInput in, int idSize) throws IOException {
+    if (numDeferredInstances == 0) {
+      return;
+    }
+    long resumePosition = in.position();
+    for (int n = 0; n < numDeferredInstances; n++) {
+      in.seek(deferredInstances[n]);
+      long objId = readId(idSize, in);
+      int stackTraceSerialNum = in.readInt();
+      long classObjId = readId(idSize, in);
+      int numBytes = in.readInt();
+      ClassLayout layout = layoutFor(classObjId);
+      if (layout == null) {
+        throw new HprofParserException("No class dump for instance " + objId + " of class "
+            + classObjId);
       }
+      checkInstanceSize(objId, layout, numBytes);
+      instanceView.bind(objId, stackTraceSerialNum, layout, in.readBuffer(numBytes));
+      handler.instanceDump(instanceView);
     }
-    Value<?>[] valuesArr = new Value[values.size()];
-    valuesArr = values.toArray(valuesArr);
-    handler.instanceDump(i.objId, i.stackTraceSerialNum, i.classObjId, valuesArr);
+    numDeferredInstances = 0;
+    in.seek(resumePosition);
   }
 
-  private static long readId(int idSize, DataInput in) throws IOException {
+  static long readId(int idSize, DataInput in) throws IOException {
     long id = -1;
     if (idSize == 4) {
       id = in.readInt();
@@ -791,8 +1085,121 @@ public class HprofParser {
   }
 
  
+  /**
+   * Skips over the body of a heap dump sub-record whose tag has already been read, using the
+   * record's length and count fields rather than decoding its contents.
+   *
+   * @return the number of bytes skipped
+   */
+  static long skipHeapDumpRecord(HprofInput in, byte tag, int idSize) throws IOException {
+    long n;
+    int count;
+    switch (tag) {
+      case -1:    // 0xFF
+      case 0x05:
+      case 0x07:
+        // Root unknown, root sticky class, root monitor used
+        n = idSize;
+        break;
+
+      case 0x01:
+        // Root JNI global
+        n = 2 * idSize;
+        break;
+
+      case 0x02:
+      case 0x03:
+      case 0x08:
+        // Root JNI local, root Java frame, root thread object
+        n = idSize + 8;
+        break;
+
+      case 0x04:
+      case 0x06:
+        // Root native stack, root thread block
+        n = idSize + 4;
+        break;
+
+      case 0x20:
+        // Class dump
+        return skipClassDump(in, idSize);
+
+      case 0x21:
+        // Instance dump
+        skipFully(in, 2 * idSize + 4);
+        count = in.readInt();    // num of bytes that follow
+        Preconditions.checkState(count >= 0);
+        skipFully(in, count);
+        return 2 * idSize + 8 + count;
+
+      case 0x22:
+        // Object array dump
+        skipFully(in, idSize + 4);
+        count = in.readInt();    // number of elements
+        Preconditions.checkState(count >= 0);
+        n = (long) count * idSize + idSize;
+        skipFully(in, n);
+        return n + idSize + 8;
+
+      case 0x23:
+        // Primitive array dump
+        skipFully(in, idSize + 4);
+        count = in.readInt();    // number of elements
+        Preconditions.checkState(count >= 0);
+        n = (long) count * valueSize(in.readByte(), idSize);
+        skipFully(in, n);
+        return n + idSize + 9;
+
+      default:
+        throw new HprofParserException("Unexpected heap dump sub-record type: " + tag);
+    }
+    skipFully(in, n);
+    return n;
+  }
+
+  private static long skipClassDump(HprofInput in, int idSize) throws IOException {
+    long n = 7 * idSize + 8;
+    skipFully(in, n);
+
+    int numConstants = in.readUnsignedShort();
+    n += 2;
+    for (int i = 0; i < numConstants; i++) {
+      skipFully(in, 2);    // constant pool index
+      int size = valueSize(in.readByte(), idSize);
+      skipFully(in, size);
+      n += 3 + size;
+    }
+
+    int numStatics = in.readUnsignedShort();
+    n += 2;
+    for (int i = 0; i < numStatics; i++) {
+      skipFully(in, idSize);    // field name
+      int size = valueSize(in.readByte(), idSize);
+      skipFully(in, size);
+      n += idSize + 1 + size;
+    }
+
+    int numInstanceFields = in.readUnsignedShort();
+    long fieldBytes = numInstanceFields * (idSize + 1);
+    skipFully(in, fieldBytes);
+    return n + 2 + fieldBytes;
+  }
+
+  /**
+   * Returns the number of bytes a value of the given hprof basic type takes up in the file.
+   */
+  private static int valueSize(byte hprofType, int idSize) {
+    Type type = Type.hprofTypeToEnum(hprofType);
+    return type == Type.OBJ ? idSize : type.sizeInBytes();
+  }
+
+
   /* Utility */
 
+  private static void skipFully(HprofInput in, long n) throws IOException {
+    in.seek(in.position() + n);
+  }
+
   private int mySkipBytes(int n, DataInput in) throws IOException {
     int bytesRead = 0;
     
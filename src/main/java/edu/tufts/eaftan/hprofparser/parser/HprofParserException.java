@@ -24,4 +24,8 @@ public class HprofParserException extends RuntimeException {
   public HprofParserException(String message) {
     super(message);
   }
+
+  public HprofParserException(String message, Throwable cause) {
+    super(message, cause);
+  }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, read-only view of one instance dump record.  Field values are decoded on demand
+ * from the record's packed bytes, so looking at an instance allocates nothing.
+ *
+ * <p>Fields are numbered as in the class's {@code ClassLayout}: the instance fields of the
+ * object's class first, followed by those of its superclass, and so on up to
+ * {@code java.lang.Object}.
+ *
+ * <p>The parser passes the same view object to every call of
+ * {@code RecordHandler.instanceDump(InstanceView)}, rebinding it to the next record each time, so
+ * handlers must not hold on to it past the call.
+ */
+public final class InstanceView {
+
+  private final int idSize;
+
+  private long objId;
+  private int stackTraceSerialNum;
+  private ClassLayout layout;
+  private ByteBuffer packedValues;
+
+  /**
+   * Creates an unbound view, for a handler that passes instances on, e.g. to another thread, and
+   * rebinds a view of its own to each one.
+   */
+  public InstanceView(int idSize) {
+    this.idSize = idSize;
+  }
+
+  /**
+   * Binds this view to an instance whose packed field values start at index 0 of
+   * {@code packedValues}, a big-endian buffer that must not change while the view is bound.
+   */
+  public void bind(long objId, int stackTraceSerialNum, ClassLayout layout,
+      ByteBuffer packedValues) {
+    this.objId = objId;
+    this.stackTraceSerialNum = stackTraceSerialNum;
+    this.layout = layout;
+    this.packedValues = packedValues;
+  }
+
+  /**
+   * Returns a view of the same instance that stays valid after the call this view was passed to,
+   * with its own copy of the packed field values.
+   */
+  public InstanceView copy() {
+    ByteBuffer values = ByteBuffer.allocate(packedValues.remaining());
+    values.put(packedValues.duplicate());
+    values.flip();
+    InstanceView copy = new InstanceView(idSize);
+    copy.bind(objId, stackTraceSerialNum, layout, values.asReadOnlyBuffer());
+    return copy;
+  }
+
+  public int idSize() {
+    return idSize;
+  }
+
+  public long objId() {
+    return objId;
+  }
+
+  public int stackTraceSerialNum() {
+    return stackTraceSerialNum;
+  }
+
+  public long classObjId() {
+    return layout.classObjId();
+  }
+
+  /**
+   * Returns the field layout of the instance's class.
+   */
+  public ClassLayout layout() {
+    return layout;
+  }
+
+  /**
+   * Returns the packed field values as a read-only, big-endian buffer.
+   */
+  public ByteBuffer packedValues() {
+    return packedValues.duplicate();
+  }
+
+  public int numFields() {
+    return layout.numFields();
+  }
+
+  public Type fieldType(int fieldIndex) {
+    return layout.fieldType(fieldIndex);
+  }
+
+  public long fieldNameStringId(int fieldIndex) {
+    return layout.fieldNameStringId(fieldIndex);
+  }
+
+  /**
+   * Returns the index of the field with the given name, or -1 if there is none.  If a subclass
+   * field hides a superclass field of the same name, the subclass field is found.
+   */
+  public int fieldIndex(long fieldNameStringId) {
+    return layout.fieldIndex(fieldNameStringId);
+  }
+
+  public long getObjectId(int fieldIndex) {
+    int offset = offsetOf(fieldIndex, Type.OBJ);
+    if (idSize == 4) {
+      return packedValues.getInt(offset) & 0x00000000ffffffffL;
+    }
+    return packedValues.getLong(offset);
+  }
+
+  public boolean getBoolean(int fieldIndex) {
+    return packedValues.get(offsetOf(fieldIndex, Type.BOOL)) != 0;
+  }
+
+  public char getChar(int fieldIndex) {
+    return packedValues.getChar(offsetOf(fieldIndex, Type.CHAR));
+  }
+
+  public float getFloat(int fieldIndex) {
+    return packedValues.getFloat(offsetOf(fieldIndex, Type.FLOAT));
+  }
+
+  public double getDouble(int fieldIndex) {
+    return packedValues.getDouble(offsetOf(fieldIndex, Type.DOUBLE));
+  }
+
+  public byte getByte(int fieldIndex) {
+    return packedValues.get(offsetOf(fieldIndex, Type.BYTE));
+  }
+
+  public short getShort(int fieldIndex) {
+    return packedValues.getShort(offsetOf(fieldIndex, Type.SHORT));
+  }
+
+  public int getInt(int fieldIndex) {
+    return packedValues.getInt(offsetOf(fieldIndex, Type.INT));
+  }
+
+  public long getLong(int fieldIndex) {
+    return packedValues.getLong(offsetOf(fieldIndex, Type.LONG));
+  }
+
+  /**
+   * Returns the value of a field of any type as a boxed {@code Value}.  This allocates; prefer the
+   * typed accessors.
+   */
+  public Value<?> getValue(int fieldIndex) {
+    Type type = fieldType(fieldIndex);
+    switch (type) {
+      case OBJ:
+        return new Value<>(type, getObjectId(fieldIndex));
+      case BOOL:
+        return new Value<>(type, getBoolean(fieldIndex));
+      case CHAR:
+        return new Value<>(type, getChar(fieldIndex));
+      case FLOAT:
+        return new Value<>(type, getFloat(fieldIndex));
+      case DOUBLE:
+        return new Value<>(type, getDouble(fieldIndex));
+      case BYTE:
+        return new Value<>(type, getByte(fieldIndex));
+      case SHORT:
+        return new Value<>(type, getShort(fieldIndex));
+      case INT:
+        return new Value<>(type, getInt(fieldIndex));
+      case LONG:
+        return new Value<>(type, getLong(fieldIndex));
+      default:
+        throw new AssertionError(type);
+    }
+  }
+
+  private int offsetOf(int fieldIndex, Type expectedType) {
+    if (layout.fieldType(fieldIndex) != expectedType) {
+      throw new IllegalArgumentException("Field " + fieldIndex + " of class "
+          + layout.classObjId() + " has type " + layout.fieldType(fieldIndex) + ", not "
+          + expectedType);
+    }
+    return layout.fieldOffset(fieldIndex);
+  }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import com.google.common.base.Preconditions;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads an hprof file through memory-mapped windows of the file, decoding big-endian primitives
+ * directly from the mapped buffers.
+ *
+ * <p>A single {@code MappedByteBuffer} can cover at most 2 GB, so the file is divided into
+ * fixed-size windows that are mapped lazily as the read position reaches them.  Each window
+ * overlaps the start of the next one by a few bytes so that a primitive value never straddles two
+ * buffers; only bulk reads have to cross window boundaries.  Only the window being read and the
+ * one before it are kept mapped; the others are released to the garbage collector, which unmaps
+ * them.
+ */
+public final class MappedHprofInput implements HprofInput {
+
+  /** Default window size, 1 GB. */
+  public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+  /** Number of bytes each window extends past its nominal end. */
+  private static final int WINDOW_OVERLAP = 4096;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long length;
+  private final int windowSize;
+
+  // the most recently used window and the one used before it, with their indexes, or -1
+  private MappedByteBuffer lastWindow;
+  private int lastIndex = -1;
+  private MappedByteBuffer previousWindow;
+  private int previousIndex = -1;
+
+  // the window currently being read, and the file offset of its first byte
+  private ByteBuffer current = EMPTY;
+  private long currentBase = 0;
+
+  public MappedHprofInput(File file) throws IOException {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  public MappedHprofInput(File file, int windowSize) throws IOException {
+    Preconditions.checkArgument(windowSize > 0
+        && windowSize <= Integer.MAX_VALUE - WINDOW_OVERLAP);
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.length = channel.size();
+    this.windowSize = windowSize;
+    long numWindows = (length + windowSize - 1) / windowSize;
+    Preconditions.checkArgument(numWindows <= Integer.MAX_VALUE);
+  }
+
+  @Override
+  public long position() {
+    return currentBase + current.position();
+  }
+
+  @Override
+  public void seek(long newPosition) throws IOException {
+    Preconditions.checkArgument(newPosition >= 0 && newPosition <= length);
+    if (newPosition >= currentBase && newPosition <= currentBase + current.limit()) {
+      current.position((int) (newPosition - currentBase));
+      return;
+    }
+    if (newPosition == length) {
+      current = EMPTY;
+      currentBase = length;
+      return;
+    }
+    int index = (int) (newPosition / windowSize);
+    current = window(index);
+    currentBase = (long) index * windowSize;
+    current.position((int) (newPosition - currentBase));
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  private MappedByteBuffer window(int index) throws IOException {
+    if (index == lastIndex) {
+      return lastWindow;
+    }
+    MappedByteBuffer w;
+    if (index == previousIndex) {
+      w = previousWindow;
+    } else {
+      long start = (long) index * windowSize;
+      long size = Math.min((long) windowSize + WINDOW_OVERLAP, length - start);
+      w = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+    previousWindow = lastWindow;
+    previousIndex = lastIndex;
+    lastWindow = w;
+    lastIndex = index;
+    return w;
+  }
+
+  /**
+   * Returns the number of windows this input still refers to.
+   */
+  int numMappedWindows() {
+    return (lastWindow != null ? 1 : 0) + (previousWindow != null ? 1 : 0);
+  }
+
+  /**
+   * Makes sure at least {@code n} bytes can be read from the current window, moving to the next
+   * window if necessary.  {@code n} must not exceed the window overlap.
+   */
+  private ByteBuffer require(int n) throws IOException {
+    if (current.remaining() >= n) {
+      return current;
+    }
+    long pos = position();
+    if (pos + n > length) {
+      throw new EOFException();
+    }
+    // pos is past the nominal end of the current window, so it belongs to a later one
+    int index = (int) (pos / windowSize);
+    current = window(index);
+    currentBase = (long) index * windowSize;
+    current.position((int) (pos - currentBase));
+    return current;
+  }
+
+  /**
+   * Returns a slice of the mapped window when the bytes lie within one, and a copy otherwise.
+   */
+  @Override
+  public ByteBuffer readBuffer(int n) throws IOException {
+    if (current.remaining() < n) {
+      if (n <= WINDOW_OVERLAP) {
+        require(n);
+      } else {
+        byte[] copy = new byte[n];
+        readFully(copy);
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+      }
+    }
+    ByteBuffer slice = current.slice();
+    slice.limit(n);
+    current.position(current.position() + n);
+    return slice;
+  }
+
+  @Override
+  public void readFully(byte[] b) throws IOException {
+    readFully(b, 0, b.length);
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) throws IOException {
+    if (position() + len > length) {
+      throw new EOFException();
+    }
+    while (len > 0) {
+      if (!current.hasRemaining()) {
+        require(1);
+      }
+      int chunk = Math.min(len, current.remaining());
+      current.get(b, off, chunk);
+      off += chunk;
+      len -= chunk;
+    }
+  }
+
+  @Override
+  public int skipBytes(int n) throws IOException {
+    long pos = position();
+    int skipped = (int) Math.min(Math.max(n, 0), length - pos);
+    seek(pos + skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException {
+    return require(1).get() != 0;
+  }
+
+  @Override
+  public byte readByte() throws IOException {
+    return require(1).get();
+  }
+
+  @Override
+  public int readUnsignedByte() throws IOException {
+    return require(1).get() & 0xff;
+  }
+
+  @Override
+  public short readShort() throws IOException {
+    return require(2).getShort();
+  }
+
+  @Override
+  public int readUnsignedShort() throws IOException {
+    return require(2).getShort() & 0xffff;
+  }
+
+  @Override
+  public char readChar() throws IOException {
+    return require(2).getChar();
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    return require(4).getInt();
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    return require(8).getLong();
+  }
+
+  @Override
+  public float readFloat() throws IOException {
+    return require(4).getFloat();
+  }
+
+  @Override
+  public double readDouble() throws IOException {
+    return require(8).getDouble();
+  }
+
+  /**
+   * Not supported; hprof files contain no line-oriented data.
+   */
+  @Override
+  public String readLine() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String readUTF() throws IOException {
+    return DataInputStream.readUTF(this);
+  }
+
+  @Override
+  public void close() throws IOException {
+    current = EMPTY;
+    lastWindow = null;
+    previousWindow = null;
+    lastIndex = -1;
+    previousIndex = -1;
+    file.close();
+  }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.util.ExternalLongPairSorter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sorted index from object id to the file offset of the class dump, instance dump, object array
+ * dump or primitive array dump record for that object.  The index is stored in a sidecar file
+ * next to the hprof file, so it only has to be built once; later runs memory-map it and look ids
+ * up with a binary search.
+ *
+ * <p>The sidecar file starts with a 48-byte header (magic number, version, identifier size, the
+ * length and modification time of the hprof file it was built from, and the numbers of objects
+ * and instances), followed by one 16-byte entry per object, in increasing order of id: the id,
+ * then the offset of the record's tag byte shifted left 8 bits, or'ed with the tag.  After those
+ * comes one 16-byte entry per instance dump, in increasing order of class id and then instance
+ * id: the class id, then the instance id.  The second section lets the instances of a class be
+ * listed without reading the hprof file.
+ */
+public final class ObjectIndex implements Closeable {
+
+  private static final long MAGIC = 0x4850524f46494458L;    // "HPROFIDX"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 48;
+  private static final int ENTRY_SIZE = 16;
+  // entries are mapped in windows of 1 GB
+  private static final int ENTRIES_PER_WINDOW_SHIFT = 26;
+
+  private final RandomAccessFile file;
+  private final LongBuffer[] windows;
+  private final LongBuffer[] instanceWindows;
+  private final long size;
+  private final long numInstances;
+  private final int idSize;
+
+  private ObjectIndex(RandomAccessFile file, int idSize, long size, long numInstances)
+      throws IOException {
+    this.file = file;
+    this.idSize = idSize;
+    this.size = size;
+    this.numInstances = numInstances;
+    windows = map(file.getChannel(), HEADER_SIZE, size);
+    instanceWindows = map(file.getChannel(), HEADER_SIZE + size * ENTRY_SIZE, numInstances);
+  }
+
+  private static LongBuffer[] map(FileChannel channel, long start, long numEntries)
+      throws IOException {
+    long entriesPerWindow = 1L << ENTRIES_PER_WINDOW_SHIFT;
+    LongBuffer[] windows =
+        new LongBuffer[(int) ((numEntries + entriesPerWindow - 1) / entriesPerWindow)];
+    for (int i = 0; i < windows.length; i++) {
+      long first = i * entriesPerWindow;
+      long n = Math.min(entriesPerWindow, numEntries - first);
+      windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + first * ENTRY_SIZE,
+          n * ENTRY_SIZE).asLongBuffer();
+    }
+    return windows;
+  }
+
+  /**
+   * Returns the sidecar file in which the index of the given hprof file is kept.
+   */
+  public static File indexFileFor(File hprofFile) {
+    return new File(hprofFile.getPath() + ".idx");
+  }
+
+  /**
+   * Opens the index of the given hprof file, building it first if there is no index yet or the
+   * hprof file has changed since it was built.
+   */
+  public static ObjectIndex open(File hprofFile) throws IOException {
+    ObjectIndex index = openExisting(hprofFile);
+    return index != null ? index : build(hprofFile);
+  }
+
+  /**
+   * Opens the existing index of the given hprof file, or returns null if there is none that is up
+   * to date.
+   */
+  public static ObjectIndex openExisting(File hprofFile) throws IOException {
+    File indexFile = indexFileFor(hprofFile);
+    if (!indexFile.exists()) {
+      return null;
+    }
+    RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+    try {
+      if (file.length() >= HEADER_SIZE
+          && file.readLong() == MAGIC
+          && file.readInt() == VERSION) {
+        int idSize = file.readInt();
+        long hprofLength = file.readLong();
+        long hprofLastModified = file.readLong();
+        long size = file.readLong();
+        long numInstances = file.readLong();
+        if (hprofLength == hprofFile.length()
+            && hprofLastModified == hprofFile.lastModified()
+            && file.length() == HEADER_SIZE + (size + numInstances) * ENTRY_SIZE) {
+          return new ObjectIndex(file, idSize, size, numInstances);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+    file.close();
+    return null;
+  }
+
+  /**
+   * Scans the given hprof file, writes its index to the sidecar file, and opens it.
+   */
+  public static ObjectIndex build(File hprofFile) throws IOException {
+    return build(hprofFile, ExternalLongPairSorter.DEFAULT_BUFFER_PAIRS);
+  }
+
+  static ObjectIndex build(File hprofFile, int sortBufferPairs) throws IOException {
+    File indexFile = indexFileFor(hprofFile);
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    long hprofLastModified = hprofFile.lastModified();
+    int idSize;
+    File tempDir = indexFile.getAbsoluteFile().getParentFile();
+    try (ExternalLongPairSorter sorter = new ExternalLongPairSorter(tempDir, sortBufferPairs);
+        ExternalLongPairSorter instanceSorter =
+            new ExternalLongPairSorter(tempDir, sortBufferPairs)) {
+      idSize = scan(hprofFile, sorter, instanceSorter);
+      try (final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+        out.writeLong(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(idSize);
+        out.writeLong(hprofFile.length());
+        out.writeLong(hprofLastModified);
+        out.writeLong(sorter.count());
+        out.writeLong(instanceSorter.count());
+        ExternalLongPairSorter.PairConsumer writer = new ExternalLongPairSorter.PairConsumer() {
+          @Override
+          public void accept(long key, long value) throws IOException {
+            out.writeLong(key);
+            out.writeLong(value);
+          }
+        };
+        sorter.finish(writer);
+        instanceSorter.finish(writer);
+      }
+    }
+    if (!tempFile.renameTo(indexFile)) {
+      indexFile.delete();
+      if (!tempFile.renameTo(indexFile)) {
+        throw new IOException("Could not write " + indexFile);
+      }
+    }
+    ObjectIndex index = openExisting(hprofFile);
+    if (index == null) {
+      throw new IOException(hprofFile + " changed while it was being indexed");
+    }
+    return index;
+  }
+
+  /**
+   * Adds an entry to {@code sorter} for every object record in the file, and one to
+   * {@code instanceSorter} for every instance dump, and returns the identifier size.
+   */
+  private static int scan(File hprofFile, ExternalLongPairSorter sorter,
+      ExternalLongPairSorter instanceSorter) throws IOException {
+    try (HprofInput in = new MappedHprofInput(hprofFile)) {
+      HprofParser.readUntilNull(in);
+      int idSize = in.readInt();
+      in.readLong();    // time
+
+      while (in.position() < in.length()) {
+        byte tag = in.readByte();
+        in.readInt();    // time
+        long length = Integer.toUnsignedLong(in.readInt());
+        if (tag != RecordTags.HEAP_DUMP && tag != RecordTags.HEAP_DUMP_SEGMENT) {
+          in.seek(in.position() + length);
+          continue;
+        }
+        long end = in.position() + length;
+        while (in.position() < end) {
+          long offset = in.position();
+          byte subTag = in.readByte();
+          switch (subTag) {
+            case RecordTags.INSTANCE_DUMP:
+              long objId = HprofParser.readId(idSize, in);
+              in.readInt();    // stack trace serial number
+              sorter.add(objId, offset << 8 | (subTag & 0xff));
+              instanceSorter.add(HprofParser.readId(idSize, in), objId);
+              in.seek(offset + 1);
+              break;
+            case RecordTags.CLASS_DUMP:
+            case RecordTags.OBJ_ARRAY_DUMP:
+            case RecordTags.PRIM_ARRAY_DUMP:
+              // the id is the first field of all three
+              sorter.add(HprofParser.readId(idSize, in), offset << 8 | (subTag & 0xff));
+              in.seek(offset + 1);
+              break;
+            default:
+              break;
+          }
+          HprofParser.skipHeapDumpRecord(in, subTag, idSize);
+        }
+      }
+      return idSize;
+    }
+  }
+
+  public int idSize() {
+    return idSize;
+  }
+
+  /**
+   * Returns the number of objects in the index.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Returns the position of the entry for the given object in the index, or -1 if there is none.
+   */
+  public long find(long objId) {
+    long lo = 0;
+    long hi = size - 1;
+    while (lo <= hi) {
+      long mid = (lo + hi) >>> 1;
+      long midId = objId(mid);
+      if (midId < objId) {
+        lo = mid + 1;
+      } else if (midId > objId) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the offset in the hprof file of the record for the given object, or -1 if there is
+   * none.
+   */
+  public long offsetOf(long objId) {
+    long entry = find(objId);
+    return entry < 0 ? -1 : offset(entry);
+  }
+
+  /**
+   * Returns the object id of the entry at the given position.
+   */
+  public long objId(long entry) {
+    return get(entry, 0);
+  }
+
+  /**
+   * Returns the offset in the hprof file of the tag byte of the entry's record.
+   */
+  public long offset(long entry) {
+    return get(entry, 1) >>> 8;
+  }
+
+  /**
+   * Returns the heap dump sub-record tag (see {@code RecordTags}) of the entry's record.
+   */
+  public byte tag(long entry) {
+    return (byte) get(entry, 1);
+  }
+
+  /**
+   * Returns the number of instance dumps in the index.
+   */
+  public long numInstances() {
+    return numInstances;
+  }
+
+  /**
+   * Returns the position of the first instance entry whose class id is not less than the given
+   * one, or {@code numInstances()} if there is none.  The instances of a class follow each other
+   * from there, in increasing order of id.
+   */
+  public long firstInstanceOf(long classObjId) {
+    long lo = 0;
+    long hi = numInstances;
+    while (lo < hi) {
+      long mid = (lo + hi) >>> 1;
+      if (instanceClassObjId(mid) < classObjId) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the class id of the instance entry at the given position.
+   */
+  public long instanceClassObjId(long instanceEntry) {
+    return get(instanceWindows, numInstances, instanceEntry, 0);
+  }
+
+  /**
+   * Returns the object id of the instance entry at the given position.
+   */
+  public long instanceObjId(long instanceEntry) {
+    return get(instanceWindows, numInstances, instanceEntry, 1);
+  }
+
+  private long get(long entry, int field) {
+    return get(windows, size, entry, field);
+  }
+
+  private static long get(LongBuffer[] windows, long size, long entry, int field) {
+    checkEntry(entry, size);
+    LongBuffer window = windows[(int) (entry >>> ENTRIES_PER_WINDOW_SHIFT)];
+    return window.get((int) (entry & ((1 << ENTRIES_PER_WINDOW_SHIFT) - 1)) * 2 + field);
+  }
+
+  /**
+   * Checks that {@code entry} is a valid position in an index of {@code size} entries, which may
+   * be more than fit in an int.
+   */
+  static void checkEntry(long entry, long size) {
+    if (entry < 0 || entry >= size) {
+      throw new IndexOutOfBoundsException("entry " + entry + " of " + size);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+}
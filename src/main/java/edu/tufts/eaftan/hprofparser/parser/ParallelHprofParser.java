@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import com.google.common.base.Throwables;
+
+import edu.tufts.eaftan.hprofparser.handler.MergeableRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.ClassInfo;
+import edu.tufts.eaftan.hprofparser.util.LongObjectMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses an hprof file like {@code HprofParser}, but decodes the heap dump on several threads.
+ *
+ * <p>A first, sequential pass delivers the header and the top-level records to the handler and
+ * notes where each heap dump segment starts and ends, skipping over the segment bodies using
+ * their length fields.  The segments are then decoded concurrently on a {@code ForkJoinPool},
+ * each worker thread feeding its own shard of the handler (see {@code MergeableRecordHandler}),
+ * and the shards are merged back into the handler at the end.
+ *
+ * <p>Within a shard, sub-records arrive in file order, but there is no ordering between shards.
+ * Since all top-level records are delivered first, the {@code heapDump}, {@code heapDumpSegment}
+ * and {@code heapDumpEnd} callbacks reach the handler before any of the sub-records do.  A dump
+ * written as one big heap dump record rather than as segments gets no speedup.
+ */
+public class ParallelHprofParser<H extends MergeableRecordHandler<H>> {
+
+  private final MergeableRecordHandler<H> handler;
+  private final ForkJoinPool pool;
+  private HprofParser.InputMode inputMode = HprofParser.InputMode.MAPPED;
+  private StringTable stringTable;
+
+  /**
+   * Creates a parser that runs each parse on a new pool with one thread per processor.
+   */
+  public ParallelHprofParser(MergeableRecordHandler<H> handler) {
+    this(handler, null);
+  }
+
+  /**
+   * Creates a parser that runs on {@code pool}, using up to one worker per thread of the pool.
+   */
+  public ParallelHprofParser(MergeableRecordHandler<H> handler, ForkJoinPool pool) {
+    this.handler = handler;
+    this.pool = pool;
+  }
+
+  /**
+   * Sets how the workers read the file.  Defaults to {@code MAPPED}, since workers jump between
+   * segments.
+   */
+  public void setInputMode(HprofParser.InputMode inputMode) {
+    this.inputMode = inputMode;
+  }
+
+  /**
+   * See {@code HprofParser.setStringTable}.  The table is filled before any heap dump
+   * sub-record is parsed.
+   */
+  public void setStringTable(StringTable table) {
+    this.stringTable = table;
+  }
+
+  public void parse(File file) throws IOException {
+    HprofParser topLevelParser = new HprofParser(handler);
+    topLevelParser.setInputMode(inputMode);
+    topLevelParser.setStringTable(stringTable);
+    HeapDumpIndex index = new HeapDumpIndex();
+    topLevelParser.setHeapDumpIndex(index);
+    topLevelParser.parseRecords(file);
+
+    if (index.size() > 0) {
+      ForkJoinPool pool = this.pool != null ? this.pool : new ForkJoinPool();
+      try {
+        parseHeapDumps(file, index, topLevelParser.idSize(), pool);
+      } finally {
+        if (pool != this.pool) {
+          pool.shutdown();
+        }
+      }
+    }
+    handler.finished();
+  }
+
+  private void parseHeapDumps(File file, HeapDumpIndex index, int idSize, ForkJoinPool pool)
+      throws IOException {
+    LongObjectMap<ClassInfo> classMap = new LongObjectMap<ClassInfo>();
+    AtomicInteger nextBody = new AtomicInteger();
+    int numWorkers = Math.min(pool.getParallelism(), index.size());
+    List<Worker> workers = new ArrayList<Worker>(numWorkers);
+    try {
+      for (int i = 0; i < numWorkers; i++) {
+        H shard = handler.newShard();
+        HprofParser parser = new HprofParser(shard, classMap);
+        parser.setInputMode(inputMode);
+        parser.startHeapDumpBodies(idSize);
+        workers.add(new Worker(shard, parser, parser.open(file), index, nextBody));
+      }
+
+      // every class dump has to be seen before the deferred instances can be decoded
+      List<Callable<Void>> parseTasks = new ArrayList<Callable<Void>>(numWorkers);
+      List<Callable<Void>> finishTasks = new ArrayList<Callable<Void>>(numWorkers);
+      for (final Worker worker : workers) {
+        parseTasks.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            worker.parseBodies();
+            return null;
+          }
+        });
+        finishTasks.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            worker.parser.finishHeapDumpBodies(worker.in);
+            return null;
+          }
+        });
+      }
+      runAll(pool, parseTasks);
+      runAll(pool, finishTasks);
+    } finally {
+      for (Worker worker : workers) {
+        worker.in.close();
+      }
+    }
+
+    for (Worker worker : workers) {
+      handler.merge(worker.shard);
+    }
+  }
+
+  private static void runAll(ForkJoinPool pool, List<Callable<Void>> tasks) throws IOException {
+    for (Future<Void> result : pool.invokeAll(tasks)) {
+      try {
+        result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while parsing heap dump", e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * One worker thread's parser and input.  Workers claim heap dump bodies in file order from a
+   * shared counter, so each worker's deferred instances are also in file order.
+   */
+  private final class Worker {
+    final H shard;
+    final HprofParser parser;
+    final HprofInput in;
+    final HeapDumpIndex index;
+    final AtomicInteger nextBody;
+
+    Worker(H shard, HprofParser parser, HprofInput in, HeapDumpIndex index,
+        AtomicInteger nextBody) {
+      this.shard = shard;
+      this.parser = parser;
+      this.in = in;
+      this.index = index;
+      this.nextBody = nextBody;
+    }
+
+    void parseBodies() throws IOException {
+      try {
+        int i;
+        while ((i = nextBody.getAndIncrement()) < index.size()) {
+          parser.parseHeapDumpBody(in, index.offset(i), index.length(i));
+        }
+      } catch (IOException | RuntimeException e) {
+        // stop the other workers early
+        nextBody.set(index.size());
+        throw e;
+      }
+    }
+  }
+
+}
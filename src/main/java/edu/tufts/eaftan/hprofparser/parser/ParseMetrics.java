@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+/**
+ * Counts of the records a parse went through and where its time went.  Pass one to
+ * {@code HprofParser.setMetrics} before parsing; collecting them costs a little time in every
+ * handler callback, and nothing when they are not requested.
+ *
+ * <p>Byte counts include each record's tag and, for top-level records, its time and length
+ * fields.  Heap dump and heap dump segment records count only their own headers; their contents
+ * are counted as heap dump sub-records.
+ *
+ * <p>In a pipelined parse the handler runs on its own thread, so handler time overlaps decoding;
+ * the decoding thread's time is then split by the time it spent handing records over instead.
+ */
+public final class ParseMetrics {
+
+  private final long[] topLevelRecords = new long[256];
+  private final long[] topLevelBytes = new long[256];
+  private final long[] heapDumpRecords = new long[256];
+  private final long[] heapDumpBytes = new long[256];
+  private long handlerNanos;
+  private long handOffNanos;
+  private boolean pipelined;
+  private long totalNanos;
+  private long fileLength;
+
+  void countTopLevelRecord(byte tag, long bytes) {
+    topLevelRecords[tag & 0xff]++;
+    topLevelBytes[tag & 0xff] += bytes;
+  }
+
+  void countHeapDumpRecord(byte tag, long bytes) {
+    heapDumpRecords[tag & 0xff]++;
+    heapDumpBytes[tag & 0xff] += bytes;
+  }
+
+  void addHandlerNanos(long nanos) {
+    handlerNanos += nanos;
+  }
+
+  void addHandOffNanos(long nanos) {
+    handOffNanos += nanos;
+  }
+
+  void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  void finish(long totalNanos, long fileLength) {
+    this.totalNanos = totalNanos;
+    this.fileLength = fileLength;
+  }
+
+  public long topLevelRecords(byte tag) {
+    return topLevelRecords[tag & 0xff];
+  }
+
+  public long topLevelBytes(byte tag) {
+    return topLevelBytes[tag & 0xff];
+  }
+
+  public long heapDumpRecords(byte tag) {
+    return heapDumpRecords[tag & 0xff];
+  }
+
+  public long heapDumpBytes(byte tag) {
+    return heapDumpBytes[tag & 0xff];
+  }
+
+  /**
+   * Returns the wall time spent inside handler callbacks, including {@code finished()}.
+   */
+  public long handlerNanos() {
+    return handlerNanos;
+  }
+
+  /**
+   * Returns the wall time the decoding thread spent handing records to the handler's thread,
+   * including waiting for it to catch up.  This is 0 unless the parse was pipelined.
+   */
+  public long handOffNanos() {
+    return handOffNanos;
+  }
+
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * Returns the wall time spent reading and decoding the file, i.e. outside the handler, or in
+   * a pipelined parse, outside handing records to it.
+   */
+  public long decodeNanos() {
+    return totalNanos - (pipelined ? handOffNanos : handlerNanos);
+  }
+
+  public long totalNanos() {
+    return totalNanos;
+  }
+
+  public long fileLength() {
+    return fileLength;
+  }
+
+  /**
+   * Returns a human-readable report of these metrics.
+   */
+  public String summary() {
+    StringBuilder sb = new StringBuilder();
+    double seconds = totalNanos / 1e9;
+    sb.append(String.format("Parsed %d bytes in %.2f s (%.1f MB/s)%n", fileLength, seconds,
+        seconds > 0 ? fileLength / seconds / 1e6 : 0.0));
+    if (pipelined) {
+      sb.append(String.format("  decoding %.2f s, hand-off %.2f s, handler %.2f s (concurrent)%n",
+          decodeNanos() / 1e9, handOffNanos / 1e9, handlerNanos / 1e9));
+    } else {
+      sb.append(String.format("  decoding %.2f s, handler %.2f s%n", decodeNanos() / 1e9,
+          handlerNanos / 1e9));
+    }
+    sb.append(String.format("%-24s %14s %16s%n", "Top-level record", "count", "bytes"));
+    for (int i = 0; i < 256; i++) {
+      if (topLevelRecords[i] > 0) {
+        sb.append(String.format("%-24s %14d %16d%n", RecordTags.topLevelName((byte) i),
+            topLevelRecords[i], topLevelBytes[i]));
+      }
+    }
+    sb.append(String.format("%-24s %14s %16s%n", "Heap dump record", "count", "bytes"));
+    for (int i = 0; i < 256; i++) {
+      if (heapDumpRecords[i] > 0) {
+        sb.append(String.format("%-24s %14d %16d%n", RecordTags.heapDumpName((byte) i),
+            heapDumpRecords[i], heapDumpBytes[i]));
+      }
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+/**
+ * Receives periodic reports of how far through the file a parse is.
+ */
+public interface ProgressListener {
+
+  /**
+   * Called from the parsing thread each time the parser has consumed roughly another interval's
+   * worth of bytes, and once at the end.
+   *
+   * @param bytesConsumed the offset in the file the parser has reached
+   * @param totalBytes the length of the file
+   * @param remainingNanos an estimate of the time left, extrapolated from the rate so far
+   */
+  public abstract void progress(long bytesConsumed, long totalBytes, long remainingNanos);
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.util.RingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file from a given position on a thread of its own, a few chunks ahead of the stream's
+ * reader.  Chunks are preallocated and passed between the two threads through a
+ * {@code RingBuffer}, so the reader finds the next bytes in memory rather than waiting on the
+ * disk.  Closing the stream stops the thread but leaves the channel open.
+ */
+final class ReadAheadInputStream extends InputStream {
+
+  static final int CHUNK_SIZE = 1 << 20;
+  static final int NUM_CHUNKS = 8;
+
+  private final FileChannel channel;
+  private final RingBuffer<ByteBuffer> chunks;
+  private final Thread reader;
+  // set by the reader thread before it closes the ring
+  private volatile IOException failure;
+  // the file position up to which chunks have been published, and the bytes read in all
+  private volatile long readEnd;
+  private volatile long bytesRead;
+
+  // the chunk being consumed, or null before the first one is taken
+  private ByteBuffer current;
+  private boolean closed = false;
+
+  ReadAheadInputStream(FileChannel channel, long position) {
+    this(channel, position, CHUNK_SIZE, NUM_CHUNKS);
+  }
+
+  ReadAheadInputStream(FileChannel channel, final long position, int chunkSize, int numChunks) {
+    this.channel = channel;
+    this.readEnd = position;
+    ByteBuffer[] buffers = new ByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      buffers[i] = ByteBuffer.allocate(chunkSize);
+    }
+    chunks = new RingBuffer<>(buffers);
+    reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readChunks(position);
+      }
+    }, "hprof-read-ahead");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Fills chunks from the file until the end of the file, a read error, or the stream is closed.
+   */
+  private void readChunks(long position) {
+    try {
+      while (true) {
+        ByteBuffer chunk = chunks.claim();
+        if (chunk == null) {
+          return;
+        }
+        chunk.clear();
+        boolean eof = false;
+        while (chunk.hasRemaining()) {
+          int n = channel.read(chunk, position);
+          if (n < 0) {
+            eof = true;
+            break;
+          }
+          position += n;
+          bytesRead += n;
+        }
+        chunk.flip();
+        if (chunk.hasRemaining()) {
+          chunks.publish();
+          readEnd = position;
+        }
+        if (eof) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      // closed
+    } finally {
+      chunks.close();
+    }
+  }
+
+  /**
+   * Returns the chunk holding the next byte, or null at the end of the file.
+   */
+  private ByteBuffer current() throws IOException {
+    if (current != null && current.hasRemaining()) {
+      return current;
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (current != null) {
+      chunks.release();
+      current = null;
+    }
+    try {
+      current = chunks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if (current == null && failure != null) {
+      throw failure;
+    }
+    return current;
+  }
+
+  @Override
+  public int read() throws IOException {
+    ByteBuffer chunk = current();
+    return chunk == null ? -1 : chunk.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    ByteBuffer chunk = current();
+    if (chunk == null) {
+      return -1;
+    }
+    int n = Math.min(len, chunk.remaining());
+    chunk.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    while (skipped < n) {
+      ByteBuffer chunk = current();
+      if (chunk == null) {
+        break;
+      }
+      int step = (int) Math.min(n - skipped, chunk.remaining());
+      chunk.position(chunk.position() + step);
+      skipped += step;
+    }
+    return skipped;
+  }
+
+  /**
+   * Returns the file position up to which the stream has read ahead, so that skipping up to there
+   * takes no further reads.
+   */
+  long readEnd() {
+    return readEnd;
+  }
+
+  /**
+   * Returns the number of bytes read from the file so far.
+   */
+  long bytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public int available() {
+    return current == null ? 0 : current.remaining();
+  }
+
+  /**
+   * Stops the reader thread and waits for it to exit.  The channel is not closed.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    current = null;
+    // the reader notices at its next chunk; interrupting it would close the channel
+    chunks.close();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      // the thread exits on its own once its read completes
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+/**
+ * Tag values of hprof records.  Top-level records and heap dump sub-records have separate tag
+ * namespaces, so some values appear twice.
+ */
+public final class RecordTags {
+
+  /* Top-level records */
+
+  public static final byte STRING_IN_UTF8 = 0x01;
+  public static final byte LOAD_CLASS = 0x02;
+  public static final byte UNLOAD_CLASS = 0x03;
+  public static final byte STACK_FRAME = 0x04;
+  public static final byte STACK_TRACE = 0x05;
+  public static final byte ALLOC_SITES = 0x06;
+  public static final byte HEAP_SUMMARY = 0x07;
+  public static final byte START_THREAD = 0x0a;
+  public static final byte END_THREAD = 0x0b;
+  public static final byte HEAP_DUMP = 0x0c;
+  public static final byte CPU_SAMPLES = 0x0d;
+  public static final byte CONTROL_SETTINGS = 0x0e;
+  public static final byte HEAP_DUMP_SEGMENT = 0x1c;
+  public static final byte HEAP_DUMP_END = 0x2c;
+
+  /* Heap dump sub-records */
+
+  public static final byte ROOT_UNKNOWN = (byte) 0xff;
+  public static final byte ROOT_JNI_GLOBAL = 0x01;
+  public static final byte ROOT_JNI_LOCAL = 0x02;
+  public static final byte ROOT_JAVA_FRAME = 0x03;
+  public static final byte ROOT_NATIVE_STACK = 0x04;
+  public static final byte ROOT_STICKY_CLASS = 0x05;
+  public static final byte ROOT_THREAD_BLOCK = 0x06;
+  public static final byte ROOT_MONITOR_USED = 0x07;
+  public static final byte ROOT_THREAD_OBJ = 0x08;
+  public static final byte CLASS_DUMP = 0x20;
+  public static final byte INSTANCE_DUMP = 0x21;
+  public static final byte OBJ_ARRAY_DUMP = 0x22;
+  public static final byte PRIM_ARRAY_DUMP = 0x23;
+
+  private RecordTags() {}
+
+  /**
+   * Returns the name the hprof format gives the top-level record with the given tag.
+   */
+  public static String topLevelName(byte tag) {
+    switch (tag) {
+      case STRING_IN_UTF8:
+        return "STRING IN UTF8";
+      case LOAD_CLASS:
+        return "LOAD CLASS";
+      case UNLOAD_CLASS:
+        return "UNLOAD CLASS";
+      case STACK_FRAME:
+        return "STACK FRAME";
+      case STACK_TRACE:
+        return "STACK TRACE";
+      case ALLOC_SITES:
+        return "ALLOC SITES";
+      case HEAP_SUMMARY:
+        return "HEAP SUMMARY";
+      case START_THREAD:
+        return "START THREAD";
+      case END_THREAD:
+        return "END THREAD";
+      case HEAP_DUMP:
+        return "HEAP DUMP";
+      case CPU_SAMPLES:
+        return "CPU SAMPLES";
+      case CONTROL_SETTINGS:
+        return "CONTROL SETTINGS";
+      case HEAP_DUMP_SEGMENT:
+        return "HEAP DUMP SEGMENT";
+      case HEAP_DUMP_END:
+        return "HEAP DUMP END";
+      default:
+        return String.format("UNKNOWN 0x%02x", tag & 0xff);
+    }
+  }
+
+  /**
+   * Returns the name the hprof format gives the heap dump sub-record with the given tag.
+   */
+  public static String heapDumpName(byte tag) {
+    switch (tag) {
+      case ROOT_UNKNOWN:
+        return "ROOT UNKNOWN";
+      case ROOT_JNI_GLOBAL:
+        return "ROOT JNI GLOBAL";
+      case ROOT_JNI_LOCAL:
+        return "ROOT JNI LOCAL";
+      case ROOT_JAVA_FRAME:
+        return "ROOT JAVA FRAME";
+      case ROOT_NATIVE_STACK:
+        return "ROOT NATIVE STACK";
+      case ROOT_STICKY_CLASS:
+        return "ROOT STICKY CLASS";
+      case ROOT_THREAD_BLOCK:
+        return "ROOT THREAD BLOCK";
+      case ROOT_MONITOR_USED:
+        return "ROOT MONITOR USED";
+      case ROOT_THREAD_OBJ:
+        return "ROOT THREAD OBJECT";
+      case CLASS_DUMP:
+        return "CLASS DUMP";
+      case INSTANCE_DUMP:
+        return "INSTANCE DUMP";
+      case OBJ_ARRAY_DUMP:
+        return "OBJECT ARRAY DUMP";
+      case PRIM_ARRAY_DUMP:
+        return "PRIMITIVE ARRAY DUMP";
+      default:
+        return String.format("UNKNOWN 0x%02x", tag & 0xff);
+    }
+  }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads an hprof file through a buffered {@code DataInputStream}, keeping track of the file
+ * position as it goes.  Seeking backwards discards the buffer and repositions the underlying
+ * channel.
+ *
+ * <p>With read-ahead, the buffering is done by a {@code ReadAheadInputStream}, which reads the
+ * file on a thread of its own.  A seek backwards, or forwards past what has been read ahead,
+ * then restarts that thread at the new position.
+ */
+public final class StreamHprofInput implements HprofInput {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileInputStream fs;
+  private final long length;
+  private final boolean readAhead;
+  private DataInputStream in;
+  // the read-ahead stream under in, if any
+  private ReadAheadInputStream ahead;
+  // the bytes read by earlier read-ahead streams
+  private long previousBytesRead;
+  private long position;
+  private byte[] scratch = new byte[0];
+
+  public StreamHprofInput(File file) throws IOException {
+    this(file, false);
+  }
+
+  public StreamHprofInput(File file, boolean readAhead) throws IOException {
+    fs = new FileInputStream(file);
+    length = fs.getChannel().size();
+    this.readAhead = readAhead;
+    in = open(0);
+    position = 0;
+  }
+
+  private DataInputStream open(long newPosition) throws IOException {
+    if (readAhead) {
+      if (ahead != null) {
+        ahead.close();
+        previousBytesRead += ahead.bytesRead();
+      }
+      ahead = new ReadAheadInputStream(fs.getChannel(), newPosition);
+      return new DataInputStream(ahead);
+    }
+    fs.getChannel().position(newPosition);
+    return new DataInputStream(new BufferedInputStream(fs, BUFFER_SIZE));
+  }
+
+  @Override
+  public long position() {
+    return position;
+  }
+
+  /**
+   * Returns the number of bytes read ahead from the file so far, or 0 without read-ahead.
+   */
+  long bytesReadAhead() {
+    return previousBytesRead + (ahead != null ? ahead.bytesRead() : 0);
+  }
+
+  @Override
+  public void seek(long newPosition) throws IOException {
+    if (newPosition >= position && (ahead == null || newPosition <= ahead.readEnd())) {
+      // skipping forward keeps whatever is still buffered
+      long n = newPosition - position;
+      while (n > 0) {
+        long skipped = in.skip(n);
+        if (skipped <= 0) {
+          throw new EOFException();
+        }
+        n -= skipped;
+        position += skipped;
+      }
+      return;
+    }
+    if (newPosition > length) {
+      throw new EOFException();
+    }
+    in = open(newPosition);
+    position = newPosition;
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  @Override
+  public ByteBuffer readBuffer(int n) throws IOException {
+    if (scratch.length < n) {
+      scratch = new byte[n];
+    }
+    readFully(scratch, 0, n);
+    return ByteBuffer.wrap(scratch, 0, n).slice().asReadOnlyBuffer();
+  }
+
+  @Override
+  public void readFully(byte[] b) throws IOException {
+    in.readFully(b);
+    position += b.length;
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) throws IOException {
+    in.readFully(b, off, len);
+    position += len;
+  }
+
+  @Override
+  public int skipBytes(int n) throws IOException {
+    int skipped = in.skipBytes(n);
+    position += skipped;
+    return skipped;
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException {
+    boolean v = in.readBoolean();
+    position += 1;
+    return v;
+  }
+
+  @Override
+  public byte readByte() throws IOException {
+    byte v = in.readByte();
+    position += 1;
+    return v;
+  }
+
+  @Override
+  public int readUnsignedByte() throws IOException {
+    int v = in.readUnsignedByte();
+    position += 1;
+    return v;
+  }
+
+  @Override
+  public short readShort() throws IOException {
+    short v = in.readShort();
+    position += 2;
+    return v;
+  }
+
+  @Override
+  public int readUnsignedShort() throws IOException {
+    int v = in.readUnsignedShort();
+    position += 2;
+    return v;
+  }
+
+  @Override
+  public char readChar() throws IOException {
+    char v = in.readChar();
+    position += 2;
+    return v;
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    int v = in.readInt();
+    position += 4;
+    return v;
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    long v = in.readLong();
+    position += 8;
+    return v;
+  }
+
+  @Override
+  public float readFloat() throws IOException {
+    float v = in.readFloat();
+    position += 4;
+    return v;
+  }
+
+  @Override
+  public double readDouble() throws IOException {
+    double v = in.readDouble();
+    position += 8;
+    return v;
+  }
+
+  /**
+   * Not supported; hprof files contain no line-oriented data.
+   */
+  @Override
+  public String readLine() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String readUTF() throws IOException {
+    return DataInputStream.readUTF(this);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+    fs.close();
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import com.google.common.base.Preconditions;
+
+import edu.tufts.eaftan.hprofparser.util.LongLongMap;
+import edu.tufts.eaftan.hprofparser.util.ModifiedUtf8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The strings of a heap dump, decoded only when they are looked up.  The table keeps just the
+ * file offset of each string record, outside the Java heap, and reads and decodes a string from
+ * the memory-mapped file the first time it is asked for.  The most recently used strings are
+ * cached.
+ *
+ * <p>To fill a table while parsing, pass it to {@code HprofParser.setStringTable}.  Methods are
+ * synchronized, so the handler shards of a parallel parse may share one table.
+ */
+public final class StringTable implements Closeable {
+
+  public static final int DEFAULT_CACHE_SIZE = 10000;
+
+  private final HprofInput in;
+  private final boolean ownsInput;
+  private int idSize;
+
+  // file offset of each string record's body
+  private final LongLongMap offsets = LongLongMap.offHeap(1 << 16, -1);
+  private final Map<Long, String> cache;
+
+  /**
+   * Creates an empty table for strings in the given heap dump, which caches up to
+   * {@code cacheSize} decoded strings.
+   */
+  public StringTable(File file, int cacheSize) throws IOException {
+    this(new MappedHprofInput(file), true, cacheSize);
+    HprofParser.readUntilNull(in);
+    idSize = in.readInt();
+  }
+
+  public StringTable(File file) throws IOException {
+    this(file, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Creates a table that reads strings through {@code in}, which it does not close.
+   */
+  StringTable(HprofInput in, int idSize, int cacheSize) {
+    this(in, false, cacheSize);
+    this.idSize = idSize;
+  }
+
+  private StringTable(HprofInput in, boolean ownsInput, final int cacheSize) {
+    Preconditions.checkArgument(cacheSize >= 0);
+    this.in = in;
+    this.ownsInput = ownsInput;
+    this.cache = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /**
+   * Records that the body of the string record with the given id starts at {@code offset}.
+   */
+  synchronized void add(long id, long offset) {
+    offsets.put(id, offset);
+  }
+
+  public synchronized long size() {
+    return offsets.size();
+  }
+
+  public synchronized boolean contains(long id) {
+    return offsets.containsKey(id);
+  }
+
+  /**
+   * Returns the string with the given id, or null if there is none.
+   */
+  public synchronized String get(long id) throws IOException {
+    String s = cache.get(id);
+    if (s == null) {
+      long offset = offsets.get(id);
+      if (offset < 0) {
+        return null;
+      }
+      // the record length precedes the body
+      in.seek(offset - 4);
+      long length = Integer.toUnsignedLong(in.readInt());
+      in.seek(offset + idSize);
+      byte[] bytes = new byte[(int) (length - idSize)];
+      in.readFully(bytes);
+      s = ModifiedUtf8.decode(bytes);
+      cache.put(id, s);
+    }
+    return s;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (ownsInput) {
+      in.close();
+    }
+  }
+
+}
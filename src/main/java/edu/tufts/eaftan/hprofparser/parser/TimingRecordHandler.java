@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import edu.tufts.eaftan.hprofparser.handler.RecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordMask;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.AllocSite;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.CPUSample;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Passes every callback on to another handler, adding the time spent in it to a
+ * {@code ParseMetrics}.  When the other handler only hands records to a handler thread, the
+ * time is counted as hand-off time rather than handler time.
+ */
+final class TimingRecordHandler implements RecordHandler {
+
+  private final RecordHandler delegate;
+  private final ParseMetrics metrics;
+  private final boolean handOff;
+
+  TimingRecordHandler(RecordHandler delegate, ParseMetrics metrics, boolean handOff) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+    this.handOff = handOff;
+  }
+
+  private void record(long nanos) {
+    if (handOff) {
+      metrics.addHandOffNanos(nanos);
+    } else {
+      metrics.addHandlerNanos(nanos);
+    }
+  }
+
+  @Override
+  public RecordMask recordMask() {
+    return delegate.recordMask();
+  }
+
+  @Override
+  public void header(String format, int idSize, long time) {
+    long start = System.nanoTime();
+    delegate.header(format, idSize, time);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void stringInUTF8(long id, String data) {
+    long start = System.nanoTime();
+    delegate.stringInUTF8(id, data);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+      long classNameStringId) {
+    long start = System.nanoTime();
+    delegate.loadClass(classSerialNum, classObjId, stackTraceSerialNum, classNameStringId);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void unloadClass(int classSerialNum) {
+    long start = System.nanoTime();
+    delegate.unloadClass(classSerialNum);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void stackFrame(long stackFrameId, long methodNameStringId, long methodSigStringId,
+      long sourceFileNameStringId, int classSerialNum, int location) {
+    long start = System.nanoTime();
+    delegate.stackFrame(stackFrameId, methodNameStringId, methodSigStringId, sourceFileNameStringId,
+        classSerialNum, location);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void stackTrace(int stackTraceSerialNum, int threadSerialNum, int numFrames,
+      long[] stackFrameIds) {
+    long start = System.nanoTime();
+    delegate.stackTrace(stackTraceSerialNum, threadSerialNum, numFrames, stackFrameIds);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void allocSites(short bitMaskFlags, float cutoffRatio, int totalLiveBytes,
+      int totalLiveInstances, long totalBytesAllocated, long totalInstancesAllocated,
+      AllocSite[] sites) {
+    long start = System.nanoTime();
+    delegate.allocSites(bitMaskFlags, cutoffRatio, totalLiveBytes, totalLiveInstances,
+        totalBytesAllocated, totalInstancesAllocated, sites);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void heapSummary(int totalLiveBytes, int totalLiveInstances, long totalBytesAllocated,
+      long totalInstancesAllocated) {
+    long start = System.nanoTime();
+    delegate.heapSummary(totalLiveBytes, totalLiveInstances, totalBytesAllocated,
+        totalInstancesAllocated);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void startThread(int threadSerialNum, long threadObjectId, int stackTraceSerialNum,
+      long threadNameStringId, long threadGroupNameId, long threadParentGroupNameId) {
+    long start = System.nanoTime();
+    delegate.startThread(threadSerialNum, threadObjectId, stackTraceSerialNum, threadNameStringId,
+        threadGroupNameId, threadParentGroupNameId);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void endThread(int threadSerialNum) {
+    long start = System.nanoTime();
+    delegate.endThread(threadSerialNum);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void heapDump() {
+    long start = System.nanoTime();
+    delegate.heapDump();
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void heapDumpEnd() {
+    long start = System.nanoTime();
+    delegate.heapDumpEnd();
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void heapDumpSegment() {
+    long start = System.nanoTime();
+    delegate.heapDumpSegment();
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void cpuSamples(int totalNumOfSamples, CPUSample[] samples) {
+    long start = System.nanoTime();
+    delegate.cpuSamples(totalNumOfSamples, samples);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void controlSettings(int bitMaskFlags, short stackTraceDepth) {
+    long start = System.nanoTime();
+    delegate.controlSettings(bitMaskFlags, stackTraceDepth);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootUnknown(long objId) {
+    long start = System.nanoTime();
+    delegate.rootUnknown(objId);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootJNIGlobal(long objId, long JNIGlobalRefId) {
+    long start = System.nanoTime();
+    delegate.rootJNIGlobal(objId, JNIGlobalRefId);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootJNILocal(long objId, int threadSerialNum, int frameNum) {
+    long start = System.nanoTime();
+    delegate.rootJNILocal(objId, threadSerialNum, frameNum);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootJavaFrame(long objId, int threadSerialNum, int frameNum) {
+    long start = System.nanoTime();
+    delegate.rootJavaFrame(objId, threadSerialNum, frameNum);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootNativeStack(long objId, int threadSerialNum) {
+    long start = System.nanoTime();
+    delegate.rootNativeStack(objId, threadSerialNum);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootStickyClass(long objId) {
+    long start = System.nanoTime();
+    delegate.rootStickyClass(objId);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootThreadBlock(long objId, int threadSerialNum) {
+    long start = System.nanoTime();
+    delegate.rootThreadBlock(objId, threadSerialNum);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootMonitorUsed(long objId) {
+    long start = System.nanoTime();
+    delegate.rootMonitorUsed(objId);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void rootThreadObj(long objId, int threadSerialNum, int stackTraceSerialNum) {
+    long start = System.nanoTime();
+    delegate.rootThreadObj(objId, threadSerialNum, stackTraceSerialNum);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+      long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+      long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+      InstanceField[] instanceFields) {
+    long start = System.nanoTime();
+    delegate.classDump(classObjId, stackTraceSerialNum, superClassObjId, classLoaderObjId,
+        signersObjId, protectionDomainObjId, reserved1, reserved2, instanceSize, constants, statics,
+        instanceFields);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void instanceDump(long objId, int stackTraceSerialNum, long classObjId,
+      Value<?>[] instanceFieldValues) {
+    long start = System.nanoTime();
+    delegate.instanceDump(objId, stackTraceSerialNum, classObjId, instanceFieldValues);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void instanceDump(InstanceView instance) {
+    long start = System.nanoTime();
+    delegate.instanceDump(instance);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId, long[] elems) {
+    long start = System.nanoTime();
+    delegate.objArrayDump(objId, stackTraceSerialNum, elemClassObjId, elems);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, byte elemType, Value<?>[] elems) {
+    long start = System.nanoTime();
+    delegate.primArrayDump(objId, stackTraceSerialNum, elemType, elems);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType, ByteBuffer elems) {
+    long start = System.nanoTime();
+    delegate.primArrayDump(objId, stackTraceSerialNum, elemType, elems);
+    record(System.nanoTime() - start);
+  }
+
+  @Override
+  public void finished() {
+    long start = System.nanoTime();
+    delegate.finished();
+    record(System.nanoTime() - start);
+  }
+}
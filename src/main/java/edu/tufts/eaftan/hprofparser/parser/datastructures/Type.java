@@ -20,28 +20,37 @@ import edu.tufts.eaftan.hprofparser.parser.HprofParserException;
 
 public enum Type {
 
-  OBJ("Object", 4), 
-  BOOL("boolean", 1), 
-  CHAR("char", 2), 
-  FLOAT("float", 4), 
-  DOUBLE("double", 8), 
-  BYTE("byte", 1), 
-  SHORT("short", 2), 
-  INT("int", 4), 
-  LONG("long", 8);
+  OBJ("Object", 4, 2), 
+  BOOL("boolean", 1, 4), 
+  CHAR("char", 2, 5), 
+  FLOAT("float", 4, 6), 
+  DOUBLE("double", 8, 7), 
+  BYTE("byte", 1, 8), 
+  SHORT("short", 2, 9), 
+  INT("int", 4, 10), 
+  LONG("long", 8, 11);
   
   private final String name;
   private final int sizeInBytes;
+  private final byte hprofType;
   
-  private Type(String name, int sizeInBytes) {
+  private Type(String name, int sizeInBytes, int hprofType) {
     this.name = name;
     this.sizeInBytes = sizeInBytes;
+    this.hprofType = (byte) hprofType;
   }
   
   public int sizeInBytes() {
     return sizeInBytes;
   }
 
+  /**
+   * Returns the basic type code the hprof format uses for this type.
+   */
+  public byte hprofType() {
+    return hprofType;
+  }
+
   public static Type hprofTypeToEnum(byte type) {
     switch (type) {
       case 2:
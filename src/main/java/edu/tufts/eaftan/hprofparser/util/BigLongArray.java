@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive longs indexed by long, for sequences longer than a Java array can
+ * hold.  Elements are stored in fixed-size pages, so growing never copies existing elements.
+ *
+ * <p>The pages are kept on the Java heap or, for arrays that should not count against it, in a
+ * memory-mapped temporary file; see {@link #mapped}.  The file is deleted as soon as it is
+ * mapped, and its pages are unmapped when the array is garbage collected.  Not thread-safe,
+ * although different threads may set different elements of an array that is not growing.
+ */
+public final class BigLongArray implements Closeable {
+
+  // a million elements per page on the heap, 256 MB per page in a file
+  private static final int HEAP_PAGE_SHIFT = 20;
+  private static final int MAPPED_PAGE_SHIFT = 25;
+
+  private final int pageShift;
+  private final int pageMask;
+  private long[][] heapPages;
+  private LongBuffer[] mappedPages;
+  private FileChannel channel;
+  private long size = 0;
+
+  /**
+   * Creates an empty array on the Java heap.
+   */
+  public BigLongArray() {
+    pageShift = HEAP_PAGE_SHIFT;
+    pageMask = (1 << pageShift) - 1;
+    heapPages = new long[16][];
+  }
+
+  /**
+   * Creates an array of {@code size} zeros on the Java heap.
+   */
+  public BigLongArray(long size) {
+    this();
+    grow(size);
+  }
+
+  private BigLongArray(File tempDir) throws IOException {
+    pageShift = MAPPED_PAGE_SHIFT;
+    pageMask = (1 << pageShift) - 1;
+    mappedPages = new LongBuffer[16];
+    File file = File.createTempFile("array", ".tmp", tempDir);
+    // the open channel and the mappings keep the data after the file is gone
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    file.delete();
+  }
+
+  /**
+   * Creates an empty array in a memory-mapped temporary file in {@code tempDir}, or in the
+   * default temporary directory if it is null.
+   */
+  public static BigLongArray mapped(File tempDir) throws IOException {
+    return new BigLongArray(tempDir);
+  }
+
+  /**
+   * Creates an array of {@code size} zeros in a memory-mapped temporary file in
+   * {@code tempDir}, or in the default temporary directory if it is null.
+   */
+  public static BigLongArray mapped(File tempDir, long size) throws IOException {
+    BigLongArray array = new BigLongArray(tempDir);
+    array.grow(size);
+    return array;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public boolean isMapped() {
+    return mappedPages != null;
+  }
+
+  /**
+   * Appends {@code value}, returning its index.
+   */
+  public long add(long value) {
+    if ((size & pageMask) == 0) {
+      grow(size + 1);
+    } else {
+      size++;
+    }
+    long index = size - 1;
+    int page = (int) (index >>> pageShift);
+    if (heapPages != null) {
+      heapPages[page][(int) index & pageMask] = value;
+    } else {
+      mappedPages[page].put((int) index & pageMask, value);
+    }
+    return index;
+  }
+
+  public long get(long index) {
+    checkIndex(index);
+    int page = (int) (index >>> pageShift);
+    if (heapPages != null) {
+      return heapPages[page][(int) index & pageMask];
+    }
+    return mappedPages[page].get((int) index & pageMask);
+  }
+
+  public void set(long index, long value) {
+    checkIndex(index);
+    int page = (int) (index >>> pageShift);
+    if (heapPages != null) {
+      heapPages[page][(int) index & pageMask] = value;
+    } else {
+      mappedPages[page].put((int) index & pageMask, value);
+    }
+  }
+
+  /**
+   * Extends the array with zeros to {@code newSize} elements.
+   */
+  private void grow(long newSize) {
+    Preconditions.checkArgument(newSize >= size);
+    long numPages = (newSize + pageMask) >>> pageShift;
+    Preconditions.checkArgument(numPages < Integer.MAX_VALUE, "Too many elements: %s", newSize);
+    int pages = heapPages != null ? heapPages.length : mappedPages.length;
+    if (numPages > pages) {
+      int newLength = (int) Math.max(numPages, Math.min(2L * pages, Integer.MAX_VALUE - 8));
+      if (heapPages != null) {
+        heapPages = Arrays.copyOf(heapPages, newLength);
+      } else {
+        mappedPages = Arrays.copyOf(mappedPages, newLength);
+      }
+    }
+    for (int page = (int) ((size + pageMask) >>> pageShift); page < numPages; page++) {
+      if (heapPages != null) {
+        heapPages[page] = new long[1 << pageShift];
+      } else {
+        try {
+          long pageBytes = (long) 8 << pageShift;
+          mappedPages[page] = channel.map(FileChannel.MapMode.READ_WRITE, page * pageBytes,
+              pageBytes).asLongBuffer();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    size = newSize;
+  }
+
+  private void checkIndex(long index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+  }
+
+  /**
+   * Closes the temporary file of a mapped array.  The array stays readable and writable until it
+   * is garbage collected, but can no longer grow.
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fast, non-cryptographic 64-bit hash of the contents of a buffer, for finding arrays and
+ * strings with equal contents.  The mixing steps are those of MurmurHash3, eight bytes at a time.
+ * Equal contents always hash equally, whatever the buffer's position; unequal contents collide
+ * with a probability of about 2^-64 per pair.
+ */
+public final class ContentHash {
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private ContentHash() {}
+
+  /**
+   * Returns the hash of the remaining bytes of {@code buffer}, leaving its position unchanged.
+   * Buffers with the same contents but different seeds hash differently.
+   */
+  public static long hash(ByteBuffer buffer, long seed) {
+    int start = buffer.position();
+    int end = buffer.limit();
+    long h = seed;
+    int i = start;
+    for (; i + 8 <= end; i += 8) {
+      h ^= mixKey(buffer.getLong(i));
+      h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+    }
+    if (i < end) {
+      long k = 0;
+      for (int shift = 0; i < end; i++, shift += 8) {
+        k |= (buffer.get(i) & 0xffL) << shift;
+      }
+      h ^= mixKey(k);
+    }
+    return fmix(h ^ (end - start));
+  }
+
+  private static long mixKey(long k) {
+    k *= C1;
+    k = Long.rotateLeft(k, 31);
+    return k * C2;
+  }
+
+  private static long fmix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts (key, value) pairs of longs by key, using a fixed amount of memory however many pairs
+ * there are.  Pairs are collected in a buffer; each time it fills up, it is sorted and written to
+ * a temporary file as a sorted run, and at the end the runs are merged.
+ *
+ * <p>Pairs with equal keys come out in order of increasing value.
+ */
+public final class ExternalLongPairSorter implements Closeable {
+
+  /**
+   * Receives the sorted pairs.
+   */
+  public interface PairConsumer {
+    public abstract void accept(long key, long value) throws IOException;
+  }
+
+  /** Default buffer capacity, 4M pairs, or 64 MB. */
+  public static final int DEFAULT_BUFFER_PAIRS = 1 << 22;
+
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  private final File tempDir;
+  private long[] keys;
+  private long[] values;
+  private int size = 0;
+  private long count = 0;
+  private final List<File> runs = new ArrayList<File>();
+
+  /**
+   * Creates a sorter that spills sorted runs to {@code tempDir}, or the default temporary
+   * directory if it is null.
+   */
+  public ExternalLongPairSorter(File tempDir) {
+    this(tempDir, DEFAULT_BUFFER_PAIRS);
+  }
+
+  public ExternalLongPairSorter(File tempDir, int bufferPairs) {
+    Preconditions.checkArgument(bufferPairs > 0);
+    this.tempDir = tempDir;
+    this.keys = new long[bufferPairs];
+    this.values = new long[bufferPairs];
+  }
+
+  public void add(long key, long value) throws IOException {
+    if (size == keys.length) {
+      spill();
+    }
+    keys[size] = key;
+    values[size] = value;
+    size++;
+    count++;
+  }
+
+  /**
+   * Returns the number of pairs added so far.
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Passes every pair added so far to {@code consumer} in order of increasing key and value, then
+   * deletes
+   * the temporary files.  The sorter cannot be used afterwards.
+   */
+  public void finish(PairConsumer consumer) throws IOException {
+    Preconditions.checkState(keys != null, "Already finished");
+    try {
+      if (runs.isEmpty()) {
+        sort(keys, values, 0, size - 1);
+        for (int i = 0; i < size; i++) {
+          consumer.accept(keys[i], values[i]);
+        }
+      } else {
+        if (size > 0) {
+          spill();
+        }
+        // the merge reads the runs through their own buffers
+        keys = null;
+        values = null;
+        merge(consumer);
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Deletes the temporary files.
+   */
+  @Override
+  public void close() {
+    keys = null;
+    values = null;
+    for (File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+  }
+
+  private void spill() throws IOException {
+    sort(keys, values, 0, size - 1);
+    File run = File.createTempFile("sort", ".run", tempDir);
+    runs.add(run);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+      for (int i = 0; i < size; i++) {
+        out.writeLong(keys[i]);
+        out.writeLong(values[i]);
+      }
+    }
+    size = 0;
+  }
+
+  private void merge(PairConsumer consumer) throws IOException {
+    PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size());
+    try {
+      for (File file : runs) {
+        Run run = new Run(file);
+        if (run.next()) {
+          queue.add(run);
+        } else {
+          run.close();
+        }
+      }
+      while (!queue.isEmpty()) {
+        Run run = queue.poll();
+        consumer.accept(run.key, run.value);
+        if (run.next()) {
+          queue.add(run);
+        } else {
+          run.close();
+        }
+      }
+    } finally {
+      for (Run run : queue) {
+        run.close();
+      }
+    }
+  }
+
+  /** A sorted run being read back during the merge. */
+  private static final class Run implements Comparable<Run> {
+    private final DataInputStream in;
+    long key;
+    long value;
+
+    Run(File file) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    boolean next() throws IOException {
+      try {
+        key = in.readLong();
+      } catch (EOFException e) {
+        return false;
+      }
+      value = in.readLong();
+      return true;
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+
+    @Override
+    public int compareTo(Run other) {
+      int c = Long.compare(key, other.key);
+      return c != 0 ? c : Long.compare(value, other.value);
+    }
+  }
+
+  /* Sorting of the parallel key and value arrays */
+
+  private static void sort(long[] keys, long[] values, int lo, int hi) {
+    while (hi - lo >= INSERTION_SORT_THRESHOLD) {
+      // median of three, so that already sorted input, which is common, is not quadratic
+      int mid = (lo + hi) >>> 1;
+      if (less(keys[mid], values[mid], keys[lo], values[lo])) {
+        swap(keys, values, mid, lo);
+      }
+      if (less(keys[hi], values[hi], keys[lo], values[lo])) {
+        swap(keys, values, hi, lo);
+      }
+      if (less(keys[hi], values[hi], keys[mid], values[mid])) {
+        swap(keys, values, hi, mid);
+      }
+      long pivotKey = keys[mid];
+      long pivotValue = values[mid];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (less(keys[i], values[i], pivotKey, pivotValue)) {
+          i++;
+        }
+        while (less(pivotKey, pivotValue, keys[j], values[j])) {
+          j--;
+        }
+        if (i <= j) {
+          swap(keys, values, i, j);
+          i++;
+          j--;
+        }
+      }
+      // recurse into the smaller half to bound the stack depth
+      if (j - lo < hi - i) {
+        sort(keys, values, lo, j);
+        lo = i;
+      } else {
+        sort(keys, values, i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++) {
+      long key = keys[i];
+      long value = values[i];
+      int j = i - 1;
+      while (j >= lo && less(key, value, keys[j], values[j])) {
+        keys[j + 1] = keys[j];
+        values[j + 1] = values[j];
+        j--;
+      }
+      keys[j + 1] = key;
+      values[j + 1] = value;
+    }
+  }
+
+  private static boolean less(long key1, long value1, long key2, long value2) {
+    return key1 < key2 || (key1 == key2 && value1 < value2);
+  }
+
+  private static void swap(long[] keys, long[] values, int i, int j) {
+    long k = keys[i];
+    keys[i] = keys[j];
+    keys[j] = k;
+    long v = values[i];
+    values[i] = values[j];
+    values[j] = v;
+  }
+
+}
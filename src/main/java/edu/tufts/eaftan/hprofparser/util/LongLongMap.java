@@ -0,0 +1,305 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A hash map from primitive long keys to primitive long values, using open addressing with linear
+ * probing.  Each mapping takes 16 bytes of table space and allocates nothing, compared to about
+ * 80 bytes of objects per mapping in a {@code HashMap<Long, Long>}.
+ *
+ * <p>The table can be kept on the Java heap or, for maps too big to want the garbage collector to
+ * look at, in direct buffers outside it; see {@link #offHeap}.  Direct memory is released when the
+ * map is garbage collected.  Not thread-safe.
+ */
+public final class LongLongMap {
+
+  /**
+   * Iterates over the mappings of a map, in no particular order.  The map must not be modified
+   * during the iteration.
+   */
+  public final class Cursor {
+    private long slot = -1;
+    private boolean atZeroKey = false;
+
+    /**
+     * Moves to the next mapping, returning false if there is none.
+     */
+    public boolean next() {
+      if (atZeroKey) {
+        return false;
+      }
+      while (++slot < capacity) {
+        if (LongLongMap.this.key(slot) != 0) {
+          return true;
+        }
+      }
+      atZeroKey = hasZeroKey;
+      return atZeroKey;
+    }
+
+    public long key() {
+      return atZeroKey ? 0 : LongLongMap.this.key(slot);
+    }
+
+    public long value() {
+      return atZeroKey ? zeroValue : LongLongMap.this.value(slot);
+    }
+  }
+
+  private static final float LOAD_FACTOR = 0.75f;
+  // slots are stored as (key, value) pairs in pages of at most 1 GB
+  private static final int PAGE_SHIFT = 26;
+  private static final long MAX_CAPACITY = 1L << 40;
+
+  private final boolean offHeap;
+  private final long missingValue;
+
+  // a key of 0 marks an empty slot, so a mapping for key 0 is kept on the side
+  private long[][] heapPages;
+  private LongBuffer[] directPages;
+  private boolean hasZeroKey = false;
+  private long zeroValue;
+  private long size = 0;
+  private long capacity;
+  private long mask;
+  private int shift;
+  private long resizeAt;
+
+  private LongLongMap(long expectedSize, long missingValue, boolean offHeap) {
+    Preconditions.checkArgument(expectedSize >= 0);
+    this.missingValue = missingValue;
+    this.offHeap = offHeap;
+    long capacity = Long.highestOneBit(Math.max(2, (long) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+    Preconditions.checkArgument(capacity <= MAX_CAPACITY, "Too many entries: %s", expectedSize);
+    allocate(capacity);
+  }
+
+  /**
+   * Creates a map on the Java heap whose {@link #get} returns {@code missingValue} for keys that
+   * are not in the map.
+   */
+  public static LongLongMap onHeap(long missingValue) {
+    return onHeap(16, missingValue);
+  }
+
+  /**
+   * Creates a map on the Java heap, sized to hold {@code expectedSize} mappings without growing,
+   * whose {@link #get} returns {@code missingValue} for keys that are not in the map.
+   */
+  public static LongLongMap onHeap(long expectedSize, long missingValue) {
+    return new LongLongMap(expectedSize, missingValue, false);
+  }
+
+  /**
+   * Creates a map in direct memory, sized to hold {@code expectedSize} mappings without growing,
+   * whose {@link #get} returns {@code missingValue} for keys that are not in the map.
+   */
+  public static LongLongMap offHeap(long expectedSize, long missingValue) {
+    return new LongLongMap(expectedSize, missingValue, true);
+  }
+
+  private void allocate(long capacity) {
+    this.capacity = capacity;
+    long slotsPerPage = Math.min(capacity, 1L << PAGE_SHIFT);
+    int numPages = (int) (capacity / slotsPerPage);
+    int longsPerPage = (int) (slotsPerPage * 2);
+    if (offHeap) {
+      directPages = new LongBuffer[numPages];
+      for (int i = 0; i < numPages; i++) {
+        directPages[i] = ByteBuffer.allocateDirect(longsPerPage * 8).asLongBuffer();
+      }
+    } else {
+      heapPages = new long[numPages][longsPerPage];
+    }
+    mask = capacity - 1;
+    shift = 64 - Long.numberOfTrailingZeros(capacity);
+    resizeAt = Math.min(capacity - 1, (long) (capacity * LOAD_FACTOR));
+  }
+
+  /**
+   * Returns the preferred slot for a key.  Object ids are aligned addresses, so their low bits
+   * are poorly distributed; Fibonacci hashing takes the high bits of the product instead.
+   */
+  private long slotFor(long key) {
+    return (key * 0x9E3779B97F4A7C15L) >>> shift;
+  }
+
+  private long key(long slot) {
+    return get(slot, 0);
+  }
+
+  private long value(long slot) {
+    return get(slot, 1);
+  }
+
+  private long get(long slot, int field) {
+    int page = (int) (slot >>> PAGE_SHIFT);
+    int i = ((int) (slot << 1) & ((2 << PAGE_SHIFT) - 1)) + field;
+    return offHeap ? directPages[page].get(i) : heapPages[page][i];
+  }
+
+  private void set(long slot, long key, long value) {
+    int page = (int) (slot >>> PAGE_SHIFT);
+    int i = (int) (slot << 1) & ((2 << PAGE_SHIFT) - 1);
+    if (offHeap) {
+      directPages[page].put(i, key);
+      directPages[page].put(i + 1, value);
+    } else {
+      heapPages[page][i] = key;
+      heapPages[page][i + 1] = value;
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean isOffHeap() {
+    return offHeap;
+  }
+
+  /**
+   * Returns the value for the given key, or the map's missing value if there is none.
+   */
+  public long get(long key) {
+    if (key == 0) {
+      return hasZeroKey ? zeroValue : missingValue;
+    }
+    for (long slot = slotFor(key); ; slot = (slot + 1) & mask) {
+      long k = key(slot);
+      if (k == key) {
+        return value(slot);
+      }
+      if (k == 0) {
+        return missingValue;
+      }
+    }
+  }
+
+  public boolean containsKey(long key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    for (long slot = slotFor(key); ; slot = (slot + 1) & mask) {
+      long k = key(slot);
+      if (k == key) {
+        return true;
+      }
+      if (k == 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Maps the key to the given value, returning the previous value or the missing value if there
+   * was none.
+   */
+  public long put(long key, long value) {
+    if (key == 0) {
+      long previous = hasZeroKey ? zeroValue : missingValue;
+      zeroValue = value;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      return previous;
+    }
+    long slot = slotFor(key);
+    for (long k; (k = key(slot)) != 0; slot = (slot + 1) & mask) {
+      if (k == key) {
+        long previous = value(slot);
+        set(slot, key, value);
+        return previous;
+      }
+    }
+    set(slot, key, value);
+    if (++size - (hasZeroKey ? 1 : 0) > resizeAt) {
+      rehash(capacity * 2);
+    }
+    return missingValue;
+  }
+
+  /**
+   * Removes the mapping for the given key, returning its value or the missing value if there was
+   * none.
+   */
+  public long remove(long key) {
+    if (key == 0) {
+      long previous = hasZeroKey ? zeroValue : missingValue;
+      if (hasZeroKey) {
+        hasZeroKey = false;
+        size--;
+      }
+      return previous;
+    }
+    long slot = slotFor(key);
+    for (long k; (k = key(slot)) != key; slot = (slot + 1) & mask) {
+      if (k == 0) {
+        return missingValue;
+      }
+    }
+    long previous = value(slot);
+    // shift back later entries of the probe sequence so that lookups don't stop at the hole
+    long hole = slot;
+    for (slot = (slot + 1) & mask; key(slot) != 0; slot = (slot + 1) & mask) {
+      long preferred = slotFor(key(slot));
+      if (((slot - preferred) & mask) >= ((slot - hole) & mask)) {
+        set(hole, key(slot), value(slot));
+        hole = slot;
+      }
+    }
+    set(hole, 0, 0);
+    size--;
+    return previous;
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  private void rehash(long newCapacity) {
+    Preconditions.checkState(newCapacity <= MAX_CAPACITY, "Too many entries: %s", size);
+    long oldCapacity = capacity;
+    long[][] oldHeapPages = heapPages;
+    LongBuffer[] oldDirectPages = directPages;
+    allocate(newCapacity);
+    long slotsPerPage = Math.min(oldCapacity, 1L << PAGE_SHIFT);
+    for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+      int page = (int) (oldSlot / slotsPerPage);
+      int i = (int) (oldSlot % slotsPerPage) * 2;
+      long key = offHeap ? oldDirectPages[page].get(i) : oldHeapPages[page][i];
+      if (key != 0) {
+        long slot = slotFor(key);
+        while (key(slot) != 0) {
+          slot = (slot + 1) & mask;
+        }
+        set(slot, key, offHeap ? oldDirectPages[page].get(i + 1) : oldHeapPages[page][i + 1]);
+      }
+    }
+  }
+
+}
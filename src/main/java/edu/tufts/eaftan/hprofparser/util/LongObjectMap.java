@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to objects, using open addressing with linear probing.  It
+ * stores keys in a {@code long[]} and values in an {@code Object[]}, so unlike
+ * {@code HashMap<Long, V>} it allocates no boxed key or entry object per mapping.  Null values are
+ * not allowed.  Not thread-safe.
+ */
+public final class LongObjectMap<V> {
+
+  /**
+   * Iterates over the mappings of a map, in no particular order.  The map must not be modified
+   * during the iteration.
+   */
+  public final class Cursor {
+    private int slot = -1;
+    private boolean atZeroKey = false;
+
+    /**
+     * Moves to the next mapping, returning false if there is none.
+     */
+    public boolean next() {
+      if (atZeroKey) {
+        return false;
+      }
+      while (++slot < keys.length) {
+        if (keys[slot] != 0) {
+          return true;
+        }
+      }
+      atZeroKey = hasZeroKey;
+      return atZeroKey;
+    }
+
+    public long key() {
+      return atZeroKey ? 0 : keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V value() {
+      return atZeroKey ? zeroValue : (V) values[slot];
+    }
+  }
+
+  private static final float LOAD_FACTOR = 0.75f;
+
+  // a key of 0 marks an empty slot, so a mapping for key 0 is kept on the side
+  private long[] keys;
+  private Object[] values;
+  private boolean hasZeroKey = false;
+  private V zeroValue;
+  private int size = 0;
+  private int mask;
+  private int shift;
+  private int resizeAt;
+
+  public LongObjectMap() {
+    this(16);
+  }
+
+  /**
+   * Creates a map that can hold {@code expectedSize} mappings without growing.
+   */
+  public LongObjectMap(int expectedSize) {
+    Preconditions.checkArgument(expectedSize >= 0);
+    allocate(capacityFor(expectedSize));
+  }
+
+  static int capacityFor(int expectedSize) {
+    long capacity = Long.highestOneBit(Math.max(2, (long) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+    Preconditions.checkArgument(capacity <= 1 << 30, "Too many entries: %s", expectedSize);
+    return (int) capacity;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    resizeAt = Math.min(capacity - 1, (int) (capacity * LOAD_FACTOR));
+  }
+
+  /**
+   * Returns the preferred slot for a key.  Object ids are aligned addresses, so their low bits
+   * are poorly distributed; Fibonacci hashing takes the high bits of the product instead.
+   */
+  private int slotFor(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the value for the given key, or null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    if (key == 0) {
+      return zeroValue;
+    }
+    for (int slot = slotFor(key); ; slot = (slot + 1) & mask) {
+      long k = keys[slot];
+      if (k == key) {
+        return (V) values[slot];
+      }
+      if (k == 0) {
+        return null;
+      }
+    }
+  }
+
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Maps the key to the given value, returning the previous value or null if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    Preconditions.checkNotNull(value);
+    if (key == 0) {
+      V previous = zeroValue;
+      zeroValue = value;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      return previous;
+    }
+    int slot = slotFor(key);
+    for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        V previous = (V) values[slot];
+        values[slot] = value;
+        return previous;
+      }
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size - (hasZeroKey ? 1 : 0) > resizeAt) {
+      rehash(keys.length * 2);
+    }
+    return null;
+  }
+
+  /**
+   * Removes the mapping for the given key, returning its value or null if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long key) {
+    if (key == 0) {
+      V previous = zeroValue;
+      if (hasZeroKey) {
+        hasZeroKey = false;
+        zeroValue = null;
+        size--;
+      }
+      return previous;
+    }
+    int slot = slotFor(key);
+    for (; keys[slot] != key; slot = (slot + 1) & mask) {
+      if (keys[slot] == 0) {
+        return null;
+      }
+    }
+    V previous = (V) values[slot];
+    // shift back later entries of the probe sequence so that lookups don't stop at the hole
+    int hole = slot;
+    for (slot = (slot + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+      int preferred = slotFor(keys[slot]);
+      if (((slot - preferred) & mask) >= ((slot - hole) & mask)) {
+        keys[hole] = keys[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+    }
+    keys[hole] = 0;
+    values[hole] = null;
+    size--;
+    return previous;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, 0);
+    Arrays.fill(values, null);
+    hasZeroKey = false;
+    zeroValue = null;
+    size = 0;
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      long key = oldKeys[i];
+      if (key != 0) {
+        int slot = slotFor(key);
+        while (keys[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+}
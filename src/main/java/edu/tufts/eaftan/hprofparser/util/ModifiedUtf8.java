@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts between strings and the modified UTF-8 encoding the JVM uses for the strings in heap
+ * dumps: as in {@code DataInput.readUTF}, the null character is encoded in two bytes, and
+ * supplementary characters as two three-byte surrogates.  Unlike {@code readUTF}, decoding does
+ * not need a length prefix, also accepts standard four-byte sequences, and replaces malformed
+ * input with U+FFFD rather than failing.
+ */
+public final class ModifiedUtf8 {
+
+  private ModifiedUtf8() {}
+
+  public static String decode(byte[] bytes) {
+    return decode(bytes, 0, bytes.length);
+  }
+
+  public static String decode(byte[] bytes, int offset, int length) {
+    int end = offset + length;
+    int i = offset;
+    // most strings are ASCII
+    while (i < end && bytes[i] >= 0) {
+      i++;
+    }
+    if (i == end) {
+      return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+    }
+
+    char[] chars = new char[length];
+    int n = 0;
+    for (i = offset; i < end; ) {
+      int b = bytes[i] & 0xff;
+      if (b < 0x80) {
+        chars[n++] = (char) b;
+        i++;
+      } else if ((b & 0xe0) == 0xc0 && isContinuation(bytes, i + 1, end)) {
+        chars[n++] = (char) (((b & 0x1f) << 6) | (bytes[i + 1] & 0x3f));
+        i += 2;
+      } else if ((b & 0xf0) == 0xe0 && isContinuation(bytes, i + 1, end)
+          && isContinuation(bytes, i + 2, end)) {
+        chars[n++] = (char) (((b & 0x0f) << 12) | ((bytes[i + 1] & 0x3f) << 6)
+            | (bytes[i + 2] & 0x3f));
+        i += 3;
+      } else if ((b & 0xf8) == 0xf0 && isContinuation(bytes, i + 1, end)
+          && isContinuation(bytes, i + 2, end) && isContinuation(bytes, i + 3, end)) {
+        int codePoint = ((b & 0x07) << 18) | ((bytes[i + 1] & 0x3f) << 12)
+            | ((bytes[i + 2] & 0x3f) << 6) | (bytes[i + 3] & 0x3f);
+        if (Character.isSupplementaryCodePoint(codePoint)) {
+          chars[n++] = Character.highSurrogate(codePoint);
+          chars[n++] = Character.lowSurrogate(codePoint);
+        } else {
+          chars[n++] = '\uFFFD';
+        }
+        i += 4;
+      } else {
+        chars[n++] = '\uFFFD';
+        i++;
+      }
+    }
+    return new String(chars, 0, n);
+  }
+
+  private static boolean isContinuation(byte[] bytes, int i, int end) {
+    return i < end && (bytes[i] & 0xc0) == 0x80;
+  }
+
+  public static byte[] encode(String s) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c != 0 && c < 0x80) {
+        out.write(c);
+      } else if (c < 0x800) {
+        out.write(0xc0 | (c >> 6));
+        out.write(0x80 | (c & 0x3f));
+      } else {
+        out.write(0xe0 | (c >> 12));
+        out.write(0x80 | ((c >> 6) & 0x3f));
+        out.write(0x80 | (c & 0x3f));
+      }
+    }
+    return out.toByteArray();
+  }
+
+}
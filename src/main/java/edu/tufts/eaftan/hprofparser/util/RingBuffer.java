@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of preallocated slots passed from one producer thread to one consumer thread.
+ * The producer claims a free slot, fills it in place and publishes it; the consumer takes the
+ * next published slot, uses it and releases it for reuse.  Slots are handed over in order, and
+ * nothing is allocated per hand-off.
+ *
+ * <p>A thread that has to wait spins briefly, then yields, then sleeps for short intervals, so
+ * a busy pipeline never blocks in the kernel and an idle one does not burn a core.
+ *
+ * <p>Either side can {@link #close} the ring: the consumer then sees the slots published so far
+ * followed by the end, and the producer is refused any more slots.
+ */
+public final class RingBuffer<T> {
+
+  private static final int SPINS = 100;
+  private static final int YIELDS = 100;
+  private static final long PARK_NANOS = 50000;
+
+  private final T[] slots;
+  private final int mask;
+  // the number of slots published and released so far
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong released = new AtomicLong();
+  private volatile boolean closed = false;
+
+  // the number of slots claimed, touched only by the producer, and taken, only by the consumer
+  private long claimed = 0;
+  private long taken = 0;
+
+  /**
+   * Creates a ring of the given slots, of which there must be a power of two.
+   */
+  public RingBuffer(T[] slots) {
+    Preconditions.checkArgument(slots.length > 0 && Integer.bitCount(slots.length) == 1,
+        "number of slots must be a power of two");
+    this.slots = slots;
+    this.mask = slots.length - 1;
+  }
+
+  public int capacity() {
+    return slots.length;
+  }
+
+  /**
+   * Returns the next slot for the producer to fill, waiting while every slot is in use, or null
+   * if the ring has been closed.  Call {@link #publish} once the slot is filled.
+   */
+  public T claim() throws InterruptedException {
+    Preconditions.checkState(claimed == published.get(), "previous slot not published");
+    for (int waits = 0; claimed - released.get() >= slots.length; waits++) {
+      if (closed) {
+        return null;
+      }
+      await(waits);
+    }
+    return closed ? null : slots[(int) claimed & mask];
+  }
+
+  /**
+   * Hands the slot returned by {@link #claim} to the consumer.
+   */
+  public void publish() {
+    // an ordered store, so the consumer sees the slot's contents once it sees the count
+    published.lazySet(++claimed);
+  }
+
+  /**
+   * Returns the next slot for the consumer, waiting until one is published, or null once the
+   * ring has been closed and every published slot taken.  Call {@link #release} once done with
+   * the slot.
+   */
+  public T take() throws InterruptedException {
+    Preconditions.checkState(taken == released.get(), "previous slot not released");
+    for (int waits = 0; published.get() == taken; waits++) {
+      if (closed) {
+        // the producer may have published just before closing
+        if (published.get() == taken) {
+          return null;
+        }
+        break;
+      }
+      await(waits);
+    }
+    return slots[(int) taken & mask];
+  }
+
+  /**
+   * Returns the slot returned by {@link #take} to the producer.
+   */
+  public void release() {
+    released.lazySet(++taken);
+  }
+
+  /**
+   * Closes the ring.  May be called from either side, or any other thread.
+   */
+  public void close() {
+    closed = true;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  private static void await(int waits) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (waits < SPINS) {
+      return;
+    } else if (waits < SPINS + YIELDS) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+
+}
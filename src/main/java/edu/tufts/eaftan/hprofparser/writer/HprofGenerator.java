@@ -0,0 +1,409 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.writer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthesizes heap dumps of a configurable shape, for testing and benchmarking the parser at
+ * scale.  The output depends only on the settings and the seed, so the same settings always give
+ * the same file.  Memory use depends on the number of classes and the maximum array length, but
+ * not on the number of objects, so dumps much larger than memory can be generated.
+ *
+ * <p>Class 0 is {@code java.lang.Object}; every other class extends a randomly chosen class
+ * before it.  Objects are instances of the other classes, object arrays and primitive arrays,
+ * interleaved at random.  Object references point at random objects, or are null.
+ */
+public class HprofGenerator {
+
+  /** How array lengths are chosen between 0 and the maximum. */
+  public enum LengthDistribution {
+    /** Every length is equally likely. */
+    UNIFORM,
+    /** Lengths are spread evenly on a log scale, so most arrays are short. */
+    LOG_UNIFORM
+  }
+
+  private static final long CLASS_ID_BASE = 0x1000;
+  private static final long OBJECT_ID_BASE = 0x10000000;
+  private static final long MAX_ID_4 = 0xffffffffL;
+
+  private static final Type[] PRIMITIVE_TYPES = {
+      Type.BOOL, Type.CHAR, Type.FLOAT, Type.DOUBLE, Type.BYTE, Type.SHORT, Type.INT, Type.LONG};
+
+  // one in this many objects is a GC root
+  private static final int ROOT_INTERVAL = 1000;
+
+  private static final int MAX_STATICS = 2;
+
+  private long seed = 0;
+  private int idSize = 8;
+  private int numClasses = 100;
+  private long numInstances = 100000;
+  private long numObjArrays = 10000;
+  private long numPrimArrays = 10000;
+  private int minFields = 0;
+  private int maxFields = 8;
+  private Type[] fieldTypes = Type.values();
+  private int maxArrayLength = 1024;
+  private LengthDistribution arrayLengths = LengthDistribution.LOG_UNIFORM;
+  private boolean segmented = true;
+  private long segmentSize = HprofWriter.DEFAULT_SEGMENT_SIZE;
+
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  public void setIdSize(int idSize) {
+    Preconditions.checkArgument(idSize == 4 || idSize == 8, "Invalid identifier size %s", idSize);
+    this.idSize = idSize;
+  }
+
+  /**
+   * Sets the number of classes, including {@code java.lang.Object}.
+   */
+  public void setNumClasses(int numClasses) {
+    Preconditions.checkArgument(numClasses >= 1);
+    this.numClasses = numClasses;
+  }
+
+  public void setNumInstances(long numInstances) {
+    Preconditions.checkArgument(numInstances >= 0);
+    this.numInstances = numInstances;
+  }
+
+  public void setNumObjArrays(long numObjArrays) {
+    Preconditions.checkArgument(numObjArrays >= 0);
+    this.numObjArrays = numObjArrays;
+  }
+
+  public void setNumPrimArrays(long numPrimArrays) {
+    Preconditions.checkArgument(numPrimArrays >= 0);
+    this.numPrimArrays = numPrimArrays;
+  }
+
+  /**
+   * Sets the range of the number of instance fields each class declares, not counting those it
+   * inherits.
+   */
+  public void setFieldsPerClass(int minFields, int maxFields) {
+    Preconditions.checkArgument(0 <= minFields && minFields <= maxFields);
+    this.minFields = minFields;
+    this.maxFields = maxFields;
+  }
+
+  /**
+   * Sets the types instance and static fields are chosen from.  A type listed more than once is
+   * chosen more often.
+   */
+  public void setFieldTypes(Type... fieldTypes) {
+    Preconditions.checkArgument(fieldTypes.length > 0);
+    this.fieldTypes = fieldTypes.clone();
+  }
+
+  public void setArrayLengths(int maxArrayLength, LengthDistribution arrayLengths) {
+    Preconditions.checkArgument(maxArrayLength >= 0);
+    this.maxArrayLength = maxArrayLength;
+    this.arrayLengths = arrayLengths;
+  }
+
+  /**
+   * Sets whether the heap dump is written as heap dump segments, like recent HotSpot VMs do, or
+   * as a single heap dump record.
+   */
+  public void setSegmented(boolean segmented) {
+    this.segmented = segmented;
+  }
+
+  public void setSegmentSize(long segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  public void generate(File file) throws IOException {
+    long numObjects = numInstances + numObjArrays + numPrimArrays;
+    if (idSize == 4 && objId(numObjects) > MAX_ID_4) {
+      throw new IllegalArgumentException("Too many objects for 4-byte identifiers");
+    }
+    if (numInstances > 0 && numClasses == 1) {
+      throw new IllegalArgumentException("Instances need a class other than java.lang.Object");
+    }
+    Random random = new Random(seed);
+
+    try (HprofWriter writer = new HprofWriter(file, idSize, 0)) {
+      writer.setSegmentSize(segmentSize);
+
+      // string ids: class names first, then field names
+      writer.writeStringInUTF8(1, "java/lang/Object");
+      for (int i = 1; i < numClasses; i++) {
+        writer.writeStringInUTF8(1 + i, "generated/Class" + i);
+      }
+      for (int i = 0; i < Math.max(maxFields, MAX_STATICS); i++) {
+        writer.writeStringInUTF8(fieldNameId(i), "field" + i);
+      }
+      for (int i = 0; i < numClasses; i++) {
+        writer.writeLoadClass(1 + i, classId(i), 0, 1 + i);
+      }
+
+      // each class's instance fields, own fields first and then its superclasses'
+      Type[][] layouts = new Type[numClasses][];
+      int[] packedSizes = new int[numClasses];
+      writer.startHeapDump(segmented);
+      for (int i = 0; i < numClasses; i++) {
+        writer.writeRootStickyClass(classId(i));
+      }
+      for (long k = 0; k < numObjects; k += ROOT_INTERVAL) {
+        writer.writeRootUnknown(objId(k));
+      }
+
+      layouts[0] = new Type[0];
+      writer.writeClassDump(classId(0), 0, 0, 0, 0, 0, 0, new Constant[0], new Static[0],
+          new InstanceField[0]);
+      for (int i = 1; i < numClasses; i++) {
+        int superClass = random.nextInt(i);
+        InstanceField[] fields = new InstanceField[minFields
+            + random.nextInt(maxFields - minFields + 1)];
+        for (int j = 0; j < fields.length; j++) {
+          fields[j] = new InstanceField(fieldNameId(j), randomFieldType(random));
+        }
+        Static[] statics = new Static[random.nextInt(MAX_STATICS + 1)];
+        for (int j = 0; j < statics.length; j++) {
+          statics[j] = new Static(fieldNameId(j), randomValue(random, randomFieldType(random),
+              numObjects));
+        }
+
+        Type[] layout = new Type[fields.length + layouts[superClass].length];
+        for (int j = 0; j < fields.length; j++) {
+          layout[j] = fields[j].type;
+        }
+        System.arraycopy(layouts[superClass], 0, layout, fields.length,
+            layouts[superClass].length);
+        layouts[i] = layout;
+        for (Type type : layout) {
+          packedSizes[i] += type == Type.OBJ ? idSize : type.sizeInBytes();
+        }
+
+        writer.writeClassDump(classId(i), 0, classId(superClass), 0, 0, 0, packedSizes[i],
+            new Constant[0], statics, fields);
+      }
+
+      int maxPackedSize = 0;
+      for (int packedSize : packedSizes) {
+        maxPackedSize = Math.max(maxPackedSize, packedSize);
+      }
+      ByteBuffer packed = ByteBuffer.allocate(maxPackedSize);
+      long[] refs = new long[maxArrayLength];
+      byte[] elems = new byte[maxArrayLength * 8];
+
+      long instancesLeft = numInstances;
+      long objArraysLeft = numObjArrays;
+      for (long k = 0; k < numObjects; k++) {
+        // choose what kind of object comes next in proportion to how many are left
+        long left = numObjects - k;
+        long r = Math.min((long) (random.nextDouble() * left), left - 1);
+        if (r < instancesLeft) {
+          instancesLeft--;
+          int c = 1 + random.nextInt(numClasses - 1);
+          packed.clear();
+          for (Type type : layouts[c]) {
+            putRandomValue(random, packed, type, numObjects);
+          }
+          packed.flip();
+          writer.writeInstanceDump(objId(k), 0, classId(c), packed);
+        } else if (r < instancesLeft + objArraysLeft) {
+          objArraysLeft--;
+          int length = randomLength(random);
+          for (int i = 0; i < length; i++) {
+            refs[i] = randomRef(random, numObjects);
+          }
+          writer.writeObjArrayDump(objId(k), 0, classId(random.nextInt(numClasses)), refs,
+              length);
+        } else {
+          Type type = PRIMITIVE_TYPES[random.nextInt(PRIMITIVE_TYPES.length)];
+          int numBytes = randomLength(random) * type.sizeInBytes();
+          for (int i = 0; i < numBytes; i += 8) {
+            long bits = random.nextLong();
+            for (int j = i; j < Math.min(i + 8, numBytes); j++, bits >>>= 8) {
+              elems[j] = (byte) (type == Type.BOOL ? bits & 1 : bits);
+            }
+          }
+          writer.writePrimArrayDump(objId(k), 0, type, ByteBuffer.wrap(elems, 0, numBytes));
+        }
+      }
+      writer.endHeapDump();
+    }
+  }
+
+  private static long classId(int i) {
+    return CLASS_ID_BASE + 8L * i;
+  }
+
+  private static long objId(long k) {
+    return OBJECT_ID_BASE + 8L * k;
+  }
+
+  private long fieldNameId(int j) {
+    return 1 + numClasses + j;
+  }
+
+  private Type randomFieldType(Random random) {
+    return fieldTypes[random.nextInt(fieldTypes.length)];
+  }
+
+  private int randomLength(Random random) {
+    switch (arrayLengths) {
+      case UNIFORM:
+        return random.nextInt(maxArrayLength + 1);
+      default:
+        int length = (int) Math.exp(random.nextDouble() * Math.log(maxArrayLength + 1)) - 1;
+        return Math.min(Math.max(length, 0), maxArrayLength);
+    }
+  }
+
+  /** Returns a random object id, or null a quarter of the time. */
+  private static long randomRef(Random random, long numObjects) {
+    if (numObjects == 0 || random.nextInt(4) == 0) {
+      return 0;
+    }
+    return objId((long) (random.nextDouble() * numObjects));
+  }
+
+  private void putRandomValue(Random random, ByteBuffer buffer, Type type, long numObjects) {
+    switch (type) {
+      case OBJ:
+        long ref = randomRef(random, numObjects);
+        if (idSize == 4) {
+          buffer.putInt((int) ref);
+        } else {
+          buffer.putLong(ref);
+        }
+        break;
+      case BOOL:
+        buffer.put((byte) (random.nextBoolean() ? 1 : 0));
+        break;
+      case CHAR:
+        buffer.putChar((char) random.nextInt(1 << 16));
+        break;
+      case FLOAT:
+        buffer.putFloat(random.nextFloat());
+        break;
+      case DOUBLE:
+        buffer.putDouble(random.nextDouble());
+        break;
+      case BYTE:
+        buffer.put((byte) random.nextInt());
+        break;
+      case SHORT:
+        buffer.putShort((short) random.nextInt());
+        break;
+      case INT:
+        buffer.putInt(random.nextInt());
+        break;
+      case LONG:
+        buffer.putLong(random.nextLong());
+        break;
+    }
+  }
+
+  private static Value<?> randomValue(Random random, Type type, long numObjects) {
+    switch (type) {
+      case OBJ:
+        return new Value<>(type, randomRef(random, numObjects));
+      case BOOL:
+        return new Value<>(type, random.nextBoolean());
+      case CHAR:
+        return new Value<>(type, (char) random.nextInt(1 << 16));
+      case FLOAT:
+        return new Value<>(type, random.nextFloat());
+      case DOUBLE:
+        return new Value<>(type, random.nextDouble());
+      case BYTE:
+        return new Value<>(type, (byte) random.nextInt());
+      case SHORT:
+        return new Value<>(type, (short) random.nextInt());
+      case INT:
+        return new Value<>(type, random.nextInt());
+      default:
+        return new Value<>(type, random.nextLong());
+    }
+  }
+
+  public static void main(String[] args) {
+    List<String> argList = Lists.newArrayList(args);
+    if (argList.size() < 1) {
+      System.out.println("Usage: java HprofGenerator [--seed=<n>] [--id-size=4|8] "
+          + "[--classes=<n>] [--instances=<n>] [--obj-arrays=<n>] [--prim-arrays=<n>] "
+          + "[--fields=<min>-<max>] [--max-array-length=<n>] [--uniform-array-lengths] "
+          + "[--single-heap-dump] [--segment-size=<bytes>] outputfile");
+      System.exit(1);
+    }
+
+    HprofGenerator generator = new HprofGenerator();
+    int maxArrayLength = generator.maxArrayLength;
+    LengthDistribution arrayLengths = generator.arrayLengths;
+    for (String arg : argList.subList(0, argList.size() - 1)) {
+      String value = arg.substring(arg.indexOf('=') + 1);
+      if (arg.startsWith("--seed=")) {
+        generator.setSeed(Long.parseLong(value));
+      } else if (arg.startsWith("--id-size=")) {
+        generator.setIdSize(Integer.parseInt(value));
+      } else if (arg.startsWith("--classes=")) {
+        generator.setNumClasses(Integer.parseInt(value));
+      } else if (arg.startsWith("--instances=")) {
+        generator.setNumInstances(Long.parseLong(value));
+      } else if (arg.startsWith("--obj-arrays=")) {
+        generator.setNumObjArrays(Long.parseLong(value));
+      } else if (arg.startsWith("--prim-arrays=")) {
+        generator.setNumPrimArrays(Long.parseLong(value));
+      } else if (arg.startsWith("--fields=")) {
+        String[] range = value.split("-");
+        generator.setFieldsPerClass(Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+      } else if (arg.startsWith("--max-array-length=")) {
+        maxArrayLength = Integer.parseInt(value);
+      } else if (arg.equals("--uniform-array-lengths")) {
+        arrayLengths = LengthDistribution.UNIFORM;
+      } else if (arg.equals("--single-heap-dump")) {
+        generator.setSegmented(false);
+      } else if (arg.startsWith("--segment-size=")) {
+        generator.setSegmentSize(Long.parseLong(value));
+      } else {
+        System.err.println("Unknown option " + arg);
+        System.exit(1);
+      }
+    }
+    generator.setArrayLengths(maxArrayLength, arrayLengths);
+
+    try {
+      generator.generate(new File(argList.get(argList.size() - 1)));
+    } catch (IOException e) {
+      System.err.println(e);
+    }
+  }
+
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.writer;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingOutputStream;
+
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.util.ModifiedUtf8;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes an hprof heap dump file in binary format; the mirror image of {@code HprofParser}.
+ *
+ * <p>Records are streamed to the file as they are written.  The heap dump sub-records go into a
+ * heap dump record opened by {@link #startHeapDump}, whose length is filled in once it is
+ * complete, so memory use does not depend on the size of the dump.  A segmented heap dump is
+ * split into a new heap dump segment record whenever the current one reaches the segment size.
+ */
+public class HprofWriter implements Closeable {
+
+  /** Segments are closed once they reach this many bytes, like HotSpot's. */
+  public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+  private static final long MAX_RECORD_LENGTH = 0xffffffffL;
+
+  private final FileOutputStream fileOut;
+  private final FileChannel channel;
+  private final CountingOutputStream counter;
+  private final DataOutputStream out;
+  private final int idSize;
+  private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+  private boolean inHeapDump = false;
+  private boolean segmented;
+  // file offset of the length field of the open heap dump record, and of its body
+  private long lengthOffset;
+  private long bodyOffset;
+
+  /**
+   * Creates the file and writes the header.
+   *
+   * @param idSize the size of identifiers, 4 or 8
+   * @param time the dump time, in milliseconds since the epoch
+   */
+  public HprofWriter(File file, int idSize, long time) throws IOException {
+    Preconditions.checkArgument(idSize == 4 || idSize == 8, "Invalid identifier size %s", idSize);
+    this.idSize = idSize;
+    fileOut = new FileOutputStream(file);
+    channel = fileOut.getChannel();
+    counter = new CountingOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+    out = new DataOutputStream(counter);
+
+    out.write("JAVA PROFILE 1.0.2".getBytes(Charsets.US_ASCII));
+    out.writeByte(0);
+    out.writeInt(idSize);
+    out.writeLong(time);
+  }
+
+  public int idSize() {
+    return idSize;
+  }
+
+  /**
+   * Sets the size at which a segmented heap dump moves on to a new segment.  Takes effect for the
+   * next segment.
+   */
+  public void setSegmentSize(long segmentSize) {
+    Preconditions.checkArgument(segmentSize > 0 && segmentSize <= MAX_RECORD_LENGTH);
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Returns the number of bytes written so far.
+   */
+  public long position() {
+    return counter.getCount();
+  }
+
+  /* Top-level records */
+
+  public void writeStringInUTF8(long id, String data) throws IOException {
+    byte[] bytes = ModifiedUtf8.encode(data);
+    startRecord(RecordTags.STRING_IN_UTF8, idSize + bytes.length);
+    writeId(id);
+    out.write(bytes);
+  }
+
+  public void writeLoadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+      long classNameStringId) throws IOException {
+    startRecord(RecordTags.LOAD_CLASS, 8 + 2 * idSize);
+    out.writeInt(classSerialNum);
+    writeId(classObjId);
+    out.writeInt(stackTraceSerialNum);
+    writeId(classNameStringId);
+  }
+
+  public void writeUnloadClass(int classSerialNum) throws IOException {
+    startRecord(RecordTags.UNLOAD_CLASS, 4);
+    out.writeInt(classSerialNum);
+  }
+
+  public void writeStackFrame(long stackFrameId, long methodNameStringId, long methodSigStringId,
+      long sourceFileNameStringId, int classSerialNum, int location) throws IOException {
+    startRecord(RecordTags.STACK_FRAME, 4 * idSize + 8);
+    writeId(stackFrameId);
+    writeId(methodNameStringId);
+    writeId(methodSigStringId);
+    writeId(sourceFileNameStringId);
+    out.writeInt(classSerialNum);
+    out.writeInt(location);
+  }
+
+  public void writeStackTrace(int stackTraceSerialNum, int threadSerialNum, long[] stackFrameIds)
+      throws IOException {
+    startRecord(RecordTags.STACK_TRACE, 12 + (long) stackFrameIds.length * idSize);
+    out.writeInt(stackTraceSerialNum);
+    out.writeInt(threadSerialNum);
+    out.writeInt(stackFrameIds.length);
+    for (long id : stackFrameIds) {
+      writeId(id);
+    }
+  }
+
+  public void writeStartThread(int threadSerialNum, long threadObjectId, int stackTraceSerialNum,
+      long threadNameStringId, long threadGroupNameId, long threadParentGroupNameId)
+      throws IOException {
+    startRecord(RecordTags.START_THREAD, 8 + 4 * idSize);
+    out.writeInt(threadSerialNum);
+    writeId(threadObjectId);
+    out.writeInt(stackTraceSerialNum);
+    writeId(threadNameStringId);
+    writeId(threadGroupNameId);
+    writeId(threadParentGroupNameId);
+  }
+
+  public void writeEndThread(int threadSerialNum) throws IOException {
+    startRecord(RecordTags.END_THREAD, 4);
+    out.writeInt(threadSerialNum);
+  }
+
+  /* Heap dump */
+
+  /**
+   * Starts a heap dump.  If {@code segmented}, it is written as heap dump segment records
+   * followed by a heap dump end record; otherwise as one heap dump record, which the format
+   * limits to 4 GB.
+   */
+  public void startHeapDump(boolean segmented) throws IOException {
+    Preconditions.checkState(!inHeapDump, "Heap dump already started");
+    this.segmented = segmented;
+    startHeapDumpRecord();
+    inHeapDump = true;
+  }
+
+  /**
+   * Ends the current heap dump.
+   */
+  public void endHeapDump() throws IOException {
+    Preconditions.checkState(inHeapDump, "No heap dump started");
+    endHeapDumpRecord();
+    inHeapDump = false;
+    if (segmented) {
+      startRecord(RecordTags.HEAP_DUMP_END, 0);
+    }
+  }
+
+  public void writeRootUnknown(long objId) throws IOException {
+    startSubRecord(RecordTags.ROOT_UNKNOWN);
+    writeId(objId);
+  }
+
+  public void writeRootJNIGlobal(long objId, long jniGlobalRefId) throws IOException {
+    startSubRecord(RecordTags.ROOT_JNI_GLOBAL);
+    writeId(objId);
+    writeId(jniGlobalRefId);
+  }
+
+  public void writeRootJavaFrame(long objId, int threadSerialNum, int frameNum)
+      throws IOException {
+    startSubRecord(RecordTags.ROOT_JAVA_FRAME);
+    writeId(objId);
+    out.writeInt(threadSerialNum);
+    out.writeInt(frameNum);
+  }
+
+  public void writeRootStickyClass(long objId) throws IOException {
+    startSubRecord(RecordTags.ROOT_STICKY_CLASS);
+    writeId(objId);
+  }
+
+  public void writeRootThreadObj(long objId, int threadSerialNum, int stackTraceSerialNum)
+      throws IOException {
+    startSubRecord(RecordTags.ROOT_THREAD_OBJ);
+    writeId(objId);
+    out.writeInt(threadSerialNum);
+    out.writeInt(stackTraceSerialNum);
+  }
+
+  public void writeClassDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+      long classLoaderObjId, long signersObjId, long protectionDomainObjId, int instanceSize,
+      Constant[] constants, Static[] statics, InstanceField[] instanceFields) throws IOException {
+    startSubRecord(RecordTags.CLASS_DUMP);
+    writeId(classObjId);
+    out.writeInt(stackTraceSerialNum);
+    writeId(superClassObjId);
+    writeId(classLoaderObjId);
+    writeId(signersObjId);
+    writeId(protectionDomainObjId);
+    writeId(0);    // reserved
+    writeId(0);    // reserved
+    out.writeInt(instanceSize);
+
+    out.writeShort(constants.length);
+    for (Constant constant : constants) {
+      out.writeShort(constant.constantPoolIndex);
+      writeValue(constant.value);
+    }
+    out.writeShort(statics.length);
+    for (Static s : statics) {
+      writeId(s.staticFieldNameStringId);
+      writeValue(s.value);
+    }
+    out.writeShort(instanceFields.length);
+    for (InstanceField field : instanceFields) {
+      writeId(field.fieldNameStringId);
+      out.writeByte(field.type.hprofType());
+    }
+  }
+
+  /**
+   * Writes an instance dump whose field values, laid out as in {@code ClassLayout}, are the
+   * remaining bytes of {@code packedValues}.
+   */
+  public void writeInstanceDump(long objId, int stackTraceSerialNum, long classObjId,
+      ByteBuffer packedValues) throws IOException {
+    startSubRecord(RecordTags.INSTANCE_DUMP);
+    writeId(objId);
+    out.writeInt(stackTraceSerialNum);
+    writeId(classObjId);
+    out.writeInt(packedValues.remaining());
+    writeBuffer(packedValues);
+  }
+
+  /**
+   * Writes an object array dump of the first {@code length} elements of {@code elems}.
+   */
+  public void writeObjArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+      long[] elems, int length) throws IOException {
+    startSubRecord(RecordTags.OBJ_ARRAY_DUMP);
+    writeId(objId);
+    out.writeInt(stackTraceSerialNum);
+    out.writeInt(length);
+    writeId(elemClassObjId);
+    for (int i = 0; i < length; i++) {
+      writeId(elems[i]);
+    }
+  }
+
+  /**
+   * Writes a primitive array dump whose big-endian elements are the remaining bytes of
+   * {@code elems}.
+   */
+  public void writePrimArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+      ByteBuffer elems) throws IOException {
+    Preconditions.checkArgument(elemType != Type.OBJ);
+    Preconditions.checkArgument(elems.remaining() % elemType.sizeInBytes() == 0);
+    startSubRecord(RecordTags.PRIM_ARRAY_DUMP);
+    writeId(objId);
+    out.writeInt(stackTraceSerialNum);
+    out.writeInt(elems.remaining() / elemType.sizeInBytes());
+    out.writeByte(elemType.hprofType());
+    writeBuffer(elems);
+  }
+
+  /**
+   * Ends any open heap dump and closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (inHeapDump) {
+        endHeapDump();
+      }
+      out.flush();
+    } finally {
+      fileOut.close();
+    }
+  }
+
+  /* Utility */
+
+  private void startRecord(byte tag, long length) throws IOException {
+    Preconditions.checkState(!inHeapDump, "Top-level record inside a heap dump");
+    Preconditions.checkArgument(length <= MAX_RECORD_LENGTH, "Record too long: %s", length);
+    out.writeByte(tag);
+    out.writeInt(0);    // time
+    out.writeInt((int) length);
+  }
+
+  private void startHeapDumpRecord() throws IOException {
+    out.writeByte(segmented ? RecordTags.HEAP_DUMP_SEGMENT : RecordTags.HEAP_DUMP);
+    out.writeInt(0);    // time
+    lengthOffset = position();
+    out.writeInt(0);    // length, filled in by endHeapDumpRecord
+    bodyOffset = position();
+  }
+
+  private void endHeapDumpRecord() throws IOException {
+    long length = position() - bodyOffset;
+    if (length > MAX_RECORD_LENGTH) {
+      throw new IllegalStateException("Heap dump record of " + length + " bytes is too long; "
+          + "use a segmented heap dump");
+    }
+    out.flush();
+    ByteBuffer lengthBytes = ByteBuffer.allocate(4);
+    lengthBytes.putInt(0, (int) length);
+    channel.write(lengthBytes, lengthOffset);
+  }
+
+  private void startSubRecord(byte tag) throws IOException {
+    Preconditions.checkState(inHeapDump, "No heap dump started");
+    if (segmented && position() - bodyOffset >= segmentSize) {
+      endHeapDumpRecord();
+      startHeapDumpRecord();
+    }
+    out.writeByte(tag);
+  }
+
+  private void writeId(long id) throws IOException {
+    if (idSize == 4) {
+      out.writeInt((int) id);
+    } else {
+      out.writeLong(id);
+    }
+  }
+
+  private void writeValue(Value<?> value) throws IOException {
+    out.writeByte(value.type.hprofType());
+    switch (value.type) {
+      case OBJ:
+        writeId((Long) value.value);
+        break;
+      case BOOL:
+        out.writeBoolean((Boolean) value.value);
+        break;
+      case CHAR:
+        out.writeChar((Character) value.value);
+        break;
+      case FLOAT:
+        out.writeFloat((Float) value.value);
+        break;
+      case DOUBLE:
+        out.writeDouble((Double) value.value);
+        break;
+      case BYTE:
+        out.writeByte((Byte) value.value);
+        break;
+      case SHORT:
+        out.writeShort((Short) value.value);
+        break;
+      case INT:
+        out.writeInt((Integer) value.value);
+        break;
+      case LONG:
+        out.writeLong((Long) value.value);
+        break;
+    }
+  }
+
+  private void writeBuffer(ByteBuffer buffer) throws IOException {
+    if (buffer.hasArray()) {
+      out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      ByteBuffer b = buffer.duplicate();
+      while (b.hasRemaining()) {
+        out.writeByte(b.get());
+      }
+    }
+  }
+
+}
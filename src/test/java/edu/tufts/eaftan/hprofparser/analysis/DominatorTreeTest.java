@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DominatorTreeTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("dominators", ".hprof");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static final long A = 0x100;
+  private static final long B = 0x108;
+  private static final long C = 0x110;
+  private static final long D = 0x118;
+  private static final long E = 0x120;
+  private static final long F = 0x128;
+
+  @Test
+  public void testDiamond() throws IOException {
+    // A -> B, C; B -> D; C -> D; D -> E; F -> E, with F unreachable
+    try (HprofWriter writer = new HprofWriter(file, 8, 0)) {
+      writer.startHeapDump(false);
+      writer.writeRootUnknown(A);
+      writer.writeObjArrayDump(F, 0, 0, new long[] {E}, 1);
+      writer.writeObjArrayDump(D, 0, 0, new long[] {E}, 1);
+      writer.writeObjArrayDump(A, 0, 0, new long[] {B, C}, 2);
+      writer.writeObjArrayDump(B, 0, 0, new long[] {D, 0}, 2);
+      writer.writeObjArrayDump(C, 0, 0, new long[] {D}, 1);
+      writer.writePrimArrayDump(E, 0, Type.BYTE, ByteBuffer.allocate(100));
+    }
+
+    DominatorTree tree = DominatorTree.compute(file);
+    assertEquals(6, tree.numObjects());
+    int a = tree.ordinalOf(A);
+    int d = tree.ordinalOf(D);
+    assertEquals(-1, tree.ordinalOf(0x1234));
+    assertEquals(DominatorTree.ROOT, tree.immediateDominator(a));
+    assertEquals(a, tree.immediateDominator(tree.ordinalOf(B)));
+    assertEquals(a, tree.immediateDominator(tree.ordinalOf(C)));
+    assertEquals(a, tree.immediateDominator(d));
+    assertEquals(d, tree.immediateDominator(tree.ordinalOf(E)));
+    assertEquals(DominatorTree.UNREACHABLE, tree.immediateDominator(tree.ordinalOf(F)));
+    assertFalse(tree.isReachable(tree.ordinalOf(F)));
+
+    assertEquals(100, tree.retainedSize(tree.ordinalOf(E)));
+    assertEquals(108, tree.retainedSize(d));
+    assertEquals(16, tree.retainedSize(tree.ordinalOf(B)));
+    assertEquals(16 + 16 + 8 + 108, tree.retainedSize(a));
+    assertEquals(0, tree.retainedSize(tree.ordinalOf(F)));
+    assertArrayEquals(new int[] {a}, tree.largestTopLevel(5));
+  }
+
+  /**
+   * Builds a graph of object arrays from adjacency lists.  Object {@code v} has id
+   * {@code 8 * (v + 1)}, so its ordinal is {@code v}.
+   */
+  private static ReferenceGraph graph(List<List<Integer>> adjacency, List<Integer> roots)
+      throws IOException {
+    ReferenceGraphHandler handler = new ReferenceGraphHandler();
+    handler.header("JAVA PROFILE 1.0.2", 8, 0);
+    for (int v = 0; v < adjacency.size(); v++) {
+      long[] elems = new long[adjacency.get(v).size()];
+      for (int i = 0; i < elems.length; i++) {
+        elems[i] = 8 * (adjacency.get(v).get(i) + 1);
+      }
+      handler.objArrayDump(8 * (v + 1), 0, 0, elems);
+    }
+    for (int root : roots) {
+      handler.rootUnknown(8 * (root + 1));
+    }
+    return handler.build();
+  }
+
+  /**
+   * Returns whether {@code v} can be reached from the roots without going through
+   * {@code removed}.
+   */
+  private static boolean reachableWithout(List<List<Integer>> adjacency, List<Integer> roots,
+      int removed, int v) {
+    boolean[] seen = new boolean[adjacency.size()];
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int root : roots) {
+      if (root != removed && !seen[root]) {
+        seen[root] = true;
+        queue.add(root);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int u = queue.remove();
+      for (int w : adjacency.get(u)) {
+        if (w != removed && !seen[w]) {
+          seen[w] = true;
+          queue.add(w);
+        }
+      }
+    }
+    return seen[v];
+  }
+
+  @Test
+  public void testRandomGraphsAgainstDefinition() throws IOException {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 50; iteration++) {
+      int n = 1 + random.nextInt(40);
+      List<List<Integer>> adjacency = new ArrayList<>();
+      for (int v = 0; v < n; v++) {
+        List<Integer> targets = new ArrayList<>();
+        for (int k = random.nextInt(4); k > 0; k--) {
+          targets.add(random.nextInt(n));
+        }
+        adjacency.add(targets);
+      }
+      List<Integer> roots = new ArrayList<>();
+      for (int k = 1 + random.nextInt(3); k > 0; k--) {
+        roots.add(random.nextInt(n));
+      }
+      DominatorTree tree = DominatorTree.compute(graph(adjacency, roots));
+
+      // dominates[d][v]: every path from the roots to v goes through d
+      boolean[] reachable = new boolean[n];
+      boolean[][] dominates = new boolean[n][n];
+      for (int v = 0; v < n; v++) {
+        reachable[v] = reachableWithout(adjacency, roots, -1, v);
+        for (int d = 0; d < n; d++) {
+          dominates[d][v] = reachable[v] && (d == v || !reachableWithout(adjacency, roots, d, v));
+        }
+      }
+      for (int v = 0; v < n; v++) {
+        if (!reachable[v]) {
+          assertEquals(DominatorTree.UNREACHABLE, tree.immediateDominator(v));
+          continue;
+        }
+        // the immediate dominator is the strict dominator that all the others dominate
+        int idom = DominatorTree.ROOT;
+        for (int d = 0; d < n; d++) {
+          if (d != v && dominates[d][v] && (idom == DominatorTree.ROOT || dominates[idom][d])) {
+            idom = d;
+          }
+        }
+        assertEquals(idom, tree.immediateDominator(v));
+        long retained = 0;
+        for (int w = 0; w < n; w++) {
+          retained += dominates[v][w] ? 8 * adjacency.get(w).size() : 0;
+        }
+        assertEquals(retained, tree.retainedSize(v));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class DuplicateArrayHandlerTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("arrays", ".hprof");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static ByteBuffer ints(int... values) {
+    ByteBuffer buffer = ByteBuffer.allocate(4 * values.length);
+    for (int value : values) {
+      buffer.putInt(value);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Test
+  public void testDuplicatesAndZeros() throws IOException {
+    try (HprofWriter writer = new HprofWriter(file, 8, 0)) {
+      writer.startHeapDump(false);
+      long id = 0x1000;
+      // four copies of one int[], and a float[] with the same bits
+      for (int i = 0; i < 4; i++) {
+        writer.writePrimArrayDump(id += 8, 0, Type.INT, ints(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+      }
+      writer.writePrimArrayDump(id += 8, 0, Type.FLOAT, ints(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+      // all-zero byte[]s of two lengths, and a unique byte[]
+      writer.writePrimArrayDump(id += 8, 0, Type.BYTE, ByteBuffer.allocate(100));
+      writer.writePrimArrayDump(id += 8, 0, Type.BYTE, ByteBuffer.allocate(100));
+      writer.writePrimArrayDump(id += 8, 0, Type.BYTE, ByteBuffer.allocate(101));
+      writer.writePrimArrayDump(id += 8, 0, Type.BYTE, ByteBuffer.wrap(new byte[] {0, 0, 1}));
+      // empty arrays are all the same
+      writer.writePrimArrayDump(id += 8, 0, Type.LONG, ByteBuffer.allocate(0));
+      writer.writePrimArrayDump(id += 8, 0, Type.LONG, ByteBuffer.allocate(0));
+      writer.writePrimArrayDump(id += 8, 0, Type.LONG, ByteBuffer.allocate(0));
+    }
+
+    // a tiny buffer, so that the sort spills
+    DuplicateArrayHandler handler = new DuplicateArrayHandler(null, 4);
+    new HprofParser(handler).parse(file);
+    List<DuplicateArrayHandler.DuplicateSet> duplicates = handler.duplicates(10);
+    assertEquals(3, duplicates.size());
+
+    DuplicateArrayHandler.DuplicateSet set = duplicates.get(0);
+    assertEquals(Type.INT, set.elemType());
+    assertEquals(10, set.length());
+    assertEquals(4, set.numArrays());
+    assertEquals(56, set.arraySize());
+    assertEquals(3 * 56, set.wastedBytes());
+    assertTrue(set.sampleArrayId() >= 0x1008 && set.sampleArrayId() <= 0x1020);
+
+    set = duplicates.get(1);
+    assertEquals(Type.BYTE, set.elemType());
+    assertEquals(100, set.length());
+    assertEquals(2, set.numArrays());
+    assertEquals(120, set.wastedBytes());
+
+    set = duplicates.get(2);
+    assertEquals(Type.LONG, set.elemType());
+    assertEquals(0, set.length());
+    assertEquals(2 * 16, set.wastedBytes());
+
+    assertEquals(4, handler.numArrays(Type.INT));
+    assertEquals(3, handler.duplicateArrays(Type.INT));
+    assertEquals(168, handler.wastedBytes(Type.INT));
+    assertEquals(0, handler.duplicateArrays(Type.FLOAT));
+    assertEquals(4, handler.numArrays(Type.BYTE));
+    assertEquals(1, handler.duplicateArrays(Type.BYTE));
+    assertEquals(3, handler.zeroArrays(Type.BYTE));
+    assertEquals(120 + 120 + 120, handler.zeroBytes(Type.BYTE));
+    assertEquals(0, handler.zeroArrays(Type.LONG));
+  }
+
+  @Test
+  public void testTopN() throws IOException {
+    try (HprofWriter writer = new HprofWriter(file, 4, 0)) {
+      writer.startHeapDump(true);
+      long id = 0x1000;
+      for (int length = 1; length <= 10; length++) {
+        for (int copy = 0; copy < 2; copy++) {
+          writer.writePrimArrayDump(id += 8, 0, Type.LONG, ByteBuffer.allocate(8 * length));
+        }
+      }
+    }
+    DuplicateArrayHandler handler = new DuplicateArrayHandler(null, 3);
+    new HprofParser(handler).parse(file);
+    List<DuplicateArrayHandler.DuplicateSet> duplicates = handler.duplicates(2);
+    assertEquals(2, duplicates.size());
+    assertEquals(10, duplicates.get(0).length());
+    assertEquals(9, duplicates.get(1).length());
+    assertEquals(10, handler.duplicateArrays(Type.LONG));
+  }
+
+  @Test
+  public void testIsZero() {
+    for (int length = 0; length < 20; length++) {
+      // nonzero bytes on either side of the buffer's remaining bytes
+      byte[] bytes = new byte[length + 2];
+      bytes[0] = 1;
+      bytes[length + 1] = 1;
+      assertTrue(DuplicateArrayHandler.isZero(ByteBuffer.wrap(bytes, 1, length)));
+      if (length > 0) {
+        bytes[length] = 1;
+        assertFalse(DuplicateArrayHandler.isZero(ByteBuffer.wrap(bytes, 1, length)));
+      }
+    }
+  }
+
+}
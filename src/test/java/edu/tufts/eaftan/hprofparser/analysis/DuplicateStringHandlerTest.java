@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.tufts.eaftan.hprofparser.parser.HeapDump;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.ObjectIndex;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class DuplicateStringHandlerTest {
+
+  private static final long STRING_CLASS = 0x100;
+
+  private File file;
+  private HprofWriter writer;
+  private long nextId = 0x1000;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("strings", ".hprof");
+    writer = new HprofWriter(file, 8, 0);
+    writer.writeStringInUTF8(1, "java/lang/String");
+    writer.writeStringInUTF8(2, "value");
+    writer.writeStringInUTF8(3, "hash");
+    writer.writeLoadClass(1, STRING_CLASS, 0, 1);
+    writer.startHeapDump(false);
+    writer.writeClassDump(STRING_CLASS, 0, 0, 0, 0, 0, 12, new Constant[0], new Static[0],
+        new InstanceField[] {new InstanceField(2, Type.OBJ), new InstanceField(3, Type.INT)});
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    writer.close();
+    ObjectIndex.indexFileFor(file).delete();
+    file.delete();
+  }
+
+  private long writeArray(String text) throws IOException {
+    long id = nextId;
+    nextId += 8;
+    writer.writePrimArrayDump(id, 0, Type.BYTE,
+        ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)));
+    return id;
+  }
+
+  private long writeString(long arrayId) throws IOException {
+    long id = nextId;
+    nextId += 8;
+    ByteBuffer values = ByteBuffer.allocate(12);
+    values.putLong(arrayId).putInt(0).flip();
+    writer.writeInstanceDump(id, 0, STRING_CLASS, values);
+    return id;
+  }
+
+  private DuplicateStringHandler parse() throws IOException {
+    writer.close();
+    // a tiny buffer, so that both sorts spill
+    DuplicateStringHandler handler = new DuplicateStringHandler(null, 4);
+    new HprofParser(handler).parse(file);
+    return handler;
+  }
+
+  @Test
+  public void testDuplicates() throws IOException {
+    // three copies of "hello", with the strings before and after their arrays
+    long hello = writeString(writeArray("hello"));
+    writeString(writeArray("hello"));
+    long laterArray = nextId + 8;
+    writeString(laterArray);
+    assertEquals(laterArray, writeArray("hello"));
+    // two strings sharing one array, and a third copy
+    long shared = writeArray("a longer duplicate");
+    writeString(shared);
+    writeString(shared);
+    writeString(writeArray("a longer duplicate"));
+    // unique strings, a char[] with the same bytes as a byte[], and an array no string uses
+    writeString(writeArray("unique"));
+    writer.writePrimArrayDump(nextId, 0, Type.CHAR,
+        ByteBuffer.wrap("un".getBytes(StandardCharsets.ISO_8859_1)));
+    writeString(nextId);
+    nextId += 8;
+    writeArray("hello");
+    // a string with no value
+    writeString(0);
+
+    DuplicateStringHandler handler = parse();
+    List<DuplicateStringHandler.Duplicate> duplicates = handler.duplicates(10);
+    assertEquals(8, handler.numStrings());
+    assertEquals(2, duplicates.size());
+
+    // strings are 24 bytes; an 18-byte array is 40 bytes and a 5-byte one 24
+    DuplicateStringHandler.Duplicate longer = duplicates.get(1);
+    assertEquals(3, longer.numStrings());
+    assertEquals(2, longer.numArrays());
+    assertEquals(40, longer.arraySize());
+    assertEquals(2 * 24 + 40, longer.wastedBytes());
+
+    DuplicateStringHandler.Duplicate hellos = duplicates.get(0);
+    assertEquals(3, hellos.numStrings());
+    assertEquals(3, hellos.numArrays());
+    assertEquals(2 * 24 + 2 * 24, hellos.wastedBytes());
+    assertEquals(88 + 96, handler.totalWastedBytes());
+
+    try (HeapDump dump = HeapDump.open(file)) {
+      assertEquals("a longer duplicate",
+          DuplicateStringHandler.text(dump, longer.sampleStringId(), 60));
+      assertEquals("a longer...", DuplicateStringHandler.text(dump, longer.sampleStringId(), 8));
+      assertEquals("hello", DuplicateStringHandler.text(dump, hello, 60));
+    }
+  }
+
+  @Test
+  public void testTopN() throws IOException {
+    for (int i = 1; i <= 10; i++) {
+      String text = new String(new char[i * 8]).replace('\0', 'x');
+      for (int copy = 0; copy < 3; copy++) {
+        writeString(writeArray(text));
+      }
+    }
+    DuplicateStringHandler handler = parse();
+    List<DuplicateStringHandler.Duplicate> duplicates = handler.duplicates(3);
+    assertEquals(3, duplicates.size());
+    assertEquals(2 * 24 + 2 * 96, duplicates.get(0).wastedBytes());
+    assertEquals(2 * 24 + 2 * 88, duplicates.get(1).wastedBytes());
+    assertEquals(2 * 24 + 2 * 80, duplicates.get(2).wastedBytes());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testOnlyOnce() throws IOException {
+    DuplicateStringHandler handler = parse();
+    handler.duplicates(1);
+    handler.duplicates(1);
+  }
+
+}
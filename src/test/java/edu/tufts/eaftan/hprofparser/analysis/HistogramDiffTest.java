@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler.ArrayInfo;
+import edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler.ClassInfo;
+import edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler.TypeInfo;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HistogramDiffTest {
+
+  private static TypeInfo classInfo(String name, long count, long size) {
+    ClassInfo classInfo = new ClassInfo();
+    classInfo.className = name;
+    classInfo.instanceCount = count;
+    classInfo.instanceSize = size;
+    return classInfo;
+  }
+
+  private static TypeInfo arrayInfo(String name, long count, long totalSize) {
+    ArrayInfo arrayInfo = new ArrayInfo();
+    arrayInfo.className = name;
+    arrayInfo.instanceCount = count;
+    arrayInfo.totalSize = totalSize;
+    return arrayInfo;
+  }
+
+  @Test
+  public void testJoinsByName() {
+    List<TypeInfo> first = Arrays.asList(
+        classInfo("Foo", 10, 16),
+        classInfo("Bar", 5, 24),
+        arrayInfo("int[]", 3, 300));
+    List<TypeInfo> second = Arrays.asList(
+        arrayInfo("int[]", 4, 1000),
+        classInfo("Foo", 2, 16),
+        // loaded twice
+        classInfo("Bar", 5, 24),
+        classInfo("Bar", 1, 24),
+        classInfo("Baz", 1, 32));
+    List<TypeInfo> third = Arrays.asList(
+        arrayInfo("int[]", 4, 900),
+        classInfo("Foo", 1, 16),
+        classInfo("Bar", 10, 24));
+    HistogramDiff diff = HistogramDiff.of(Arrays.asList(first, second, third));
+    assertEquals(3, diff.numDumps());
+
+    List<HistogramDiff.Row> rows = diff.rows();
+    assertEquals(4, rows.size());
+    assertEquals("int[]", rows.get(0).name());
+    assertEquals(600, rows.get(0).sizeDelta());
+    assertEquals(1, rows.get(0).countDelta());
+    assertEquals(1000, rows.get(0).size(1));
+    assertEquals("Bar", rows.get(1).name());
+    assertEquals(6, rows.get(1).count(1));
+    assertEquals(5, rows.get(1).countDelta());
+    assertEquals(120, rows.get(1).sizeDelta());
+    // present only in the middle dump
+    assertEquals("Baz", rows.get(2).name());
+    assertEquals(0, rows.get(2).sizeDelta());
+    assertEquals(1, rows.get(2).count(1));
+    assertEquals("Foo", rows.get(3).name());
+    assertEquals(-9, rows.get(3).countDelta());
+    assertEquals(-144, rows.get(3).sizeDelta());
+  }
+
+  private static File generate(long numInstances, int idSize) throws IOException {
+    File file = File.createTempFile("diff", ".hprof");
+    HprofGenerator generator = new HprofGenerator();
+    generator.setSeed(7);
+    generator.setIdSize(idSize);
+    generator.setNumClasses(10);
+    generator.setNumInstances(numInstances);
+    generator.setNumObjArrays(0);
+    generator.setNumPrimArrays(0);
+    generator.generate(file);
+    return file;
+  }
+
+  @Test
+  public void testCompute() throws IOException {
+    // the object and string ids differ between the dumps
+    List<File> files = new ArrayList<>();
+    try {
+      files.add(generate(1000, 8));
+      files.add(generate(3000, 4));
+      files.add(generate(5000, 8));
+      HistogramDiff diff = HistogramDiff.compute(files);
+      long instances = 0;
+      for (HistogramDiff.Row row : diff.rows()) {
+        assertEquals(row.count(0) + row.countDelta(), row.count(2));
+        instances += row.countDelta();
+      }
+      assertEquals(4000, instances);
+    } finally {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+
+}
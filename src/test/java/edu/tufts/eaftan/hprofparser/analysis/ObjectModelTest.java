@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import org.junit.Test;
+
+public class ObjectModelTest {
+
+  @Test
+  public void testCompressedOops() {
+    ObjectModel model = ObjectModel.COMPRESSED_OOPS;
+    // java.lang.Object, java.lang.Integer, and an object with a long and two references
+    assertEquals(16, model.instanceSize(0, 0));
+    assertEquals(16, model.instanceSize(4, 0));
+    assertEquals(32, model.instanceSize(8, 2));
+    assertEquals(16, model.objectArraySize(0));
+    assertEquals(24, model.objectArraySize(1));
+    assertEquals(24, model.primitiveArraySize(Type.BYTE, 5));
+    assertEquals(16 + 800, model.primitiveArraySize(Type.LONG, 100));
+  }
+
+  @Test
+  public void testUncompressedOops() {
+    ObjectModel model = ObjectModel.UNCOMPRESSED_OOPS;
+    assertEquals(16, model.instanceSize(0, 0));
+    assertEquals(24, model.instanceSize(4, 0));
+    assertEquals(40, model.instanceSize(8, 2));
+    assertEquals(32, model.objectArraySize(1));
+    assertEquals(24, model.primitiveArraySize(Type.INT, 0));
+  }
+
+  @Test
+  public void testForIdSize() {
+    assertSame(ObjectModel.THIRTY_TWO_BIT, ObjectModel.forIdSize(4));
+    assertSame(ObjectModel.COMPRESSED_OOPS, ObjectModel.forIdSize(8));
+    assertEquals(16, ObjectModel.THIRTY_TWO_BIT.instanceSize(4, 1));
+  }
+
+  @Test
+  public void testAlignment() {
+    ObjectModel model = new ObjectModel(12, 16, 4, 16);
+    assertEquals(16, model.instanceSize(4, 0));
+    assertEquals(32, model.instanceSize(5, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAlignmentMustBePowerOfTwo() {
+    new ObjectModel(12, 16, 4, 12);
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.tufts.eaftan.hprofparser.parser.HeapDump;
+import edu.tufts.eaftan.hprofparser.parser.ObjectIndex;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.writer.HprofWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class PathsToRootsTest {
+
+  private static final long NODE_CLASS = 0x100;
+  private static final long TARGET = 0x218;
+
+  private File file;
+  private ReferenceGraph graph;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("paths", ".hprof");
+    // a chain of nodes from a stack frame to the target, and a shorter way to it through a
+    // static field of the node class
+    try (HprofWriter writer = new HprofWriter(file, 8, 0)) {
+      writer.writeStringInUTF8(1, "Node");
+      writer.writeStringInUTF8(2, "next");
+      writer.writeStringInUTF8(3, "other");
+      writer.writeStringInUTF8(4, "CACHE");
+      writer.writeLoadClass(1, NODE_CLASS, 0, 1);
+      writer.startHeapDump(false);
+      writer.writeRootJavaFrame(0x200, 1, 0);
+      writer.writeRootStickyClass(NODE_CLASS);
+      writer.writeClassDump(NODE_CLASS, 0, 0, 0, 0, 0, 16, new Constant[0],
+          new Static[] {new Static(4, new Value<>(Type.OBJ, 0x220L))},
+          new InstanceField[] {new InstanceField(2, Type.OBJ), new InstanceField(3, Type.OBJ)});
+      writeNode(writer, 0x200, 0x208, 0);
+      writeNode(writer, 0x208, 0x210, 0);
+      writeNode(writer, 0x210, 0, TARGET);
+      writeNode(writer, TARGET, 0, 0);
+      writeNode(writer, 0x220, 0, TARGET);
+      writeNode(writer, 0x228, TARGET, 0);
+    }
+    graph = ReferenceGraphHandler.build(file);
+  }
+
+  private static void writeNode(HprofWriter writer, long objId, long next, long other)
+      throws IOException {
+    ByteBuffer values = ByteBuffer.allocate(16);
+    values.putLong(next).putLong(other).flip();
+    writer.writeInstanceDump(objId, 0, NODE_CLASS, values);
+  }
+
+  @After
+  public void tearDown() {
+    ObjectIndex.indexFileFor(file).delete();
+    file.delete();
+  }
+
+  private int[] ordinals(long... objIds) {
+    int[] ordinals = new int[objIds.length];
+    for (int i = 0; i < objIds.length; i++) {
+      ordinals[i] = graph.ordinalOf(objIds[i]);
+    }
+    return ordinals;
+  }
+
+  @Test
+  public void testShortestPathsFirst() {
+    List<int[]> paths = new PathsToRoots(graph).find(ordinals(TARGET), 10);
+    assertEquals(2, paths.size());
+    assertArrayEquals(ordinals(NODE_CLASS, 0x220, TARGET), paths.get(0));
+    assertArrayEquals(ordinals(0x200, 0x208, 0x210, TARGET), paths.get(1));
+
+    assertEquals(1, new PathsToRoots(graph).find(ordinals(TARGET), 1).size());
+  }
+
+  @Test
+  public void testSeveralTargets() {
+    List<int[]> paths = new PathsToRoots(graph).find(ordinals(TARGET, 0x208), 10);
+    assertEquals(2, paths.size());
+    assertArrayEquals(ordinals(0x200, 0x208), paths.get(0));
+    assertArrayEquals(ordinals(NODE_CLASS, 0x220, TARGET), paths.get(1));
+  }
+
+  @Test
+  public void testRootsAndUnreachableObjects() {
+    assertArrayEquals(ordinals(0x200), new PathsToRoots(graph).find(ordinals(0x200), 10).get(0));
+    assertTrue(new PathsToRoots(graph).find(ordinals(0x228), 10).isEmpty());
+    assertEquals(RecordTags.ROOT_JAVA_FRAME, graph.rootKind(graph.ordinalOf(0x200)));
+    assertEquals(RecordTags.ROOT_STICKY_CLASS, graph.rootKind(graph.ordinalOf(NODE_CLASS)));
+    assertEquals(0, graph.rootKind(graph.ordinalOf(TARGET)));
+  }
+
+  @Test
+  public void testFormat() throws IOException {
+    PathsToRoots paths = new PathsToRoots(graph);
+    try (HeapDump dump = HeapDump.open(file)) {
+      assertEquals("0x100 class Node (sticky class)\n"
+          + "  CACHE -> 0x220 Node\n"
+          + "    other -> 0x218 Node\n",
+          paths.format(paths.find(ordinals(TARGET), 1).get(0), dump));
+      assertEquals("0x200 Node (Java frame)\n"
+          + "  next -> 0x208 Node\n",
+          paths.format(paths.find(ordinals(0x208), 1).get(0), dump));
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ReferenceGraphTest {
+
+  private static final int NUM_OBJECTS = 20000;
+
+  private File tempDir;
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() {
+    tempDir = Files.createTempDir();
+    pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+    tempDir.delete();
+  }
+
+  /**
+   * Feeds a random heap of object arrays, in shuffled order, to {@code handler}, returning the
+   * references of each object, with object {@code v} having id {@code 16 * (v + 1)}.
+   */
+  private static List<List<Integer>> feedRandomHeap(ReferenceGraphHandler handler) {
+    Random random = new Random(7);
+    List<List<Integer>> adjacency = new ArrayList<>();
+    List<Integer> order = new ArrayList<>();
+    for (int v = 0; v < NUM_OBJECTS; v++) {
+      List<Integer> targets = new ArrayList<>();
+      for (int k = random.nextInt(6); k > 0; k--) {
+        targets.add(random.nextInt(NUM_OBJECTS));
+      }
+      adjacency.add(targets);
+      order.add(v);
+    }
+    Collections.shuffle(order, random);
+
+    handler.header("JAVA PROFILE 1.0.2", 8, 0);
+    for (int v : order) {
+      List<Integer> targets = adjacency.get(v);
+      // a null and a dangling reference, both of which are dropped
+      long[] elems = new long[targets.size() + 2];
+      for (int i = 0; i < targets.size(); i++) {
+        elems[i] = 16 * (targets.get(i) + 1);
+      }
+      elems[targets.size() + 1] = 16 * (NUM_OBJECTS + 1) + 8;
+      handler.objArrayDump(16 * (v + 1), 0, 0, elems);
+    }
+    handler.rootUnknown(16);
+    handler.rootJavaFrame(16, 1, 1);
+    handler.rootStickyClass(16 * 100);
+    return adjacency;
+  }
+
+  private static void checkGraph(ReferenceGraph graph, List<List<Integer>> adjacency) {
+    assertEquals(NUM_OBJECTS, graph.numObjects());
+    assertEquals(NUM_OBJECTS, graph.superRoot());
+    long numEdges = 2;
+    List<List<Integer>> inbound = new ArrayList<>();
+    for (int v = 0; v <= NUM_OBJECTS; v++) {
+      inbound.add(new ArrayList<Integer>());
+    }
+    for (int v = 0; v < NUM_OBJECTS; v++) {
+      assertEquals(16 * (v + 1), graph.objId(v));
+      assertEquals(v, graph.ordinalOf(16 * (v + 1)));
+      assertEquals(8 * (adjacency.get(v).size() + 2), graph.shallowSize(v));
+      List<Integer> outbound = new ArrayList<>();
+      for (long e = graph.outboundStart(v); e < graph.outboundEnd(v); e++) {
+        outbound.add(graph.outboundEdge(e));
+      }
+      assertEquals(adjacency.get(v), outbound);
+      for (int w : outbound) {
+        inbound.get(w).add(v);
+      }
+      numEdges += outbound.size();
+    }
+    inbound.get(0).add(NUM_OBJECTS);
+    inbound.get(99).add(NUM_OBJECTS);
+    assertEquals(numEdges, graph.numEdges());
+
+    for (int v = 0; v <= NUM_OBJECTS; v++) {
+      List<Integer> actual = new ArrayList<>();
+      for (long e = graph.inboundStart(v); e < graph.inboundEnd(v); e++) {
+        actual.add(graph.inboundEdge(e));
+      }
+      assertEquals(inbound.get(v), actual);
+    }
+    assertTrue(graph.isRoot(0));
+    assertTrue(graph.isRoot(99));
+    assertFalse(graph.isRoot(1));
+    assertEquals(-1, graph.ordinalOf(8));
+  }
+
+  @Test
+  public void testOnHeap() throws IOException {
+    ReferenceGraphHandler handler = new ReferenceGraphHandler();
+    List<List<Integer>> adjacency = feedRandomHeap(handler);
+    checkGraph(handler.build(pool), adjacency);
+  }
+
+  @Test
+  public void testMapped() throws IOException {
+    ReferenceGraphHandler handler = new ReferenceGraphHandler(tempDir);
+    List<List<Integer>> adjacency = feedRandomHeap(handler);
+    try (ReferenceGraph graph = handler.build(pool)) {
+      checkGraph(graph, adjacency);
+    }
+    // the temporary files are deleted as soon as they are mapped
+    assertEquals(0, tempDir.list().length);
+  }
+
+  @Test
+  public void testMissingClassIsDropped() throws IOException {
+    ReferenceGraphHandler handler = new ReferenceGraphHandler();
+    handler.header("JAVA PROFILE 1.0.2", 4, 0);
+    handler.primArrayDump(0x30, 0, Type.INT, ByteBuffer.allocate(12));
+    handler.objArrayDump(0x20, 0, 0x10, new long[] {0x30});
+    ReferenceGraph graph = handler.build(pool);
+    // the array class is not in the dump, so only the element reference is kept
+    assertEquals(2, graph.numObjects());
+    assertEquals(1, graph.outboundEnd(0) - graph.outboundStart(0));
+    assertEquals(1, graph.outboundEdge(graph.outboundStart(0)));
+    assertEquals(12, graph.shallowSize(1));
+    assertEquals(4, graph.shallowSize(0));
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.analysis;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.Ordering;
+
+import edu.tufts.eaftan.hprofparser.util.ExternalLongPairSorter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TopGroupsTest {
+
+  /**
+   * Sums the values of each key, keeping only the sums of groups of more than one pair.
+   */
+  private static class Sums extends TopGroups<Long> {
+    private long sum;
+    private int size;
+
+    Sums(int n) {
+      super(n, Ordering.<Long>natural());
+    }
+
+    @Override
+    void startGroup(long key) {
+      sum = 0;
+      size = 0;
+    }
+
+    @Override
+    void addToGroup(long value) {
+      sum += value;
+      size++;
+    }
+
+    @Override
+    Long endGroup() {
+      return size > 1 ? sum : null;
+    }
+  }
+
+  private static ExternalLongPairSorter pairs(long... keysAndValues) throws IOException {
+    ExternalLongPairSorter sorter = new ExternalLongPairSorter(null, 4);
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      sorter.add(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return sorter;
+  }
+
+  @Test
+  public void keepsTheGreatestGroups() throws IOException {
+    // sums 3 (key 1), 30 (key 2), a single pair (key 3), 300 (key 4) and 4 (key 5)
+    ExternalLongPairSorter sorter =
+        pairs(4, 100, 1, 1, 2, 10, 3, 1000, 5, 2, 4, 200, 1, 2, 2, 20, 5, 2);
+    assertEquals(Arrays.asList(300L, 30L), new Sums(2).top(sorter));
+  }
+
+  @Test
+  public void keepsEveryGroupIfThereAreFewer() throws IOException {
+    assertEquals(Arrays.asList(7L, 3L), new Sums(10).top(pairs(1, 1, 1, 2, 2, 3, 2, 4)));
+    assertEquals(Arrays.<Long>asList(), new Sums(0).top(pairs(1, 1, 1, 2)));
+    assertEquals(Arrays.<Long>asList(), new Sums(3).top(pairs()));
+  }
+
+}
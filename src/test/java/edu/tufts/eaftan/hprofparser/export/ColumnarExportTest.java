@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.Files;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.StringTable;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ColumnarExportTest {
+
+  private File file;
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("columnar", ".hprof");
+    dir = Files.createTempDir();
+    HprofGenerator generator = new HprofGenerator();
+    generator.setIdSize(4);
+    generator.setNumClasses(20);
+    generator.setNumInstances(3000);
+    generator.setNumObjArrays(0);
+    generator.setNumPrimArrays(0);
+    generator.generate(file);
+  }
+
+  @After
+  public void tearDown() {
+    for (File group : dir.listFiles()) {
+      if (group.isDirectory()) {
+        for (File column : group.listFiles()) {
+          column.delete();
+        }
+      }
+      group.delete();
+    }
+    dir.delete();
+    file.delete();
+  }
+
+  /**
+   * Records each instance as its id followed by its field values, grouped by class.
+   */
+  private static class RowRecorder extends NullRecordHandler {
+    final Map<Long, List<List<String>>> rows = new LinkedHashMap<>();
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      List<String> row = new ArrayList<>();
+      row.add(Long.toString(instance.objId()));
+      for (int i = 0; i < instance.numFields(); i++) {
+        row.add(instance.getValue(i).toString());
+      }
+      if (!rows.containsKey(instance.classObjId())) {
+        rows.put(instance.classObjId(), new ArrayList<List<String>>());
+      }
+      rows.get(instance.classObjId()).add(row);
+    }
+  }
+
+  private static String read(Column.Reader reader, Column column) throws IOException {
+    switch (column.type()) {
+      case BOOL:
+        return Boolean.toString(reader.nextLong() != 0);
+      case CHAR:
+        return Character.toString((char) reader.nextLong());
+      case FLOAT:
+        return Float.toString((float) reader.nextDouble());
+      case DOUBLE:
+        return Double.toString(reader.nextDouble());
+      default:
+        return Long.toString(reader.nextLong());
+    }
+  }
+
+  @Test
+  public void columnsHoldEveryInstancesFields() throws IOException {
+    RowRecorder recorder = new RowRecorder();
+    new HprofParser(recorder).parse(file);
+
+    // a small buffer, so that the columns are appended to many times
+    try (StringTable strings = new StringTable(file)) {
+      HprofParser parser = new HprofParser(new ColumnarExportHandler(dir, strings, 4096));
+      parser.setStringTable(strings);
+      parser.parse(file);
+    }
+
+    ColumnarDump dump = ColumnarDump.open(dir);
+    assertEquals(4, dump.idSize());
+    assertEquals(recorder.rows.size(), dump.classes().size());
+    for (ColumnarClass c : dump.classes()) {
+      assertTrue(c.name().startsWith("generated/Class"));
+      assertEquals(c, dump.classesNamed(c.name()).get(0));
+      List<List<String>> expected = recorder.rows.get(c.classObjId());
+      assertEquals(expected.size(), c.instanceCount());
+
+      List<Column> columns = new ArrayList<>();
+      columns.add(c.objIds());
+      for (int i = 0; i < c.numFields(); i++) {
+        columns.add(c.column(i));
+        // a subclass's field hides superclass fields of the same name
+        assertTrue(c.fieldIndex(c.fieldName(i)) <= i);
+      }
+      for (int col = 0; col < columns.size(); col++) {
+        Column column = columns.get(col);
+        assertEquals(c.instanceCount(), column.size());
+        try (Column.Reader reader = column.reader()) {
+          for (List<String> row : expected) {
+            assertTrue(reader.hasNext());
+            assertEquals(row.get(col), read(reader, column));
+          }
+          assertFalse(reader.hasNext());
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that {@code CompositeRecordHandler} gives each child the records it asks for, in order,
+ * whether the children run on the parser's thread or their own.
+ */
+public class CompositeRecordHandlerTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("composite", ".hprof");
+    HprofGenerator generator = new HprofGenerator();
+    generator.setNumClasses(20);
+    generator.setNumInstances(5000);
+    generator.setNumObjArrays(500);
+    generator.setNumPrimArrays(1000);
+    generator.setSegmentSize(8192);
+    generator.generate(file);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Logs the instances it sees, optionally not reading their fields until the end, and consumes
+   * the primitive arrays it is passed.
+   */
+  private static class InstanceLogger extends NullRecordHandler {
+    final List<String> log = new ArrayList<>();
+    boolean finished = false;
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      log.add(describe(instance));
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      long sum = 0;
+      while (elems.hasRemaining()) {
+        sum += elems.get();
+      }
+      log.add(String.format("0x%x %s %d", objId, elemType, sum));
+    }
+
+    @Override
+    public void finished() {
+      finished = true;
+    }
+
+    private static String describe(InstanceView instance) {
+      StringBuilder builder = new StringBuilder(String.format("0x%x", instance.objId()));
+      for (int i = 0; i < instance.numFields(); i++) {
+        builder.append(' ').append(instance.getValue(i).value);
+      }
+      return builder.toString();
+    }
+  }
+
+  /**
+   * Logs the load class records and the heap dump boundaries.
+   */
+  private static class ClassLogger extends NullRecordHandler {
+    final List<String> log = new ArrayList<>();
+
+    @Override
+    public RecordMask recordMask() {
+      return RecordMask.none().includeTopLevel(RecordTags.LOAD_CLASS);
+    }
+
+    @Override
+    public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+        long classNameStringId) {
+      log.add("class " + classSerialNum);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      fail("did not ask for instances");
+    }
+
+    @Override
+    public void heapDumpSegment() {
+      log.add("segment");
+    }
+
+    @Override
+    public void heapDumpEnd() {
+      log.add("end");
+    }
+  }
+
+  private void parse(RecordHandler handler) throws IOException {
+    new HprofParser(handler).parse(file);
+  }
+
+  @Test
+  public void testMaskIsUnion() {
+    RecordMask mask = new CompositeRecordHandler(new InstanceLogger(), new ClassLogger())
+        .recordMask();
+    assertTrue(mask.wantsTopLevel(RecordTags.LOAD_CLASS));
+    assertTrue(mask.wantsHeapDump(RecordTags.INSTANCE_DUMP));
+    assertTrue(mask.wantsHeapDump(RecordTags.PRIM_ARRAY_DUMP));
+    assertFalse(mask.wantsTopLevel(RecordTags.STRING_IN_UTF8));
+    assertFalse(mask.wantsHeapDump(RecordTags.OBJ_ARRAY_DUMP));
+  }
+
+  private void checkSameAsAlone(boolean threaded) throws IOException {
+    InstanceLogger expectedInstances = new InstanceLogger();
+    ClassLogger expectedClasses = new ClassLogger();
+    parse(expectedInstances);
+    parse(expectedClasses);
+
+    // two children that both consume the array buffers
+    InstanceLogger instances1 = new InstanceLogger();
+    InstanceLogger instances2 = new InstanceLogger();
+    ClassLogger classes = new ClassLogger();
+    RecordHandler[] children = {instances1, classes, instances2};
+    parse(threaded ? CompositeRecordHandler.threaded(children)
+        : new CompositeRecordHandler(children));
+
+    assertTrue(instances1.finished);
+    assertEquals(expectedInstances.log, instances1.log);
+    assertEquals(expectedInstances.log, instances2.log);
+    assertEquals(expectedClasses.log, classes.log);
+  }
+
+  @Test
+  public void testSameAsAlone() throws IOException {
+    checkSameAsAlone(false);
+  }
+
+  @Test
+  public void testThreadedSameAsAlone() throws IOException {
+    checkSameAsAlone(true);
+  }
+
+  @Test
+  public void testThreadedCopiesTransientArguments() throws IOException {
+    InstanceLogger expected = new InstanceLogger();
+    parse(expected);
+    // small arenas, so that batches are passed on early and large arrays get arenas of their own
+    InstanceLogger logger = new InstanceLogger();
+    parse(new ThreadedRecordHandler(logger, 3, 2, 16));
+    assertEquals(expected.log, logger.log);
+  }
+
+  @Test
+  public void testThreadedRethrows() throws IOException {
+    RecordHandler failing = new NullRecordHandler() {
+      int count = 0;
+
+      @Override
+      public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+          ByteBuffer elems) {
+        if (++count == 10) {
+          throw new IllegalStateException("failed");
+        }
+      }
+    };
+    try {
+      parse(new ThreadedRecordHandler(failing, 4, 2));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("failed", e.getMessage());
+    }
+  }
+
+}
@@ -6,14 +6,17 @@ import static org.junit.Assert.assertThat;
 import org.junit.Test;
 
 import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.AllocSite;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.CPUSample;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
 import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.net.URISyntaxException;
 
 /**
@@ -73,6 +76,12 @@ public class NonNullTest {
       assertThat(instanceFieldValues, notNullValue());
     }
 
+    @Override
+    public void instanceDump(InstanceView instance) {
+      assertThat(instance, notNullValue());
+      super.instanceDump(instance);
+    }
+
     @Override
     public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
         long[] elems) {
@@ -82,7 +91,15 @@ public class NonNullTest {
     @Override
     public void primArrayDump(long objId, int stackTraceSerialNum, byte elemType, Value<?>[] elems) {
       assertThat(elems, notNullValue());
-    }    
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      assertThat(elemType, notNullValue());
+      assertThat(elems, notNullValue());
+      super.primArrayDump(objId, stackTraceSerialNum, elemType, elems);
+    }
   };
   
   private static String getAbsolutePathForResource(String relativePath) throws URISyntaxException {
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.handler;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.tufts.eaftan.hprofparser.handler.examples.RootHandler;
+import edu.tufts.eaftan.hprofparser.parser.RecordTags;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@code NullRecordHandler} derives its record mask from the callbacks a subclass
+ * overrides.
+ */
+public class RecordMaskTest {
+
+  @Test
+  public void nullHandlerWantsNothing() {
+    RecordMask mask = new NullRecordHandler().recordMask();
+    assertFalse(mask.wantsTopLevel(RecordTags.STRING_IN_UTF8));
+    assertFalse(mask.wantsAnyHeapDump());
+  }
+
+  @Test
+  public void rootHandlerWantsOnlyRoots() {
+    RecordMask mask = new RootHandler().recordMask();
+    assertTrue(mask.wantsHeapDump(RecordTags.ROOT_UNKNOWN));
+    assertTrue(mask.wantsHeapDump(RecordTags.ROOT_THREAD_OBJ));
+    assertFalse(mask.wantsHeapDump(RecordTags.INSTANCE_DUMP));
+    assertFalse(mask.wantsHeapDump(RecordTags.PRIM_ARRAY_DUMP));
+    assertFalse(mask.wantsTopLevel(RecordTags.STRING_IN_UTF8));
+  }
+
+  @Test
+  public void anonymousSubclassIsInspected() {
+    RecordHandler handler = new NullRecordHandler() {
+      @Override
+      public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+          long classNameStringId) {}
+    };
+    RecordMask mask = handler.recordMask();
+    assertTrue(mask.wantsTopLevel(RecordTags.LOAD_CLASS));
+    assertFalse(mask.wantsTopLevel(RecordTags.STRING_IN_UTF8));
+    assertFalse(mask.wantsAnyHeapDump());
+  }
+
+  @Test
+  public void includeMergesMasks() {
+    RecordMask mask = RecordMask.none()
+        .include(RecordMask.none().includeHeapDump(RecordTags.CLASS_DUMP));
+    assertTrue(mask.wantsAnyHeapDump());
+    assertTrue(mask.wantsHeapDump(RecordTags.CLASS_DUMP));
+    assertFalse(mask.wantsHeapDump(RecordTags.INSTANCE_DUMP));
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.handler.examples.statisticscollectinghandler;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.tufts.eaftan.hprofparser.analysis.ObjectModel;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.ParallelHprofParser;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class StatisticsCollectingHandlerTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("statistics", ".hprof");
+    HprofGenerator generator = new HprofGenerator();
+    generator.setNumClasses(40);
+    generator.setNumInstances(20000);
+    generator.setNumObjArrays(2000);
+    generator.setNumPrimArrays(3000);
+    generator.setSegmentSize(16384);
+    generator.generate(file);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * A handler that keeps its histogram rather than printing it.
+   */
+  private static class QuietHandler extends StatisticsCollectingHandler {
+    List<String> histogram;
+
+    QuietHandler() {}
+
+    QuietHandler(ObjectModel model) {
+      super(model);
+    }
+
+    @Override
+    public void finished() {
+      histogram = new ArrayList<>();
+      for (TypeInfo typeInfo : histogram()) {
+        histogram.add(typeInfo.toString());
+      }
+    }
+  }
+
+  private List<String> parse(QuietHandler handler) throws IOException {
+    new HprofParser(handler).parse(file);
+    return handler.histogram;
+  }
+
+  @Test
+  public void testCountsEveryObject() throws IOException {
+    QuietHandler handler = new QuietHandler();
+    parse(handler);
+    long instances = 0;
+    long arrays = 0;
+    for (TypeInfo typeInfo : handler.histogram()) {
+      if (typeInfo instanceof ClassInfo) {
+        instances += typeInfo.instanceCount;
+        ClassInfo classInfo = (ClassInfo) typeInfo;
+        assertEquals(classInfo.instanceSize * classInfo.instanceCount, classInfo.totalSize());
+        assertEquals(0, classInfo.instanceSize % 8);
+      } else {
+        arrays += typeInfo.instanceCount;
+      }
+    }
+    assertEquals(20000, instances);
+    assertEquals(5000, arrays);
+  }
+
+  @Test
+  public void testParallelMatchesSequential() throws IOException {
+    List<String> expected = parse(new QuietHandler());
+    QuietHandler handler = new QuietHandler();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      new ParallelHprofParser<StatisticsCollectingHandler>(handler, pool).parse(file);
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(expected, handler.histogram);
+  }
+
+  @Test
+  public void testObjectModel() throws IOException {
+    List<String> compressed = parse(new QuietHandler(ObjectModel.COMPRESSED_OOPS));
+    List<String> uncompressed = parse(new QuietHandler(ObjectModel.UNCOMPRESSED_OOPS));
+    assertEquals(compressed.size(), uncompressed.size());
+    assertEquals(compressed, parse(new QuietHandler()));
+  }
+
+  @Test
+  public void testSaveAndRestoreState() throws IOException {
+    QuietHandler handler = new QuietHandler();
+    List<String> expected = parse(handler);
+    QuietHandler restored = new QuietHandler();
+    restored.restoreState(handler.saveState());
+    restored.finished();
+    assertEquals(expected, restored.histogram);
+  }
+
+  @Test
+  public void testHugeTotals() {
+    // totals that differ by more than fits in an int
+    QuietHandler handler = new QuietHandler(new ObjectModel(16, 1 << 30, 4, 8));
+    handler.header("JAVA PROFILE 1.0.2", 8, 0);
+    handler.stringInUTF8(1, "[Ljava/lang/Object;");
+    handler.loadClass(1, 0x100, 0, 1);
+    for (int i = 0; i < 4; i++) {
+      handler.objArrayDump(0x1000 + 8 * i, 0, 0x100, new long[0]);
+    }
+    handler.primArrayDump(0x2000, 0, Type.INT, ByteBuffer.allocate(4));
+    handler.finished();
+    assertEquals("[Ljava/lang/Object;: 4294967296 bytes, 4 instances", handler.histogram.get(0));
+    assertEquals("int[]: 1073741832 bytes, 1 instances", handler.histogram.get(1));
+  }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.tufts.eaftan.hprofparser.handler.Checkpointable;
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tests that a parse interrupted after a checkpoint and resumed from it sees the same records as
+ * an uninterrupted parse.
+ */
+public class CheckpointTest {
+
+  private File file;
+  private File checkpointFile;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("checkpoint", ".hprof");
+    checkpointFile = new File(file.getPath() + ".ckpt");
+  }
+
+  @After
+  public void tearDown() {
+    checkpointFile.delete();
+    file.delete();
+  }
+
+  private static class Crash extends RuntimeException {}
+
+  /**
+   * Counts instances per class and array elements, and crashes after a given number of records.
+   */
+  private static class Counter extends NullRecordHandler implements Checkpointable {
+    Map<Long, Long> instancesPerClass = new TreeMap<>();
+    long arrayElements;
+    long records;
+    int headers;
+    int heapDumpEnds;
+    final long crashAfter;
+
+    Counter(long crashAfter) {
+      this.crashAfter = crashAfter;
+    }
+
+    private void count() {
+      if (++records == crashAfter) {
+        throw new Crash();
+      }
+    }
+
+    @Override
+    public void header(String format, int idSize, long time) {
+      headers++;
+    }
+
+    @Override
+    public void heapDumpEnd() {
+      heapDumpEnds++;
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      Long count = instancesPerClass.get(instance.classObjId());
+      instancesPerClass.put(instance.classObjId(), count == null ? 1 : count + 1);
+      count();
+    }
+
+    @Override
+    public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+        long[] elems) {
+      arrayElements += elems.length;
+      count();
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      arrayElements += elems.remaining() / elemType.sizeInBytes();
+      count();
+    }
+
+    @Override
+    public byte[] saveState() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(instancesPerClass.size());
+      for (Map.Entry<Long, Long> entry : instancesPerClass.entrySet()) {
+        out.writeLong(entry.getKey());
+        out.writeLong(entry.getValue());
+      }
+      out.writeLong(arrayElements);
+      out.writeLong(records);
+      out.writeInt(headers);
+      out.writeInt(heapDumpEnds);
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    @Override
+    public void restoreState(byte[] state) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+      instancesPerClass = new TreeMap<>();
+      for (int n = in.readInt(); n > 0; n--) {
+        instancesPerClass.put(in.readLong(), in.readLong());
+      }
+      arrayElements = in.readLong();
+      records = in.readLong();
+      headers = in.readInt();
+      heapDumpEnds = in.readInt();
+    }
+  }
+
+  private void generate(boolean segmented) throws IOException {
+    HprofGenerator generator = new HprofGenerator();
+    generator.setNumClasses(30);
+    generator.setNumInstances(5000);
+    generator.setNumObjArrays(500);
+    generator.setNumPrimArrays(500);
+    generator.setSegmented(segmented);
+    generator.setSegmentSize(8192);
+    generator.generate(file);
+  }
+
+  private Counter parse(Counter counter, long interval) throws IOException {
+    HprofParser parser = new HprofParser(counter);
+    parser.setCheckpointing(checkpointFile, interval);
+    parser.parse(file);
+    return counter;
+  }
+
+  private void checkResume(boolean segmented) throws IOException {
+    generate(segmented);
+    Counter expected = new Counter(-1);
+    new HprofParser(expected).parse(file);
+
+    try {
+      parse(new Counter(expected.records * 2 / 3), file.length() / 10);
+      fail();
+    } catch (Crash e) {
+      // expected
+    }
+    assertTrue(checkpointFile.exists());
+
+    Counter resumed = parse(new Counter(-1), file.length() / 10);
+    assertEquals(expected.instancesPerClass, resumed.instancesPerClass);
+    assertEquals(expected.arrayElements, resumed.arrayElements);
+    assertEquals(expected.records, resumed.records);
+    assertEquals(1, resumed.headers);
+    assertEquals(expected.heapDumpEnds, resumed.heapDumpEnds);
+    assertFalse(checkpointFile.exists());
+  }
+
+  @Test
+  public void testResumeSegmented() throws IOException {
+    checkResume(true);
+  }
+
+  @Test
+  public void testResumeInsideHeapDump() throws IOException {
+    checkResume(false);
+  }
+
+  @Test
+  public void testStaleCheckpointIsIgnored() throws IOException {
+    generate(true);
+    try {
+      parse(new Counter(3000), 4096);
+      fail();
+    } catch (Crash e) {
+      // expected
+    }
+    assertTrue(checkpointFile.exists());
+
+    generate(false);
+    Counter expected = new Counter(-1);
+    new HprofParser(expected).parse(file);
+    Counter counter = parse(new Counter(-1), 4096);
+    assertEquals(expected.instancesPerClass, counter.instancesPerClass);
+    assertEquals(expected.records, counter.records);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testStringTableIsRejected() throws IOException {
+    generate(true);
+    HprofParser parser = new HprofParser(new Counter(-1));
+    parser.setCheckpointing(checkpointFile, 4096);
+    try (StringTable table = new StringTable(file)) {
+      parser.setStringTable(table);
+      parser.parse(file);
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HeapDumpTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("heapdump", ".hprof");
+    HprofGenerator generator = new HprofGenerator();
+    generator.setIdSize(4);
+    generator.setNumClasses(20);
+    generator.setNumInstances(3000);
+    generator.setNumObjArrays(200);
+    generator.setNumPrimArrays(300);
+    generator.setSegmentSize(4096);
+    generator.generate(file);
+  }
+
+  @After
+  public void tearDown() {
+    ObjectIndex.indexFileFor(file).delete();
+    file.delete();
+  }
+
+  /**
+   * Records what the streaming parser sees, to check the random access results against.
+   */
+  private static class Recorder extends NullRecordHandler {
+    final Map<Long, Long> classOfInstance = new HashMap<>();
+    final Map<Long, long[]> references = new HashMap<>();
+    final Map<Long, Integer> primArrayLengths = new HashMap<>();
+    final List<Long> classIds = new ArrayList<>();
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      classIds.add(classObjId);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      classOfInstance.put(instance.objId(), instance.classObjId());
+      int[] objectFields = instance.layout().objectFieldIndices();
+      long[] refs = new long[objectFields.length];
+      for (int i = 0; i < refs.length; i++) {
+        refs[i] = instance.getObjectId(objectFields[i]);
+      }
+      references.put(instance.objId(), refs);
+    }
+
+    @Override
+    public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+        long[] elems) {
+      references.put(objId, elems);
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      primArrayLengths.put(objId, elems.remaining() / elemType.sizeInBytes());
+    }
+  }
+
+  @Test
+  public void objectsMatchTheStreamingParser() throws IOException {
+    Recorder recorder = new Recorder();
+    new HprofParser(recorder).parse(file);
+
+    // a tiny cache, so most lookups decode from the file
+    try (HeapDump dump = HeapDump.open(file, 10)) {
+      assertEquals(4, dump.idSize());
+      assertEquals(recorder.classIds.size(), dump.classes().size());
+      for (long classObjId : recorder.classIds) {
+        HeapClass c = dump.getClass(classObjId);
+        assertNotNull(c);
+        assertNotNull(c.layout());
+        assertSame(c, dump.getObject(classObjId));
+      }
+      assertEquals("java/lang/Object", dump.getClass(0x1000).name());
+      assertEquals("generated/Class1", dump.getClass(0x1008).name());
+
+      for (Map.Entry<Long, long[]> e : recorder.references.entrySet()) {
+        assertArrayEquals(e.getValue(), dump.outboundReferences(e.getKey()));
+      }
+      for (Map.Entry<Long, Long> e : recorder.classOfInstance.entrySet()) {
+        HeapInstance instance = (HeapInstance) dump.getObject(e.getKey());
+        assertEquals(e.getValue().longValue(), instance.classObjId());
+        assertEquals(dump.getClass(instance.classObjId()).layout().packedSize(),
+            instance.fields().packedValues().remaining());
+        // a copy, not a slice of the mapped file
+        assertFalse(instance.fields().packedValues().isDirect());
+      }
+      for (Map.Entry<Long, Integer> e : recorder.primArrayLengths.entrySet()) {
+        HeapPrimitiveArray array = (HeapPrimitiveArray) dump.getObject(e.getKey());
+        assertEquals(e.getValue().intValue(), array.length());
+        assertFalse(array.elems().isDirect());
+      }
+
+      assertNull(dump.getObject(1));
+      assertNull(dump.getClass(recorder.classOfInstance.keySet().iterator().next()));
+    }
+  }
+
+  @Test
+  public void instancesOfFindsExactlyTheClassesInstances() throws IOException {
+    Recorder recorder = new Recorder();
+    new HprofParser(recorder).parse(file);
+
+    try (HeapDump dump = HeapDump.open(file)) {
+      int total = 0;
+      for (HeapClass c : dump.classes()) {
+        long previous = Long.MIN_VALUE;
+        for (long objId : dump.instancesOf(c.objId())) {
+          assertTrue(objId > previous);
+          assertEquals(c.objId(), recorder.classOfInstance.get(objId).longValue());
+          previous = objId;
+          total++;
+        }
+      }
+      assertEquals(recorder.classOfInstance.size(), total);
+    }
+  }
+
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordMask;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the parser against small hand-assembled heap dumps.
+ */
+public class HprofParserTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("parser", ".hprof");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Builds a dump with a single heap dump record in which an instance of class 200 (a subclass of
+   * class 100) appears before either class is dumped.
+   */
+  private void writeInstanceBeforeClassDump() throws IOException {
+    ByteArrayOutputStream heapBytes = new ByteArrayOutputStream();
+    DataOutputStream heap = new DataOutputStream(heapBytes);
+
+    // instance dump: id 300, class 200, fields (int 7) from class 200, then (long 9) from 100
+    heap.writeByte(0x21);
+    heap.writeInt(300);
+    heap.writeInt(0);
+    heap.writeInt(200);
+    heap.writeInt(12);
+    heap.writeInt(7);
+    heap.writeLong(9);
+
+    writeClassDump(heap, 200, 100, 10);
+    writeClassDump(heap, 100, 0, 11);
+
+    ByteArrayOutputStream fileBytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(fileBytes);
+    out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+    out.writeByte(0);
+    out.writeInt(4);
+    out.writeLong(0);
+    out.writeByte(0x0c);
+    out.writeInt(0);
+    out.writeInt(heap.size());
+    heap.flush();
+    out.write(heapBytes.toByteArray());
+    out.flush();
+
+    try (FileOutputStream fs = new FileOutputStream(file)) {
+      fs.write(fileBytes.toByteArray());
+    }
+  }
+
+  /**
+   * Builds a dump with a single heap dump segment holding a char array {'h', 'i'} and an int
+   * array {1, -1, 65536}.
+   */
+  private void writePrimitiveArrays() throws IOException {
+    ByteArrayOutputStream heapBytes = new ByteArrayOutputStream();
+    DataOutputStream heap = new DataOutputStream(heapBytes);
+    heap.writeByte(0x23);
+    heap.writeInt(400);
+    heap.writeInt(0);
+    heap.writeInt(2);
+    heap.writeByte(5);
+    heap.writeChars("hi");
+    heap.writeByte(0x23);
+    heap.writeInt(401);
+    heap.writeInt(0);
+    heap.writeInt(3);
+    heap.writeByte(10);
+    heap.writeInt(1);
+    heap.writeInt(-1);
+    heap.writeInt(65536);
+
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+    out.writeByte(0);
+    out.writeInt(4);
+    out.writeLong(0);
+    out.writeByte(0x1c);
+    out.writeInt(0);
+    out.writeInt(heap.size());
+    out.write(heapBytes.toByteArray());
+    out.writeByte(0x2c);
+    out.writeInt(0);
+    out.writeInt(0);
+    out.close();
+  }
+
+  /** Writes a class dump with a single instance field of the given hprof type. */
+  private static void writeClassDump(DataOutputStream heap, int classObjId, int superClassObjId,
+      int fieldType) throws IOException {
+    heap.writeByte(0x20);
+    heap.writeInt(classObjId);
+    heap.writeInt(0);
+    heap.writeInt(superClassObjId);
+    for (int i = 0; i < 5; i++) {
+      heap.writeInt(0);
+    }
+    heap.writeInt(16);
+    heap.writeShort(0);   // constants
+    heap.writeShort(0);   // statics
+    heap.writeShort(1);   // instance fields
+    heap.writeInt(1000 + classObjId);
+    heap.writeByte(fieldType);
+  }
+
+  private static class RecordingHandler extends NullRecordHandler {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void heapDump() {
+      events.add("heapDump");
+    }
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      events.add("classDump " + classObjId);
+    }
+
+    @Override
+    public void instanceDump(long objId, int stackTraceSerialNum, long classObjId,
+        Value<?>[] instanceFieldValues) {
+      events.add("instanceDump " + objId + " " + Arrays.toString(instanceFieldValues));
+    }
+
+    @Override
+    public void heapDumpEnd() {
+      events.add("heapDumpEnd");
+    }
+
+    @Override
+    public void finished() {
+      events.add("finished");
+    }
+  }
+
+  @Test
+  public void instanceBeforeClassDumpIsDecodedAfterHeapDump() throws IOException {
+    writeInstanceBeforeClassDump();
+    for (HprofParser.InputMode mode : HprofParser.InputMode.values()) {
+      RecordingHandler handler = new RecordingHandler();
+      HprofParser parser = new HprofParser(handler);
+      parser.setInputMode(mode);
+      parser.parse(file);
+      assertEquals(Arrays.asList(
+          "heapDump",
+          "classDump 200",
+          "classDump 100",
+          "instanceDump 300 [7, 9]",
+          "heapDumpEnd",
+          "finished"), handler.events);
+    }
+  }
+
+  @Test
+  public void instanceViewDecodesFields() throws IOException {
+    writeInstanceBeforeClassDump();
+    final List<String> instances = new ArrayList<>();
+    new HprofParser(new NullRecordHandler() {
+      @Override
+      public void instanceDump(InstanceView instance) {
+        assertEquals(2, instance.numFields());
+        assertEquals(Type.INT, instance.fieldType(0));
+        assertEquals(Type.LONG, instance.fieldType(1));
+        assertEquals(1, instance.fieldIndex(1100));
+        assertEquals(-1, instance.fieldIndex(1300));
+        instances.add(instance.objId() + " " + instance.classObjId() + " "
+            + instance.getInt(instance.fieldIndex(1200)) + " " + instance.getLong(1));
+      }
+    }).parse(file);
+    assertEquals(Arrays.asList("300 200 7 9"), instances);
+  }
+
+  @Test(expected = HprofParserException.class)
+  public void instanceSizeMustMatchLayout() throws IOException {
+    ByteArrayOutputStream heapBytes = new ByteArrayOutputStream();
+    DataOutputStream heap = new DataOutputStream(heapBytes);
+    writeClassDump(heap, 100, 0, 11);
+    heap.writeByte(0x21);
+    heap.writeInt(300);
+    heap.writeInt(0);
+    heap.writeInt(100);
+    heap.writeInt(4);
+    heap.writeInt(9);
+
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+    out.writeByte(0);
+    out.writeInt(4);
+    out.writeLong(0);
+    out.writeByte(0x0c);
+    out.writeInt(0);
+    out.writeInt(heap.size());
+    out.write(heapBytes.toByteArray());
+    out.close();
+
+    new HprofParser(new NullRecordHandler() {
+      @Override
+      public void instanceDump(InstanceView instance) {}
+    }).parse(file);
+  }
+
+  @Test
+  public void primitiveArraysArePassedUnboxed() throws IOException {
+    writePrimitiveArrays();
+    final List<String> arrays = new ArrayList<>();
+    RecordHandler handler = new NullRecordHandler() {
+      @Override
+      public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+          ByteBuffer elems) {
+        if (elemType == Type.CHAR) {
+          arrays.add(objId + " " + elems.asCharBuffer());
+        } else {
+          IntBuffer ints = elems.asIntBuffer();
+          arrays.add(objId + " " + ints.get(0) + " " + ints.get(1) + " " + ints.get(2));
+        }
+      }
+    };
+    for (HprofParser.InputMode mode : HprofParser.InputMode.values()) {
+      arrays.clear();
+      HprofParser parser = new HprofParser(handler);
+      parser.setInputMode(mode);
+      parser.parse(file);
+      assertEquals(Arrays.asList("400 hi", "401 1 -1 65536"), arrays);
+    }
+  }
+
+  @Test
+  public void primitiveArraysAreStillPassedAsValues() throws IOException {
+    writePrimitiveArrays();
+    final List<String> arrays = new ArrayList<>();
+    new HprofParser(new NullRecordHandler() {
+      @Override
+      public void primArrayDump(long objId, int stackTraceSerialNum, byte elemType,
+          Value<?>[] elems) {
+        arrays.add(objId + " " + elemType + " " + Arrays.toString(elems));
+      }
+    }).parse(file);
+    assertEquals(Arrays.asList("400 5 [h, i]", "401 10 [1, -1, 65536]"), arrays);
+  }
+
+  @Test
+  public void metricsCountRecordsAndBytes() throws IOException {
+    writeInstanceBeforeClassDump();
+    ParseMetrics metrics = new ParseMetrics();
+    final List<Long> progress = new ArrayList<>();
+    HprofParser parser = new HprofParser(new RecordingHandler());
+    parser.setMetrics(metrics);
+    parser.setProgressListener(new ProgressListener() {
+      @Override
+      public void progress(long bytesConsumed, long totalBytes, long remainingNanos) {
+        assertEquals(file.length(), totalBytes);
+        progress.add(bytesConsumed);
+      }
+    }, 40);
+    parser.parse(file);
+
+    assertEquals(1, metrics.topLevelRecords(RecordTags.HEAP_DUMP));
+    assertEquals(9, metrics.topLevelBytes(RecordTags.HEAP_DUMP));
+    assertEquals(2, metrics.heapDumpRecords(RecordTags.CLASS_DUMP));
+    assertEquals(1, metrics.heapDumpRecords(RecordTags.INSTANCE_DUMP));
+    assertEquals(29, metrics.heapDumpBytes(RecordTags.INSTANCE_DUMP));
+    assertEquals(0, metrics.heapDumpRecords(RecordTags.OBJ_ARRAY_DUMP));
+    assertEquals(file.length(), metrics.fileLength());
+    assertEquals(metrics.totalNanos(), metrics.decodeNanos() + metrics.handlerNanos());
+
+    // the first record boundary at least 40 bytes past the last report, then once at the end
+    assertEquals(Arrays.asList(69L, 117L, file.length(), file.length()), progress);
+  }
+
+  @Test
+  public void pipelinedMetricsTimeTheHandlerOnItsOwnThread() throws IOException {
+    writeInstanceBeforeClassDump();
+    ParseMetrics metrics = new ParseMetrics();
+    HprofParser parser = new HprofParser(new RecordingHandler() {
+      @Override
+      public void finished() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    });
+    parser.setMetrics(metrics);
+    parser.setPipelined(true);
+    parser.parse(file);
+
+    assertTrue(metrics.isPipelined());
+    assertTrue(metrics.handlerNanos() >= 50000000L);
+    // the decoding thread waited for the handler to finish
+    assertTrue(metrics.handOffNanos() >= 50000000L);
+    assertEquals(metrics.totalNanos(), metrics.decodeNanos() + metrics.handOffNanos());
+  }
+
+  @Test
+  public void unwantedRecordsAreSkipped() throws IOException {
+    writeInstanceBeforeClassDump();
+    RecordingHandler handler = new RecordingHandler() {
+      @Override
+      public RecordMask recordMask() {
+        return RecordMask.none().includeHeapDump(RecordTags.INSTANCE_DUMP);
+      }
+    };
+    new HprofParser(handler).parse(file);
+    assertEquals("instanceDump 300 [7, 9]", handler.events.get(3));
+
+    handler = new RecordingHandler() {
+      @Override
+      public RecordMask recordMask() {
+        return RecordMask.none();
+      }
+    };
+    new HprofParser(handler).parse(file);
+    assertEquals(Arrays.asList("heapDump", "heapDumpEnd", "finished"), handler.events);
+  }
+
+  /**
+   * Logs every class, instance and primitive array, in the order the parser passes them on.
+   */
+  private static class LoggingHandler extends NullRecordHandler {
+    final List<String> log = new ArrayList<>();
+
+    @Override
+    public void stringInUTF8(long id, String data) {
+      log.add("string " + id + " " + data);
+    }
+
+    @Override
+    public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+        long classNameStringId) {
+      log.add("loadClass " + classObjId + " " + classNameStringId);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      StringBuilder builder = new StringBuilder("instance " + instance.objId());
+      for (int i = 0; i < instance.numFields(); i++) {
+        builder.append(' ').append(instance.getValue(i).value);
+      }
+      log.add(builder.toString());
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      long sum = 0;
+      while (elems.hasRemaining()) {
+        sum = 31 * sum + elems.get();
+      }
+      log.add("primArray " + objId + " " + elemType + " " + sum);
+    }
+
+    @Override
+    public void finished() {
+      log.add("finished");
+    }
+  }
+
+  private static List<String> log(File file, HprofParser.InputMode mode, boolean pipelined)
+      throws IOException {
+    LoggingHandler handler = new LoggingHandler();
+    HprofParser parser = new HprofParser(handler);
+    parser.setInputMode(mode);
+    parser.setPipelined(pipelined);
+    parser.parse(file);
+    return handler.log;
+  }
+
+  @Test
+  public void pipelinedParseSeesRecordsInFileOrder() throws IOException {
+    HprofGenerator generator = new HprofGenerator();
+    generator.setNumClasses(50);
+    generator.setNumInstances(100000);
+    generator.setNumPrimArrays(5000);
+    generator.setSegmentSize(1 << 20);
+    generator.generate(file);
+    for (HprofParser.InputMode mode : HprofParser.InputMode.values()) {
+      List<String> expected = log(file, mode, false);
+      assertTrue(expected.size() > 100000);
+      assertEquals(expected, log(file, mode, true));
+    }
+  }
+
+  @Test
+  public void pipelinedParseRevisitsDeferredInstances() throws IOException {
+    writeInstanceBeforeClassDump();
+    for (HprofParser.InputMode mode : HprofParser.InputMode.values()) {
+      RecordingHandler handler = new RecordingHandler();
+      HprofParser parser = new HprofParser(handler);
+      parser.setInputMode(mode);
+      parser.setPipelined(true);
+      parser.parse(file);
+      assertEquals(Arrays.asList(
+          "heapDump",
+          "classDump 200",
+          "classDump 100",
+          "instanceDump 300 [7, 9]",
+          "heapDumpEnd",
+          "finished"), handler.events);
+    }
+  }
+
+  @Test
+  public void pipelinedParseDoesNotReadMaskedOutHeapDump() throws IOException {
+    // a 64 MB heap dump record of zeros, left sparse, followed by a string
+    int heapDumpLength = 64 << 20;
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+      out.writeByte(0);
+      out.writeInt(4);
+      out.writeLong(0);
+      out.writeByte(0x0c);
+      out.writeInt(0);
+      out.writeInt(heapDumpLength);
+      out.seek(out.getFilePointer() + heapDumpLength);
+      out.writeByte(0x01);
+      out.writeInt(0);
+      out.writeInt(6);
+      out.writeInt(500);
+      out.write("hi".getBytes("US-ASCII"));
+    }
+    final List<String> strings = new ArrayList<>();
+    final List<StreamHprofInput> inputs = new ArrayList<>();
+    HprofParser parser = new HprofParser(new NullRecordHandler() {
+      @Override
+      public RecordMask recordMask() {
+        return RecordMask.none().includeTopLevel(RecordTags.STRING_IN_UTF8);
+      }
+
+      @Override
+      public void stringInUTF8(long id, String data) {
+        strings.add(id + " " + data);
+      }
+    }) {
+      @Override
+      HprofInput open(File file) throws IOException {
+        StreamHprofInput input = (StreamHprofInput) super.open(file);
+        inputs.add(input);
+        return input;
+      }
+    };
+    parser.setPipelined(true);
+    parser.parse(file);
+
+    assertEquals(Arrays.asList("500 hi"), strings);
+    assertEquals(1, inputs.size());
+    // at most the chunks read ahead before the skip, and those after it
+    long bytesRead = inputs.get(0).bytesReadAhead();
+    assertTrue("read " + bytesRead, bytesRead
+        <= 2L * (ReadAheadInputStream.NUM_CHUNKS + 1) * ReadAheadInputStream.CHUNK_SIZE);
+    assertTrue(bytesRead < heapDumpLength);
+  }
+
+  @Test
+  public void pipelinedParseRethrowsHandlerFailure() throws IOException {
+    HprofGenerator generator = new HprofGenerator();
+    generator.setNumInstances(10000);
+    generator.generate(file);
+    HprofParser parser = new HprofParser(new NullRecordHandler() {
+      @Override
+      public void instanceDump(InstanceView instance) {
+        throw new IllegalStateException("handler failed");
+      }
+    });
+    parser.setPipelined(true);
+    try {
+      parser.parse(file);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("handler failed", e.getMessage());
+    }
+  }
+
+}
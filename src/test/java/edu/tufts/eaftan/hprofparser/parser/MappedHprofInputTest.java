@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks that the memory-mapped input decodes exactly what the stream input does, including
+ * across window boundaries.
+ */
+public class MappedHprofInputTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("mapped", ".bin");
+    byte[] bytes = new byte[10000];
+    new Random(42).nextBytes(bytes);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(bytes);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void matchesStreamInputAcrossWindows() throws IOException {
+    try (HprofInput stream = new StreamHprofInput(file);
+        HprofInput mapped = new MappedHprofInput(file, 13)) {
+      while (stream.position() + 32 < stream.length()) {
+        assertEquals(stream.readByte(), mapped.readByte());
+        assertEquals(stream.readInt(), mapped.readInt());
+        assertEquals(stream.readShort(), mapped.readShort());
+        assertEquals(stream.readLong(), mapped.readLong());
+        assertEquals(stream.readChar(), mapped.readChar());
+        byte[] expected = new byte[7];
+        byte[] actual = new byte[7];
+        stream.readFully(expected);
+        mapped.readFully(actual);
+        assertArrayEquals(expected, actual);
+        assertEquals(stream.position(), mapped.position());
+      }
+    }
+  }
+
+  @Test
+  public void seekRepositions() throws IOException {
+    try (HprofInput stream = new StreamHprofInput(file);
+        HprofInput mapped = new MappedHprofInput(file, 100)) {
+      long[] positions = {9000, 5, 4999, 97, 0, 9992};
+      for (long position : positions) {
+        stream.seek(position);
+        mapped.seek(position);
+        assertEquals(stream.readLong(), mapped.readLong());
+        assertEquals(position + 8, mapped.position());
+      }
+    }
+  }
+
+  @Test
+  public void keepsOnlyTwoWindowsMapped() throws IOException {
+    try (HprofInput stream = new StreamHprofInput(file);
+        MappedHprofInput mapped = new MappedHprofInput(file, 100)) {
+      while (stream.position() + 8 < stream.length()) {
+        assertEquals(stream.readLong(), mapped.readLong());
+        assertTrue(mapped.numMappedWindows() <= 2);
+      }
+      // back to a window that has been released
+      stream.seek(50);
+      mapped.seek(50);
+      assertEquals(stream.readLong(), mapped.readLong());
+      assertTrue(mapped.numMappedWindows() <= 2);
+    }
+  }
+
+  @Test(expected = EOFException.class)
+  public void readPastEndThrows() throws IOException {
+    try (HprofInput mapped = new MappedHprofInput(file, 100)) {
+      mapped.seek(mapped.length() - 2);
+      mapped.readInt();
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.writer.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ObjectIndexTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("index", ".hprof");
+    HprofGenerator generator = new HprofGenerator();
+    generator.setNumClasses(20);
+    generator.setNumInstances(3000);
+    generator.setNumObjArrays(200);
+    generator.setNumPrimArrays(300);
+    generator.setSegmentSize(4096);
+    generator.generate(file);
+  }
+
+  @After
+  public void tearDown() {
+    ObjectIndex.indexFileFor(file).delete();
+    file.delete();
+  }
+
+  /**
+   * Collects the sub-record tag of every object in the dump, and the class of every instance.
+   */
+  private static class TagCollector extends NullRecordHandler {
+    final Map<Long, Byte> tags = new HashMap<>();
+    final Map<Long, Long> classOfInstance = new HashMap<>();
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      tags.put(classObjId, RecordTags.CLASS_DUMP);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      tags.put(instance.objId(), RecordTags.INSTANCE_DUMP);
+      classOfInstance.put(instance.objId(), instance.classObjId());
+    }
+
+    @Override
+    public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+        long[] elems) {
+      tags.put(objId, RecordTags.OBJ_ARRAY_DUMP);
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      tags.put(objId, RecordTags.PRIM_ARRAY_DUMP);
+    }
+  }
+
+  @Test
+  public void indexFindsEveryObject() throws IOException {
+    TagCollector collector = new TagCollector();
+    new HprofParser(collector).parse(file);
+
+    // a small sort buffer, so the build has to merge spilled runs
+    try (ObjectIndex index = ObjectIndex.build(file, 500);
+        HprofInput in = new MappedHprofInput(file)) {
+      assertEquals(8, index.idSize());
+      assertEquals(collector.tags.size(), index.size());
+      for (Map.Entry<Long, Byte> e : collector.tags.entrySet()) {
+        long entry = index.find(e.getKey());
+        assertTrue(entry >= 0);
+        assertEquals(e.getKey().longValue(), index.objId(entry));
+        assertEquals(e.getValue().byteValue(), index.tag(entry));
+        in.seek(index.offset(entry));
+        assertEquals(e.getValue().byteValue(), in.readByte());
+        assertEquals(e.getKey().longValue(), in.readLong());
+      }
+      assertEquals(-1, index.find(1));
+      assertEquals(-1, index.offsetOf(Long.MAX_VALUE));
+    }
+  }
+
+  @Test
+  public void instancesAreListedByClassThenId() throws IOException {
+    TagCollector collector = new TagCollector();
+    new HprofParser(collector).parse(file);
+
+    try (ObjectIndex index = ObjectIndex.build(file, 500)) {
+      assertEquals(collector.classOfInstance.size(), index.numInstances());
+      long previousClass = Long.MIN_VALUE;
+      long previousObj = Long.MIN_VALUE;
+      for (long entry = 0; entry < index.numInstances(); entry++) {
+        long classObjId = index.instanceClassObjId(entry);
+        long objId = index.instanceObjId(entry);
+        assertEquals(collector.classOfInstance.get(objId).longValue(), classObjId);
+        assertTrue(classObjId > previousClass
+            || (classObjId == previousClass && objId > previousObj));
+        if (classObjId != previousClass) {
+          assertEquals(entry, index.firstInstanceOf(classObjId));
+        }
+        previousClass = classObjId;
+        previousObj = objId;
+      }
+      assertEquals(index.numInstances(), index.firstInstanceOf(Long.MAX_VALUE));
+    }
+  }
+
+  @Test
+  public void existingIndexIsReusedUntilDumpChanges() throws IOException {
+    assertNull(ObjectIndex.openExisting(file));
+    try (ObjectIndex index = ObjectIndex.open(file)) {
+      assertTrue(index.size() > 0);
+    }
+    ObjectIndex existing = ObjectIndex.openExisting(file);
+    assertNotNull(existing);
+    existing.close();
+
+    assertTrue(file.setLastModified(file.lastModified() - 10000));
+    assertNull(ObjectIndex.openExisting(file));
+    try (ObjectIndex index = ObjectIndex.open(file)) {
+      assertTrue(index.size() > 0);
+    }
+    existing = ObjectIndex.openExisting(file);
+    assertNotNull(existing);
+    existing.close();
+  }
+
+  @Test
+  public void entriesPastTwoToThe31AreInRange() {
+    long size = 3L << 31;
+    ObjectIndex.checkEntry(0, size);
+    ObjectIndex.checkEntry(Integer.MAX_VALUE, size);
+    ObjectIndex.checkEntry(size - 1, size);
+    for (long entry : new long[] {-1, size, Long.MAX_VALUE}) {
+      try {
+        ObjectIndex.checkEntry(entry, size);
+        fail();
+      } catch (IndexOutOfBoundsException expected) {
+      }
+    }
+  }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.tufts.eaftan.hprofparser.handler.MergeableRecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests that parsing heap dump segments in parallel gives the same results as parsing them
+ * sequentially.
+ */
+public class ParallelHprofParserTest {
+
+  private File file;
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("parallel", ".hprof");
+    pool = new ForkJoinPool(3);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    pool.shutdown();
+  }
+
+  /**
+   * Records sub-records as strings, in sorted order once merged.
+   */
+  private static class ShardedHandler extends NullRecordHandler
+      implements MergeableRecordHandler<ShardedHandler> {
+    final List<String> topLevel = new ArrayList<>();
+    final List<String> heap = new ArrayList<>();
+    int numShards = 0;
+
+    @Override
+    public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+        long classNameStringId) {
+      topLevel.add("loadClass " + classObjId);
+    }
+
+    @Override
+    public void heapDumpSegment() {
+      topLevel.add("heapDumpSegment");
+    }
+
+    @Override
+    public void heapDumpEnd() {
+      topLevel.add("heapDumpEnd");
+    }
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      heap.add("classDump " + classObjId);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      heap.add("instanceDump " + instance.objId() + " " + instance.classObjId() + " "
+          + instance.getInt(0) + " " + instance.getLong(1));
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      heap.add("primArrayDump " + objId + " " + elems.remaining());
+    }
+
+    @Override
+    public void finished() {
+      topLevel.add("finished");
+      Collections.sort(heap);
+    }
+
+    @Override
+    public ShardedHandler newShard() {
+      numShards++;
+      return new ShardedHandler();
+    }
+
+    @Override
+    public void merge(ShardedHandler shard) {
+      assertEquals(Collections.emptyList(), shard.topLevel);
+      heap.addAll(shard.heap);
+    }
+  }
+
+  /**
+   * Builds a dump of three heap dump segments, where the instance in the first segment belongs to
+   * classes dumped in the last one.
+   */
+  private void writeSegments() throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+    out.writeByte(0);
+    out.writeInt(4);
+    out.writeLong(0);
+
+    out.writeByte(0x02);
+    out.writeInt(0);
+    out.writeInt(16);
+    out.writeInt(1);
+    out.writeInt(200);
+    out.writeInt(0);
+    out.writeInt(2000);
+
+    ByteArrayOutputStream heapBytes = new ByteArrayOutputStream();
+    DataOutputStream heap = new DataOutputStream(heapBytes);
+    heap.writeByte(0x21);
+    heap.writeInt(300);
+    heap.writeInt(0);
+    heap.writeInt(200);
+    heap.writeInt(12);
+    heap.writeInt(7);
+    heap.writeLong(9);
+    writeSegment(out, heapBytes);
+
+    heapBytes.reset();
+    heap.writeByte(0x23);
+    heap.writeInt(400);
+    heap.writeInt(0);
+    heap.writeInt(3);
+    heap.writeByte(10);
+    heap.writeInt(1);
+    heap.writeInt(2);
+    heap.writeInt(3);
+    writeSegment(out, heapBytes);
+
+    heapBytes.reset();
+    writeClassDump(heap, 200, 100, 10);
+    writeClassDump(heap, 100, 0, 11);
+    writeSegment(out, heapBytes);
+
+    out.writeByte(0x2c);
+    out.writeInt(0);
+    out.writeInt(0);
+    out.close();
+  }
+
+  private static void writeSegment(DataOutputStream out, ByteArrayOutputStream heapBytes)
+      throws IOException {
+    out.writeByte(0x1c);
+    out.writeInt(0);
+    out.writeInt(heapBytes.size());
+    out.write(heapBytes.toByteArray());
+  }
+
+  private static void writeClassDump(DataOutputStream heap, int classObjId, int superClassObjId,
+      int fieldType) throws IOException {
+    heap.writeByte(0x20);
+    heap.writeInt(classObjId);
+    heap.writeInt(0);
+    heap.writeInt(superClassObjId);
+    for (int i = 0; i < 5; i++) {
+      heap.writeInt(0);
+    }
+    heap.writeInt(16);
+    heap.writeShort(0);   // constants
+    heap.writeShort(0);   // statics
+    heap.writeShort(1);   // instance fields
+    heap.writeInt(1000 + classObjId);
+    heap.writeByte(fieldType);
+  }
+
+  @Test
+  public void segmentsAreParsedByShards() throws IOException {
+    writeSegments();
+    for (HprofParser.InputMode mode : HprofParser.InputMode.values()) {
+      ShardedHandler handler = new ShardedHandler();
+      ParallelHprofParser<ShardedHandler> parser =
+          new ParallelHprofParser<ShardedHandler>(handler, pool);
+      parser.setInputMode(mode);
+      parser.parse(file);
+
+      assertEquals(3, handler.numShards);
+      assertEquals(Arrays.asList(
+          "loadClass 200",
+          "heapDumpSegment",
+          "heapDumpSegment",
+          "heapDumpSegment",
+          "heapDumpEnd",
+          "finished"), handler.topLevel);
+      assertEquals(Arrays.asList(
+          "classDump 100",
+          "classDump 200",
+          "instanceDump 300 200 7 9",
+          "primArrayDump 400 12"), handler.heap);
+    }
+  }
+
+  @Test(expected = HprofParserException.class)
+  public void workerErrorsArePropagated() throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+    out.writeByte(0);
+    out.writeInt(4);
+    out.writeLong(0);
+    out.writeByte(0x1c);
+    out.writeInt(0);
+    out.writeInt(1);
+    out.writeByte(0x42);
+    out.close();
+
+    new ParallelHprofParser<ShardedHandler>(new ShardedHandler(), pool).parse(file);
+  }
+
+  /**
+   * Counts instances per class and arrays per element type.
+   */
+  private static class CountingHandler extends NullRecordHandler
+      implements MergeableRecordHandler<CountingHandler> {
+    final TreeMap<String, Integer> counts = new TreeMap<>();
+
+    private void count(String key, int n) {
+      Integer old = counts.get(key);
+      counts.put(key, old == null ? n : old + n);
+    }
+
+    @Override
+    public void rootUnknown(long objId) {
+      count("rootUnknown", 1);
+    }
+
+    @Override
+    public void rootStickyClass(long objId) {
+      count("rootStickyClass", 1);
+    }
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      count("classDump", 1);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      count("instance of " + instance.classObjId(), 1);
+    }
+
+    @Override
+    public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+        long[] elems) {
+      count("array of " + elemClassObjId, 1);
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      count("array of " + elemType, 1);
+      count("bytes of " + elemType, elems.remaining());
+    }
+
+    @Override
+    public CountingHandler newShard() {
+      return new CountingHandler();
+    }
+
+    @Override
+    public void merge(CountingHandler shard) {
+      for (String key : shard.counts.keySet()) {
+        count(key, shard.counts.get(key));
+      }
+    }
+  }
+
+  @Test
+  public void sampleDumpMatchesSequentialParse() throws Exception {
+    File sample = new File(ClassLoader.getSystemResource("java.hprof").toURI());
+    CountingHandler sequential = new CountingHandler();
+    new HprofParser(sequential).parse(sample);
+    CountingHandler parallel = new CountingHandler();
+    new ParallelHprofParser<CountingHandler>(parallel, pool).parse(sample);
+    assertEquals(sequential.counts, parallel.counts);
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.handler.RecordMask;
+import edu.tufts.eaftan.hprofparser.writer.HprofWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StringTableTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("strings", ".hprof");
+    try (HprofWriter writer = new HprofWriter(file, 8, 0)) {
+      for (int i = 1; i <= 100; i++) {
+        writer.writeStringInUTF8(i * 8, "string " + i + " \u00e9");
+      }
+      writer.writeLoadClass(1, 0x1000, 0, 8);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Wants class loads but not strings.
+   */
+  private static class LoadClassHandler extends NullRecordHandler {
+    final List<Long> classNameIds = new ArrayList<>();
+    boolean sawString = false;
+
+    @Override
+    public RecordMask recordMask() {
+      return RecordMask.none().includeTopLevel(RecordTags.LOAD_CLASS);
+    }
+
+    @Override
+    public void stringInUTF8(long id, String data) {
+      sawString = true;
+    }
+
+    @Override
+    public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+        long classNameStringId) {
+      classNameIds.add(classNameStringId);
+    }
+  }
+
+  @Test
+  public void stringsAreLookedUpLazily() throws IOException {
+    // a cache smaller than the number of strings
+    try (StringTable strings = new StringTable(file, 10)) {
+      LoadClassHandler handler = new LoadClassHandler();
+      HprofParser parser = new HprofParser(handler);
+      parser.setStringTable(strings);
+      parser.parse(file);
+
+      assertFalse(handler.sawString);
+      assertEquals(100, strings.size());
+      assertEquals("string 1 \u00e9", strings.get(handler.classNameIds.get(0)));
+      for (int pass = 0; pass < 2; pass++) {
+        for (int i = 1; i <= 100; i++) {
+          assertEquals("string " + i + " \u00e9", strings.get(i * 8));
+        }
+      }
+      assertNull(strings.get(4));
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class BigIntArrayTest {
+
+  @Test
+  public void testAddAcrossPages() {
+    BigIntArray array = new BigIntArray();
+    int n = 3 * (1 << 20) + 5;
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, array.add((int) (i * 7)));
+    }
+    assertEquals(n, array.size());
+    for (int i = 0; i < n; i += 997) {
+      assertEquals((int) (i * 7), array.get(i));
+    }
+    assertEquals((int) ((n - 1) * 7), array.get(n - 1));
+  }
+
+  @Test
+  public void testPreallocated() {
+    BigIntArray array = new BigIntArray((1 << 20) + 1);
+    assertEquals((1 << 20) + 1, array.size());
+    assertEquals(0, array.get(1 << 20));
+    array.set(1 << 20, (int) 42);
+    assertEquals(42, array.get(1 << 20));
+    array.add((int) 43);
+    assertEquals(43, array.get((1 << 20) + 1));
+  }
+
+  @Test
+  public void testMapped() throws IOException {
+    try (BigIntArray array = BigIntArray.mapped(null, 1000)) {
+      assertTrue(array.isMapped());
+      assertEquals(0, array.get(999));
+      array.set(999, (int) -5);
+      for (int i = 0; i < 100000; i++) {
+        array.add((int) i);
+      }
+      assertEquals(101000, array.size());
+      assertEquals(-5, array.get(999));
+      assertEquals(99999, array.get(100999));
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    BigIntArray array = new BigIntArray();
+    array.add((int) 1);
+    array.get(1);
+  }
+
+}
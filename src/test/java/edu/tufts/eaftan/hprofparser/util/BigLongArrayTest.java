@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class BigLongArrayTest {
+
+  @Test
+  public void testAddAcrossPages() {
+    BigLongArray array = new BigLongArray();
+    int n = 3 * (1 << 20) + 5;
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, array.add((long) (i * 7)));
+    }
+    assertEquals(n, array.size());
+    for (int i = 0; i < n; i += 997) {
+      assertEquals((long) (i * 7), array.get(i));
+    }
+    assertEquals((long) ((n - 1) * 7), array.get(n - 1));
+  }
+
+  @Test
+  public void testPreallocated() {
+    BigLongArray array = new BigLongArray((1 << 20) + 1);
+    assertEquals((1 << 20) + 1, array.size());
+    assertEquals(0, array.get(1 << 20));
+    array.set(1 << 20, (long) 42);
+    assertEquals(42, array.get(1 << 20));
+    array.add((long) 43);
+    assertEquals(43, array.get((1 << 20) + 1));
+  }
+
+  @Test
+  public void testMapped() throws IOException {
+    try (BigLongArray array = BigLongArray.mapped(null, 1000)) {
+      assertTrue(array.isMapped());
+      assertEquals(0, array.get(999));
+      array.set(999, (long) -5);
+      for (int i = 0; i < 100000; i++) {
+        array.add((long) i);
+      }
+      assertEquals(101000, array.size());
+      assertEquals(-5, array.get(999));
+      assertEquals(99999, array.get(100999));
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    BigLongArray array = new BigLongArray();
+    array.add((long) 1);
+    array.get(1);
+  }
+
+}
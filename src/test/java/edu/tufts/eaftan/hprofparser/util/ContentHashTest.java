@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class ContentHashTest {
+
+  @Test
+  public void testIgnoresPosition() {
+    byte[] bytes = new byte[40];
+    new Random(1).nextBytes(bytes);
+    ByteBuffer buffer = ByteBuffer.allocate(50);
+    buffer.position(7);
+    buffer.put(bytes);
+    buffer.position(7);
+    buffer.limit(47);
+    assertEquals(ContentHash.hash(ByteBuffer.wrap(bytes), 0), ContentHash.hash(buffer, 0));
+    assertEquals(7, buffer.position());
+  }
+
+  @Test
+  public void testSeedAndLength() {
+    ByteBuffer empty = ByteBuffer.allocate(0);
+    assertTrue(ContentHash.hash(empty, 1) != ContentHash.hash(empty, 2));
+    // trailing zero bytes change the hash
+    for (int length = 1; length < 20; length++) {
+      assertTrue(ContentHash.hash(ByteBuffer.allocate(length - 1), 0)
+          != ContentHash.hash(ByteBuffer.allocate(length), 0));
+    }
+  }
+
+  @Test
+  public void testNoCollisions() {
+    Random random = new Random(2);
+    Set<Long> hashes = new HashSet<>();
+    for (int i = 0; i < 10000; i++) {
+      byte[] bytes = new byte[8 + random.nextInt(32)];
+      random.nextBytes(bytes);
+      hashes.add(ContentHash.hash(ByteBuffer.wrap(bytes), 0));
+    }
+    assertEquals(10000, hashes.size());
+  }
+
+}
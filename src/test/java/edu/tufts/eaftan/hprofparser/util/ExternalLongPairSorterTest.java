@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ExternalLongPairSorterTest {
+
+  private File tempDir;
+
+  @Before
+  public void setUp() {
+    tempDir = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    for (File f : tempDir.listFiles()) {
+      f.delete();
+    }
+    tempDir.delete();
+  }
+
+  private void checkSorted(int numPairs, int bufferPairs) throws IOException {
+    Random random = new Random(numPairs);
+    long[] keys = new long[numPairs];
+    try (ExternalLongPairSorter sorter = new ExternalLongPairSorter(tempDir, bufferPairs)) {
+      for (int i = 0; i < numPairs; i++) {
+        // few distinct keys, so there are plenty of duplicates
+        keys[i] = random.nextInt(numPairs / 4 + 1) - numPairs / 8;
+        sorter.add(keys[i], ~keys[i]);
+      }
+      assertEquals(numPairs, sorter.count());
+
+      final long[] sortedKeys = new long[numPairs];
+      final int[] n = new int[1];
+      sorter.finish(new ExternalLongPairSorter.PairConsumer() {
+        @Override
+        public void accept(long key, long value) {
+          assertEquals(~key, value);
+          sortedKeys[n[0]++] = key;
+        }
+      });
+      Arrays.sort(keys);
+      assertArrayEquals(keys, sortedKeys);
+    }
+    assertEquals(0, tempDir.listFiles().length);
+  }
+
+  @Test
+  public void sortsInMemory() throws IOException {
+    checkSorted(10000, 1 << 16);
+  }
+
+  @Test
+  public void sortsWithSpills() throws IOException {
+    checkSorted(100000, 1000);
+  }
+
+  @Test
+  public void sortsNothing() throws IOException {
+    checkSorted(0, 16);
+  }
+
+  @Test
+  public void equalKeysComeOutByValue() throws IOException {
+    for (int bufferPairs : new int[] {1 << 16, 1000}) {
+      Random random = new Random(bufferPairs);
+      long[] pairs = new long[20000];
+      try (ExternalLongPairSorter sorter = new ExternalLongPairSorter(tempDir, bufferPairs)) {
+        for (int i = 0; i < pairs.length; i++) {
+          // the key in the high bits and the value in the low bits sort the same way
+          long key = random.nextInt(10);
+          long value = random.nextInt(1 << 20);
+          pairs[i] = key << 32 | value;
+          sorter.add(key, value);
+        }
+        final long[] sorted = new long[pairs.length];
+        final int[] n = new int[1];
+        sorter.finish(new ExternalLongPairSorter.PairConsumer() {
+          @Override
+          public void accept(long key, long value) {
+            sorted[n[0]++] = key << 32 | value;
+          }
+        });
+        Arrays.sort(pairs);
+        assertArrayEquals(pairs, sorted);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongLongMapTest {
+
+  private static void checkBehavesLikeHashMap(LongLongMap map) {
+    Random random = new Random(0);
+    Map<Long, Long> expected = new HashMap<>();
+    for (int i = 0; i < 200000; i++) {
+      long key = random.nextInt(20000) * 8L;
+      Long previous;
+      if (random.nextInt(3) == 0) {
+        previous = expected.remove(key);
+        assertEquals(previous != null ? previous : -1, map.remove(key));
+      } else {
+        long value = random.nextLong();
+        previous = expected.put(key, value);
+        assertEquals(previous != null ? previous : -1, map.put(key, value));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (long key = 0; key < 20000 * 8L; key += 4) {
+      Long value = expected.get(key);
+      assertEquals(value != null ? value : -1, map.get(key));
+      assertEquals(value != null, map.containsKey(key));
+    }
+
+    Map<Long, Long> seen = new HashMap<>();
+    LongLongMap.Cursor cursor = map.cursor();
+    while (cursor.next()) {
+      assertNull(seen.put(cursor.key(), cursor.value()));
+    }
+    assertEquals(expected, seen);
+  }
+
+  @Test
+  public void onHeapBehavesLikeHashMap() {
+    LongLongMap map = LongLongMap.onHeap(-1);
+    assertFalse(map.isOffHeap());
+    checkBehavesLikeHashMap(map);
+  }
+
+  @Test
+  public void offHeapBehavesLikeHashMap() {
+    LongLongMap map = LongLongMap.offHeap(100, -1);
+    assertTrue(map.isOffHeap());
+    checkBehavesLikeHashMap(map);
+  }
+
+}
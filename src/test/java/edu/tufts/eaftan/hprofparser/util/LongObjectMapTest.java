@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectMapTest {
+
+  /**
+   * Applies the same random puts and removes to a LongObjectMap and a HashMap, with keys that
+   * look like aligned addresses and include 0.
+   */
+  @Test
+  public void behavesLikeHashMap() {
+    Random random = new Random(0);
+    LongObjectMap<String> map = new LongObjectMap<>();
+    Map<Long, String> expected = new HashMap<>();
+    for (int i = 0; i < 200000; i++) {
+      long key = random.nextInt(20000) * 8L;
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), map.remove(key));
+      } else {
+        String value = Integer.toString(i);
+        assertEquals(expected.put(key, value), map.put(key, value));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (long key = 0; key < 20000 * 8L; key += 4) {
+      assertEquals(expected.get(key), map.get(key));
+      assertEquals(expected.containsKey(key), map.containsKey(key));
+    }
+
+    Map<Long, String> seen = new HashMap<>();
+    LongObjectMap<String>.Cursor cursor = map.cursor();
+    while (cursor.next()) {
+      assertNull(seen.put(cursor.key(), cursor.value()));
+    }
+    assertEquals(expected, seen);
+
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.cursor().next());
+    assertNull(map.get(0));
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ModifiedUtf8Test {
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+
+  @Test
+  public void encodesLikeTheJvm() {
+    assertArrayEquals(bytes('a', 0xc0, 0x80, 0xc3, 0xa9, 0xe2, 0x82, 0xac,
+        0xed, 0xa0, 0xbd, 0xed, 0xb8, 0x80),
+        ModifiedUtf8.encode("a\u0000\u00e9\u20ac\ud83d\ude00"));
+  }
+
+  @Test
+  public void roundTrips() {
+    for (String s : new String[] {"", "java/lang/String", "\u0000", "na\u00efve \u20ac",
+        "\ud83d\ude00 and \ud800 unpaired"}) {
+      assertEquals(s, ModifiedUtf8.decode(ModifiedUtf8.encode(s)));
+    }
+  }
+
+  @Test
+  public void decodesStandardFourByteSequences() {
+    assertEquals("\ud83d\ude00", ModifiedUtf8.decode(bytes(0xf0, 0x9f, 0x98, 0x80)));
+  }
+
+  @Test
+  public void replacesMalformedInput() {
+    assertEquals("a\ufffdb\ufffd\ufffd", ModifiedUtf8.decode(bytes('a', 0x80, 'b', 0xe2, 0x82)));
+    assertEquals("b", ModifiedUtf8.decode(bytes('a', 'b', 'c'), 1, 1));
+  }
+
+}
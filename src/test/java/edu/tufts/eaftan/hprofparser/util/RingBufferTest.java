@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.tufts.eaftan.hprofparser.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RingBufferTest {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void sizeMustBeAPowerOfTwo() {
+    new RingBuffer<>(new long[3][]);
+  }
+
+  @Test
+  public void slotsAreReusedInOrder() throws InterruptedException {
+    long[][] slots = {new long[1], new long[1]};
+    RingBuffer<long[]> ring = new RingBuffer<>(slots);
+    for (int i = 0; i < 5; i++) {
+      long[] slot = ring.claim();
+      assertSame(slots[i % 2], slot);
+      slot[0] = i;
+      ring.publish();
+      assertEquals(i, ring.take()[0]);
+      ring.release();
+    }
+  }
+
+  @Test
+  public void closeEndsConsumerAfterPublishedSlots() throws InterruptedException {
+    RingBuffer<long[]> ring = new RingBuffer<>(new long[][] {new long[1], new long[1]});
+    ring.claim()[0] = 7;
+    ring.publish();
+    ring.close();
+    assertNull(ring.claim());
+    assertEquals(7, ring.take()[0]);
+    ring.release();
+    assertNull(ring.take());
+  }
+
+  @Test
+  public void passesEverySlotBetweenThreadsInOrder() throws Exception {
+    final int n = 1000000;
+    final RingBuffer<long[]> ring = new RingBuffer<>(new long[][] {
+        new long[1], new long[1], new long[1], new long[1]});
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread consumer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          long expected = 0;
+          long[] slot;
+          while ((slot = ring.take()) != null) {
+            assertEquals(expected++, slot[0]);
+            ring.release();
+          }
+          assertEquals(n, expected);
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    });
+    consumer.start();
+    for (int i = 0; i < n; i++) {
+      ring.claim()[0] = i;
+      ring.publish();
+    }
+    ring.close();
+    consumer.join();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.Files;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tests that generated dumps are reproducible and have the requested shape.
+ */
+public class HprofGeneratorTest {
+
+  private File file;
+  private File otherFile;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("generator", ".hprof");
+    otherFile = File.createTempFile("generator", ".hprof");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    otherFile.delete();
+  }
+
+  private static HprofGenerator newGenerator() {
+    HprofGenerator generator = new HprofGenerator();
+    generator.setNumClasses(20);
+    generator.setNumInstances(3000);
+    generator.setNumObjArrays(200);
+    generator.setNumPrimArrays(300);
+    generator.setArrayLengths(100, HprofGenerator.LengthDistribution.UNIFORM);
+    generator.setSegmentSize(4096);
+    return generator;
+  }
+
+  private static class CountingHandler extends NullRecordHandler {
+    int idSize;
+    int classDumps;
+    int instances;
+    int objArrays;
+    int primArrays;
+    int segments;
+    int heapDumps;
+
+    @Override
+    public void header(String format, int idSize, long time) {
+      this.idSize = idSize;
+    }
+
+    @Override
+    public void heapDump() {
+      heapDumps++;
+    }
+
+    @Override
+    public void heapDumpSegment() {
+      segments++;
+    }
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      classDumps++;
+      assertTrue(instanceFields.length <= 8);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      instances++;
+    }
+
+    @Override
+    public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+        long[] elems) {
+      objArrays++;
+      assertTrue(elems.length <= 100);
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      primArrays++;
+      assertTrue(elems.remaining() <= 100 * elemType.sizeInBytes());
+    }
+  }
+
+  @Test
+  public void generatedDumpHasRequestedShape() throws IOException {
+    for (int idSize : new int[] {4, 8}) {
+      for (boolean segmented : new boolean[] {true, false}) {
+        HprofGenerator generator = newGenerator();
+        generator.setIdSize(idSize);
+        generator.setSegmented(segmented);
+        generator.generate(file);
+
+        CountingHandler handler = new CountingHandler();
+        new HprofParser(handler).parse(file);
+        assertEquals(idSize, handler.idSize);
+        assertEquals(20, handler.classDumps);
+        assertEquals(3000, handler.instances);
+        assertEquals(200, handler.objArrays);
+        assertEquals(300, handler.primArrays);
+        if (segmented) {
+          assertEquals(0, handler.heapDumps);
+          assertTrue(handler.segments > 1);
+        } else {
+          assertEquals(1, handler.heapDumps);
+          assertEquals(0, handler.segments);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void outputDependsOnlyOnSettings() throws IOException {
+    newGenerator().generate(file);
+    newGenerator().generate(otherFile);
+    assertTrue(Arrays.equals(Files.toByteArray(file), Files.toByteArray(otherFile)));
+
+    HprofGenerator generator = newGenerator();
+    generator.setSeed(1);
+    generator.generate(otherFile);
+    assertFalse(Arrays.equals(Files.toByteArray(file), Files.toByteArray(otherFile)));
+  }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014 Edward Aftandilian. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.tufts.eaftan.hprofparser.writer;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.tufts.eaftan.hprofparser.handler.NullRecordHandler;
+import edu.tufts.eaftan.hprofparser.parser.HprofParser;
+import edu.tufts.eaftan.hprofparser.parser.InstanceView;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Constant;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.InstanceField;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Static;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Type;
+import edu.tufts.eaftan.hprofparser.parser.datastructures.Value;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that what the writer writes parses back to the same records.
+ */
+public class HprofWriterTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("writer", ".hprof");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static class RecordingHandler extends NullRecordHandler {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void header(String format, int idSize, long time) {
+      events.add(format + " " + idSize + " " + time);
+    }
+
+    @Override
+    public void stringInUTF8(long id, String data) {
+      events.add("string " + id + " " + data);
+    }
+
+    @Override
+    public void loadClass(int classSerialNum, long classObjId, int stackTraceSerialNum,
+        long classNameStringId) {
+      events.add("loadClass " + classSerialNum + " " + classObjId + " " + classNameStringId);
+    }
+
+    @Override
+    public void stackTrace(int stackTraceSerialNum, int threadSerialNum, int numFrames,
+        long[] stackFrameIds) {
+      events.add("stackTrace " + stackTraceSerialNum + " " + Arrays.toString(stackFrameIds));
+    }
+
+    @Override
+    public void heapDump() {
+      events.add("heapDump");
+    }
+
+    @Override
+    public void heapDumpSegment() {
+      events.add("heapDumpSegment");
+    }
+
+    @Override
+    public void heapDumpEnd() {
+      events.add("heapDumpEnd");
+    }
+
+    @Override
+    public void rootStickyClass(long objId) {
+      events.add("rootStickyClass " + objId);
+    }
+
+    @Override
+    public void classDump(long classObjId, int stackTraceSerialNum, long superClassObjId,
+        long classLoaderObjId, long signersObjId, long protectionDomainObjId, long reserved1,
+        long reserved2, int instanceSize, Constant[] constants, Static[] statics,
+        InstanceField[] instanceFields) {
+      events.add("classDump " + classObjId + " " + superClassObjId + " " + instanceSize + " "
+          + constants[0].constantPoolIndex + "=" + constants[0].value + " "
+          + statics[0].staticFieldNameStringId + "=" + statics[0].value + " "
+          + instanceFields[0].fieldNameStringId + ":" + instanceFields[0].type + " "
+          + instanceFields[1].fieldNameStringId + ":" + instanceFields[1].type);
+    }
+
+    @Override
+    public void instanceDump(InstanceView instance) {
+      events.add("instanceDump " + instance.objId() + " " + instance.getObjectId(0) + " "
+          + instance.getDouble(1));
+    }
+
+    @Override
+    public void objArrayDump(long objId, int stackTraceSerialNum, long elemClassObjId,
+        long[] elems) {
+      events.add("objArrayDump " + objId + " " + elemClassObjId + " " + Arrays.toString(elems));
+    }
+
+    @Override
+    public void primArrayDump(long objId, int stackTraceSerialNum, Type elemType,
+        ByteBuffer elems) {
+      events.add("primArrayDump " + objId + " " + elemType + " " + elems.asCharBuffer());
+    }
+  }
+
+  private void writeDump(int idSize, boolean segmented, long segmentSize) throws IOException {
+    try (HprofWriter writer = new HprofWriter(file, idSize, 1234)) {
+      writer.setSegmentSize(segmentSize);
+      // non-ASCII, a null and a supplementary character, which modified UTF-8 encodes specially
+      writer.writeStringInUTF8(1, NAME);
+      writer.writeLoadClass(1, 100, 0, 1);
+      writer.writeStackTrace(5, 1, new long[] {7, 8});
+      writer.startHeapDump(segmented);
+      writer.writeRootStickyClass(100);
+      writer.writeClassDump(100, 0, 0, 0, 0, 0, 16,
+          new Constant[] {new Constant((short) 3, new Value<>(Type.CHAR, 'x'))},
+          new Static[] {new Static(2, new Value<>(Type.OBJ, 300L))},
+          new InstanceField[] {new InstanceField(3, Type.OBJ), new InstanceField(4, Type.DOUBLE)});
+      ByteBuffer packed = ByteBuffer.allocate(idSize + 8);
+      if (idSize == 4) {
+        packed.putInt(200);
+      } else {
+        packed.putLong(200);
+      }
+      packed.putDouble(2.5);
+      packed.flip();
+      writer.writeInstanceDump(300, 0, 100, packed);
+      writer.writeObjArrayDump(400, 0, 100, new long[] {300, 0, 400, 500}, 3);
+      writer.writePrimArrayDump(500, 0, Type.CHAR, ByteBuffer.wrap("hi".getBytes("UTF-16BE")));
+    }
+  }
+
+  private static final String NAME = "F\u00f6o\u0000\ud83d\ude00";
+
+  private static final List<String> HEAP_RECORDS = Arrays.asList(
+      "rootStickyClass 100",
+      "classDump 100 0 16 3=x 2=300 3:Object 4:double",
+      "instanceDump 300 200 2.5",
+      "objArrayDump 400 100 [300, 0, 400]",
+      "primArrayDump 500 char hi");
+
+  private List<String> parse() throws IOException {
+    RecordingHandler handler = new RecordingHandler();
+    new HprofParser(handler).parse(file);
+    return handler.events;
+  }
+
+  @Test
+  public void singleHeapDumpParsesBack() throws IOException {
+    for (int idSize : new int[] {4, 8}) {
+      writeDump(idSize, false, HprofWriter.DEFAULT_SEGMENT_SIZE);
+      List<String> expected = new ArrayList<>(Arrays.asList(
+          "JAVA PROFILE 1.0.2 " + idSize + " 1234",
+          "string 1 " + NAME,
+          "loadClass 1 100 1",
+          "stackTrace 5 [7, 8]",
+          "heapDump"));
+      expected.addAll(HEAP_RECORDS);
+      expected.add("heapDumpEnd");
+      assertEquals(expected, parse());
+    }
+  }
+
+  @Test
+  public void segmentedHeapDumpIsSplit() throws IOException {
+    // every sub-record gets a segment of its own
+    writeDump(8, true, 1);
+    List<String> expected = new ArrayList<>(Arrays.asList(
+        "JAVA PROFILE 1.0.2 8 1234",
+        "string 1 " + NAME,
+        "loadClass 1 100 1",
+        "stackTrace 5 [7, 8]"));
+    for (String record : HEAP_RECORDS) {
+      expected.add("heapDumpSegment");
+      expected.add(record);
+    }
+    expected.add("heapDumpEnd");
+    assertEquals(expected, parse());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void topLevelRecordsAreNotAllowedInHeapDump() throws IOException {
+    try (HprofWriter writer = new HprofWriter(file, 4, 0)) {
+      writer.startHeapDump(true);
+      writer.writeLoadClass(1, 100, 0, 1);
+    }
+  }
+
+}